@@ -0,0 +1,189 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import hudson.util.VersionNumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>Synthetic plugin lists and envelopes.</p>
+ *
+ * An envelope of {@code size} plugins holds {@code plugin-0} to {@code plugin-<size-1>}, each one depending on up
+ * to four plugins with a lower index (a few of them outside of the envelope). The plugin list of the same size
+ * is shifted by a fifth: 80% of its plugins are in the envelope, installed in an older, the same or a newer
+ * version. The data only depends on the size, so runs can be compared.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class BenchmarkData {
+    public static final String PRODUCT_ID = "cje";
+    public static final String PRODUCT_RELEASE = "2.107.3.4";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long SEED = 42;
+    private static final int MAX_DEPENDENCIES = 4;
+    private static final int NON_ENVELOPE_DEPENDENCIES = 50;
+
+    private BenchmarkData() {
+    }
+
+    private static String id(final int index) {
+        return "plugin-" + index;
+    }
+
+    private static String version(final int index) {
+        return "1." + index % 50 + "." + index % 7;
+    }
+
+    /**
+     * @param size number of envelope plugins
+     * @return envelope plugins, in index order
+     */
+    public static Map<String, EnvelopePlugin> envelopePlugins(final int size) {
+        Random random = new Random(SEED);
+        Map<String, EnvelopePlugin> plugins = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            Map<String, VersionNumber> dependencies = new HashMap<>();
+            int count = i == 0 ? 0 : random.nextInt(Math.min(i, MAX_DEPENDENCIES) + 1);
+            for (int d = 0; d < count; d++) {
+                String dependency = random.nextInt(20) == 0 ? "custom-" + random.nextInt(NON_ENVELOPE_DEPENDENCIES)
+                                                            : id(random.nextInt(i));
+                dependencies.put(dependency, new VersionNumber("1.0"));
+            }
+            plugins.put(id(i), new EnvelopePlugin(id(i),
+                                                  "Plugin " + i,
+                                                  "org.jenkins-ci.plugins",
+                                                  id(i),
+                                                  new VersionNumber(version(i)),
+                                                  dependencies,
+                                                  new HashMap<>(),
+                                                  new HashMap<>(),
+                                                  i % 10 == 0 ? Scope.BOOTSTRAP : Scope.FAT,
+                                                  "xwEeOLr2K9b3Vu5TvSI1jQYpMjE=",
+                                                  i % 3 == 0 ? PluginTier.COMPATIBLE : PluginTier.VERIFIED));
+        }
+        return plugins;
+    }
+
+    /**
+     * @param size number of envelope plugins
+     * @return the envelope JSON holding {@link #envelopePlugins(int)}
+     */
+    public static String envelopeJson(final int size) {
+        StringBuilder json = new StringBuilder(size * 256);
+        json.append("{\n  \"product\": \"").append(PRODUCT_ID).append("\",\n")
+            .append("  \"version\": \"").append(PRODUCT_RELEASE).append("\",\n")
+            .append("  \"distribution\": \"rolling\",\n")
+            .append("  \"commit\": \"76bc75c3d52602e354594cf412492a9868f3085c\",\n")
+            .append("  \"core\": \"2.107.3-cb-1\",\n")
+            .append("  \"plugins\": {\n");
+        boolean first = true;
+        for (EnvelopePlugin plugin : envelopePlugins(size).values()) {
+            if (!first) {
+                json.append(",\n");
+            }
+            first = false;
+            json.append("    \"").append(plugin.getArtifactId()).append("\": {\n")
+                .append("      \"name\": \"").append(plugin.getName()).append("\",\n")
+                .append("      \"groupId\": \"").append(plugin.getGroupId()).append("\",\n")
+                .append("      \"artifactId\": \"").append(plugin.getArtifactId()).append("\",\n")
+                .append("      \"version\": \"").append(plugin.getVersionNumber()).append("\",\n");
+            if (!plugin.getDependencies().isEmpty()) {
+                json.append("      \"dependencies\": {");
+                boolean firstDependency = true;
+                for (Map.Entry<String, VersionNumber> dependency : plugin.getDependencies().entrySet()) {
+                    if (!firstDependency) {
+                        json.append(", ");
+                    }
+                    firstDependency = false;
+                    json.append('"').append(dependency.getKey()).append("\": \"").append(dependency.getValue())
+                        .append('"');
+                }
+                json.append("},\n");
+            }
+            json.append("      \"scope\": \"").append(plugin.getScope().toString().toLowerCase()).append("\",\n")
+                .append("      \"sha1\": \"").append(plugin.getSha1()).append("\",\n")
+                .append("      \"tier\": \"").append(plugin.getTier().toString().toLowerCase()).append("\"\n")
+                .append("    }");
+        }
+        json.append("\n  },\n  \"blacklist\": []\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * @param size number of installed plugins
+     * @return plugin list content, one id:version:pinned entry per line
+     */
+    public static String pluginList(final int size) {
+        Random random = new Random(SEED);
+        StringBuilder list = new StringBuilder(size * 32);
+        for (int i = size / 5; i < size + size / 5; i++) {
+            int drift = random.nextInt(3);
+            String version = drift == 0 ? version(i) : drift == 1 ? "0.9" : "9.0";
+            list.append(id(i)).append(':').append(version).append(':')
+                .append(random.nextBoolean() ? "pinned" : "not-pinned").append('\n');
+        }
+        return list.toString();
+    }
+
+    /**
+     * @return plugin list file of the given size
+     */
+    public static Path writePluginList(final File directory, final int size)
+    throws IOException {
+        return Files.write(new File(directory, "active.txt").toPath(), pluginList(size).getBytes(UTF8));
+    }
+
+    /**
+     * Writes the envelope of the given size into a file repository, laid out as the remote one.
+     *
+     * @return the file repository URL
+     */
+    public static String writeRepository(final File directory, final int size)
+    throws IOException {
+        String repoUrl = directory.toURI().toString();
+        File envelopeFile = new File(new PluginAnalyzer(PRODUCT_ID, PRODUCT_RELEASE).getEnvelopeUrlFromRepo(repoUrl)
+                                         .getPath());
+        if (!envelopeFile.getParentFile().exists() && !envelopeFile.getParentFile().mkdirs()) {
+            throw new IOException("Cannot create " + envelopeFile.getParentFile());
+        }
+        Files.write(envelopeFile.toPath(), envelopeJson(size).getBytes(UTF8));
+        return repoUrl;
+    }
+
+    public static void delete(final File directory)
+    throws IOException {
+        if (!directory.exists()) {
+            return;
+        }
+        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+            throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e)
+            throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the dependency graph build and the per plugin dependency queries.</p>
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DependencyGraphBenchmark {
+
+    @Param({"2000"})
+    public int size;
+
+    private Map<String, EnvelopePlugin> envelopePlugins;
+    private Map<String, String> plugins;
+    private DependencyGraph graph;
+    private BitSet installed;
+
+    @Setup
+    public void setUp() {
+        envelopePlugins = BenchmarkData.envelopePlugins(size);
+        plugins = PluginAnalyzer.getPlugins(Arrays.stream(BenchmarkData.pluginList(size).split("\n")));
+        graph = DependencyGraph.of(envelopePlugins);
+        installed = graph.toNodes(plugins.keySet());
+    }
+
+    @Benchmark
+    public DependencyGraph build() {
+        return DependencyGraph.of(envelopePlugins);
+    }
+
+    @Benchmark
+    public void queryAllPlugins(final Blackhole blackhole) {
+        for (Map.Entry<String, String> plugin : plugins.entrySet()) {
+            blackhole.consume(PluginAnalyzer.analyzePlugin(plugin.getKey(), plugin.getValue(), envelopePlugins,
+                                                           graph, installed));
+        }
+    }
+}
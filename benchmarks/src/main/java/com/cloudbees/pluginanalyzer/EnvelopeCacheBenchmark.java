@@ -0,0 +1,81 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares a cold envelope load (JSON parse) with a warm one (binary cache entry decode).</p>
+ *
+ * The filtered load streams the same JSON, only materializing the plugins of a controller sized list.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeCacheBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int size;
+
+    private static final int LIST_SIZE = 200;
+
+    private byte[] json;
+    private byte[] binary;
+    private Set<String> ids;
+
+    @Setup
+    public void setUp()
+    throws IOException {
+        json = BenchmarkData.envelopeJson(size).getBytes(Charset.forName("UTF-8"));
+        Map<String, EnvelopePlugin> envelopePlugins = BenchmarkData.envelopePlugins(size);
+        binary = EnvelopeCache.encode(envelopePlugins);
+        ids = new HashSet<>();
+        for (String id : new TreeSet<>(envelopePlugins.keySet())) {
+            if (ids.size() == LIST_SIZE) {
+                break;
+            }
+            ids.add(id);
+        }
+    }
+
+    @Benchmark
+    public Map<String, EnvelopePlugin> coldJsonLoad() {
+        return PluginAnalyzer.parseEnvelope(new ByteArrayInputStream(json));
+    }
+
+    @Benchmark
+    public Map<String, EnvelopePlugin> filteredJsonLoad()
+    throws IOException {
+        return EnvelopeReader.read(() -> new ByteArrayInputStream(json), ids);
+    }
+
+    @Benchmark
+    public Map<String, EnvelopePlugin> warmBinaryLoad()
+    throws IOException {
+        return EnvelopeCache.decode(binary);
+    }
+}
@@ -0,0 +1,127 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmarks each stage of an analysis, then the whole run.</p>
+ *
+ * {@code getEnvelopePlugins} reads a file repository, so after the first invocation it measures the binary
+ * envelope cache path; {@code parseEnvelope} measures the JSON parse alone.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PluginAnalyzerBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int size;
+
+    private File directory;
+    private Path pluginList;
+    private String repoUrl;
+    private byte[] envelopeJson;
+    private PluginAnalyzer analyzer;
+    private Map<String, String> plugins;
+    private Map<String, EnvelopePlugin> envelopePlugins;
+    private DependencyGraph graph;
+    private File csvFile;
+
+    @Setup
+    public void setUp()
+    throws Exception {
+        directory = Files.createTempDirectory("plugin-analyzer-benchmark").toFile();
+        pluginList = BenchmarkData.writePluginList(directory, size);
+        repoUrl = BenchmarkData.writeRepository(new File(directory, "repository"), size);
+        envelopeJson = BenchmarkData.envelopeJson(size).getBytes(Charset.forName("UTF-8"));
+        analyzer = new PluginAnalyzer(BenchmarkData.PRODUCT_ID, BenchmarkData.PRODUCT_RELEASE)
+            .withOutputDirectory(directory)
+            .withCacheDirectory(new File(directory, "cache"));
+        plugins = PluginAnalyzer.getFilePlugins(pluginList);
+        envelopePlugins = BenchmarkData.envelopePlugins(size);
+        graph = DependencyGraph.of(envelopePlugins);
+        csvFile = analyzer.getCsvFile();
+    }
+
+    @TearDown
+    public void tearDown()
+    throws IOException {
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public Map<String, String> getFilePlugins()
+    throws IOException {
+        return PluginAnalyzer.getFilePlugins(pluginList);
+    }
+
+    @Benchmark
+    public Map<String, EnvelopePlugin> parseEnvelope() {
+        return PluginAnalyzer.parseEnvelope(new ByteArrayInputStream(envelopeJson));
+    }
+
+    @Benchmark
+    public Map<String, EnvelopePlugin> getEnvelopePlugins()
+    throws Exception {
+        return analyzer.getEnvelopePlugins(repoUrl);
+    }
+
+    @Benchmark
+    public DependencyGraph buildDependencyGraph() {
+        return DependencyGraph.of(envelopePlugins);
+    }
+
+    @Benchmark
+    public List<List> analyzePlugins() {
+        return analyzer.analyzePlugins(plugins, envelopePlugins);
+    }
+
+    @Benchmark
+    public void analyzePluginsToSink(final Blackhole blackhole)
+    throws IOException {
+        PluginAnalyzer.analyzePlugins(plugins, envelopePlugins, graph, blackhole::consume);
+    }
+
+    @Benchmark
+    public File generateCsvFile()
+    throws IOException {
+        analyzer.generateCsvFile(plugins, envelopePlugins, graph, csvFile);
+        return csvFile;
+    }
+
+    @Benchmark
+    public File endToEnd()
+    throws Exception {
+        analyzer.generateCsvFile(PluginAnalyzer.getFilePlugins(pluginList), analyzer.getEnvelopePlugins(repoUrl),
+                                 csvFile);
+        return csvFile;
+    }
+}
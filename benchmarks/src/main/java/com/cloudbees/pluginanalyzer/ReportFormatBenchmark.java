@@ -0,0 +1,134 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import net.sf.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>Compares the size and the write and read throughput of the report formats.</p>
+ *
+ * Reading a CSV report splits its lines on the separator, reading a JSON lines report parses each object, and
+ * reading a binary report goes through {@link BinaryReportReader}, which is what a downstream consumer would
+ * otherwise do. The report size of each format, in bytes, is the {@code reportBytes} secondary result of each
+ * iteration, so that it is kept with the timings in the JMH results.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportFormatBenchmark {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"CSV", "JSON_LINES", "BINARY"})
+    public ReportFormat format;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private File directory;
+    private List<ReportRow> rows;
+    private File writtenFile;
+    private File readFile;
+
+    @Setup
+    public void setUp()
+    throws Exception {
+        directory = Files.createTempDirectory("plugin-analyzer-benchmark").toFile();
+        Map<String, String> plugins = PluginAnalyzer.getFilePlugins(BenchmarkData.writePluginList(directory, size));
+        Map<String, EnvelopePlugin> envelopePlugins = BenchmarkData.envelopePlugins(size);
+        rows = new ArrayList<>(plugins.size());
+        PluginAnalyzer.analyzePlugins(plugins, envelopePlugins, DependencyGraph.of(envelopePlugins), rows::add);
+        writtenFile = new File(directory, format.getFileName("written", gzip));
+        readFile = new File(directory, format.getFileName("read", gzip));
+        write(readFile);
+    }
+
+    @TearDown
+    public void tearDown()
+    throws IOException {
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public File writeReport(final ReportSize reportSize)
+    throws IOException {
+        write(writtenFile);
+        reportSize.reportBytes = writtenFile.length();
+        return writtenFile;
+    }
+
+    @Benchmark
+    public void readReport(final Blackhole blackhole, final ReportSize reportSize)
+    throws IOException {
+        reportSize.reportBytes = readFile.length();
+        if (format == ReportFormat.BINARY) {
+            try (BinaryReportReader reader = BinaryReportReader.open(readFile)) {
+                for (List<String> row = reader.read(); row != null; row = reader.read()) {
+                    blackhole.consume(row);
+                }
+            }
+            return;
+        }
+        InputStream in = new FileInputStream(readFile);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(gzip ? new GZIPInputStream(in) : in,
+                                                                              UTF8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                blackhole.consume(format == ReportFormat.CSV ? line.split(",", -1) : JSONObject.fromObject(line));
+            }
+        }
+    }
+
+    private void write(final File reportFile)
+    throws IOException {
+        try (ReportSink sink = format.open(reportFile, gzip)) {
+            for (ReportRow row : rows) {
+                sink.write(row);
+            }
+            sink.commit();
+        }
+    }
+
+    /**
+     * Size of the benchmarked report, in bytes.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ReportSize {
+        public long reportBytes;
+    }
+}
@@ -0,0 +1,446 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import hudson.util.VersionNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Content-addressed cache of analyzed plugin lists.</p>
+ *
+ * The rows of a plugin list only depend on its plugins and versions and on the envelope, so they are keyed by the
+ * SHA-256 of the sorted {@code id:version} list and of a canonical form of the envelope plugins. Rows are kept in
+ * memory for the run and on disk across runs; a disk entry only holds the per row analysis results (ids, versions,
+ * dependency counts), the envelope plugins being looked up again in the envelope of the same content.
+ *
+ * Concurrent lookups of the same key wait for a single analysis, so that identical lists of a batch are analyzed
+ * exactly once. Past {@link #DEFAULT_MAX_MEMORY_ENTRIES} entries, new rows are only kept on disk.
+ *
+ * The total size of the disk entries is bounded, least recently used entries being evicted first, as for the
+ * {@link EnvelopeCache}. The cache only saves work: an entry which cannot be read or written is logged, and the
+ * rows are still returned.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class AnalysisCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnalysisCache.class);
+
+    public static final String DIRECTORY_NAME = "analysis-cache";
+    public static final int DEFAULT_MAX_MEMORY_ENTRIES = 1024;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int MAGIC = 0x50414152;
+    // part of the keys: bump it when the analysis changes, so that older entries are no longer looked up
+    private static final int FORMAT_VERSION = 1;
+    private static final String ENTRY_EXTENSION = ".bin";
+    private static final String TEMP_EXTENSION = ".part";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char SEPARATOR = '\n';
+    private static final double EVICTION_RATIO = 0.75;
+
+    private final File directory;
+    private final int maxMemoryEntries;
+    private final long maxBytes;
+    // approximate, other processes may share the directory: recounted on each eviction
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final ConcurrentMap<String, CompletableFuture<List<Row>>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private RunMetrics metrics = new RunMetrics();
+
+    /**
+     * Analyzes a plugin list.
+     */
+    public interface Analysis {
+        List<ReportRow> analyze() throws IOException;
+    }
+
+    public AnalysisCache(final File directory, final int maxMemoryEntries)
+    throws IOException {
+        this(directory, maxMemoryEntries, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param directory directory of the disk entries
+     * @param maxMemoryEntries maximum number of entries kept in memory
+     * @param maxBytes maximum total size of the disk entries
+     * @throws IOException
+     */
+    public AnalysisCache(final File directory, final int maxMemoryEntries, final long maxBytes)
+    throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the cache directory: " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.maxBytes = maxBytes;
+        long total = 0;
+        for (File entryFile : listEntryFiles()) {
+            total += entryFile.length();
+        }
+        diskBytes.set(total);
+    }
+
+    /**
+     * @param metrics run metrics receiving the cache hits and misses
+     * @return this cache
+     */
+    public AnalysisCache withMetrics(final RunMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param envelopePlugins envelope plugins
+     * @return the SHA-256 of their content, whatever the order of the maps
+     */
+    public static String hash(final Map<String, EnvelopePlugin> envelopePlugins) {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, EnvelopePlugin> entry : new TreeMap<>(envelopePlugins).entrySet()) {
+            EnvelopePlugin plugin = entry.getValue();
+            content.append(entry.getKey());
+            for (Object value : Arrays.asList(plugin.getName(), plugin.getGroupId(), plugin.getArtifactId(),
+                                              plugin.getVersionNumber(), plugin.getScope(), plugin.getSha1(),
+                                              plugin.getTier(), canonical(plugin.getDependencies()),
+                                              canonical(plugin.getOptionalDependencies()),
+                                              canonical(plugin.getOtherDependencies()))) {
+                content.append(SEPARATOR).append(value);
+            }
+            content.append(SEPARATOR);
+        }
+        return sha256(content.toString());
+    }
+
+    private static Map<String, VersionNumber> canonical(final Map<String, VersionNumber> dependencies) {
+        return dependencies == null ? null : new TreeMap<>(dependencies);
+    }
+
+    /**
+     * @param plugins plugin ids and installed versions
+     * @param envelopeHash {@link #hash(Map)} of the envelope plugins
+     * @return the key of the analysis of the plugins against the envelope
+     */
+    public static String key(final Map<String, String> plugins, final String envelopeHash) {
+        StringBuilder content = new StringBuilder().append(FORMAT_VERSION).append(SEPARATOR)
+                                                   .append(envelopeHash).append(SEPARATOR);
+        for (Map.Entry<String, String> plugin : new TreeMap<>(plugins).entrySet()) {
+            content.append(plugin.getKey()).append(':').append(plugin.getValue()).append(SEPARATOR);
+        }
+        return sha256(content.toString());
+    }
+
+    private static String sha256(final String content) {
+        try {
+            return EnvelopeCache.hash(new ByteArrayInputStream(content.getBytes(UTF8)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the rows of a plugin list, analyzing it only when no list of the same key was analyzed before.
+     *
+     * @param key {@link #key(Map, String)} of the plugin list
+     * @param envelopePlugins envelope plugins the key was computed with
+     * @param analysis analysis of the plugin list
+     * @return the rows, in the order of the analysis
+     * @throws IOException
+     */
+    public List<ReportRow> getRows(final String key, final Map<String, EnvelopePlugin> envelopePlugins,
+                                   final Analysis analysis)
+    throws IOException {
+        lookups.incrementAndGet();
+        CompletableFuture<List<Row>> created = new CompletableFuture<>();
+        CompletableFuture<List<Row>> existing = entries.putIfAbsent(key, created);
+        if (existing != null) {
+            memoryHits.incrementAndGet();
+            metrics.count(RunMetrics.ANALYSIS_CACHE_HITS, 1);
+            return toReportRows(await(existing), envelopePlugins);
+        }
+        try {
+            List<Row> rows = read(key);
+            if (rows != null) {
+                diskHits.incrementAndGet();
+                metrics.count(RunMetrics.ANALYSIS_CACHE_HITS, 1);
+            } else {
+                metrics.count(RunMetrics.ANALYSIS_CACHE_MISSES, 1);
+                rows = toRows(analysis.analyze());
+                try {
+                    write(key, rows);
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot write the analysis cache entry {}: {}", key, e.getMessage());
+                }
+            }
+            created.complete(rows);
+            if (entries.size() > maxMemoryEntries) {
+                // waiting lookups already hold the future, later ones read the disk entry
+                entries.remove(key, created);
+            }
+            return toReportRows(rows, envelopePlugins);
+        } catch (IOException | RuntimeException e) {
+            entries.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static List<Row> await(final CompletableFuture<List<Row>> future)
+    throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an analysis", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Analysis of an identical plugin list failed", e.getCause());
+        }
+    }
+
+    /**
+     * @return number of rows lookups
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return number of lookups served from memory or from disk
+     */
+    public long getHits() {
+        return memoryHits.get() + diskHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return number of lookups which needed an analysis
+     */
+    public long getMisses() {
+        return getLookups() - getHits();
+    }
+
+    /**
+     * @return share of the lookups which did not need an analysis
+     */
+    public double getDedupRatio() {
+        long total = getLookups();
+        return total == 0 ? 0 : getHits() / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d plugin lists, %d analyzed, %d reused from disk: dedup ratio %.1f%%",
+                             getLookups(), getMisses(), getDiskHits(), getDedupRatio() * 100);
+    }
+
+    private File getEntryFile(final String key) {
+        return new File(directory, key + ENTRY_EXTENSION);
+    }
+
+    private List<Row> read(final String key)
+    throws IOException {
+        File entryFile = getEntryFile(key);
+        byte[] content;
+        try {
+            content = Files.readAllBytes(entryFile.toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Cannot read the analysis cache entry {}: {}", entryFile, e.getMessage());
+            return null;
+        }
+        if (!entryFile.setLastModified(System.currentTimeMillis())) {
+            LOGGER.debug("Cannot update the access time of {}", entryFile);
+        }
+        try {
+            return decode(content);
+        } catch (IOException e) {
+            LOGGER.warn("Dropping corrupted analysis cache entry {}: {}", entryFile, e.getMessage());
+            Files.deleteIfExists(entryFile.toPath());
+            return null;
+        }
+    }
+
+    private void write(final String key, final List<Row> rows)
+    throws IOException {
+        Path tempFile = Files.createTempFile(directory.toPath(), key, TEMP_EXTENSION);
+        byte[] content = encode(rows);
+        try {
+            Files.write(tempFile, content);
+            Files.move(tempFile, getEntryFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        if (diskBytes.addAndGet(content.length) > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries, down to three quarters of the maximum size so that the next writes
+     * do not evict again right away.
+     */
+    private synchronized void evict()
+    throws IOException {
+        File[] entryFiles = listEntryFiles();
+        long[] lastUsed = new long[entryFiles.length];
+        Integer[] order = new Integer[entryFiles.length];
+        long total = 0;
+        for (int i = 0; i < entryFiles.length; i++) {
+            lastUsed[i] = entryFiles[i].lastModified();
+            order[i] = i;
+            total += entryFiles[i].length();
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastUsed[a], lastUsed[b]));
+        long target = (long) (maxBytes * EVICTION_RATIO);
+        for (int i = 0; i < order.length && total > target; i++) {
+            File entryFile = entryFiles[order[i]];
+            long size = entryFile.length();
+            LOGGER.debug("Evicting analysis cache entry {}", entryFile);
+            if (Files.deleteIfExists(entryFile.toPath())) {
+                total -= size;
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    private File[] listEntryFiles() {
+        File[] entryFiles = directory.listFiles((dir, name) -> name.endsWith(ENTRY_EXTENSION));
+        return entryFiles == null ? new File[0] : entryFiles;
+    }
+
+    static byte[] encode(final List<Row> rows)
+    throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(rows.size());
+        for (Row row : rows) {
+            writeString(out, row.id);
+            writeString(out, row.version);
+            out.writeInt(row.dependencies);
+            out.writeInt(row.nonEnvelopeDependencies);
+            writeString(out, row.missingDependencies);
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    static List<Row> decode(final byte[] content)
+    throws IOException {
+        if (content.length < Long.BYTES) {
+            throw new IOException("Truncated entry");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - Long.BYTES);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unknown entry format");
+        }
+        int size = in.readInt();
+        List<Row> rows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            rows.add(new Row(readString(in), readString(in), in.readInt(), in.readInt(), readString(in)));
+        }
+        if (in.readLong() != crc.getValue()) {
+            throw new IOException("Checksum mismatch");
+        }
+        return rows;
+    }
+
+    private static void writeString(final DataOutputStream out, final String value)
+    throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in)
+    throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Truncated entry");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static List<Row> toRows(final List<ReportRow> reportRows) {
+        List<Row> rows = new ArrayList<>(reportRows.size());
+        for (ReportRow row : reportRows) {
+            rows.add(new Row(row.getId(), row.getVersion(), row.getDependencies(), row.getNonEnvelopeDependencies(),
+                             row.getMissingDependencies()));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    private static List<ReportRow> toReportRows(final List<Row> rows,
+                                                final Map<String, EnvelopePlugin> envelopePlugins) {
+        List<ReportRow> reportRows = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            reportRows.add(new ReportRow(row.id, row.version, envelopePlugins.get(row.id), row.dependencies,
+                                         row.nonEnvelopeDependencies, row.missingDependencies));
+        }
+        return reportRows;
+    }
+
+    /**
+     * Analysis results of a plugin, without its envelope data.
+     */
+    static final class Row {
+        private final String id;
+        private final String version;
+        private final int dependencies;
+        private final int nonEnvelopeDependencies;
+        private final String missingDependencies;
+
+        Row(String id, String version, int dependencies, int nonEnvelopeDependencies, String missingDependencies) {
+            this.id = id;
+            this.version = version;
+            this.dependencies = dependencies;
+            this.nonEnvelopeDependencies = nonEnvelopeDependencies;
+            this.missingDependencies = missingDependencies;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Long-running analysis service keeping parsed envelopes warm.</p>
+ *
+ * <ul>
+ *     <li>{@code POST /analyze?product=cje&release=2.107.3.4&format=csv|json} with a plugin list as body, in the
+ *     {@code id:version:pinned} format, answers the analyzed plugins. The release may also be {@code latest} or a
+ *     prefix such as {@code 2.107.*}, resolved against the repository before looking the envelope up, so that
+ *     the registry only holds concrete releases</li>
+ *     <li>{@code GET /metrics} answers request latency percentiles and envelope cache statistics in the
+ *     Prometheus text format</li>
+ * </ul>
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class AnalysisServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnalysisServer.class);
+
+    public static final String COMMAND = "serve";
+    public static final String USAGE = "port userName password [repositoryUrl]";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String FORMAT_CSV = "csv";
+    private static final String FORMAT_JSON = "json";
+    private static final String[] JSON_KEYS = {"id", "name", "version", "envelope", "envelopeVersion", "type",
+                                               "scope", "drift", "distance", "dependencies",
+                                               "nonEnvelopeDependencies", "missingDependencies"};
+    private static final int LATENCY_SAMPLES = 4096;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final EnvelopeRegistry registry;
+    private final ReleaseResolver releaseResolver;
+    private final String repositoryUrl;
+    private final LatencyRecorder latencies = new LatencyRecorder(LATENCY_SAMPLES);
+
+    /**
+     * @param releaseResolver resolves the release selectors of the requests
+     * @param repositoryUrl repository of the envelopes
+     */
+    public AnalysisServer(final InetSocketAddress address, final EnvelopeRegistry registry,
+                          final ReleaseResolver releaseResolver, final String repositoryUrl, final int threads)
+    throws IOException {
+        this.registry = registry;
+        this.releaseResolver = releaseResolver;
+        this.repositoryUrl = repositoryUrl;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/analyze", this::analyze);
+        server.createContext("/metrics", this::metrics);
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 3 || args.length == 4) {
+            try {
+                final String repositoryUrl = args.length == 4 ? args[3] : PluginAnalyzer.REPO_URL;
+                final String userName = args[1];
+                final String password = args[2];
+                EnvelopeRegistry registry = new EnvelopeRegistry(
+                    (product, productRelease) -> new PluginAnalyzer(product.name(), productRelease)
+                        .getEnvelopePlugins(repositoryUrl, repositoryUrl.startsWith("file:"), userName, password),
+                    EnvelopeRegistry.DEFAULT_MAX_ENTRIES, EnvelopeRegistry.DEFAULT_MAX_BYTES);
+                ReleaseResolver releaseResolver = new ReleaseResolver(
+                    new File(PluginAnalyzer.getDefaultCacheDirectory(), ReleaseResolver.DIRECTORY_NAME),
+                    ReleaseResolver.getConfiguredTtl(), new EnvelopeFetcher(userName, password));
+                AnalysisServer server = new AnalysisServer(new InetSocketAddress(Integer.parseInt(args[0])),
+                                                           registry, releaseResolver, repositoryUrl,
+                                                           Runtime.getRuntime().availableProcessors());
+                server.start();
+                LOGGER.info("Listening on port {}", server.getPort());
+            } catch (Exception e) {
+                LOGGER.error("Process failed!", e);
+                System.exit(1);
+            }
+        } else {
+            LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+            System.exit(1);
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void analyze(final HttpExchange exchange)
+    throws IOException {
+        final long start = System.nanoTime();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "text/plain", "POST expected\n");
+                return;
+            }
+            Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+            String productId = parameters.get("product");
+            String productRelease = parameters.get("release");
+            String format = parameters.containsKey("format") ? parameters.get("format") : FORMAT_CSV;
+            if (productId == null || productRelease == null
+                || !(FORMAT_CSV.equals(format) || FORMAT_JSON.equals(format))) {
+                send(exchange, 400, "text/plain", "Parameters must be: product release [format=csv|json]\n");
+                return;
+            }
+            EnvelopeProduct product;
+            try {
+                product = EnvelopeProduct.valueOf(productId.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "text/plain", "Unknown product: " + productId + "\n");
+                return;
+            }
+
+            Map<String, String> plugins;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), UTF8))) {
+                plugins = PluginAnalyzer.getPlugins(reader.lines().filter(line -> !line.trim().isEmpty()));
+            } catch (RuntimeException e) {
+                send(exchange, 400, "text/plain", "Plugin list entries must be: id:version:pinned\n");
+                return;
+            }
+            try {
+                // selectors are resolved first, a registry entry keyed by a selector would never be refreshed
+                productRelease = releaseResolver.resolve(repositoryUrl, product, productRelease);
+            } catch (ReleaseResolver.NoMatchingReleaseException e) {
+                send(exchange, 404, "text/plain", e.getMessage() + "\n");
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Cannot resolve the {} release {}", product, productRelease, e);
+                send(exchange, 502, "text/plain", "Cannot resolve the release: " + e.getMessage() + "\n");
+                return;
+            }
+            Map<String, EnvelopePlugin> envelopePlugins;
+            try {
+                envelopePlugins = registry.get(product, productRelease);
+            } catch (Exception e) {
+                LOGGER.error("Cannot load the {} {} envelope", product, productRelease, e);
+                send(exchange, 502, "text/plain", "Cannot load the envelope: " + e.getMessage() + "\n");
+                return;
+            }
+            DependencyGraph graph = registry.getGraph(product, productRelease, envelopePlugins);
+            if (FORMAT_JSON.equals(format)) {
+                List<ReportRow> rows = new ArrayList<>(plugins.size());
+                PluginAnalyzer.analyzePlugins(plugins, envelopePlugins, graph, rows::add);
+                send(exchange, 200, "application/json", toJson(rows));
+            } else {
+                exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+                exchange.sendResponseHeaders(200, 0);
+                try (CsvReportSink sink = new CsvReportSink(new OutputStreamWriter(exchange.getResponseBody(),
+                                                                                   UTF8))) {
+                    PluginAnalyzer.analyzePlugins(plugins, envelopePlugins, graph, sink);
+                    sink.commit();
+                }
+            }
+        } finally {
+            latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    private void metrics(final HttpExchange exchange)
+    throws IOException {
+        StringBuilder content = new StringBuilder();
+        long[] sorted = latencies.snapshot();
+        content.append("# TYPE plugin_analyzer_request_latency_seconds summary\n");
+        for (double quantile : new double[] {0.5, 0.9, 0.99}) {
+            content.append(String.format(Locale.ENGLISH,
+                                         "plugin_analyzer_request_latency_seconds{quantile=\"%s\"} %.6f%n",
+                                         quantile, LatencyRecorder.percentile(sorted, quantile) / 1e9));
+        }
+        content.append(String.format(Locale.ENGLISH, "plugin_analyzer_request_latency_seconds_count %d%n",
+                                     latencies.getCount()));
+        content.append("# TYPE plugin_analyzer_envelope_cache_hits_total counter\n");
+        content.append("plugin_analyzer_envelope_cache_hits_total ").append(registry.getHits()).append('\n');
+        content.append("# TYPE plugin_analyzer_envelope_cache_misses_total counter\n");
+        content.append("plugin_analyzer_envelope_cache_misses_total ").append(registry.getMisses()).append('\n');
+        content.append("# TYPE plugin_analyzer_envelope_cache_hit_ratio gauge\n");
+        content.append(String.format(Locale.ENGLISH, "plugin_analyzer_envelope_cache_hit_ratio %.4f%n",
+                                     registry.getHitRatio()));
+        content.append("# TYPE plugin_analyzer_envelope_cache_entries gauge\n");
+        content.append("plugin_analyzer_envelope_cache_entries ").append(registry.getSize()).append('\n');
+        content.append("# TYPE plugin_analyzer_envelope_cache_bytes gauge\n");
+        content.append("plugin_analyzer_envelope_cache_bytes ").append(registry.getWeight()).append('\n');
+        send(exchange, 200, "text/plain; version=0.0.4", content.toString());
+    }
+
+    static String toJson(final List<ReportRow> rows) {
+        JSONArray array = new JSONArray();
+        for (ReportRow row : rows) {
+            List<String> values = row.toList();
+            JSONObject object = new JSONObject();
+            for (int i = 0; i < JSON_KEYS.length; i++) {
+                object.element(JSON_KEYS[i], values.get(i));
+            }
+            array.add(object);
+        }
+        return array.toString();
+    }
+
+    private static Map<String, String> getParameters(final String query)
+    throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                                   URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String contentType,
+                             final String content)
+    throws IOException {
+        byte[] body = content.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    /**
+     * Keeps the latest latency samples in a ring buffer for percentile computation.
+     */
+    static final class LatencyRecorder {
+        private final long[] samples;
+        private long count;
+
+        LatencyRecorder(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[(int) (count++ % samples.length)] = nanos;
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        synchronized long[] snapshot() {
+            long[] snapshot = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+            Arrays.sort(snapshot);
+            return snapshot;
+        }
+
+        static long percentile(final long[] sorted, final double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+}
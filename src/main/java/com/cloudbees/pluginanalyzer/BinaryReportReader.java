@@ -0,0 +1,210 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>Reads back a report written by {@link BinaryReportSink}, gzip compressed or not.</p>
+ *
+ * Rows come back as the values of the matching CSV report line, in {@link ReportRow#HEADER} order. A report missing
+ * its end record, or whose row count does not match, fails instead of passing for a shorter one.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class BinaryReportReader implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int GZIP_MAGIC = 0x8B1F;
+    private static final String YES = "YES";
+    private static final String NO = "NO";
+    private static final String EMPTY = "";
+
+    private final InputStream in;
+    private final List<String> strings = new ArrayList<>();
+    private byte[] record = new byte[256];
+    private int position;
+    private int limit;
+    private long rows;
+    private boolean ended;
+
+    /**
+     * @param in report stream, closed with the reader
+     * @throws IOException if the stream does not hold a binary report
+     */
+    public BinaryReportReader(final InputStream in)
+    throws IOException {
+        InputStream buffered = new BufferedInputStream(in, ReportFile.BUFFER_SIZE);
+        buffered.mark(2);
+        int magic = buffered.read() | buffered.read() << 8;
+        buffered.reset();
+        this.in = magic == GZIP_MAGIC ? new BufferedInputStream(new GZIPInputStream(buffered, ReportFile.BUFFER_SIZE),
+                                                                ReportFile.BUFFER_SIZE)
+                                      : buffered;
+        int header = readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        int version = readByte();
+        if (header != BinaryReportSink.MAGIC || version != BinaryReportSink.FORMAT_VERSION) {
+            throw new IOException("Not a binary report, or an unsupported version: " + Integer.toHexString(header)
+                                  + " version " + version);
+        }
+    }
+
+    public static BinaryReportReader open(final File reportFile)
+    throws IOException {
+        return new BinaryReportReader(new FileInputStream(reportFile));
+    }
+
+    /**
+     * @return the next row, null after the last one
+     * @throws IOException
+     */
+    public List<String> read()
+    throws IOException {
+        if (ended) {
+            return null;
+        }
+        int length = (int) readStreamVarint();
+        if (length == 0) {
+            long expected = readStreamVarint();
+            if (expected != rows) {
+                throw new IOException("Report holds " + rows + " rows instead of " + expected);
+            }
+            ended = true;
+            return null;
+        }
+        if (record.length < length) {
+            record = new byte[Math.max(length, record.length * 2)];
+        }
+        readFully(record, length);
+        position = 0;
+        limit = length;
+        boolean inEnvelope = (record[position++] & BinaryReportSink.IN_ENVELOPE) != 0;
+        String id = getString();
+        String version = getString();
+        String name = EMPTY;
+        String envelopeVersion = EMPTY;
+        String type = EMPTY;
+        String scope = EMPTY;
+        String drift = EMPTY;
+        String distance = EMPTY;
+        if (inEnvelope) {
+            name = getString();
+            envelopeVersion = getString();
+            type = getString();
+            scope = getString();
+            drift = getString();
+            distance = getString();
+        }
+        String dependencies = Long.toString(getVarint());
+        String nonEnvelopeDependencies = Long.toString(getVarint());
+        int missingCount = (int) getVarint();
+        String missing = EMPTY;
+        if (missingCount > 0) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < missingCount; i++) {
+                if (i > 0) {
+                    builder.append(' ');
+                }
+                builder.append(getString());
+            }
+            missing = builder.toString();
+        }
+        if (position != limit) {
+            throw new IOException("Corrupted record at row " + rows);
+        }
+        rows++;
+        return Arrays.asList(id, name, version, inEnvelope ? YES : NO, envelopeVersion, type, scope, drift, distance,
+                             dependencies, nonEnvelopeDependencies, missing);
+    }
+
+    /**
+     * @return number of rows read so far
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    private String getString()
+    throws IOException {
+        int reference = (int) getVarint();
+        if (reference > 0) {
+            if (reference > strings.size()) {
+                throw new IOException("Unknown string " + (reference - 1) + " at row " + rows);
+            }
+            return strings.get(reference - 1);
+        }
+        int length = (int) getVarint();
+        if (position + length > limit) {
+            throw new IOException("Corrupted record at row " + rows);
+        }
+        String value = new String(record, position, length, UTF8);
+        position += length;
+        strings.add(value);
+        return value;
+    }
+
+    private long getVarint()
+    throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= limit) {
+                throw new IOException("Corrupted record at row " + rows);
+            }
+            byte b = record[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted record at row " + rows);
+    }
+
+    private long readStreamVarint()
+    throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted record length at row " + rows);
+    }
+
+    private int readByte()
+    throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Truncated report after " + rows + " rows");
+        }
+        return b;
+    }
+
+    private void readFully(final byte[] buffer, final int length)
+    throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, read, length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated report after " + rows + " rows");
+            }
+            read += count;
+        }
+    }
+
+    @Override
+    public void close()
+    throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,185 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * <p>Writes a report in a compact binary format, read back by {@link BinaryReportReader}.</p>
+ *
+ * The file starts with {@link #MAGIC} and {@link #FORMAT_VERSION}, followed by one length-prefixed record per
+ * analyzed plugin, and ends with an empty record and the row count, so that a truncated report is detected. Numbers
+ * are unsigned LEB128 varints. A record holds:
+ * <ul>
+ * <li>a flag byte, {@link #IN_ENVELOPE} for a plugin of the envelope;</li>
+ * <li>the id and installed version;</li>
+ * <li>for an envelope plugin, its name, envelope version, tier, scope, drift kind and distance;</li>
+ * <li>the dependency and non-envelope dependency counts;</li>
+ * <li>the number of missing dependencies, then their ids.</li>
+ * </ul>
+ *
+ * Strings are dictionary encoded: a string is written as its id plus one, or as 0 followed by its UTF-8 length and
+ * bytes the first time it appears, taking the next id. Plugin ids, names, tiers, scopes and versions repeat within a
+ * report and across the missing dependencies, so most of them cost a byte or two. Dictionary entries live in the
+ * records, which therefore have to be read in order.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class BinaryReportSink implements ReportSink {
+    static final int MAGIC = 0x50414252;
+    static final int FORMAT_VERSION = 1;
+    static final int IN_ENVELOPE = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int INITIAL_RECORD_SIZE = 256;
+
+    private final OutputStream out;
+    private final ReportFile reportFile;
+    private final StringDictionary strings = new StringDictionary();
+    private byte[] record = new byte[INITIAL_RECORD_SIZE];
+    private int length;
+    private long rows;
+
+    /**
+     * Report file sink, gzip compressed if asked to.
+     */
+    public BinaryReportSink(final File targetFile, final boolean gzip)
+    throws IOException {
+        this.reportFile = new ReportFile(targetFile);
+        this.out = new BufferedOutputStream(reportFile.open(gzip), ReportFile.BUFFER_SIZE);
+        writeHeader();
+    }
+
+    /**
+     * Stream sink. The stream is closed with the sink.
+     */
+    public BinaryReportSink(final OutputStream out)
+    throws IOException {
+        this.reportFile = null;
+        this.out = out;
+        writeHeader();
+    }
+
+    private void writeHeader()
+    throws IOException {
+        out.write(MAGIC >>> 24);
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+    }
+
+    @Override
+    public void write(final ReportRow row)
+    throws IOException {
+        length = 0;
+        boolean inEnvelope = row.isInEnvelope();
+        putByte(inEnvelope ? IN_ENVELOPE : 0);
+        putString(row.getId());
+        putString(row.getVersion());
+        if (inEnvelope) {
+            putString(row.getName());
+            putString(row.getEnvelopeVersion());
+            putString(row.getType());
+            putString(row.getScope());
+            putString(row.getDriftKind());
+            putString(row.getDistance());
+        }
+        putVarint(row.getDependencies());
+        putVarint(row.getNonEnvelopeDependencies());
+        String missing = row.getMissingDependencies();
+        if (missing == null || missing.isEmpty()) {
+            putVarint(0);
+        } else {
+            String[] ids = missing.split(" ");
+            putVarint(ids.length);
+            for (String id : ids) {
+                putString(id);
+            }
+        }
+        writeVarint(length);
+        out.write(record, 0, length);
+        rows++;
+    }
+
+    private void putString(final String value) {
+        int id = strings.getId(value);
+        if (id >= 0) {
+            putVarint(id + 1);
+            return;
+        }
+        strings.intern(value);
+        byte[] bytes = value.getBytes(UTF8);
+        putVarint(0);
+        putVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, record, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void putVarint(final long value) {
+        ensureCapacity(10);
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            record[length++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        record[length++] = (byte) remaining;
+    }
+
+    private void putByte(final int value) {
+        ensureCapacity(1);
+        record[length++] = (byte) value;
+    }
+
+    private void ensureCapacity(final int bytes) {
+        if (length + bytes > record.length) {
+            record = Arrays.copyOf(record, Math.max(record.length * 2, length + bytes));
+        }
+    }
+
+    private void writeVarint(final long value)
+    throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * @return number of rows written so far
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void commit()
+    throws IOException {
+        writeVarint(0);
+        writeVarint(rows);
+        out.flush();
+        if (reportFile != null) {
+            out.close();
+            reportFile.commit();
+        }
+    }
+
+    @Override
+    public void close()
+    throws IOException {
+        try {
+            out.close();
+        } finally {
+            if (reportFile != null) {
+                reportFile.discard();
+            }
+        }
+    }
+}
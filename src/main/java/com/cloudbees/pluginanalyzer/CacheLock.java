@@ -0,0 +1,86 @@
+package com.cloudbees.pluginanalyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Exclusive lock on a cache file, shared by the threads of this process and by other processes.</p>
+ *
+ * Processes coordinate through an OS file lock on a {@code <file>.lock} sidecar file. File locks are held on
+ * behalf of the whole JVM, so threads of this process first take an in-process lock of the same path; a thread
+ * already holding it can lock it again. The sidecar file is left in place, deleting it would let two processes
+ * lock two different files of the same name.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class CacheLock implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheLock.class);
+
+    private static final String LOCK_EXTENSION = ".lock";
+    private static final ConcurrentMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock threadLock;
+    private final RandomAccessFile lockFile;
+    private final FileLock fileLock;
+
+    private CacheLock(final ReentrantLock threadLock, final RandomAccessFile lockFile, final FileLock fileLock) {
+        this.threadLock = threadLock;
+        this.lockFile = lockFile;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Blocks until the file is locked by the current thread.
+     *
+     * @param file cache file
+     * @return the lock, to close once done with the file
+     * @throws IOException
+     */
+    public static CacheLock lock(final File file)
+    throws IOException {
+        File sidecar = new File(file.getPath() + LOCK_EXTENSION);
+        ReentrantLock threadLock = LOCKS.computeIfAbsent(sidecar.getCanonicalPath(), path -> new ReentrantLock());
+        threadLock.lock();
+        if (threadLock.getHoldCount() > 1) {
+            return new CacheLock(threadLock, null, null);
+        }
+        RandomAccessFile lockFile = null;
+        try {
+            lockFile = new RandomAccessFile(sidecar, "rw");
+            FileChannel channel = lockFile.getChannel();
+            LOGGER.debug("Locking {}", sidecar);
+            return new CacheLock(threadLock, lockFile, channel.lock());
+        } catch (IOException | RuntimeException e) {
+            if (lockFile != null) {
+                lockFile.close();
+            }
+            threadLock.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close()
+    throws IOException {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (lockFile != null) {
+                lockFile.close();
+            }
+        } finally {
+            threadLock.unlock();
+        }
+    }
+}
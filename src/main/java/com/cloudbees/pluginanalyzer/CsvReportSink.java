@@ -0,0 +1,163 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * <p>Writes a CSV report as rows come, through a buffered UTF-8 writer.</p>
+ *
+ * Fields holding a separator, a quote or a line break are quoted as per RFC 4180. A report file is written to a
+ * temporary file of the same directory, atomically renamed to its final name on {@link #commit()}, so a reader
+ * never sees a partial report and a failed run keeps the previous one.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class CsvReportSink implements ReportSink {
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final char LINE_SEPARATOR = '\n';
+
+    private final Writer writer;
+    private final ReportFile reportFile;
+
+    /**
+     * Report file sink, starting with the report header.
+     */
+    public CsvReportSink(final File targetFile)
+    throws IOException {
+        this(targetFile, true);
+    }
+
+    CsvReportSink(final File targetFile, final boolean header)
+    throws IOException {
+        this(targetFile, header, false);
+    }
+
+    /**
+     * Report file sink, gzip compressed if asked to.
+     */
+    CsvReportSink(final File targetFile, final boolean header, final boolean gzip)
+    throws IOException {
+        this.reportFile = new ReportFile(targetFile);
+        this.writer = new BufferedWriter(new OutputStreamWriter(reportFile.open(gzip), Charset.forName("UTF-8")),
+                                         ReportFile.BUFFER_SIZE);
+        if (header) {
+            writeLine(ReportRow.HEADER);
+        }
+    }
+
+    /**
+     * Stream sink, starting with the report header. The writer is closed with the sink.
+     */
+    public CsvReportSink(final Writer writer)
+    throws IOException {
+        this(writer, true);
+    }
+
+    CsvReportSink(final Writer writer, final boolean header)
+    throws IOException {
+        this.writer = writer;
+        this.reportFile = null;
+        if (header) {
+            writeLine(ReportRow.HEADER);
+        }
+    }
+
+    @Override
+    public void write(final ReportRow row)
+    throws IOException {
+        writeField(row.getId());
+        writer.write(SEPARATOR);
+        writeField(row.getName());
+        writer.write(SEPARATOR);
+        writeField(row.getVersion());
+        writer.write(SEPARATOR);
+        writeField(row.getEnvelope());
+        writer.write(SEPARATOR);
+        writeField(row.getEnvelopeVersion());
+        writer.write(SEPARATOR);
+        writeField(row.getType());
+        writer.write(SEPARATOR);
+        writeField(row.getScope());
+        writer.write(SEPARATOR);
+        writeField(row.getDriftKind());
+        writer.write(SEPARATOR);
+        writeField(row.getDistance());
+        writer.write(SEPARATOR);
+        writer.write(Integer.toString(row.getDependencies()));
+        writer.write(SEPARATOR);
+        writer.write(Integer.toString(row.getNonEnvelopeDependencies()));
+        writer.write(SEPARATOR);
+        writeField(row.getMissingDependencies());
+        writer.write(LINE_SEPARATOR);
+    }
+
+    public void writeLine(final List<?> values)
+    throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(SEPARATOR);
+            }
+            writeField(values.get(i) == null ? null : values.get(i).toString());
+        }
+        writer.write(LINE_SEPARATOR);
+    }
+
+    private void writeField(final String value)
+    throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuotes(value)) {
+            writer.write(value);
+            return;
+        }
+        writer.write(QUOTE);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == QUOTE) {
+                writer.write(QUOTE);
+            }
+            writer.write(c);
+        }
+        writer.write(QUOTE);
+    }
+
+    static boolean needsQuotes(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == SEPARATOR || c == QUOTE || c == LINE_SEPARATOR || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void commit()
+    throws IOException {
+        writer.flush();
+        if (reportFile != null) {
+            writer.close();
+            reportFile.commit();
+        }
+    }
+
+    @Override
+    public void close()
+    throws IOException {
+        try {
+            writer.close();
+        } finally {
+            if (reportFile != null) {
+                reportFile.discard();
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import hudson.util.VersionNumber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Required dependency graph of an envelope.</p>
+ *
+ * Plugin ids (envelope plugins and the plugins they depend on) are dictionary-encoded to ints, and the transitive
+ * closure of every plugin is precomputed once as a bitset, strongly connected components first so that dependency
+ * cycles are handled. Per-controller queries then cost a few bit operations per plugin.
+ *
+ * Dependency data only exists for envelope plugins: a plugin unknown to the envelope has an empty closure.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class DependencyGraph {
+    public static final int UNKNOWN = -1;
+
+    private final String[] ids;
+    private final Map<String, Integer> index;
+    private final BitSet envelope;
+    private final BitSet[] closures;
+    private final int[] closureSizes;
+    private final int[] nonEnvelopeSizes;
+
+    private DependencyGraph(String[] ids, Map<String, Integer> index, BitSet envelope, BitSet[] closures) {
+        this.ids = ids;
+        this.index = index;
+        this.envelope = envelope;
+        this.closures = closures;
+        this.closureSizes = new int[ids.length];
+        this.nonEnvelopeSizes = new int[ids.length];
+        for (int node = 0; node < ids.length; node++) {
+            closureSizes[node] = closures[node].cardinality();
+            BitSet outside = (BitSet) closures[node].clone();
+            outside.andNot(envelope);
+            nonEnvelopeSizes[node] = outside.cardinality();
+        }
+    }
+
+    /**
+     * Builds the graph of the required dependencies of the envelope plugins.
+     *
+     * @param envelopePlugins envelope plugins
+     * @return dependency graph
+     */
+    public static DependencyGraph of(final Map<String, EnvelopePlugin> envelopePlugins) {
+        final Map<String, Integer> index = new HashMap<>(envelopePlugins.size() * 2);
+        final List<String> ids = new ArrayList<>(envelopePlugins.size());
+        for (String id : envelopePlugins.keySet()) {
+            encode(id, index, ids);
+        }
+        BitSet envelope = new BitSet();
+        envelope.set(0, ids.size());
+        List<int[]> edges = new ArrayList<>(envelopePlugins.size());
+        for (Map.Entry<String, EnvelopePlugin> plugin : envelopePlugins.entrySet()) {
+            Map<String, VersionNumber> dependencies = plugin.getValue().getDependencies();
+            int[] targets = new int[dependencies == null ? 0 : dependencies.size()];
+            int i = 0;
+            if (dependencies != null) {
+                for (String dependency : dependencies.keySet()) {
+                    targets[i++] = encode(dependency, index, ids);
+                }
+            }
+            edges.add(targets);
+        }
+        // dependencies outside of the envelope are leaves
+        int[][] adjacency = new int[ids.size()][];
+        for (int node = 0; node < ids.size(); node++) {
+            adjacency[node] = node < edges.size() ? edges.get(node) : new int[0];
+        }
+        return new DependencyGraph(ids.toArray(new String[0]), index, envelope, computeClosures(adjacency));
+    }
+
+    private static int encode(final String id, final Map<String, Integer> index, final List<String> ids) {
+        Integer node = index.get(id);
+        if (node == null) {
+            node = ids.size();
+            index.put(id, node);
+            ids.add(id);
+        }
+        return node;
+    }
+
+    /**
+     * Tarjan's strongly connected components, which come out in reverse topological order: the closure of a
+     * component only depends on components already computed.
+     */
+    private static BitSet[] computeClosures(final int[][] adjacency) {
+        final int size = adjacency.length;
+        final int[] order = new int[size];
+        final int[] lowLink = new int[size];
+        final int[] component = new int[size];
+        final boolean[] onStack = new boolean[size];
+        final int[] stack = new int[size];
+        final int[] callStack = new int[size];
+        final int[] edgeIndex = new int[size];
+        Arrays.fill(order, -1);
+        List<BitSet> componentClosures = new ArrayList<>();
+        int counter = 0;
+        int stackSize = 0;
+
+        for (int root = 0; root < size; root++) {
+            if (order[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            callStack[depth] = root;
+            order[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int node = callStack[depth];
+                if (edgeIndex[node] < adjacency[node].length) {
+                    int next = adjacency[node][edgeIndex[node]++];
+                    if (order[next] == -1) {
+                        order[next] = lowLink[next] = counter++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callStack[++depth] = next;
+                    } else if (onStack[next]) {
+                        lowLink[node] = Math.min(lowLink[node], order[next]);
+                    }
+                    continue;
+                }
+                if (lowLink[node] == order[node]) {
+                    int id = componentClosures.size();
+                    BitSet members = new BitSet(size);
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        component[member] = id;
+                        members.set(member);
+                    } while (member != node);
+                    BitSet closure = new BitSet(size);
+                    for (int m = members.nextSetBit(0); m >= 0; m = members.nextSetBit(m + 1)) {
+                        for (int dependency : adjacency[m]) {
+                            closure.set(dependency);
+                            if (component[dependency] != id) {
+                                closure.or(componentClosures.get(component[dependency]));
+                            }
+                        }
+                    }
+                    componentClosures.add(closure);
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callStack[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                }
+            }
+        }
+
+        BitSet[] closures = new BitSet[size];
+        for (int node = 0; node < size; node++) {
+            BitSet closure = (BitSet) componentClosures.get(component[node]).clone();
+            // a plugin is not its own dependency, even within a cycle
+            closure.clear(node);
+            closures[node] = closure;
+        }
+        return closures;
+    }
+
+    /**
+     * @return the node of a plugin id, {@link #UNKNOWN} if the id is not in the graph
+     */
+    public int getNode(final String id) {
+        Integer node = index.get(id);
+        return node == null ? UNKNOWN : node;
+    }
+
+    public String getId(final int node) {
+        return ids[node];
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return estimated heap footprint of the graph, in bytes
+     */
+    public long estimateWeight() {
+        long bytes = 0;
+        for (int node = 0; node < ids.length; node++) {
+            bytes += 64 + 2L * ids[node].length() + closures[node].size() / 8;
+        }
+        return bytes;
+    }
+
+    public boolean isInEnvelope(final int node) {
+        return node != UNKNOWN && envelope.get(node);
+    }
+
+    /**
+     * @return number of transitive required dependencies
+     */
+    public int getClosureSize(final int node) {
+        return node == UNKNOWN ? 0 : closureSizes[node];
+    }
+
+    /**
+     * @return number of transitive required dependencies which are not part of the envelope
+     */
+    public int getNonEnvelopeDependencies(final int node) {
+        return node == UNKNOWN ? 0 : nonEnvelopeSizes[node];
+    }
+
+    /**
+     * @return the transitive required dependencies, not to be modified
+     */
+    public BitSet getClosure(final int node) {
+        return node == UNKNOWN ? new BitSet() : closures[node];
+    }
+
+    /**
+     * @param ids installed plugin ids
+     * @return the installed plugins known to the graph
+     */
+    public BitSet toNodes(final Collection<String> ids) {
+        BitSet nodes = new BitSet(this.ids.length);
+        for (String id : ids) {
+            int node = getNode(id);
+            if (node != UNKNOWN) {
+                nodes.set(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @param node plugin node
+     * @param installed installed plugin nodes
+     * @return the transitive required dependencies which are not installed, space separated
+     */
+    public String getMissingDependencies(final int node, final BitSet installed) {
+        if (node == UNKNOWN) {
+            return "";
+        }
+        StringBuilder missing = new StringBuilder();
+        BitSet closure = closures[node];
+        for (int dependency = closure.nextSetBit(0); dependency >= 0;
+             dependency = closure.nextSetBit(dependency + 1)) {
+            if (!installed.get(dependency)) {
+                if (missing.length() > 0) {
+                    missing.append(' ');
+                }
+                missing.append(ids[dependency]);
+            }
+        }
+        return missing.toString();
+    }
+}
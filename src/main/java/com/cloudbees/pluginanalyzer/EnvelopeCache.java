@@ -0,0 +1,549 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import com.google.common.io.CountingInputStream;
+import hudson.util.VersionNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Persistent cache of pre-parsed envelopes.</p>
+ *
+ * Entries are keyed by product, release and SHA-256 of the envelope JSON content, and hold a compact binary form
+ * of the plugin table (all strings in a dictionary, plugins referencing them by index) followed by a CRC32 of the
+ * whole entry. Loading an entry needs no JSON parsing; an entry failing its checksum is dropped and reloaded from
+ * the JSON. The total size of the cache is bounded, least recently used entries being evicted first.
+ *
+ * Instances sharing a directory, in this process or in others, take turns through a {@link CacheLock} of the
+ * directory. Temporary files left by an interrupted write are therefore stale whenever the lock is held, and are
+ * deleted along with the evicted or purged entries.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class EnvelopeCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnvelopeCache.class);
+
+    public static final String COMMAND = "cache";
+    public static final String USAGE = "list | purge [productId [productRelease]]";
+    public static final String DIRECTORY_NAME = "envelope-cache";
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    static final String LOCK_NAME = "entries";
+
+    private static final int MAGIC = 0x50414543;
+    private static final int FORMAT_VERSION = 1;
+    private static final int NULL_INDEX = -1;
+    private static final String ENTRY_EXTENSION = ".bin";
+    private static final String TEMP_EXTENSION = ".part";
+    private static final char KEY_SEPARATOR = '_';
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File directory;
+    private final long maxBytes;
+    private RunMetrics metrics = new RunMetrics();
+
+    public EnvelopeCache(final File directory, final long maxBytes)
+    throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the cache directory: " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param metrics run metrics receiving the cache hits and misses and the envelope bytes read
+     * @return this cache
+     */
+    public EnvelopeCache withMetrics(final RunMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public static void main(String[] args) {
+        try {
+            File directory = new File(PluginAnalyzer.getDefaultCacheDirectory(), DIRECTORY_NAME);
+            EnvelopeCache cache = new EnvelopeCache(directory, DEFAULT_MAX_BYTES);
+            if (args.length == 1 && "list".equals(args[0])) {
+                long total = 0;
+                for (Entry entry : cache.list()) {
+                    LOGGER.info("{}", entry);
+                    total += entry.getSize();
+                }
+                LOGGER.info("Total: {} bytes", total);
+            } else if (args.length >= 1 && args.length <= 3 && "purge".equals(args[0])) {
+                String productId = args.length > 1 ? args[1] : null;
+                String productRelease = args.length > 2 ? args[2] : null;
+                LOGGER.info("{} entries purged", cache.purge(productId, productRelease));
+            } else {
+                LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Process failed!", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Loads an envelope JSON file, from its pre-parsed form when the same content was already loaded.
+     *
+     * @param product envelope product
+     * @param productRelease envelope release
+     * @param envelopeFile envelope JSON file
+     * @param parser JSON parser, used on cache miss
+     * @return envelope plugins
+     * @throws Exception
+     */
+    public Map<String, EnvelopePlugin> load(final EnvelopeProduct product, final String productRelease,
+                                            final File envelopeFile,
+                                            final EnvelopeFetcher.BodyParser<Map<String, EnvelopePlugin>> parser)
+    throws Exception {
+        String hash;
+        try (InputStream inputStream = new FileInputStream(envelopeFile)) {
+            hash = hash(inputStream);
+        }
+        metrics.count(RunMetrics.ENVELOPE_BYTES_READ, envelopeFile.length());
+        Map<String, EnvelopePlugin> plugins = get(product, productRelease, hash);
+        if (plugins == null) {
+            metrics.count(RunMetrics.ENVELOPE_CACHE_MISSES, 1);
+            try (InputStream inputStream = new BufferedInputStream(new FileInputStream(envelopeFile))) {
+                plugins = parser.parse(inputStream);
+            }
+            put(product, productRelease, hash, plugins);
+        } else {
+            metrics.count(RunMetrics.ENVELOPE_CACHE_HITS, 1);
+        }
+        return plugins;
+    }
+
+    /**
+     * Parses an envelope JSON stream and stores its pre-parsed form.
+     *
+     * @param product envelope product
+     * @param productRelease envelope release
+     * @param inputStream envelope JSON content
+     * @param parser JSON parser
+     * @return envelope plugins
+     * @throws Exception
+     */
+    public Map<String, EnvelopePlugin> parse(final EnvelopeProduct product, final String productRelease,
+                                             final InputStream inputStream,
+                                             final EnvelopeFetcher.BodyParser<Map<String, EnvelopePlugin>> parser)
+    throws Exception {
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        DigestInputStream digestStream = new DigestInputStream(countingStream, newDigest());
+        Map<String, EnvelopePlugin> plugins = parser.parse(digestStream);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (digestStream.read(buffer) != -1) {
+            // hash the rest of the content
+        }
+        metrics.count(RunMetrics.ENVELOPE_CACHE_MISSES, 1);
+        metrics.count(RunMetrics.ENVELOPE_BYTES_READ, countingStream.getCount());
+        put(product, productRelease, toHex(digestStream.getMessageDigest().digest()), plugins);
+        return plugins;
+    }
+
+    /**
+     * Wraps a JSON parser so that envelopes go through this cache, both when freshly downloaded and when served
+     * from the local copy.
+     *
+     * @param product envelope product
+     * @param productRelease envelope release
+     * @param parser JSON parser
+     * @return caching parser
+     */
+    public EnvelopeFetcher.BodyParser<Map<String, EnvelopePlugin>> parser(
+        final EnvelopeProduct product, final String productRelease,
+        final EnvelopeFetcher.BodyParser<Map<String, EnvelopePlugin>> parser) {
+        return new EnvelopeFetcher.BodyParser<Map<String, EnvelopePlugin>>() {
+            @Override
+            public Map<String, EnvelopePlugin> parse(InputStream inputStream) throws Exception {
+                return EnvelopeCache.this.parse(product, productRelease, inputStream, parser);
+            }
+
+            @Override
+            public Map<String, EnvelopePlugin> parseCached(File cacheFile) throws Exception {
+                return load(product, productRelease, cacheFile, parser);
+            }
+        };
+    }
+
+    /**
+     * @return the cached plugins, or null on cache miss or corrupted entry
+     * @throws IOException
+     */
+    public Map<String, EnvelopePlugin> get(final EnvelopeProduct product, final String productRelease,
+                                           final String hash)
+    throws IOException {
+        File entryFile = getEntryFile(product, productRelease, hash);
+        if (!entryFile.exists()) {
+            return null;
+        }
+        byte[] content;
+        try (CacheLock lock = lock()) {
+            try {
+                content = Files.readAllBytes(entryFile.toPath());
+            } catch (NoSuchFileException e) {
+                // evicted meanwhile
+                return null;
+            }
+            if (!entryFile.setLastModified(System.currentTimeMillis())) {
+                LOGGER.debug("Cannot update the access time of {}", entryFile);
+            }
+        }
+        try {
+            return decode(content);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Dropping corrupted envelope cache entry {}: {}", entryFile, e.getMessage());
+            try (CacheLock lock = lock()) {
+                Files.deleteIfExists(entryFile.toPath());
+            }
+            return null;
+        }
+    }
+
+    public void put(final EnvelopeProduct product, final String productRelease, final String hash,
+                    final Map<String, EnvelopePlugin> plugins)
+    throws IOException {
+        File entryFile = getEntryFile(product, productRelease, hash);
+        byte[] content = encode(plugins);
+        try (CacheLock lock = lock()) {
+            File tempFile = Files.createTempFile(directory.toPath(), entryFile.getName(), TEMP_EXTENSION).toFile();
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                outputStream.write(content);
+            }
+            Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        }
+    }
+
+    /**
+     * @return cache entries, most recently used first
+     */
+    public List<Entry> list() {
+        List<Entry> entries = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(ENTRY_EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                entries.add(new Entry(file));
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::getLastUsed).reversed());
+        return entries;
+    }
+
+    /**
+     * Deletes the entries of a product and release, null matching any.
+     *
+     * @return number of deleted entries
+     * @throws IOException
+     */
+    public int purge(final String productId, final String productRelease)
+    throws IOException {
+        String prefix = "";
+        if (productId != null) {
+            prefix = EnvelopeProduct.valueOf(productId.toUpperCase()).getArtifactId() + KEY_SEPARATOR;
+            if (productRelease != null) {
+                prefix += productRelease + KEY_SEPARATOR;
+            }
+        }
+        int purged = 0;
+        try (CacheLock lock = lock()) {
+            for (Entry entry : list()) {
+                if (entry.getFile().getName().startsWith(prefix)) {
+                    if (Files.deleteIfExists(entry.getFile().toPath())) {
+                        purged++;
+                    }
+                }
+            }
+            deleteTempFiles();
+        }
+        return purged;
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void evict()
+    throws IOException {
+        deleteTempFiles();
+        List<Entry> entries = list();
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.getSize();
+        }
+        for (int i = entries.size() - 1; i >= 0 && total > maxBytes; i--) {
+            Entry entry = entries.get(i);
+            LOGGER.debug("Evicting envelope cache entry {}", entry.getFile());
+            Files.deleteIfExists(entry.getFile().toPath());
+            total -= entry.getSize();
+        }
+    }
+
+    /**
+     * Called with the lock held: no write is in progress, remaining temporary files were left by an interrupted one.
+     */
+    private void deleteTempFiles()
+    throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(TEMP_EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                LOGGER.debug("Deleting stale envelope cache file {}", file);
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private CacheLock lock()
+    throws IOException {
+        return CacheLock.lock(new File(directory, LOCK_NAME));
+    }
+
+    private File getEntryFile(final EnvelopeProduct product, final String productRelease, final String hash) {
+        return new File(directory, product.getArtifactId() + KEY_SEPARATOR + productRelease + KEY_SEPARATOR + hash
+                                   + ENTRY_EXTENSION);
+    }
+
+    /**
+     * @return SHA-256 of the stream content, in hexadecimal
+     * @throws IOException
+     */
+    public static String hash(final InputStream inputStream)
+    throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    static byte[] encode(final Map<String, EnvelopePlugin> plugins)
+    throws IOException {
+        final Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (Map.Entry<String, EnvelopePlugin> entry : plugins.entrySet()) {
+            EnvelopePlugin plugin = entry.getValue();
+            for (String value : Arrays.asList(entry.getKey(), plugin.getName(), plugin.getGroupId(),
+                                              plugin.getArtifactId(), asString(plugin.getVersionNumber()),
+                                              name(plugin.getScope()), plugin.getSha1(),
+                                              name(plugin.getTier()))) {
+                intern(dictionary, value);
+            }
+            for (Map<String, VersionNumber> dependencies : getDependencyMaps(plugin)) {
+                if (dependencies != null) {
+                    for (Map.Entry<String, VersionNumber> dependency : dependencies.entrySet()) {
+                        intern(dictionary, dependency.getKey());
+                        intern(dictionary, asString(dependency.getValue()));
+                    }
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(dictionary.size());
+        for (String value : dictionary.keySet()) {
+            out.writeUTF(value);
+        }
+        out.writeInt(plugins.size());
+        for (Map.Entry<String, EnvelopePlugin> entry : plugins.entrySet()) {
+            EnvelopePlugin plugin = entry.getValue();
+            out.writeInt(index(dictionary, entry.getKey()));
+            out.writeInt(index(dictionary, plugin.getName()));
+            out.writeInt(index(dictionary, plugin.getGroupId()));
+            out.writeInt(index(dictionary, plugin.getArtifactId()));
+            out.writeInt(index(dictionary, asString(plugin.getVersionNumber())));
+            out.writeInt(index(dictionary, name(plugin.getScope())));
+            out.writeInt(index(dictionary, plugin.getSha1()));
+            out.writeInt(index(dictionary, name(plugin.getTier())));
+            for (Map<String, VersionNumber> dependencies : getDependencyMaps(plugin)) {
+                if (dependencies == null) {
+                    out.writeInt(NULL_INDEX);
+                } else {
+                    out.writeInt(dependencies.size());
+                    for (Map.Entry<String, VersionNumber> dependency : dependencies.entrySet()) {
+                        out.writeInt(index(dictionary, dependency.getKey()));
+                        out.writeInt(index(dictionary, asString(dependency.getValue())));
+                    }
+                }
+            }
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    static Map<String, EnvelopePlugin> decode(final byte[] content)
+    throws IOException {
+        if (content.length < Long.BYTES) {
+            throw new IOException("Truncated entry");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - Long.BYTES);
+        if (crc.getValue() != ByteBuffer.wrap(content, content.length - Long.BYTES, Long.BYTES).getLong()) {
+            throw new IOException("Checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - Long.BYTES));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unknown entry format");
+        }
+        String[] dictionary = new String[in.readInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.readUTF();
+        }
+        int size = in.readInt();
+        Map<String, EnvelopePlugin> plugins = new LinkedHashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String id = lookup(dictionary, in.readInt());
+            String name = lookup(dictionary, in.readInt());
+            String groupId = lookup(dictionary, in.readInt());
+            String artifactId = lookup(dictionary, in.readInt());
+            String version = lookup(dictionary, in.readInt());
+            String scope = lookup(dictionary, in.readInt());
+            String sha1 = lookup(dictionary, in.readInt());
+            String tier = lookup(dictionary, in.readInt());
+            Map<String, VersionNumber> dependencies = readDependencies(in, dictionary);
+            Map<String, VersionNumber> optionalDependencies = readDependencies(in, dictionary);
+            Map<String, VersionNumber> otherDependencies = readDependencies(in, dictionary);
+            plugins.put(id, new EnvelopePlugin(id,
+                                               name,
+                                               groupId,
+                                               artifactId,
+                                               version == null ? null : new VersionNumber(version),
+                                               dependencies,
+                                               optionalDependencies,
+                                               otherDependencies,
+                                               scope == null ? null : Scope.valueOf(scope),
+                                               sha1,
+                                               tier == null ? null : PluginTier.valueOf(tier)));
+        }
+        return Collections.unmodifiableMap(plugins);
+    }
+
+    private static Map<String, VersionNumber> readDependencies(final DataInputStream in, final String[] dictionary)
+    throws IOException {
+        int size = in.readInt();
+        if (size == NULL_INDEX) {
+            return null;
+        }
+        Map<String, VersionNumber> dependencies = new LinkedHashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String id = lookup(dictionary, in.readInt());
+            String version = lookup(dictionary, in.readInt());
+            dependencies.put(id, version == null ? null : new VersionNumber(version));
+        }
+        return dependencies;
+    }
+
+    private static List<Map<String, VersionNumber>> getDependencyMaps(final EnvelopePlugin plugin) {
+        return Arrays.asList(plugin.getDependencies(), plugin.getOptionalDependencies(),
+                             plugin.getOtherDependencies());
+    }
+
+    private static void intern(final Map<String, Integer> dictionary, final String value) {
+        if (value != null && !dictionary.containsKey(value)) {
+            dictionary.put(value, dictionary.size());
+        }
+    }
+
+    private static int index(final Map<String, Integer> dictionary, final String value) {
+        return value == null ? NULL_INDEX : dictionary.get(value);
+    }
+
+    private static String lookup(final String[] dictionary, final int index) {
+        return index == NULL_INDEX ? null : dictionary[index];
+    }
+
+    private static String asString(final Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static String name(final Enum<?> value) {
+        return value == null ? null : value.name();
+    }
+
+    /**
+     * Cache entry description.
+     */
+    public static class Entry {
+        private final File file;
+        private final long size;
+        private final long lastUsed;
+
+        Entry(File file) {
+            this.file = file;
+            this.size = file.length();
+            this.lastUsed = file.lastModified();
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d bytes, last used %tF %<tT", file.getName(), size, lastUsed);
+        }
+    }
+}
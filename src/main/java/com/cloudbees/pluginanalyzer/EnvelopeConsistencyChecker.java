@@ -0,0 +1,366 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import hudson.util.VersionNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Checks the consistency of the envelopes of every product for a release, and against the previous release.</p>
+ *
+ * The issues reported are:
+ * <ul>
+ * <li>a plugin shipped by two products of the release with a different version, tier or scope;</li>
+ * <li>a required dependency of an envelope plugin which is not in the same envelope, or whose envelope version is
+ * older than the one asked for;</li>
+ * <li>a plugin whose envelope version of a product went down since the previous release.</li>
+ * </ul>
+ *
+ * All the envelopes are loaded concurrently, and each one is encoded as it comes over a dictionary of plugin ids
+ * shared by all of them: a bit set of its members plus versions, tiers and scopes indexed by id. Comparing two
+ * envelopes then intersects their bit sets and only visits the plugins they have in common, and the checks of the
+ * product pairs, of the envelopes and of the releases run concurrently as well.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class EnvelopeConsistencyChecker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnvelopeConsistencyChecker.class);
+
+    public static final String COMMAND = "consistency";
+    public static final String USAGE = "productRelease previousProductRelease userName password";
+    public static final int MAX_THREADS = 8;
+    public static final List<String> HEADER = Collections.unmodifiableList(Arrays.asList(
+        "Issue", "Id", "Product", "Release", "Value", "Compared product", "Compared release", "Compared value"));
+
+    private static final String REPORT_NAME = "Envelope-Consistency.csv";
+    private static final int NO_VALUE = -1;
+
+    private final List<EnvelopeProduct> products;
+    private final String productRelease;
+    private final String previousRelease;
+    private final EnvelopeRegistry.Loader loader;
+    private final StringDictionary pluginIds = new StringDictionary();
+
+    /**
+     * @param products products to compare
+     * @param productRelease release to check
+     * @param previousRelease release to look for version regressions against, null for none
+     * @param loader envelope loader, called concurrently
+     */
+    public EnvelopeConsistencyChecker(final List<EnvelopeProduct> products, final String productRelease,
+                                      final String previousRelease, final EnvelopeRegistry.Loader loader) {
+        if (products.isEmpty()) {
+            throw new IllegalArgumentException("At least one product is expected");
+        }
+        this.products = new ArrayList<>(products);
+        this.productRelease = productRelease;
+        this.previousRelease = previousRelease;
+        this.loader = loader;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 4) {
+            try {
+                LOGGER.info("Processing...");
+                final String userName = args[2];
+                final String password = args[3];
+                EnvelopeConsistencyChecker checker = new EnvelopeConsistencyChecker(
+                    Arrays.asList(EnvelopeProduct.values()), args[0], args[1],
+                    (product, productRelease) -> new PluginAnalyzer(product.name(), productRelease)
+                        .getEnvelopePlugins(userName, password));
+                List<Issue> issues = checker.check();
+                File reportFile = new File(PluginAnalyzer.getDefaultOutputDirectory(), REPORT_NAME);
+                writeReport(issues, reportFile);
+                LOGGER.info("{} issues over {} plugins: {}", issues.size(), checker.getPluginIds(), reportFile);
+            } catch (Exception e) {
+                LOGGER.error("Process failed!", e);
+                System.exit(1);
+            }
+        } else {
+            LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Loads the envelopes of every product for the release and the previous one, then checks them.
+     *
+     * @return the issues, sorted by kind, plugin id, product and release
+     * @throws Exception the first load failure
+     */
+    public List<Issue> check()
+    throws Exception {
+        List<String> releases = previousRelease == null ? Collections.singletonList(productRelease)
+                                                        : Arrays.asList(productRelease, previousRelease);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(products.size() * releases.size(),
+                                                                         MAX_THREADS));
+        try {
+            List<Future<Envelope>> loads = new ArrayList<>();
+            for (final String release : releases) {
+                for (final EnvelopeProduct product : products) {
+                    loads.add(executor.submit(() -> new Envelope(product, release, loader.load(product, release),
+                                                                 pluginIds)));
+                }
+            }
+            List<Envelope> current = new ArrayList<>(products.size());
+            List<Envelope> previous = new ArrayList<>(products.size());
+            for (int i = 0; i < loads.size(); i++) {
+                (i < products.size() ? current : previous).add(get(loads.get(i)));
+            }
+
+            List<Callable<List<Issue>>> checks = new ArrayList<>();
+            for (int i = 0; i < current.size(); i++) {
+                final Envelope envelope = current.get(i);
+                checks.add(() -> checkDependencies(envelope));
+                for (int j = i + 1; j < current.size(); j++) {
+                    final Envelope other = current.get(j);
+                    checks.add(() -> checkProducts(envelope, other));
+                }
+                if (!previous.isEmpty()) {
+                    final Envelope before = previous.get(i);
+                    checks.add(() -> checkRegressions(envelope, before));
+                }
+            }
+            List<Issue> issues = new ArrayList<>();
+            for (Future<List<Issue>> future : executor.invokeAll(checks)) {
+                issues.addAll(get(future));
+            }
+            issues.sort(Comparator.comparing(Issue::getKind).thenComparing(Issue::getId)
+                                  .thenComparing(issue -> issue.product).thenComparing(issue -> issue.release)
+                                  .thenComparing(issue -> issue.value));
+            return issues;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T get(final Future<T> future)
+    throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return plugins shipped by both products with a different version, tier or scope
+     */
+    private List<Issue> checkProducts(final Envelope envelope, final Envelope other) {
+        List<Issue> issues = new ArrayList<>();
+        BitSet common = (BitSet) envelope.members.clone();
+        common.and(other.members);
+        for (int id = common.nextSetBit(0); id >= 0; id = common.nextSetBit(id + 1)) {
+            if (!envelope.versions[id].equals(other.versions[id])) {
+                issues.add(new Issue(Kind.VERSION_MISMATCH, pluginIds.get(id), envelope, envelope.versions[id], other,
+                                     other.versions[id]));
+            }
+            if (envelope.tiers[id] != other.tiers[id]) {
+                issues.add(new Issue(Kind.TIER_MISMATCH, pluginIds.get(id), envelope, envelope.getTier(id), other,
+                                     other.getTier(id)));
+            }
+            if (envelope.scopes[id] != other.scopes[id]) {
+                issues.add(new Issue(Kind.SCOPE_MISMATCH, pluginIds.get(id), envelope, envelope.getScope(id), other,
+                                     other.getScope(id)));
+            }
+        }
+        return issues;
+    }
+
+    /**
+     * @return required dependencies outside of the envelope, or older in the envelope than required
+     */
+    private List<Issue> checkDependencies(final Envelope envelope) {
+        List<Issue> issues = new ArrayList<>();
+        for (int id = envelope.members.nextSetBit(0); id >= 0; id = envelope.members.nextSetBit(id + 1)) {
+            int[] dependencies = envelope.dependencies[id];
+            for (int i = 0; i < dependencies.length; i++) {
+                int dependency = dependencies[i];
+                VersionNumber required = envelope.dependencyVersions[id][i];
+                if (!envelope.members.get(dependency)) {
+                    issues.add(new Issue(Kind.DEPENDENCY_OUTSIDE_ENVELOPE, pluginIds.get(id), envelope,
+                                         pluginIds.get(dependency) + (required == null ? "" : ":" + required),
+                                         null, null));
+                } else if (required != null && envelope.versions[dependency].isOlderThan(required)) {
+                    issues.add(new Issue(Kind.UNSATISFIED_DEPENDENCY, pluginIds.get(id), envelope,
+                                         pluginIds.get(dependency) + ":" + required, envelope,
+                                         envelope.versions[dependency]));
+                }
+            }
+        }
+        return issues;
+    }
+
+    /**
+     * @return plugins whose envelope version is older than in the previous release
+     */
+    private List<Issue> checkRegressions(final Envelope envelope, final Envelope previous) {
+        List<Issue> issues = new ArrayList<>();
+        BitSet common = (BitSet) envelope.members.clone();
+        common.and(previous.members);
+        for (int id = common.nextSetBit(0); id >= 0; id = common.nextSetBit(id + 1)) {
+            if (envelope.versions[id].isOlderThan(previous.versions[id])) {
+                issues.add(new Issue(Kind.VERSION_REGRESSION, pluginIds.get(id), envelope, envelope.versions[id],
+                                     previous, previous.versions[id]));
+            }
+        }
+        return issues;
+    }
+
+    /**
+     * @return number of distinct plugin ids over all the envelopes loaded so far, dependencies included
+     */
+    public int getPluginIds() {
+        return pluginIds.size();
+    }
+
+    /**
+     * @param issues issues to report
+     * @param reportFile report file
+     * @throws IOException
+     */
+    public static void writeReport(final List<Issue> issues, final File reportFile)
+    throws IOException {
+        try (CsvReportSink sink = new CsvReportSink(reportFile, false)) {
+            sink.writeLine(HEADER);
+            for (Issue issue : issues) {
+                sink.writeLine(issue.toList());
+            }
+            sink.commit();
+        }
+    }
+
+    /**
+     * Envelope of a product release, indexed by plugin id.
+     */
+    private static final class Envelope {
+        private final EnvelopeProduct product;
+        private final String release;
+        private final BitSet members = new BitSet();
+        private VersionNumber[] versions = new VersionNumber[0];
+        private byte[] tiers = new byte[0];
+        private byte[] scopes = new byte[0];
+        private int[][] dependencies = new int[0][];
+        private VersionNumber[][] dependencyVersions = new VersionNumber[0][];
+
+        Envelope(EnvelopeProduct product, String release, Map<String, EnvelopePlugin> plugins,
+                 StringDictionary pluginIds) {
+            this.product = product;
+            this.release = release;
+            for (Map.Entry<String, EnvelopePlugin> entry : plugins.entrySet()) {
+                EnvelopePlugin plugin = entry.getValue();
+                int id = pluginIds.intern(entry.getKey());
+                ensureCapacity(id + 1);
+                members.set(id);
+                versions[id] = plugin.getVersionNumber();
+                tiers[id] = (byte) (plugin.getTier() == null ? NO_VALUE : plugin.getTier().ordinal());
+                scopes[id] = (byte) (plugin.getScope() == null ? NO_VALUE : plugin.getScope().ordinal());
+                Map<String, VersionNumber> required = plugin.getDependencies() == null
+                                                      ? Collections.emptyMap()
+                                                      : new TreeMap<>(plugin.getDependencies());
+                int[] ids = new int[required.size()];
+                VersionNumber[] requiredVersions = new VersionNumber[required.size()];
+                int i = 0;
+                for (Map.Entry<String, VersionNumber> dependency : required.entrySet()) {
+                    ids[i] = pluginIds.intern(dependency.getKey());
+                    requiredVersions[i++] = dependency.getValue();
+                }
+                dependencies[id] = ids;
+                dependencyVersions[id] = requiredVersions;
+            }
+        }
+
+        private void ensureCapacity(final int size) {
+            if (size > versions.length) {
+                int capacity = Math.max(size, versions.length * 2);
+                versions = Arrays.copyOf(versions, capacity);
+                tiers = Arrays.copyOf(tiers, capacity);
+                scopes = Arrays.copyOf(scopes, capacity);
+                dependencies = Arrays.copyOf(dependencies, capacity);
+                dependencyVersions = Arrays.copyOf(dependencyVersions, capacity);
+            }
+        }
+
+        String getTier(final int id) {
+            return tiers[id] == NO_VALUE ? "" : PluginTier.values()[tiers[id]].toString();
+        }
+
+        String getScope(final int id) {
+            return scopes[id] == NO_VALUE ? "" : Scope.values()[scopes[id]].toString();
+        }
+    }
+
+    public enum Kind {
+        VERSION_MISMATCH, TIER_MISMATCH, SCOPE_MISMATCH, DEPENDENCY_OUTSIDE_ENVELOPE, UNSATISFIED_DEPENDENCY,
+        VERSION_REGRESSION
+    }
+
+    /**
+     * Inconsistency of a plugin, in an envelope or between two of them.
+     */
+    public static final class Issue {
+        private final Kind kind;
+        private final String id;
+        private final String product;
+        private final String release;
+        private final String value;
+        private final String comparedProduct;
+        private final String comparedRelease;
+        private final String comparedValue;
+
+        Issue(Kind kind, String id, Envelope envelope, Object value, Envelope compared, Object comparedValue) {
+            this.kind = kind;
+            this.id = id;
+            this.product = envelope.product.name().toLowerCase();
+            this.release = envelope.release;
+            this.value = String.valueOf(value);
+            this.comparedProduct = compared == null ? "" : compared.product.name().toLowerCase();
+            this.comparedRelease = compared == null ? "" : compared.release;
+            this.comparedValue = comparedValue == null ? "" : comparedValue.toString();
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the values of a report line, in {@link #HEADER} order
+         */
+        public List<String> toList() {
+            return Arrays.asList(kind.toString(), id, product, release, value, comparedProduct, comparedRelease,
+                                 comparedValue);
+        }
+
+        @Override
+        public String toString() {
+            return toList().toString();
+        }
+    }
+}
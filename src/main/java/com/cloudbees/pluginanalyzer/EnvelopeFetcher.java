@@ -0,0 +1,446 @@
+package com.cloudbees.pluginanalyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Properties;
+
+/**
+ * <p>In-process HTTP fetcher for envelope files.</p>
+ *
+ * Connections go through {@link HttpURLConnection}, which keeps them alive and reuses them as long as every
+ * response body is fully consumed and closed. Requests have connect and read timeouts and are retried with an
+ * exponential backoff on I/O errors and server errors. The last downloaded body is kept in a cache file, with
+ * its {@code ETag} and {@code Last-Modified} headers in a sidecar file, so that the next request is conditional
+ * and a {@code 304 Not Modified} answer is served from the cache.
+ *
+ * A fresh body is streamed straight into the parser while being copied into a temporary file, which only
+ * replaces the cache file once the parser succeeded and the body was completely read. Each attempt holds the
+ * {@link CacheLock} of the cache file, so that processes sharing the cache directory do not interleave their
+ * downloads and metadata updates.
+ *
+ * Files copied as is, such as mirrored envelopes, are downloaded by {@link #download(URL, File)}, which resumes
+ * partial files with range requests.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class EnvelopeFetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnvelopeFetcher.class);
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT = 60_000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BACKOFF = 1_000L;
+
+    private static final String METADATA_EXTENSION = ".meta";
+    private static final String TEMP_EXTENSION = ".part";
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String userName;
+    private final String password;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long backoff = DEFAULT_BACKOFF;
+
+    /**
+     * Parses a response body.
+     *
+     * @param <T> parsed type
+     */
+    public interface BodyParser<T> {
+        T parse(InputStream inputStream) throws Exception;
+
+        /**
+         * Parses the local copy of a body which was not modified since it was downloaded.
+         */
+        default T parseCached(File cacheFile) throws Exception {
+            try (InputStream inputStream = new FileInputStream(cacheFile)) {
+                return parse(inputStream);
+            }
+        }
+    }
+
+    public EnvelopeFetcher(final String userName, final String password) {
+        this.userName = userName;
+        this.password = password;
+    }
+
+    public EnvelopeFetcher withConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    public EnvelopeFetcher withReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    public EnvelopeFetcher withMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Attempt count must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public EnvelopeFetcher withBackoff(long backoff) {
+        this.backoff = backoff;
+        return this;
+    }
+
+    /**
+     * Fetches the URL and parses its body, retrying on failure.
+     *
+     * @param url remote file
+     * @param cacheFile local copy of the last successfully parsed body
+     * @param parser body parser
+     * @param <T> parsed type
+     * @return parsed body
+     * @throws Exception the last failure once all attempts are exhausted
+     */
+    public <T> T fetch(final URL url, final File cacheFile, final BodyParser<T> parser)
+    throws Exception {
+        return withRetries(url, () -> {
+            try (CacheLock lock = CacheLock.lock(cacheFile)) {
+                return fetchOnce(url, cacheFile, parser);
+            }
+        });
+    }
+
+    /**
+     * Fetches the URL into its local copy, retrying on failure, for bodies which are read more than once.
+     *
+     * @param url remote file
+     * @param cacheFile local copy, only replaced once completely downloaded
+     * @return the up to date local copy
+     * @throws Exception the last failure once all attempts are exhausted
+     */
+    public File fetchFile(final URL url, final File cacheFile)
+    throws Exception {
+        return fetch(url, cacheFile, new BodyParser<File>() {
+            @Override
+            public File parse(InputStream inputStream) throws IOException {
+                drain(inputStream);
+                return cacheFile;
+            }
+
+            @Override
+            public File parseCached(File file) {
+                return file;
+            }
+        });
+    }
+
+    /**
+     * Fetches a small text file, such as a checksum, without caching it.
+     *
+     * @param url remote file
+     * @return its content
+     * @throws Exception the last failure once all attempts are exhausted
+     */
+    public String fetchText(final URL url)
+    throws Exception {
+        return withRetries(url, () -> {
+            HttpURLConnection connection = open(url);
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw failure(connection, url, status);
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try (InputStream body = connection.getInputStream()) {
+                copy(body, content);
+            }
+            return new String(content.toByteArray(), UTF8);
+        });
+    }
+
+    /**
+     * Downloads the URL into a partial file, resuming from its current length with a range request. A server
+     * ignoring the range answers with the whole body, which then replaces the partial file. Failed attempts keep
+     * what was received, so that the next attempt, or the next call, resumes it. Checking the downloaded content
+     * is left to the caller.
+     *
+     * @param url remote file
+     * @param partFile partial file
+     * @throws Exception the last failure once all attempts are exhausted
+     */
+    public void download(final URL url, final File partFile)
+    throws Exception {
+        withRetries(url, () -> {
+            long offset = partFile.exists() ? partFile.length() : 0;
+            HttpURLConnection connection = open(url);
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+            int status = connection.getResponseCode();
+            if (status == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+                // nothing left to read, the caller checks whether the file is complete
+                failure(connection, url, status);
+                return null;
+            }
+            String range = connection.getHeaderField("Content-Range");
+            boolean resumed = status == HttpURLConnection.HTTP_PARTIAL && range != null
+                              && range.startsWith("bytes " + offset + "-");
+            if (status != HttpURLConnection.HTTP_OK && !resumed) {
+                throw failure(connection, url, status);
+            }
+            if (resumed) {
+                LOGGER.debug("Resuming {} at byte {}", url, offset);
+            }
+            try (InputStream body = connection.getInputStream();
+                 OutputStream outputStream = new FileOutputStream(partFile, resumed)) {
+                copy(body, outputStream);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * A request, which may be attempted several times.
+     *
+     * @param <T> result type
+     */
+    private interface Attempt<T> {
+        T run() throws Exception;
+    }
+
+    private <T> T withRetries(final URL url, final Attempt<T> attempt)
+    throws Exception {
+        IOException failure = null;
+        for (int i = 1; i <= maxAttempts; i++) {
+            try {
+                return attempt.run();
+            } catch (HttpStatusException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (i < maxAttempts) {
+                long delay = backoff << (i - 1);
+                LOGGER.warn("Attempt {}/{} to fetch {} failed ({}), retrying in {} ms",
+                            i, maxAttempts, url, failure.getMessage(), delay);
+                Thread.sleep(delay);
+            }
+        }
+        throw failure;
+    }
+
+    private HttpURLConnection open(final URL url)
+    throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        if (userName != null) {
+            String credentials = userName + ":" + (password == null ? "" : password);
+            connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                credentials.getBytes(UTF8)));
+        }
+        return connection;
+    }
+
+    /**
+     * Drains the error body of an unexpected answer.
+     *
+     * @return the failure to throw: retryable for server errors, an {@link HttpStatusException} otherwise
+     */
+    private static IOException failure(final HttpURLConnection connection, final URL url, final int status)
+    throws IOException {
+        try (InputStream errorStream = connection.getErrorStream()) {
+            if (errorStream != null) {
+                drain(errorStream);
+            }
+        }
+        String message = String.format("%s answered %d %s", url, status, connection.getResponseMessage());
+        if (status >= HttpURLConnection.HTTP_INTERNAL_ERROR || status == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+            || status == 429) {
+            return new IOException(message);
+        }
+        return new HttpStatusException(message, status);
+    }
+
+    private <T> T fetchOnce(final URL url, final File cacheFile, final BodyParser<T> parser)
+    throws Exception {
+        final File metadataFile = new File(cacheFile.getPath() + METADATA_EXTENSION);
+        final Properties metadata = cacheFile.exists() ? readMetadata(metadataFile) : new Properties();
+        HttpURLConnection connection = open(url);
+        if (metadata.getProperty(ETAG) != null) {
+            connection.setRequestProperty("If-None-Match", metadata.getProperty(ETAG));
+        }
+        if (metadata.getProperty(LAST_MODIFIED) != null) {
+            connection.setRequestProperty("If-Modified-Since", metadata.getProperty(LAST_MODIFIED));
+        }
+
+        final int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            try (InputStream body = connection.getInputStream()) {
+                drain(body);
+            }
+            LOGGER.debug("{} not modified, using {}", url, cacheFile);
+            return parser.parseCached(cacheFile);
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw failure(connection, url, status);
+        }
+
+        final File tempFile = new File(cacheFile.getPath() + TEMP_EXTENSION);
+        boolean complete = false;
+        try {
+            T result;
+            try (OutputStream copy = new FileOutputStream(tempFile);
+                 InputStream body = connection.getInputStream()) {
+                InputStream inputStream = new TeeInputStream(body, copy);
+                result = parser.parse(inputStream);
+                drain(inputStream);
+            }
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            complete = true;
+            Properties newMetadata = new Properties();
+            if (connection.getHeaderField(ETAG) != null) {
+                newMetadata.setProperty(ETAG, connection.getHeaderField(ETAG));
+            }
+            if (connection.getHeaderField(LAST_MODIFIED) != null) {
+                newMetadata.setProperty(LAST_MODIFIED, connection.getHeaderField(LAST_MODIFIED));
+            }
+            writeMetadata(metadataFile, newMetadata);
+            return result;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+    }
+
+    private static Properties readMetadata(final File metadataFile)
+    throws IOException {
+        Properties metadata = new Properties();
+        if (metadataFile.exists()) {
+            try (InputStream inputStream = new FileInputStream(metadataFile)) {
+                metadata.load(inputStream);
+            }
+        }
+        return metadata;
+    }
+
+    private static void writeMetadata(final File metadataFile, final Properties metadata)
+    throws IOException {
+        File tempFile = new File(metadataFile.getPath() + TEMP_EXTENSION);
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+            metadata.store(outputStream, null);
+        }
+        Files.move(tempFile.toPath(), metadataFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the stream to its end so that the underlying connection can be reused.
+     */
+    private static void drain(final InputStream inputStream)
+    throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (inputStream.read(buffer) != -1) {
+            // discard
+        }
+    }
+
+    private static void copy(final InputStream inputStream, final OutputStream outputStream)
+    throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Copies everything read from the wrapped stream into an output stream. Closing it is left to the owner of
+     * the wrapped stream, so that a parser closing its input does not prevent draining the rest of the body.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                copy.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // the wrapped stream is closed by its owner
+        }
+    }
+
+    /**
+     * Non-retryable HTTP answer.
+     */
+    public static class HttpStatusException extends IOException {
+        private final int status;
+
+        HttpStatusException(String message, int status) {
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+}
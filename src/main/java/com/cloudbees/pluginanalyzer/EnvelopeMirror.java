@@ -0,0 +1,438 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import hudson.util.VersionNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Mirrors envelopes into a local repository tree, for hosts which cannot reach the repository.</p>
+ *
+ * The local tree has the layout of the repository, so that a {@code file:} URL of its root can be given wherever
+ * a repository URL is expected; each mirrored product also gets a {@code maven-metadata.xml} listing its mirrored
+ * releases, so that release selectors resolve offline.
+ *
+ * Envelopes are downloaded by a bounded pool into {@code .part} files, resumed on the next attempt or the next
+ * run when interrupted, and only replace the mirrored file once they match the {@code .sha1} checksum of the
+ * repository. The checksum is kept next to the mirrored envelope: an envelope whose checksum did not change is
+ * not downloaded again, so that a re-sync only costs one small request per release.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class EnvelopeMirror {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnvelopeMirror.class);
+
+    public static final String COMMAND = "mirror";
+    public static final String USAGE = "targetDirectory productId[:releases][,productId[:releases]...] userName "
+                                        + "password [repositoryUrl] [threads]";
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final String CHECKSUM_EXTENSION = ".sha1";
+    private static final String TEMP_EXTENSION = ".part";
+    private static final String METADATA_FILE_NAME = "maven-metadata.xml";
+    private static final Pattern CHECKSUM = Pattern.compile("[0-9a-f]{40}");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File targetDirectory;
+    private final String repositoryUrl;
+    private final EnvelopeFetcher fetcher;
+    private final ReleaseResolver resolver;
+    private final int threads;
+
+    /**
+     * Outcome of the synchronization of one envelope.
+     */
+    public enum Outcome {
+        DOWNLOADED,
+        RESUMED,
+        UNCHANGED,
+        /** the repository has no envelope for the release */
+        MISSING,
+        FAILED
+    }
+
+    /**
+     * @param targetDirectory root of the local repository tree
+     * @param repositoryUrl repository to mirror, ending with a separator
+     * @param fetcher fetcher, holding the repository credentials
+     * @param cacheDirectory cache directory of the repository metadata
+     * @param threads maximum number of concurrent downloads
+     * @throws IOException
+     */
+    public EnvelopeMirror(final File targetDirectory, final String repositoryUrl, final EnvelopeFetcher fetcher,
+                          final File cacheDirectory, final int threads)
+    throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        if (!targetDirectory.exists() && !targetDirectory.mkdirs()) {
+            throw new IOException("Cannot create the target directory: " + targetDirectory.getAbsolutePath());
+        }
+        this.targetDirectory = targetDirectory;
+        this.repositoryUrl = repositoryUrl;
+        this.fetcher = fetcher;
+        // the release lists are always revalidated, with a conditional request
+        this.resolver = new ReleaseResolver(new File(cacheDirectory, ReleaseResolver.DIRECTORY_NAME), 0, fetcher);
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) {
+        if (args.length >= 4 && args.length <= 6) {
+            try {
+                LOGGER.info("Mirroring envelopes...");
+                EnvelopeMirror mirror = new EnvelopeMirror(new File(args[0]),
+                                                           args.length >= 5 ? args[4] : PluginAnalyzer.REPO_URL,
+                                                           new EnvelopeFetcher(args[2], args[3]),
+                                                           PluginAnalyzer.getDefaultCacheDirectory(),
+                                                           args.length == 6 ? Integer.parseInt(args[5])
+                                                                            : DEFAULT_THREADS);
+                Summary summary = mirror.mirror(Selection.parseAll(args[1]));
+                LOGGER.info("{}", summary);
+                if (summary.getCount(Outcome.FAILED) > 0) {
+                    System.exit(1);
+                }
+                LOGGER.info("That's it!");
+            } catch (Exception e) {
+                LOGGER.error("Process failed!", e);
+                System.exit(1);
+            }
+        } else {
+            LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Synchronizes the envelopes of the selected releases, then the metadata of their products.
+     *
+     * @param selections selected releases by product
+     * @return outcome of each envelope
+     * @throws Exception when the releases of a product cannot be listed
+     */
+    public Summary mirror(final List<Selection> selections)
+    throws Exception {
+        Map<EnvelopeProduct, List<String>> releasesByProduct = new LinkedHashMap<>();
+        for (Selection selection : selections) {
+            List<String> releases = releasesByProduct.computeIfAbsent(selection.getProduct(),
+                                                                      product -> new ArrayList<>());
+            for (String release : selection.select(resolver.getReleases(repositoryUrl, selection.getProduct()))) {
+                if (!releases.contains(release)) {
+                    releases.add(release);
+                }
+            }
+        }
+
+        Summary summary = new Summary();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Future<Outcome>> futures = new LinkedHashMap<>();
+            for (Map.Entry<EnvelopeProduct, List<String>> product : releasesByProduct.entrySet()) {
+                for (String release : product.getValue()) {
+                    futures.put(product.getKey() + " " + release,
+                                executor.submit(() -> sync(product.getKey(), release)));
+                }
+            }
+            for (Map.Entry<String, Future<Outcome>> future : futures.entrySet()) {
+                try {
+                    summary.add(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    LOGGER.error("Cannot mirror {}: {}", future.getKey(), e.getCause().getMessage());
+                    summary.add(future.getKey(), Outcome.FAILED);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (EnvelopeProduct product : releasesByProduct.keySet()) {
+            writeMetadata(product);
+        }
+        return summary;
+    }
+
+    /**
+     * Synchronizes the envelope of a release.
+     *
+     * @return the outcome, never {@link Outcome#FAILED}
+     * @throws Exception when the envelope cannot be mirrored
+     */
+    Outcome sync(final EnvelopeProduct product, final String release)
+    throws Exception {
+        URL envelopeUrl = PluginAnalyzer.getEnvelopeUrl(repositoryUrl, product, release);
+        File envelopeFile = new File(PluginAnalyzer.getEnvelopeUrl(getTargetUrl(), product, release).toURI());
+        File checksumFile = new File(envelopeFile.getPath() + CHECKSUM_EXTENSION);
+        String expected;
+        try {
+            expected = parseChecksum(fetcher.fetchText(new URL(envelopeUrl + CHECKSUM_EXTENSION)));
+        } catch (EnvelopeFetcher.HttpStatusException e) {
+            if (e.getStatus() == HttpURLConnection.HTTP_NOT_FOUND) {
+                LOGGER.warn("{} {} has no envelope", product, release);
+                return Outcome.MISSING;
+            }
+            throw e;
+        }
+
+        File directory = envelopeFile.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the directory: " + directory.getAbsolutePath());
+        }
+        try (CacheLock lock = CacheLock.lock(envelopeFile)) {
+            if (envelopeFile.exists() && checksumFile.exists()
+                && expected.equals(new String(Files.readAllBytes(checksumFile.toPath()), UTF8).trim())) {
+                return Outcome.UNCHANGED;
+            }
+            File partFile = new File(envelopeFile.getPath() + TEMP_EXTENSION);
+            boolean resumed = partFile.length() > 0;
+            fetcher.download(envelopeUrl, partFile);
+            String actual = sha1(partFile);
+            if (!expected.equals(actual) && resumed) {
+                // the partial file may be a previous version of the envelope: start over
+                LOGGER.warn("Resumed download of {} does not match its checksum, downloading it again", envelopeUrl);
+                Files.delete(partFile.toPath());
+                resumed = false;
+                fetcher.download(envelopeUrl, partFile);
+                actual = sha1(partFile);
+            }
+            if (!expected.equals(actual)) {
+                Files.delete(partFile.toPath());
+                throw new IOException(String.format("%s checksum is %s, expected %s", envelopeUrl, actual,
+                                                    expected));
+            }
+            Files.move(partFile.toPath(), envelopeFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            write(checksumFile, expected);
+            LOGGER.info("{} {} mirrored", product, release);
+            return resumed ? Outcome.RESUMED : Outcome.DOWNLOADED;
+        }
+    }
+
+    /**
+     * Lists the mirrored releases of a product in its metadata.
+     */
+    private void writeMetadata(final EnvelopeProduct product)
+    throws Exception {
+        File artifactDirectory = new File(new URL(PluginAnalyzer.getArtifactUrl(getTargetUrl(), product)).toURI());
+        List<String> releases = new ArrayList<>();
+        File[] directories = artifactDirectory.listFiles(File::isDirectory);
+        for (File directory : directories == null ? new File[0] : directories) {
+            if (new File(directory, PluginAnalyzer.getEnvelopeFileName(product, directory.getName())).exists()) {
+                releases.add(directory.getName());
+            }
+        }
+        if (releases.isEmpty()) {
+            return;
+        }
+        releases.sort((release, other) -> new VersionNumber(release).compareTo(new VersionNumber(other)));
+        String latest = releases.get(releases.size() - 1);
+        StringBuilder metadata = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata>\n");
+        metadata.append("  <groupId>").append(product.getGroupId()).append("</groupId>\n");
+        metadata.append("  <artifactId>").append(product.getArtifactId()).append("</artifactId>\n");
+        metadata.append("  <versioning>\n    <latest>").append(latest).append("</latest>\n");
+        metadata.append("    <release>").append(latest).append("</release>\n    <versions>\n");
+        for (String release : releases) {
+            metadata.append("      <version>").append(release).append("</version>\n");
+        }
+        metadata.append("    </versions>\n  </versioning>\n</metadata>\n");
+        write(new File(artifactDirectory, METADATA_FILE_NAME), metadata.toString());
+    }
+
+    private String getTargetUrl() {
+        return targetDirectory.getAbsoluteFile().toURI().toString();
+    }
+
+    private static void write(final File file, final String content)
+    throws IOException {
+        Path tempFile = Files.createTempFile(file.getParentFile().toPath(), file.getName(), TEMP_EXTENSION);
+        Files.write(tempFile, content.getBytes(UTF8));
+        Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param content checksum file, possibly followed by the file name
+     * @return the lower case checksum
+     * @throws IOException when the content is not a SHA-1 checksum
+     */
+    static String parseChecksum(final String content)
+    throws IOException {
+        String[] tokens = content.trim().split("\\s+", 2);
+        String checksum = tokens[0].toLowerCase();
+        if (!CHECKSUM.matcher(checksum).matches()) {
+            throw new IOException("Invalid SHA-1 checksum: " + content.trim());
+        }
+        return checksum;
+    }
+
+    static String sha1(final File file)
+    throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        try (InputStream inputStream = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder checksum = new StringBuilder();
+        for (byte b : digest.digest()) {
+            checksum.append(String.format("%02x", b));
+        }
+        return checksum.toString();
+    }
+
+    /**
+     * <p>Releases of a product to mirror.</p>
+     *
+     * Written {@code productId[:releases]}, the releases being all of them when omitted, {@code latest}, a single
+     * release, a version prefix such as {@code 2.107.*} selecting all the matching releases, or an inclusive range
+     * {@code from..to} whose bounds are optional.
+     */
+    public static final class Selection {
+        private static final String SEPARATOR = ":";
+        private static final String RANGE_SEPARATOR = "..";
+        private static final String PREFIX_WILDCARD = "*";
+
+        private final EnvelopeProduct product;
+        private final String releases;
+
+        private Selection(final EnvelopeProduct product, final String releases) {
+            this.product = product;
+            this.releases = releases;
+        }
+
+        /**
+         * @param selections comma separated selections
+         * @return the selections
+         */
+        public static List<Selection> parseAll(final String selections) {
+            List<Selection> parsed = new ArrayList<>();
+            for (String selection : selections.split(",")) {
+                if (!selection.trim().isEmpty()) {
+                    parsed.add(parse(selection.trim()));
+                }
+            }
+            return parsed;
+        }
+
+        /**
+         * @param product product
+         * @param releases release, {@code from..to} range, {@code prefix*} or {@code latest}, all when empty
+         * @return the selection
+         */
+        public static Selection of(final EnvelopeProduct product, final String releases) {
+            return new Selection(product, releases.trim());
+        }
+
+        public static Selection parse(final String selection) {
+            int separator = selection.indexOf(SEPARATOR);
+            String productId = separator < 0 ? selection : selection.substring(0, separator);
+            String releases = separator < 0 ? "" : selection.substring(separator + 1).trim();
+            return new Selection(EnvelopeProduct.valueOf(productId.trim().toUpperCase()), releases);
+        }
+
+        public EnvelopeProduct getProduct() {
+            return product;
+        }
+
+        /**
+         * @return true if this selection is a single release, which can be used without listing the releases
+         */
+        public boolean isExact() {
+            return !releases.isEmpty() && !ReleaseResolver.LATEST.equals(releases)
+                   && !releases.endsWith(PREFIX_WILDCARD) && !releases.contains(RANGE_SEPARATOR);
+        }
+
+        /**
+         * @param available releases of the product
+         * @return the selected ones, in the given order
+         */
+        public List<String> select(final List<String> available) {
+            if (releases.isEmpty()) {
+                return available;
+            }
+            if (ReleaseResolver.LATEST.equals(releases)) {
+                String latest = ReleaseResolver.select(available, ReleaseResolver.LATEST);
+                return latest == null ? Collections.emptyList() : Collections.singletonList(latest);
+            }
+            List<String> selected = new ArrayList<>();
+            int range = releases.indexOf(RANGE_SEPARATOR);
+            for (String release : available) {
+                boolean matches;
+                if (releases.endsWith(PREFIX_WILDCARD)) {
+                    matches = release.startsWith(releases.substring(0, releases.length() - 1));
+                } else if (range >= 0) {
+                    String from = releases.substring(0, range).trim();
+                    String to = releases.substring(range + RANGE_SEPARATOR.length()).trim();
+                    VersionNumber version = new VersionNumber(release);
+                    matches = (from.isEmpty() || version.compareTo(new VersionNumber(from)) >= 0)
+                              && (to.isEmpty() || version.compareTo(new VersionNumber(to)) <= 0);
+                } else {
+                    matches = release.equals(releases);
+                }
+                if (matches) {
+                    selected.add(release);
+                }
+            }
+            return selected;
+        }
+
+        @Override
+        public String toString() {
+            return releases.isEmpty() ? product.name() : product + SEPARATOR + releases;
+        }
+    }
+
+    /**
+     * Outcome of each mirrored envelope.
+     */
+    public static final class Summary {
+        private final Map<String, Outcome> outcomes = new LinkedHashMap<>();
+
+        void add(final String envelope, final Outcome outcome) {
+            outcomes.put(envelope, outcome);
+        }
+
+        /**
+         * @return outcome by product and release
+         */
+        public Map<String, Outcome> getOutcomes() {
+            return Collections.unmodifiableMap(outcomes);
+        }
+
+        public int getCount(final Outcome outcome) {
+            return Collections.frequency(outcomes.values(), outcome);
+        }
+
+        @Override
+        public String toString() {
+            Map<Outcome, Integer> counts = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                counts.put(outcome, getCount(outcome));
+            }
+            return String.format("%d envelopes: %s", outcomes.size(), counts);
+        }
+    }
+}
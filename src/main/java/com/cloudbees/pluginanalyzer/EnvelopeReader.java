@@ -0,0 +1,499 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import hudson.util.VersionNumber;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Streaming envelope reader, materializing only the plugins an analysis looks up.</p>
+ *
+ * The envelope JSON is read token by token, without any object tree: everything but the {@code plugins} object
+ * is skipped, and {@link EnvelopePlugin}s are only built for the requested ids and the plugins they require,
+ * directly or not, so that the dependency graph of the requested plugins is the one of the whole envelope. Only the
+ * required dependency ids of the other plugins are kept until the end of the envelope tells which ones are
+ * required; those are then read by a second pass over the envelope, which is skipped when the requested plugins
+ * only require each other.
+ *
+ * Unlike {@code ParsedEnvelope}, the envelope is not validated; like it, trailing commas are accepted.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class EnvelopeReader {
+    private static final String PLUGINS = "plugins";
+    private static final String NAME = "name";
+    private static final String GROUP_ID = "groupId";
+    private static final String ARTIFACT_ID = "artifactId";
+    private static final String VERSION = "version";
+    private static final String DEPENDENCIES = "dependencies";
+    private static final String OPTIONAL_DEPENDENCIES = "optionalDependencies";
+    private static final String OTHER_DEPENDENCIES = "otherDependencies";
+    private static final String SCOPE = "scope";
+    private static final String SHA1 = "sha1";
+    private static final String TIER = "tier";
+    private static final int BUFFER_SIZE = 8192;
+    private static final String[] NO_DEPENDENCIES = new String[0];
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long offset;
+
+    /**
+     * Envelope content, opened once per pass.
+     */
+    public interface Source {
+        InputStream open() throws IOException;
+    }
+
+    private EnvelopeReader(final Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @param envelopeFile envelope JSON file
+     * @param ids ids of the plugins to read
+     * @return the envelope plugins among the ids, and their required dependencies
+     * @throws IOException when the content is not a JSON object
+     */
+    public static Map<String, EnvelopePlugin> read(final File envelopeFile, final Collection<String> ids)
+    throws IOException {
+        return read(() -> new FileInputStream(envelopeFile), ids);
+    }
+
+    /**
+     * @param source envelope JSON content, opened a second time when plugins outside of the ids are required
+     * @param ids ids of the plugins to read
+     * @return the envelope plugins among the ids, and their required dependencies
+     * @throws IOException when the content is not a JSON object
+     */
+    public static Map<String, EnvelopePlugin> read(final Source source, final Collection<String> ids)
+    throws IOException {
+        Set<String> requested = ids instanceof Set ? (Set<String>) ids : new HashSet<>(ids);
+        Map<String, EnvelopePlugin> plugins = new HashMap<>();
+        Map<String, String[]> skipped = new HashMap<>();
+        try (InputStream inputStream = source.open()) {
+            new EnvelopeReader(newReader(inputStream)).readEnvelope(requested, plugins, skipped);
+        }
+
+        // required dependencies, wherever they appear in the envelope
+        Set<String> required = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for (EnvelopePlugin plugin : plugins.values()) {
+            pending.addAll(plugin.getDependencies().keySet());
+        }
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            String[] dependencies = skipped.remove(id);
+            if (dependencies != null) {
+                required.add(id);
+                pending.addAll(Arrays.asList(dependencies));
+            }
+        }
+        if (!required.isEmpty()) {
+            skipped.clear();
+            try (InputStream inputStream = source.open()) {
+                new EnvelopeReader(newReader(inputStream)).readEnvelope(required, plugins, null);
+            }
+        }
+        return plugins;
+    }
+
+    private static Reader newReader(final InputStream inputStream) {
+        return new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Reads the requested plugins, and the required dependency ids of the others.
+     *
+     * @param ids ids of the plugins to read
+     * @param plugins read plugins, by id
+     * @param skipped required dependency ids of the other plugins, by plugin id; null to skip them altogether and
+     *                stop once all the requested plugins were read
+     */
+    private void readEnvelope(final Set<String> ids, final Map<String, EnvelopePlugin> plugins,
+                              final Map<String, String[]> skipped)
+    throws IOException {
+        int remaining = ids.size();
+        expect('{');
+        for (boolean first = true; hasNext('}', first); first = false) {
+            String name = readString();
+            expect(':');
+            if (PLUGINS.equals(name)) {
+                expect('{');
+                for (boolean firstPlugin = true; hasNext('}', firstPlugin); firstPlugin = false) {
+                    String id = readString();
+                    expect(':');
+                    if (ids.contains(id)) {
+                        plugins.put(id, readPlugin().toEnvelopePlugin(id));
+                        if (--remaining == 0 && skipped == null) {
+                            return;
+                        }
+                    } else if (skipped != null) {
+                        skipped.put(id, readDependencyIds());
+                    } else {
+                        skipValue();
+                    }
+                }
+            } else {
+                skipValue();
+            }
+        }
+        if (peek() != -1) {
+            throw error("Unexpected content after the envelope");
+        }
+    }
+
+    /**
+     * Reads the required dependency ids of a plugin, skipping all its other fields.
+     */
+    private String[] readDependencyIds()
+    throws IOException {
+        String[] dependencies = NO_DEPENDENCIES;
+        expect('{');
+        for (boolean first = true; hasNext('}', first); first = false) {
+            String field = readString();
+            expect(':');
+            if (DEPENDENCIES.equals(field)) {
+                Set<String> ids = readDependencies().keySet();
+                dependencies = ids.toArray(new String[ids.size()]);
+            } else {
+                skipValue();
+            }
+        }
+        return dependencies;
+    }
+
+    private RawPlugin readPlugin()
+    throws IOException {
+        RawPlugin plugin = new RawPlugin();
+        expect('{');
+        for (boolean first = true; hasNext('}', first); first = false) {
+            String field = readString();
+            expect(':');
+            switch (field) {
+                case NAME:
+                    plugin.name = readNullableString();
+                    break;
+                case GROUP_ID:
+                    plugin.groupId = readNullableString();
+                    break;
+                case ARTIFACT_ID:
+                    plugin.artifactId = readNullableString();
+                    break;
+                case VERSION:
+                    plugin.version = readNullableString();
+                    break;
+                case DEPENDENCIES:
+                    plugin.dependencies = readDependencies();
+                    break;
+                case OPTIONAL_DEPENDENCIES:
+                    plugin.optionalDependencies = readDependencies();
+                    break;
+                case OTHER_DEPENDENCIES:
+                    plugin.otherDependencies = readDependencies();
+                    break;
+                case SCOPE:
+                    plugin.scope = readNullableString();
+                    break;
+                case SHA1:
+                    plugin.sha1 = readNullableString();
+                    break;
+                case TIER:
+                    plugin.tier = readNullableString();
+                    break;
+                default:
+                    skipValue();
+            }
+        }
+        return plugin;
+    }
+
+    private Map<String, String> readDependencies()
+    throws IOException {
+        Map<String, String> dependencies = new LinkedHashMap<>();
+        if (peek() == 'n') {
+            readLiteral("null");
+            return dependencies;
+        }
+        expect('{');
+        for (boolean first = true; hasNext('}', first); first = false) {
+            String id = readString();
+            expect(':');
+            dependencies.put(id, readString());
+        }
+        return dependencies;
+    }
+
+    /**
+     * Moves to the next member or element of an object or array, accepting a trailing comma.
+     *
+     * @param end closing character of the object or array
+     * @param first true for the first member or element
+     * @return false once the object or array is closed
+     */
+    private boolean hasNext(final char end, final boolean first)
+    throws IOException {
+        int c = peek();
+        if (c == end) {
+            position++;
+            return false;
+        }
+        if (!first) {
+            if (c != ',') {
+                throw error("Expected ',' or '" + end + "'");
+            }
+            position++;
+            c = peek();
+            if (c == end) {
+                position++;
+                return false;
+            }
+        }
+        if (c == -1) {
+            throw error("Unexpected end of envelope");
+        }
+        return true;
+    }
+
+    private void skipValue()
+    throws IOException {
+        int c = peek();
+        switch (c) {
+            case '{':
+                position++;
+                for (boolean first = true; hasNext('}', first); first = false) {
+                    readString();
+                    expect(':');
+                    skipValue();
+                }
+                break;
+            case '[':
+                position++;
+                for (boolean first = true; hasNext(']', first); first = false) {
+                    skipValue();
+                }
+                break;
+            case '"':
+                skipString();
+                break;
+            case 't':
+                readLiteral("true");
+                break;
+            case 'f':
+                readLiteral("false");
+                break;
+            case 'n':
+                readLiteral("null");
+                break;
+            default:
+                if (c != '-' && (c < '0' || c > '9')) {
+                    throw error("Unexpected character");
+                }
+                while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+                    position++;
+                    c = next();
+                }
+        }
+    }
+
+    private String readNullableString()
+    throws IOException {
+        if (peek() == 'n') {
+            readLiteral("null");
+            return null;
+        }
+        return readString();
+    }
+
+    private String readString()
+    throws IOException {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+                position++;
+            }
+            value.append(buffer, start, position - start);
+            int c = next();
+            if (c == -1) {
+                throw error("Unterminated string");
+            }
+            if (c != '"' && c != '\\') {
+                // end of the buffer, refilled
+                continue;
+            }
+            position++;
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c == '\\') {
+                value.append(readEscape());
+            }
+        }
+    }
+
+    private void skipString()
+    throws IOException {
+        expect('"');
+        while (true) {
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+                position++;
+            }
+            int c = next();
+            if (c == -1) {
+                throw error("Unterminated string");
+            }
+            if (c != '"' && c != '\\') {
+                continue;
+            }
+            position++;
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscape();
+            }
+        }
+    }
+
+    private char readEscape()
+    throws IOException {
+        int c = next();
+        position++;
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) {
+                        throw error("Invalid unicode escape");
+                    }
+                    position++;
+                    code = code * 16 + digit;
+                }
+                return (char) code;
+            default:
+                throw error("Invalid escape");
+        }
+    }
+
+    private void readLiteral(final String literal)
+    throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+            position++;
+        }
+    }
+
+    private void expect(final char expected)
+    throws IOException {
+        if (peek() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        position++;
+    }
+
+    /**
+     * @return the next character which is not a white space, without consuming it, or -1 at the end
+     */
+    private int peek()
+    throws IOException {
+        int c = next();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            position++;
+            c = next();
+        }
+        return c;
+    }
+
+    /**
+     * @return the next character, without consuming it, or -1 at the end
+     */
+    private int next()
+    throws IOException {
+        if (position == limit) {
+            offset += limit;
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    private IOException error(final String message) {
+        return new IOException(String.format("%s at character %d of the envelope", message, offset + position));
+    }
+
+    /**
+     * Plugin fields, as read.
+     */
+    private static final class RawPlugin {
+        private String name;
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private Map<String, String> dependencies = new LinkedHashMap<>();
+        private Map<String, String> optionalDependencies = new LinkedHashMap<>();
+        private Map<String, String> otherDependencies = new LinkedHashMap<>();
+        private String scope;
+        private String sha1;
+        private String tier;
+
+        EnvelopePlugin toEnvelopePlugin(final String id) {
+            return new EnvelopePlugin(id, name, groupId, artifactId,
+                                      version == null ? null : new VersionNumber(version),
+                                      toVersions(dependencies), toVersions(optionalDependencies),
+                                      toVersions(otherDependencies),
+                                      scope == null ? null : Scope.valueOf(scope.toUpperCase()), sha1,
+                                      tier == null ? null : PluginTier.valueOf(tier.toUpperCase()));
+        }
+
+        private static Map<String, VersionNumber> toVersions(final Map<String, String> dependencies) {
+            Map<String, VersionNumber> versions = new HashMap<>(dependencies.size() * 2);
+            for (Map.Entry<String, String> dependency : dependencies.entrySet()) {
+                versions.put(dependency.getKey(), VersionInterner.DEFAULT.intern(dependency.getValue()));
+            }
+            return versions;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>In-memory cache of parsed envelopes.</p>
+ *
+ * Envelopes are kept in least recently used order and evicted once either the entry count or the estimated heap
+ * footprint goes over its bound. Concurrent requests for an envelope which is not loaded yet share a single load.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class EnvelopeRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnvelopeRegistry.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+    public static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+
+    /** Rough heap cost of an {@link EnvelopePlugin} and its map entry, strings excluded. */
+    private static final long PLUGIN_OVERHEAD = 400;
+    private static final long DEPENDENCY_OVERHEAD = 120;
+
+    /**
+     * Loads an envelope on cache miss.
+     */
+    public interface Loader {
+        Map<String, EnvelopePlugin> load(EnvelopeProduct product, String productRelease) throws Exception;
+    }
+
+    private final Loader loader;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public EnvelopeRegistry(final Loader loader, final int maxEntries, final long maxBytes) {
+        this.loader = loader;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the envelope plugins, loaded at most once for concurrent callers
+     * @throws Exception the load failure
+     */
+    public Map<String, EnvelopePlugin> get(final EnvelopeProduct product, final String productRelease)
+    throws Exception {
+        final String key = product.name() + ':' + productRelease;
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            hits.incrementAndGet();
+            try {
+                return entry.plugins.get();
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            Map<String, EnvelopePlugin> plugins = Collections.unmodifiableMap(loader.load(product, productRelease));
+            synchronized (this) {
+                entry.weight = estimateWeight(plugins);
+                weight += entry.weight;
+                entry.plugins.complete(plugins);
+                evict();
+            }
+            return plugins;
+        } catch (Exception | Error e) {
+            synchronized (this) {
+                entries.remove(key, entry);
+            }
+            entry.plugins.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * The dependency graph is built on first use and then kept with the registered envelope plugins.
+     *
+     * @param plugins envelope plugins as returned by {@link #get(EnvelopeProduct, String)}
+     * @return the dependency graph of the envelope plugins
+     */
+    public DependencyGraph getGraph(final EnvelopeProduct product, final String productRelease,
+                                    final Map<String, EnvelopePlugin> plugins) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(product.name() + ':' + productRelease);
+        }
+        if (entry == null || entry.plugins.getNow(null) != plugins) {
+            // evicted in the meantime
+            return DependencyGraph.of(plugins);
+        }
+        synchronized (entry) {
+            if (entry.graph == null) {
+                entry.graph = DependencyGraph.of(plugins);
+                synchronized (this) {
+                    if (entries.get(product.name() + ':' + productRelease) == entry) {
+                        entry.weight += entry.graph.estimateWeight();
+                        weight += entry.graph.estimateWeight();
+                        evict();
+                    }
+                }
+            }
+            return entry.graph;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (entries.size() > maxEntries || weight > maxBytes)) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getValue().plugins.isDone() && entries.size() > 1) {
+                LOGGER.debug("Evicting envelope {}", eldest.getKey());
+                weight -= eldest.getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    private static Exception rethrow(final Throwable cause) {
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return (Exception) cause;
+    }
+
+    /**
+     * @return estimated heap footprint of the envelope plugins, in bytes
+     */
+    static long estimateWeight(final Map<String, EnvelopePlugin> plugins) {
+        long bytes = 0;
+        for (Map.Entry<String, EnvelopePlugin> entry : plugins.entrySet()) {
+            EnvelopePlugin plugin = entry.getValue();
+            bytes += PLUGIN_OVERHEAD + 2L * (length(entry.getKey()) + length(plugin.getName())
+                                               + length(plugin.getGroupId()) + length(plugin.getSha1()));
+            if (plugin.getDependencies() != null) {
+                bytes += DEPENDENCY_OVERHEAD * plugin.getDependencies().size();
+            }
+            if (plugin.getOptionalDependencies() != null) {
+                bytes += DEPENDENCY_OVERHEAD * plugin.getOptionalDependencies().size();
+            }
+        }
+        return bytes;
+    }
+
+    private static int length(final String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<Map<String, EnvelopePlugin>> plugins = new CompletableFuture<>();
+        private long weight;
+        private DependencyGraph graph;
+    }
+}
@@ -0,0 +1,255 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Fleet-wide counters of the analyzed plugins.</p>
+ *
+ * For each plugin: the number of controllers running it, how many of them run it outside of the envelope or in a
+ * version older than the envelope one, how many of the latter pinned it, and the histogram of the installed versions.
+ * Plugin ids and versions are encoded into int ids by dictionaries shared by all the workers; the per plugin counters
+ * are primitive arrays indexed by plugin id and the histogram a {@link LongIntMap} keyed by plugin and version ids.
+ * Each worker fills its own aggregate, and aggregates are merged pairwise, so that memory stays proportional to the
+ * distinct plugins and versions rather than to the controllers.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class FleetAggregate {
+    public static final List<String> HEADER = Collections.unmodifiableList(Arrays.asList(
+        "Id", "Controllers", "Outside envelope", "Lagging controllers", "Pinned lagging controllers",
+        "Versions"));
+
+    private final StringDictionary plugins;
+    private final StringDictionary versions;
+    private int[] controllers;
+    private int[] outsideEnvelope;
+    private int[] lagging;
+    private int[] pinnedLagging;
+    private final LongIntMap histogram = new LongIntMap();
+    private int failures;
+
+    /**
+     * @param plugins plugin id dictionary, shared by the aggregates to merge
+     * @param versions version dictionary, shared by the aggregates to merge
+     */
+    public FleetAggregate(final StringDictionary plugins, final StringDictionary versions) {
+        this.plugins = plugins;
+        this.versions = versions;
+        int capacity = Math.max(plugins.size(), 16);
+        this.controllers = new int[capacity];
+        this.outsideEnvelope = new int[capacity];
+        this.lagging = new int[capacity];
+        this.pinnedLagging = new int[capacity];
+    }
+
+    /**
+     * Counts a plugin of a controller.
+     *
+     * @param row analyzed plugin
+     */
+    public void add(final ReportRow row) {
+        add(row, false);
+    }
+
+    /**
+     * Counts a plugin of a controller.
+     *
+     * @param row analyzed plugin
+     * @param pinned true if the controller pinned the plugin
+     */
+    public void add(final ReportRow row, final boolean pinned) {
+        int plugin = plugins.intern(row.getId());
+        int version = versions.intern(row.getVersion() == null ? "" : row.getVersion());
+        ensureCapacity(plugin + 1);
+        controllers[plugin]++;
+        if (!row.isInEnvelope()) {
+            outsideEnvelope[plugin]++;
+        }
+        if (row.getDrift() != null && row.getDrift().getKind() == VersionDrift.Kind.OLDER) {
+            lagging[plugin]++;
+            if (pinned) {
+                pinnedLagging[plugin]++;
+            }
+        }
+        histogram.add(key(plugin, version), 1);
+    }
+
+    /**
+     * Counts a controller whose plugin list could not be analyzed.
+     */
+    public void addFailure() {
+        failures++;
+    }
+
+    /**
+     * Adds the counters of another aggregate, built on the same dictionaries, to this one.
+     *
+     * @param other aggregate to merge
+     * @return this aggregate
+     */
+    public FleetAggregate merge(final FleetAggregate other) {
+        if (other.plugins != plugins || other.versions != versions) {
+            throw new IllegalArgumentException("Aggregates do not share their dictionaries");
+        }
+        ensureCapacity(other.controllers.length);
+        for (int i = 0; i < other.controllers.length; i++) {
+            controllers[i] += other.controllers[i];
+            outsideEnvelope[i] += other.outsideEnvelope[i];
+            lagging[i] += other.lagging[i];
+            pinnedLagging[i] += other.pinnedLagging[i];
+        }
+        histogram.addAll(other.histogram);
+        failures += other.failures;
+        return this;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > controllers.length) {
+            int length = Math.max(capacity, controllers.length * 2);
+            controllers = Arrays.copyOf(controllers, length);
+            outsideEnvelope = Arrays.copyOf(outsideEnvelope, length);
+            lagging = Arrays.copyOf(lagging, length);
+            pinnedLagging = Arrays.copyOf(pinnedLagging, length);
+        }
+    }
+
+    private static long key(final int plugin, final int version) {
+        return ((long) plugin << 32) | version;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public int getControllers(final String plugin) {
+        return get(controllers, plugin);
+    }
+
+    public int getOutsideEnvelope(final String plugin) {
+        return get(outsideEnvelope, plugin);
+    }
+
+    public int getLaggingControllers(final String plugin) {
+        return get(lagging, plugin);
+    }
+
+    /**
+     * @param plugin plugin id
+     * @return number of controllers running an older version than the envelope one which they pinned
+     */
+    public int getPinnedLaggingControllers(final String plugin) {
+        return get(pinnedLagging, plugin);
+    }
+
+    private int get(final int[] counters, final String plugin) {
+        int id = plugins.getId(plugin);
+        return id < 0 || id >= counters.length ? 0 : counters[id];
+    }
+
+    /**
+     * @return ids of the plugins run by at least one controller, sorted
+     */
+    public List<String> getPlugins() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < controllers.length; i++) {
+            if (controllers[i] > 0) {
+                ids.add(plugins.get(i));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * @param plugin plugin id
+     * @return number of controllers by installed version, most installed first
+     */
+    public Map<String, Integer> getVersions(final String plugin) {
+        Map<String, Integer> versionsOfPlugin = new LinkedHashMap<>();
+        List<long[]> counts = groupByPlugin().get(plugins.getId(plugin));
+        if (counts != null) {
+            for (long[] count : sort(counts)) {
+                versionsOfPlugin.put(versions.get((int) count[0]), (int) count[1]);
+            }
+        }
+        return versionsOfPlugin;
+    }
+
+    /**
+     * Scans the histogram once.
+     *
+     * @return version id and count pairs, by plugin id
+     */
+    private Map<Integer, List<long[]>> groupByPlugin() {
+        final Map<Integer, List<long[]>> versionsByPlugin = new HashMap<>();
+        histogram.forEach((key, value) -> {
+            int plugin = (int) (key >>> 32);
+            versionsByPlugin.computeIfAbsent(plugin, id -> new ArrayList<>()).add(new long[] {key & 0xFFFFFFFFL,
+                                                                                              value});
+        });
+        return versionsByPlugin;
+    }
+
+    /**
+     * @return the counts, most installed version first, then by version
+     */
+    private List<long[]> sort(final List<long[]> counts) {
+        counts.sort(Comparator.<long[]>comparingLong(count -> -count[1])
+                        .thenComparing(count -> versions.get((int) count[0])));
+        return counts;
+    }
+
+    /**
+     * @param limit maximum number of plugins
+     * @return plugins ranked by number of lagging controllers, then by id
+     */
+    public List<Map.Entry<String, Integer>> getLaggingPlugins(final int limit) {
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+        for (int i = 0; i < lagging.length; i++) {
+            if (lagging[i] > 0) {
+                ranked.add(new AbstractMap.SimpleImmutableEntry<>(plugins.get(i), lagging[i]));
+            }
+        }
+        ranked.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()));
+        return ranked.size() > limit ? new ArrayList<>(ranked.subList(0, limit)) : ranked;
+    }
+
+    /**
+     * Writes one line per plugin, the versions column listing {@code version=controllers} pairs.
+     *
+     * @param reportFile CSV report file
+     * @throws IOException
+     */
+    public void writeReport(final File reportFile)
+    throws IOException {
+        Map<Integer, List<long[]>> versionsByPlugin = groupByPlugin();
+        try (CsvReportSink sink = new CsvReportSink(reportFile, false)) {
+            sink.writeLine(HEADER);
+            for (String plugin : getPlugins()) {
+                int id = plugins.getId(plugin);
+                StringBuilder versionsOfPlugin = new StringBuilder();
+                for (long[] count : sort(versionsByPlugin.get(id))) {
+                    if (versionsOfPlugin.length() > 0) {
+                        versionsOfPlugin.append(' ');
+                    }
+                    versionsOfPlugin.append(versions.get((int) count[0])).append('=').append(count[1]);
+                }
+                sink.writeLine(Arrays.asList(plugin, controllers[id], outsideEnvelope[id], lagging[id],
+                                             pinnedLagging[id], versionsOfPlugin.toString()));
+            }
+            sink.commit();
+        }
+    }
+}
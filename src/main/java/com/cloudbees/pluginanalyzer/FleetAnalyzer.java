@@ -0,0 +1,629 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Analyzes a whole fleet of plugin lists against a single envelope.</p>
+ *
+ * The envelope is loaded and parsed once, then shared read-only between the workers of a bounded pool which
+ * run {@link PluginAnalyzer#getFilePlugins(Path)} and stream the analyzed plugins of every list into one report
+ * per controller. Support bundles are read in place, their report being named after the controller instance id.
+ * Plain plugin lists whose controller names collide, e.g. {@code a/x/active.txt} and {@code b/x/active.txt}, are
+ * named after their paths relative to their closest common directory instead. Controllers which still share a
+ * report file are logged and counted as failures without being analyzed, while the rest of the fleet is.
+ * Every analyzed plugin is also counted into a fleet-wide {@link FleetAggregate}.
+ *
+ * Plugin lists are analyzed through an {@link AnalysisCache}: lists holding the same plugins and versions are only
+ * analyzed once per run, and not at all when an earlier run already analyzed them against the same envelope.
+ * When the analyzer records its history, the rows of all the controllers are appended to the {@link HistoryStore}
+ * as one segment.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class FleetAnalyzer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FleetAnalyzer.class);
+
+    public static final String COMMAND = "batch";
+    public static final String USAGE = "pluginListDirectoryOrManifest productId productRelease userName password "
+                                        + "[threads]";
+
+    private static final String PLUGIN_LIST_EXTENSION = ".txt";
+    private static final Pattern UNSAFE_FILE_NAME_CHARACTERS = Pattern.compile("[^A-Za-z0-9._-]");
+    private static final String DEFAULT_PLUGIN_LIST_NAME = "active.txt";
+    private static final String REPORT_SUFFIX = "-" + PluginAnalyzer.REPORT_BASE_NAME;
+    private static final String MANIFEST_COMMENT = "#";
+    private static final String LAGGING_REPORT_NAME = "Lagging-Plugins.csv";
+    private static final String AGGREGATE_REPORT_NAME = "Fleet-Plugins.csv";
+    private static final int SLICES_PER_THREAD = 4;
+    private static final int LAGGING_LOG_LIMIT = 10;
+    private static final String METRICS_NAME = "Fleet";
+
+    private final PluginAnalyzer analyzer;
+    private final File outputDirectory;
+    private final int threads;
+
+    public FleetAnalyzer(PluginAnalyzer analyzer, File outputDirectory, int threads)
+    throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        if (!outputDirectory.exists() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create the output directory: " + outputDirectory.getAbsolutePath());
+        }
+        this.analyzer = analyzer;
+        this.outputDirectory = outputDirectory;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 5 || args.length == 6) {
+            try {
+                LOGGER.info("Processing fleet...");
+                int threads = args.length == 6 ? Integer.parseInt(args[5])
+                                               : Runtime.getRuntime().availableProcessors();
+                // resolved once, so that every report and the history name the same release
+                PluginAnalyzer analyzer = new PluginAnalyzer(args[1], args[2])
+                    .resolveRelease(PluginAnalyzer.REPO_URL, args[3], args[4]);
+                FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(analyzer,
+                                                                new File(analyzer.getOutputDirectory(), "fleet"),
+                                                                threads);
+                Map<String, EnvelopePlugin> envelopePlugins;
+                try (RunMetrics.Timer timer = analyzer.getMetrics().time("getEnvelopePlugins")) {
+                    envelopePlugins = analyzer.getEnvelopePlugins(args[3], args[4]);
+                }
+                Summary summary = fleetAnalyzer.analyze(listPluginFiles(Paths.get(args[0])), envelopePlugins);
+                LOGGER.info("{}", summary);
+                for (Map.Entry<String, Integer> plugin : summary.getLaggingPlugins(LAGGING_LOG_LIMIT)) {
+                    LOGGER.info("{} lags behind the envelope on {} controllers, {} of them pinned it", plugin.getKey(),
+                                plugin.getValue(), summary.getPinnedLaggingControllers(plugin.getKey()));
+                }
+                fleetAnalyzer.writeLaggingReport(summary);
+                fleetAnalyzer.writeAggregateReport(summary);
+                fleetAnalyzer.exportMetrics();
+                LOGGER.info("That's it!");
+            } catch (Exception e) {
+                LOGGER.error("Process failed!", e);
+                System.exit(1);
+            }
+        } else {
+            LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Lists the plugin lists to analyze. A directory is walked recursively for {@code *.txt} plugin lists and
+     * {@code *.zip} support bundles, any other file is read as a manifest holding one plugin list or support bundle
+     * path per line (relative paths are resolved against the manifest directory, blank lines and lines starting
+     * with '#' are ignored).
+     *
+     * @param source directory or manifest
+     * @return plugin list files, sorted
+     * @throws IOException
+     */
+    public static List<Path> listPluginFiles(final Path source)
+    throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> paths = Files.walk(source)) {
+                return paths.filter(Files::isRegularFile)
+                            .filter(FleetAnalyzer::isPluginList)
+                            .sorted()
+                            .collect(Collectors.toList());
+            }
+        }
+        Path base = source.toAbsolutePath().getParent();
+        List<Path> files = new ArrayList<>();
+        for (String line : Files.readAllLines(source, Charset.forName("UTF-8"))) {
+            String entry = line.trim();
+            if (!entry.isEmpty() && !entry.startsWith(MANIFEST_COMMENT)) {
+                files.add(base.resolve(entry));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @param path file
+     * @return true if the file is named like a plugin list or a support bundle
+     */
+    static boolean isPluginList(final Path path) {
+        return path.getFileName() != null
+               && (path.getFileName().toString().endsWith(PLUGIN_LIST_EXTENSION) || SupportBundle.isBundle(path));
+    }
+
+    /**
+     * Analyzes every plugin list against the given envelope plugins on the worker pool.
+     * A failing list is logged and counted but does not stop the run, and so are the lists sharing a report file.
+     *
+     * The lists are split fork-join style: each task analyzes a slice of them into its own
+     * {@link FleetAggregate}, and the aggregates of the two halves of a slice are merged on the way back.
+     *
+     * @param pluginFiles plugin lists
+     * @param envelopePlugins envelope plugins, shared read-only by the workers
+     * @return throughput summary and fleet-wide plugin counters
+     */
+    public Summary analyze(final List<Path> pluginFiles, final Map<String, EnvelopePlugin> envelopePlugins) {
+        Map<Path, String> controllers = getControllerNames(pluginFiles);
+        List<PluginList> pluginLists = new ArrayList<>(pluginFiles.size());
+        for (Path pluginFile : pluginFiles) {
+            pluginLists.add(new PluginFile(pluginFile, controllers.get(pluginFile)));
+        }
+        return analyzeLists(pluginLists, envelopePlugins);
+    }
+
+    /**
+     * Analyzes every controller of a dump against the given envelope plugins on the worker pool, as
+     * {@link #analyze(List, Map)} does for plugin list files.
+     *
+     * @param dump plugin lists of the fleet
+     * @param envelopePlugins envelope plugins, shared read-only by the workers
+     * @return throughput summary and fleet-wide plugin counters
+     */
+    public Summary analyze(final FleetDump dump, final Map<String, EnvelopePlugin> envelopePlugins) {
+        analyzer.getMetrics().count(RunMetrics.PLUGIN_LIST_BYTES_READ, dump.getBytes());
+        return analyzeLists(new ArrayList<>(dump.getControllers().values()), envelopePlugins);
+    }
+
+    private Summary analyzeLists(final List<? extends PluginList> pluginLists,
+                                 final Map<String, EnvelopePlugin> envelopePlugins) {
+        // rather than have a controller overwrite the report of another one, neither of them is analyzed
+        final Map<String, List<PluginList>> listsByName = new HashMap<>();
+        for (PluginList pluginList : pluginLists) {
+            if (pluginList.getName() != null) {
+                listsByName.computeIfAbsent(getSafeName(pluginList.getName()), name -> new ArrayList<>())
+                           .add(pluginList);
+            }
+        }
+        final ConcurrentMap<String, PluginList> reportNames = new ConcurrentHashMap<>();
+        final List<PluginList> analyzedLists = new ArrayList<>(pluginLists.size());
+        int skipped = 0;
+        for (PluginList pluginList : pluginLists) {
+            String name = pluginList.getName() == null ? null : getSafeName(pluginList.getName());
+            List<PluginList> sharing = name == null ? null : listsByName.get(name);
+            if (sharing == null) {
+                analyzedLists.add(pluginList);
+            } else if (sharing.size() == 1) {
+                reportNames.put(name, pluginList);
+                analyzedLists.add(pluginList);
+            } else {
+                LOGGER.error("{} is not analyzed, {} share the report file {}", pluginList, sharing,
+                             getReportFile(pluginList.getName()));
+                skipped++;
+            }
+        }
+        final Map<String, EnvelopePlugin> sharedPlugins = Collections.unmodifiableMap(envelopePlugins);
+        final DependencyGraph graph;
+        try (RunMetrics.Timer timer = analyzer.getMetrics().time("dependencyGraph")) {
+            graph = DependencyGraph.of(sharedPlugins);
+        }
+        analyzer.getMetrics().count(RunMetrics.ENVELOPE_PLUGINS, sharedPlugins.size());
+        StringDictionary pluginIds = new StringDictionary();
+        for (String id : sharedPlugins.keySet()) {
+            pluginIds.intern(id);
+        }
+        final String envelopeHash;
+        try (RunMetrics.Timer timer = analyzer.getMetrics().time("hashEnvelope")) {
+            envelopeHash = AnalysisCache.hash(sharedPlugins);
+        }
+        final AnalysisCache cache;
+        final HistoryStore.Appender history;
+        try {
+            cache = new AnalysisCache(new File(analyzer.getCacheDirectory(), AnalysisCache.DIRECTORY_NAME),
+                                      AnalysisCache.DEFAULT_MAX_MEMORY_ENTRIES).withMetrics(analyzer.getMetrics());
+            history = analyzer.isHistoryEnabled() ? new HistoryStore(analyzer.getHistoryDirectory()).newAppender()
+                                                  : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final long timestamp = System.currentTimeMillis();
+        final long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        FleetAggregate aggregate;
+        try {
+            aggregate = pool.invoke(new AnalysisTask(analyzedLists, 0, analyzedLists.size(),
+                                                     Math.max(1, analyzedLists.size() / (threads * SLICES_PER_THREAD)),
+                                                     sharedPlugins, graph, envelopeHash, cache, history,
+                                                     timestamp, reportNames, pluginIds, new StringDictionary()));
+        } finally {
+            pool.shutdownNow();
+        }
+        for (int i = 0; i < skipped; i++) {
+            aggregate.addFailure();
+        }
+        if (history != null) {
+            try (RunMetrics.Timer timer = analyzer.getMetrics().time("appendHistory")) {
+                history.commit();
+            } catch (IOException e) {
+                LOGGER.error("Could not append the run to the history", e);
+            }
+        }
+        return new Summary(pluginLists.size(), System.nanoTime() - start, aggregate, cache);
+    }
+
+    /**
+     * Analyzes the plugin lists of a slice, splitting it while larger than the threshold.
+     */
+    private final class AnalysisTask extends RecursiveTask<FleetAggregate> {
+        private final List<? extends PluginList> pluginLists;
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final Map<String, EnvelopePlugin> envelopePlugins;
+        private final DependencyGraph graph;
+        private final String envelopeHash;
+        private final AnalysisCache cache;
+        private final HistoryStore.Appender history;
+        private final long timestamp;
+        private final ConcurrentMap<String, PluginList> reportNames;
+        private final StringDictionary pluginIds;
+        private final StringDictionary versions;
+
+        AnalysisTask(List<? extends PluginList> pluginLists, int from, int to, int threshold,
+                     Map<String, EnvelopePlugin> envelopePlugins, DependencyGraph graph, String envelopeHash,
+                     AnalysisCache cache, HistoryStore.Appender history, long timestamp,
+                     ConcurrentMap<String, PluginList> reportNames, StringDictionary pluginIds,
+                     StringDictionary versions) {
+            this.pluginLists = pluginLists;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.envelopePlugins = envelopePlugins;
+            this.graph = graph;
+            this.envelopeHash = envelopeHash;
+            this.cache = cache;
+            this.history = history;
+            this.timestamp = timestamp;
+            this.reportNames = reportNames;
+            this.pluginIds = pluginIds;
+            this.versions = versions;
+        }
+
+        @Override
+        protected FleetAggregate compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                AnalysisTask left = new AnalysisTask(pluginLists, from, middle, threshold, envelopePlugins, graph,
+                                                     envelopeHash, cache, history, timestamp, reportNames, pluginIds,
+                                                     versions);
+                left.fork();
+                FleetAggregate right = new AnalysisTask(pluginLists, middle, to, threshold, envelopePlugins, graph,
+                                                        envelopeHash, cache, history, timestamp, reportNames,
+                                                        pluginIds, versions)
+                    .compute();
+                return left.join().merge(right);
+            }
+            FleetAggregate aggregate = new FleetAggregate(pluginIds, versions);
+            for (int i = from; i < to; i++) {
+                try {
+                    analyze(pluginLists.get(i), envelopePlugins, graph, envelopeHash, cache, history, timestamp,
+                            reportNames, aggregate);
+                } catch (IOException | RuntimeException e) {
+                    aggregate.addFailure();
+                    LOGGER.error("Analysis failed for {}", pluginLists.get(i), e);
+                }
+            }
+            return aggregate;
+        }
+    }
+
+    private void analyze(final PluginList pluginList, final Map<String, EnvelopePlugin> envelopePlugins,
+                         final DependencyGraph graph, final String envelopeHash, final AnalysisCache cache,
+                         final HistoryStore.Appender history, final long timestamp,
+                         final ConcurrentMap<String, PluginList> reportNames, final FleetAggregate aggregate)
+    throws IOException {
+        RunMetrics metrics = analyzer.getMetrics();
+        FleetDump.Controller read = pluginList.read(metrics);
+        String controller = read.getName();
+        // support bundles are only named once read
+        PluginList other = reportNames.putIfAbsent(getSafeName(controller), pluginList);
+        if (other != null && other != pluginList) {
+            throw new IOException(String.format("%s and %s share the report file %s", other, pluginList,
+                                                getReportFile(controller)));
+        }
+        Map<String, String> plugins = read.getPlugins();
+        metrics.count(RunMetrics.PLUGINS, plugins.size());
+        File reportFile = getReportFile(controller);
+        List<ReportRow> rows;
+        try (RunMetrics.Timer timer = metrics.time("writeReport");
+             final ReportSink sink = analyzer.getReportFormat().open(reportFile, analyzer.isReportGzip())) {
+            rows = cache.getRows(AnalysisCache.key(plugins, envelopeHash), envelopePlugins, () -> {
+                List<ReportRow> analyzed = new ArrayList<>(plugins.size());
+                try (RunMetrics.Timer analysisTimer = metrics.time("analyzePlugins")) {
+                    PluginAnalyzer.analyzePlugins(plugins, envelopePlugins, graph, analyzed::add);
+                }
+                return analyzed;
+            });
+            for (ReportRow row : rows) {
+                sink.write(row);
+                aggregate.add(row, read.isPinned(row.getId()));
+            }
+            sink.commit();
+        }
+        metrics.count(RunMetrics.ROWS, plugins.size());
+        metrics.count(RunMetrics.REPORT_BYTES_WRITTEN, reportFile.length());
+        if (history != null) {
+            history.add(controller, timestamp, analyzer.getProductId(), analyzer.getProductRelease(), rows);
+        }
+    }
+
+    /**
+     * Writes the run metrics, summed over all the plugin lists, next to the reports.
+     *
+     * @throws IOException
+     */
+    public void exportMetrics()
+    throws IOException {
+        analyzer.getMetrics().export(outputDirectory, METRICS_NAME);
+    }
+
+    /**
+     * Writes the fleet-wide plugin counters: controllers running each plugin, outside of the envelope or lagging
+     * behind it, and installed versions.
+     *
+     * @param summary fleet run summary
+     * @return the report file
+     * @throws IOException
+     */
+    public File writeAggregateReport(final Summary summary)
+    throws IOException {
+        File reportFile = new File(outputDirectory, AGGREGATE_REPORT_NAME);
+        summary.getAggregate().writeReport(reportFile);
+        return reportFile;
+    }
+
+    /**
+     * Writes the plugins lagging behind the envelope, most lagging first, with the number of controllers which
+     * pinned the lagging version.
+     *
+     * @param summary fleet run summary
+     * @return the report file
+     * @throws IOException
+     */
+    public File writeLaggingReport(final Summary summary)
+    throws IOException {
+        File reportFile = new File(outputDirectory, LAGGING_REPORT_NAME);
+        try (CsvReportSink sink = new CsvReportSink(reportFile, false)) {
+            sink.writeLine(Arrays.asList("Id", "Lagging controllers", "Pinned lagging controllers"));
+            for (Map.Entry<String, Integer> plugin : summary.getLaggingPlugins(Integer.MAX_VALUE)) {
+                sink.writeLine(Arrays.asList(plugin.getKey(), plugin.getValue(),
+                                             summary.getPinnedLaggingControllers(plugin.getKey())));
+            }
+            sink.commit();
+        }
+        return reportFile;
+    }
+
+    /**
+     * @param controller controller name
+     * @return report file of the controller
+     */
+    File getReportFile(final String controller) {
+        String baseName = getSafeName(controller) + REPORT_SUFFIX;
+        return new File(outputDirectory, analyzer.getReportFormat().getFileName(baseName, analyzer.isReportGzip()));
+    }
+
+    private static String getSafeName(final String controller) {
+        return UNSAFE_FILE_NAME_CHARACTERS.matcher(controller).replaceAll("_");
+    }
+
+    /**
+     * Names the controllers of the plain plugin lists, as {@link #getControllerName(Path)} does unless several lists
+     * would share a report file: those are named after their path relative to their closest common directory.
+     *
+     * @param pluginFiles plugin lists and support bundles
+     * @return controller name by plain plugin list
+     */
+    static Map<Path, String> getControllerNames(final List<Path> pluginFiles) {
+        Map<String, List<Path>> pluginFilesByName = new LinkedHashMap<>();
+        for (Path pluginFile : pluginFiles) {
+            if (!SupportBundle.isBundle(pluginFile)) {
+                pluginFilesByName.computeIfAbsent(getSafeName(getControllerName(pluginFile)),
+                                                  name -> new ArrayList<>()).add(pluginFile);
+            }
+        }
+        Map<Path, String> names = new HashMap<>();
+        for (List<Path> sameName : pluginFilesByName.values()) {
+            if (sameName.size() == 1) {
+                names.put(sameName.get(0), getControllerName(sameName.get(0)));
+                continue;
+            }
+            Path common = sameName.get(0).toAbsolutePath().normalize().getParent();
+            for (Path pluginFile : sameName) {
+                while (common != null && !pluginFile.toAbsolutePath().normalize().startsWith(common)) {
+                    common = common.getParent();
+                }
+            }
+            for (Path pluginFile : sameName) {
+                Path absolute = pluginFile.toAbsolutePath().normalize();
+                Path relative = common == null ? absolute : common.relativize(absolute);
+                String name = relative.toString().replace(File.separatorChar, '/');
+                if (name.endsWith('/' + DEFAULT_PLUGIN_LIST_NAME)) {
+                    name = name.substring(0, name.length() - DEFAULT_PLUGIN_LIST_NAME.length() - 1);
+                } else if (name.endsWith(PLUGIN_LIST_EXTENSION)) {
+                    name = name.substring(0, name.length() - PLUGIN_LIST_EXTENSION.length());
+                }
+                names.put(pluginFile, name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Controller name of a plain plugin list: the parent directory for a default {@code active.txt} list, the file
+     * name otherwise.
+     *
+     * @param pluginFile plugin list
+     * @return controller name
+     */
+    static String getControllerName(final Path pluginFile) {
+        String fileName = pluginFile.getFileName().toString();
+        Path parent = pluginFile.toAbsolutePath().getParent();
+        if (DEFAULT_PLUGIN_LIST_NAME.equals(fileName) && parent != null && parent.getFileName() != null) {
+            return parent.getFileName().toString();
+        }
+        return fileName.endsWith(PLUGIN_LIST_EXTENSION)
+               ? fileName.substring(0, fileName.length() - PLUGIN_LIST_EXTENSION.length())
+               : fileName;
+    }
+
+    /**
+     * Plugin list file or support bundle, read by the worker analyzing it.
+     */
+    private static final class PluginFile implements PluginList {
+        private final Path path;
+        private final String name;
+
+        /**
+         * @param name controller name, null for a support bundle
+         */
+        PluginFile(final Path path, final String name) {
+            this.path = path;
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public FleetDump.Controller read(final RunMetrics metrics)
+        throws IOException {
+            FleetDump.Controller controller;
+            try (RunMetrics.Timer timer = metrics.time("getFilePlugins")) {
+                if (SupportBundle.isBundle(path)) {
+                    SupportBundle bundle = SupportBundle.read(path);
+                    controller = new FleetDump.Controller(bundle.getController(), bundle.getPlugins(),
+                                                          bundle.getPinned());
+                } else {
+                    // read once for both the plugins and their pinned flags
+                    List<String> lines = Files.readAllLines(path, Charset.forName("UTF-8"));
+                    controller = new FleetDump.Controller(name,
+                                                          PluginAnalyzer.getPlugins(lines.stream()),
+                                                          PluginAnalyzer.getPinnedPlugins(lines.stream()));
+                }
+            }
+            metrics.count(RunMetrics.PLUGIN_LIST_BYTES_READ, Files.size(path));
+            return controller;
+        }
+
+        @Override
+        public String toString() {
+            return path.toString();
+        }
+    }
+
+    /**
+     * Throughput summary of a fleet run, with the fleet-wide plugin counters.
+     */
+    public static class Summary {
+        private final int lists;
+        private final long wallTimeNanos;
+        private final FleetAggregate aggregate;
+        private final long analyzedLists;
+        private final double dedupRatio;
+
+        Summary(int lists, long wallTimeNanos, FleetAggregate aggregate, AnalysisCache cache) {
+            this.lists = lists;
+            this.wallTimeNanos = wallTimeNanos;
+            this.aggregate = aggregate;
+            this.analyzedLists = cache.getMisses();
+            this.dedupRatio = cache.getDedupRatio();
+        }
+
+        public int getLists() {
+            return lists;
+        }
+
+        public int getFailures() {
+            return aggregate.getFailures();
+        }
+
+        public long getWallTimeMillis() {
+            return wallTimeNanos / 1_000_000L;
+        }
+
+        public double getListsPerSecond() {
+            return wallTimeNanos == 0 ? 0 : lists * 1_000_000_000D / wallTimeNanos;
+        }
+
+        /**
+         * @return number of plugin lists which were actually analyzed, the others reusing the rows of an identical
+         * list
+         */
+        public long getAnalyzedLists() {
+            return analyzedLists;
+        }
+
+        /**
+         * @return share of the read plugin lists whose rows were reused instead of analyzed
+         */
+        public double getDedupRatio() {
+            return dedupRatio;
+        }
+
+        /**
+         * @return per plugin counters over all the analyzed lists
+         */
+        public FleetAggregate getAggregate() {
+            return aggregate;
+        }
+
+        /**
+         * @param plugin plugin id
+         * @return number of controllers running an older version than the envelope one
+         */
+        public int getLaggingControllers(final String plugin) {
+            return aggregate.getLaggingControllers(plugin);
+        }
+
+        /**
+         * @param plugin plugin id
+         * @return number of controllers running an older version than the envelope one which they pinned
+         */
+        public int getPinnedLaggingControllers(final String plugin) {
+            return aggregate.getPinnedLaggingControllers(plugin);
+        }
+
+        /**
+         * @param limit maximum number of plugins
+         * @return plugins ranked by number of lagging controllers, then by id
+         */
+        public List<Map.Entry<String, Integer>> getLaggingPlugins(final int limit) {
+            return aggregate.getLaggingPlugins(limit);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d plugin lists analyzed (%d failed) in %d ms: %.1f lists/second, "
+                                 + "%d actually analyzed (dedup ratio %.1f%%)",
+                                 lists, getFailures(), getWallTimeMillis(), getListsPerSecond(), analyzedLists,
+                                 dedupRatio * 100);
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Plugin lists of a whole fleet, read from one {@code controller:id:version:pinned} dump.</p>
+ *
+ * The dump is memory-mapped in chunks split on line boundaries, and the chunks are parsed in parallel straight
+ * from the mapped bytes: fields are located by their separators and only turned into strings the first time a
+ * chunk meets them, controller names, plugin ids and versions repeating across the fleet. Lines which do not have
+ * four non-empty fields, or whose pinned flag is neither {@code pinned} nor {@code not-pinned}, are counted and
+ * skipped; the first ones are kept as samples. Blank lines are ignored.
+ *
+ * As in a plugin list, a plugin listed twice for a controller keeps its last version.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class FleetDump {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FleetDump.class);
+
+    public static final String COMMAND = "dump";
+    public static final String USAGE = "dumpFile productId productRelease userName password [threads]";
+    public static final int DEFAULT_CHUNK_BYTES = 64 * 1024 * 1024;
+    public static final int MAX_SAMPLES = 20;
+
+    private static final byte SEPARATOR = ':';
+    private static final byte LINE_SEPARATOR = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final int FIELDS = 4;
+    private static final int MAX_SAMPLE_LENGTH = 200;
+    private static final int BOUNDARY_BUFFER_BYTES = 8192;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] PINNED = "pinned".getBytes(UTF8);
+    private static final byte[] NOT_PINNED = "not-pinned".getBytes(UTF8);
+
+    private final Map<String, Controller> controllers;
+    private final long bytes;
+    private final long lines;
+    private final long malformedLines;
+    private final List<String> malformedSamples;
+
+    private FleetDump(Map<String, Controller> controllers, long bytes, long lines, long malformedLines,
+                      List<String> malformedSamples) {
+        this.controllers = controllers;
+        this.bytes = bytes;
+        this.lines = lines;
+        this.malformedLines = malformedLines;
+        this.malformedSamples = malformedSamples;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 5 || args.length == 6) {
+            try {
+                LOGGER.info("Processing fleet dump...");
+                int threads = args.length == 6 ? Integer.parseInt(args[5])
+                                               : Runtime.getRuntime().availableProcessors();
+                PluginAnalyzer analyzer = new PluginAnalyzer(args[1], args[2])
+                    .resolveRelease(PluginAnalyzer.REPO_URL, args[3], args[4]);
+                FleetDump dump;
+                try (RunMetrics.Timer timer = analyzer.getMetrics().time("parseDump")) {
+                    dump = parse(Paths.get(args[0]), threads);
+                }
+                LOGGER.info("{}", dump);
+                for (String sample : dump.getMalformedSamples()) {
+                    LOGGER.warn("Malformed {}", sample);
+                }
+                FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(analyzer,
+                                                                new File(analyzer.getOutputDirectory(), "fleet"),
+                                                                threads);
+                Map<String, EnvelopePlugin> envelopePlugins;
+                try (RunMetrics.Timer timer = analyzer.getMetrics().time("getEnvelopePlugins")) {
+                    envelopePlugins = analyzer.getEnvelopePlugins(args[3], args[4]);
+                }
+                FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(dump, envelopePlugins);
+                LOGGER.info("{}", summary);
+                fleetAnalyzer.writeLaggingReport(summary);
+                fleetAnalyzer.writeAggregateReport(summary);
+                fleetAnalyzer.exportMetrics();
+                LOGGER.info("That's it!");
+            } catch (Exception e) {
+                LOGGER.error("Process failed!", e);
+                System.exit(1);
+            }
+        } else {
+            LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param dump dump file
+     * @param threads number of chunks parsed at the same time
+     * @return the plugin lists of the dump
+     * @throws IOException
+     */
+    public static FleetDump parse(final Path dump, final int threads)
+    throws IOException {
+        return parse(dump, threads, DEFAULT_CHUNK_BYTES);
+    }
+
+    static FleetDump parse(final Path dump, final int threads, final int chunkBytes)
+    throws IOException {
+        if (threads < 1 || chunkBytes < 1) {
+            throw new IllegalArgumentException("Thread count and chunk size must be positive");
+        }
+        try (FileChannel channel = FileChannel.open(dump, StandardOpenOption.READ)) {
+            List<Long> boundaries = getBoundaries(channel, chunkBytes);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, boundaries.size()));
+            try {
+                List<Future<Chunk>> futures = new ArrayList<>(boundaries.size() - 1);
+                for (int i = 0; i + 1 < boundaries.size(); i++) {
+                    final long start = boundaries.get(i);
+                    final long end = boundaries.get(i + 1);
+                    futures.add(executor.submit(() -> new Chunk().parse(channel.map(FileChannel.MapMode.READ_ONLY,
+                                                                                    start, end - start))));
+                }
+                return merge(futures, channel.size());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @return chunk starts, each one just after a line separator, followed by the file size
+     */
+    private static List<Long> getBoundaries(final FileChannel channel, final int chunkBytes)
+    throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_BUFFER_BYTES);
+        long position = chunkBytes;
+        while (position < size) {
+            // the chunk ends after the end of the line holding its last byte
+            long boundary = -1;
+            long scan = position - 1;
+            while (boundary < 0 && scan < size) {
+                buffer.clear();
+                int read = channel.read(buffer, scan);
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == LINE_SEPARATOR) {
+                        boundary = scan + i + 1;
+                        break;
+                    }
+                }
+                scan += Math.max(read, 0);
+                if (read < 0) {
+                    break;
+                }
+            }
+            if (boundary < 0 || boundary >= size) {
+                break;
+            }
+            boundaries.add(boundary);
+            position = boundary + chunkBytes;
+        }
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    private static FleetDump merge(final List<Future<Chunk>> futures, final long bytes)
+    throws IOException {
+        Map<String, Map<String, String>> plugins = new TreeMap<>();
+        Map<String, Set<String>> pinned = new HashMap<>();
+        long lines = 0;
+        long physicalLines = 0;
+        long malformed = 0;
+        List<String> samples = new ArrayList<>();
+        for (Future<Chunk> future : futures) {
+            Chunk chunk;
+            try {
+                chunk = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing the dump", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot parse the dump", e.getCause());
+            }
+            for (Map.Entry<String, Map<String, String>> controller : chunk.plugins.entrySet()) {
+                Map<String, String> merged = plugins.get(controller.getKey());
+                if (merged == null) {
+                    plugins.put(controller.getKey(), controller.getValue());
+                } else {
+                    merged.putAll(controller.getValue());
+                }
+            }
+            for (Map.Entry<String, Map<String, Boolean>> controller : chunk.pinned.entrySet()) {
+                Set<String> merged = pinned.computeIfAbsent(controller.getKey(), key -> new HashSet<>());
+                for (Map.Entry<String, Boolean> plugin : controller.getValue().entrySet()) {
+                    if (plugin.getValue()) {
+                        merged.add(plugin.getKey());
+                    } else {
+                        merged.remove(plugin.getKey());
+                    }
+                }
+            }
+            for (int i = 0; i < chunk.samples.size() && samples.size() < MAX_SAMPLES; i++) {
+                samples.add(String.format("line %d: %s", physicalLines + chunk.sampleLines.get(i),
+                                         chunk.samples.get(i)));
+            }
+            lines += chunk.lines;
+            physicalLines += chunk.physicalLines;
+            malformed += chunk.malformed;
+        }
+        Map<String, Controller> controllers = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, String>> controller : plugins.entrySet()) {
+            Set<String> controllerPinned = pinned.get(controller.getKey());
+            controllers.put(controller.getKey(), new Controller(controller.getKey(), controller.getValue(),
+                                                                controllerPinned == null ? new HashSet<>()
+                                                                                         : controllerPinned));
+        }
+        return new FleetDump(Collections.unmodifiableMap(controllers), bytes, lines, malformed,
+                             Collections.unmodifiableList(samples));
+    }
+
+    /**
+     * @return plugin lists by controller name, sorted
+     */
+    public Map<String, Controller> getControllers() {
+        return controllers;
+    }
+
+    /**
+     * @return size of the dump file
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of lines, blank lines excepted
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    public long getMalformedLines() {
+        return malformedLines;
+    }
+
+    /**
+     * @return up to {@value #MAX_SAMPLES} malformed lines, with their line numbers
+     */
+    public List<String> getMalformedSamples() {
+        return malformedSamples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d controllers read from %d lines, %d malformed lines skipped", controllers.size(),
+                             lines, malformedLines);
+    }
+
+    /**
+     * Plugin list of a controller, already read.
+     */
+    public static final class Controller implements PluginList {
+        private final String name;
+        private final Map<String, String> plugins;
+        private final Set<String> pinned;
+
+        Controller(String name, Map<String, String> plugins, Set<String> pinned) {
+            this.name = name;
+            this.plugins = Collections.unmodifiableMap(plugins);
+            this.pinned = Collections.unmodifiableSet(pinned);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return plugin ids and versions, as read by {@link PluginAnalyzer#getFilePlugins(Path)}
+         */
+        public Map<String, String> getPlugins() {
+            return plugins;
+        }
+
+        /**
+         * @return ids of the pinned plugins
+         */
+        public Set<String> getPinned() {
+            return pinned;
+        }
+
+        public boolean isPinned(final String id) {
+            return pinned.contains(id);
+        }
+
+        @Override
+        public Controller read(final RunMetrics metrics) {
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Parsing state of a chunk.
+     */
+    private static final class Chunk {
+        private final Map<String, Map<String, String>> plugins = new HashMap<>();
+        private final Map<String, Map<String, Boolean>> pinned = new HashMap<>();
+        private final ByteInterner strings = new ByteInterner();
+        private final List<String> samples = new ArrayList<>();
+        // numbered from the start of the chunk, blank lines included
+        private final List<Long> sampleLines = new ArrayList<>();
+        private final int[] separators = new int[FIELDS - 1];
+        private long lines;
+        private long physicalLines;
+        private long malformed;
+        private String lastController;
+        private Map<String, String> lastPlugins;
+        private Map<String, Boolean> lastPinned;
+
+        Chunk parse(final MappedByteBuffer buffer) {
+            int limit = buffer.limit();
+            int start = 0;
+            long lineNumber = 0;
+            while (start < limit) {
+                int end = start;
+                int fields = 1;
+                while (end < limit && buffer.get(end) != LINE_SEPARATOR) {
+                    if (buffer.get(end) == SEPARATOR) {
+                        if (fields < FIELDS) {
+                            separators[fields - 1] = end;
+                        }
+                        fields++;
+                    }
+                    end++;
+                }
+                lineNumber++;
+                int lineEnd = end > start && buffer.get(end - 1) == CARRIAGE_RETURN ? end - 1 : end;
+                if (lineEnd > start) {
+                    lines++;
+                    if (!parseLine(buffer, start, lineEnd, fields)) {
+                        malformed++;
+                        if (samples.size() < MAX_SAMPLES) {
+                            byte[] bytes = new byte[Math.min(lineEnd - start, MAX_SAMPLE_LENGTH)];
+                            for (int i = 0; i < bytes.length; i++) {
+                                bytes[i] = buffer.get(start + i);
+                            }
+                            samples.add(new String(bytes, UTF8));
+                            sampleLines.add(lineNumber);
+                        }
+                    }
+                }
+                start = end + 1;
+            }
+            physicalLines = lineNumber;
+            return this;
+        }
+
+        private boolean parseLine(final ByteBuffer buffer, final int start, final int end, final int fields) {
+            if (fields != FIELDS) {
+                return false;
+            }
+            int controllerEnd = separators[0];
+            int idEnd = separators[1];
+            int versionEnd = separators[2];
+            if (controllerEnd == start || idEnd == controllerEnd + 1 || versionEnd == idEnd + 1) {
+                return false;
+            }
+            Boolean isPinned;
+            if (matches(buffer, versionEnd + 1, end, PINNED)) {
+                isPinned = Boolean.TRUE;
+            } else if (matches(buffer, versionEnd + 1, end, NOT_PINNED)) {
+                isPinned = Boolean.FALSE;
+            } else {
+                return false;
+            }
+            String controller = strings.get(buffer, start, controllerEnd);
+            if (!controller.equals(lastController)) {
+                lastController = controller;
+                lastPlugins = plugins.computeIfAbsent(controller, key -> new HashMap<>());
+                lastPinned = pinned.computeIfAbsent(controller, key -> new HashMap<>());
+            }
+            String id = strings.get(buffer, controllerEnd + 1, idEnd);
+            lastPlugins.put(id, strings.get(buffer, idEnd + 1, versionEnd));
+            lastPinned.put(id, isPinned);
+            return true;
+        }
+
+        private static boolean matches(final ByteBuffer buffer, final int start, final int end, final byte[] value) {
+            if (end - start != value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (buffer.get(start + i) != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Open addressing table turning byte ranges into strings, decoding each distinct range once.
+     */
+    static final class ByteInterner {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private byte[][] keys = new byte[INITIAL_CAPACITY][];
+        private String[] values = new String[INITIAL_CAPACITY];
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private int size;
+
+        String get(final ByteBuffer buffer, final int start, final int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash && equals(keys[slot], buffer, start, end)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            byte[] key = new byte[end - start];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = buffer.get(start + i);
+            }
+            String value = new String(key, UTF8);
+            keys[slot] = key;
+            values[slot] = value;
+            hashes[slot] = hash;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private static int mix(final int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equals(final byte[] key, final ByteBuffer buffer, final int start, final int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            int[] oldHashes = hashes;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            hashes = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = mix(oldHashes[i]) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                    hashes[slot] = oldHashes[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,721 @@
+package com.cloudbees.pluginanalyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Append-only store of the analyzed plugins of every run.</p>
+ *
+ * Each {@link Appender} commit writes one immutable segment file holding one or more runs, a run being the rows of
+ * one controller analyzed at a given time against a product release. Strings are dictionary encoded per segment and
+ * rows have a fixed size. A segment starts with a small index: its time range, its runs and the sorted ids of its
+ * plugins, so that a query only reads the rows of the segments and runs it needs.
+ *
+ * Many small segments are merged by {@link #compact(int)}; compaction and queries take turns through a
+ * {@link CacheLock}, so that a query never sees a segment along with its merged copy.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class HistoryStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryStore.class);
+
+    public static final String COMMAND = "history";
+    public static final String USAGE = "query controller|* pluginId|* [from|* [to]] | timeline controller pluginId "
+                                        + "| compact [maxSegmentRows]";
+    public static final String DIRECTORY_NAME = "history";
+    public static final String ENABLED_PROPERTY = "pluginanalyzer.history";
+    public static final int DEFAULT_COMPACTION_ROWS = 100_000;
+    public static final List<String> HEADER = Collections.unmodifiableList(Arrays.asList(
+        "Controller", "Time", "Product", "Release", "Id", "Version", "Envelope", "Envelope version", "Drift",
+        "Missing dependencies"));
+
+    private static final String ANY = "*";
+    private static final String EXTENSION = ".seg";
+    private static final String TEMP_EXTENSION = ".part";
+    private static final String LOCK_NAME = "segments";
+    private static final int MAGIC = 0x50414853;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES + 4 * Integer.BYTES;
+    private static final int ROW_BYTES = 5 * Integer.BYTES + 1;
+    private static final int NULL_INDEX = -1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final AtomicInteger rowSectionsRead = new AtomicInteger();
+
+    public HistoryStore(final File directory)
+    throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the history directory: " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) {
+        try {
+            HistoryStore store = new HistoryStore(new File(PluginAnalyzer.getDefaultOutputDirectory(),
+                                                           DIRECTORY_NAME));
+            if (args.length >= 3 && args.length <= 5 && "query".equals(args[0])) {
+                long from = args.length >= 4 ? parseTime(args[3], Long.MIN_VALUE) : Long.MIN_VALUE;
+                long to = args.length == 5 ? parseTime(args[4], Long.MAX_VALUE) : Long.MAX_VALUE;
+                try (CsvReportSink sink = new CsvReportSink(new OutputStreamWriter(System.out, UTF8), false)) {
+                    sink.writeLine(HEADER);
+                    for (Record record : store.query(any(args[1]), any(args[2]), from, to)) {
+                        sink.writeLine(record.toList());
+                    }
+                    sink.commit();
+                }
+            } else if (args.length == 3 && "timeline".equals(args[0])) {
+                for (Record record : store.getTimeline(args[1], args[2])) {
+                    LOGGER.info("{}", record);
+                }
+            } else if ((args.length == 1 || args.length == 2) && "compact".equals(args[0])) {
+                int merged = store.compact(args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_COMPACTION_ROWS);
+                LOGGER.info("{} segments merged, {} segments left", merged, store.getSegments().size());
+            } else {
+                LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Process failed!", e);
+            System.exit(1);
+        }
+    }
+
+    private static String any(final String argument) {
+        return ANY.equals(argument) ? null : argument;
+    }
+
+    private static long parseTime(final String argument, final long any) {
+        return ANY.equals(argument) ? any : Instant.parse(argument).toEpochMilli();
+    }
+
+    /**
+     * @return true if the {@value #ENABLED_PROPERTY} system property is set to true, false by default
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return a new appender, whose runs make one segment
+     */
+    public Appender newAppender() {
+        return new Appender();
+    }
+
+    /**
+     * @return the segment files, oldest runs first
+     */
+    List<File> getSegments() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        // names start with the time of the oldest run
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return Arrays.asList(files);
+    }
+
+    /**
+     * @return number of segment row sections read so far, for the segments which could not be skipped
+     */
+    int getRowSectionsRead() {
+        return rowSectionsRead.get();
+    }
+
+    /**
+     * @param controller controller name, null for any
+     * @param plugin plugin id, null for any
+     * @param from first run time, in milliseconds since the epoch
+     * @param to last run time, in milliseconds since the epoch
+     * @return the matching rows, by run time then controller
+     * @throws IOException
+     */
+    public List<Record> query(final String controller, final String plugin, final long from, final long to)
+    throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (CacheLock lock = CacheLock.lock(new File(directory, LOCK_NAME))) {
+            for (File file : getSegments()) {
+                Segment segment = Segment.open(file);
+                if (segment == null || segment.maxTime < from || segment.minTime > to
+                    || (plugin != null && Arrays.binarySearch(segment.plugins, plugin) < 0)) {
+                    continue;
+                }
+                List<Run> runs = new ArrayList<>();
+                for (Run run : segment.runs) {
+                    if (run.timestamp >= from && run.timestamp <= to
+                        && (controller == null || controller.equals(run.controller))) {
+                        runs.add(run);
+                    }
+                }
+                if (!runs.isEmpty()) {
+                    rowSectionsRead.incrementAndGet();
+                    segment.readRecords(runs, plugin, records);
+                }
+            }
+        }
+        records.sort(Comparator.comparingLong(Record::getTimestamp).thenComparing(Record::getController));
+        return records;
+    }
+
+    /**
+     * Changes of a plugin on a controller over time: a record is kept when the plugin is installed or removed,
+     * or when its version, envelope status, envelope version or drift changed since the previous run.
+     *
+     * @param controller controller name
+     * @param plugin plugin id
+     * @return the changes, oldest first; a removed plugin is a record without version
+     * @throws IOException
+     */
+    public List<Record> getTimeline(final String controller, final String plugin)
+    throws IOException {
+        List<Run> runs = new ArrayList<>();
+        Map<Long, Record> installed = new HashMap<>();
+        try (CacheLock lock = CacheLock.lock(new File(directory, LOCK_NAME))) {
+            for (File file : getSegments()) {
+                Segment segment = Segment.open(file);
+                if (segment == null) {
+                    continue;
+                }
+                List<Run> controllerRuns = new ArrayList<>();
+                for (Run run : segment.runs) {
+                    if (controller.equals(run.controller)) {
+                        controllerRuns.add(run);
+                    }
+                }
+                runs.addAll(controllerRuns);
+                if (!controllerRuns.isEmpty() && Arrays.binarySearch(segment.plugins, plugin) >= 0) {
+                    rowSectionsRead.incrementAndGet();
+                    List<Record> records = new ArrayList<>();
+                    segment.readRecords(controllerRuns, plugin, records);
+                    for (Record record : records) {
+                        installed.put(record.timestamp, record);
+                    }
+                }
+            }
+        }
+        runs.sort(Comparator.comparingLong((Run run) -> run.timestamp));
+        List<Record> timeline = new ArrayList<>();
+        Record previous = null;
+        for (Run run : runs) {
+            Record record = installed.get(run.timestamp);
+            if (record == null) {
+                if (previous == null || previous.version == null) {
+                    continue;
+                }
+                record = new Record(run.controller, run.timestamp, run.product, run.release, plugin, null, false,
+                                    null, null, null);
+            }
+            if (previous == null || !record.sameStatus(previous)) {
+                timeline.add(record);
+            }
+            previous = record;
+        }
+        return timeline;
+    }
+
+    /**
+     * Merges consecutive segments of less than the given number of rows, oldest first.
+     *
+     * @param maxRows maximum number of rows of a merged segment
+     * @return number of segments merged into others
+     * @throws IOException
+     */
+    public int compact(final int maxRows)
+    throws IOException {
+        int merged = 0;
+        try (CacheLock lock = CacheLock.lock(new File(directory, LOCK_NAME))) {
+            List<Segment> group = new ArrayList<>();
+            int groupRows = 0;
+            for (File file : getSegments()) {
+                Segment segment = Segment.open(file);
+                if (segment == null) {
+                    continue;
+                }
+                if (segment.rowCount >= maxRows || groupRows + segment.rowCount > maxRows) {
+                    merged += merge(group);
+                    group.clear();
+                    groupRows = 0;
+                }
+                if (segment.rowCount < maxRows) {
+                    group.add(segment);
+                    groupRows += segment.rowCount;
+                }
+            }
+            merged += merge(group);
+        }
+        return merged;
+    }
+
+    private int merge(final List<Segment> segments)
+    throws IOException {
+        if (segments.size() < 2) {
+            return 0;
+        }
+        Appender appender = new Appender();
+        for (Segment segment : segments) {
+            List<Record> records = new ArrayList<>(segment.rowCount);
+            segment.readRecords(segment.runs, null, records);
+            int first = 0;
+            for (Run run : segment.runs) {
+                appender.add(run, records.subList(first, first + run.rowCount));
+                first += run.rowCount;
+            }
+        }
+        // the merged segment is in place before the merged ones go, and queries wait for both
+        appender.commit();
+        for (Segment segment : segments) {
+            Files.deleteIfExists(segment.file.toPath());
+        }
+        return segments.size() - 1;
+    }
+
+    /**
+     * Collects runs into a new segment.
+     */
+    public final class Appender {
+        private final List<Run> runs = new ArrayList<>();
+        private final List<List<Record>> rows = new ArrayList<>();
+
+        private Appender() {
+        }
+
+        /**
+         * @param controller controller name
+         * @param timestamp run time, in milliseconds since the epoch
+         * @param product product id
+         * @param release product release
+         * @param reportRows analyzed plugins of the controller
+         */
+        public synchronized void add(final String controller, final long timestamp, final String product,
+                                     final String release, final List<ReportRow> reportRows) {
+            List<Record> records = new ArrayList<>(reportRows.size());
+            for (ReportRow row : reportRows) {
+                records.add(toRecord(controller, timestamp, product, release, row));
+            }
+            add(new Run(controller, timestamp, product, release, 0, records.size()), records);
+        }
+
+        /**
+         * Adds a run from the rows written to the returned sink, without holding on the report rows.
+         *
+         * @param controller controller name
+         * @param timestamp run time, in milliseconds since the epoch
+         * @param product product id
+         * @param release product release
+         * @return a sink whose rows make one run once committed
+         */
+        public ReportSink newRun(final String controller, final long timestamp, final String product,
+                                 final String release) {
+            final List<Record> records = new ArrayList<>();
+            return new ReportSink() {
+                @Override
+                public void write(final ReportRow row) {
+                    records.add(toRecord(controller, timestamp, product, release, row));
+                }
+
+                @Override
+                public void commit() {
+                    add(new Run(controller, timestamp, product, release, 0, records.size()), records);
+                }
+            };
+        }
+
+        private synchronized void add(final Run run, final List<Record> records) {
+            runs.add(run);
+            rows.add(records);
+        }
+
+        /**
+         * Writes the runs added so far as a new segment.
+         *
+         * @return the segment file, null if no run was added
+         * @throws IOException
+         */
+        public synchronized File commit()
+        throws IOException {
+            if (runs.isEmpty()) {
+                return null;
+            }
+            long minTime = Long.MAX_VALUE;
+            for (Run run : runs) {
+                minTime = Math.min(minTime, run.timestamp);
+            }
+            File segmentFile = new File(directory, String.format("%013d-%s%s", Math.max(0, minTime),
+                                                                 UUID.randomUUID(), EXTENSION));
+            Path tempFile = Files.createTempFile(directory.toPath(), segmentFile.getName(), TEMP_EXTENSION);
+            try {
+                Files.write(tempFile, Segment.encode(runs, rows));
+                Files.move(tempFile, segmentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            runs.clear();
+            rows.clear();
+            return segmentFile;
+        }
+    }
+
+    private static Record toRecord(final String controller, final long timestamp, final String product,
+                                   final String release, final ReportRow row) {
+        return new Record(controller, timestamp, product, release, row.getId(), row.getVersion(), row.isInEnvelope(),
+                          emptyToNull(row.getEnvelopeVersion()), emptyToNull(row.getDriftKind()),
+                          row.getMissingDependencies());
+    }
+
+    private static String emptyToNull(final String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Runs of a segment file, read up to its index.
+     */
+    private static final class Segment {
+        private final File file;
+        private final long minTime;
+        private final long maxTime;
+        private final int rowCount;
+        private final int indexBytes;
+        private final int dictionaryBytes;
+        private final List<Run> runs;
+        private final String[] plugins;
+
+        private Segment(File file, long minTime, long maxTime, int rowCount, int indexBytes, int dictionaryBytes,
+                        List<Run> runs, String[] plugins) {
+            this.file = file;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.rowCount = rowCount;
+            this.indexBytes = indexBytes;
+            this.dictionaryBytes = dictionaryBytes;
+            this.runs = runs;
+            this.plugins = plugins;
+        }
+
+        /**
+         * @return the segment, null if it was deleted in the meantime
+         */
+        static Segment open(final File file)
+        throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = read(channel, 0, HEADER_BYTES);
+                if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                    throw new IOException("Unknown history segment format: " + file);
+                }
+                long minTime = header.getLong();
+                long maxTime = header.getLong();
+                int runCount = header.getInt();
+                int rowCount = header.getInt();
+                int indexBytes = header.getInt();
+                int dictionaryBytes = header.getInt();
+                if (channel.size() != (long) HEADER_BYTES + indexBytes + dictionaryBytes
+                                      + (long) rowCount * ROW_BYTES) {
+                    throw new IOException("Truncated history segment: " + file);
+                }
+                ByteBuffer index = read(channel, HEADER_BYTES, indexBytes);
+                List<Run> runs = new ArrayList<>(runCount);
+                for (int i = 0; i < runCount; i++) {
+                    runs.add(new Run(getString(index), index.getLong(), getString(index), getString(index),
+                                     index.getInt(), index.getInt()));
+                }
+                String[] plugins = new String[index.getInt()];
+                for (int i = 0; i < plugins.length; i++) {
+                    plugins[i] = getString(index);
+                }
+                return new Segment(file, minTime, maxTime, rowCount, indexBytes, dictionaryBytes,
+                                   Collections.unmodifiableList(runs), plugins);
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupted history segment: " + file, e);
+            }
+        }
+
+        /**
+         * Reads the dictionary and the rows of the given runs.
+         *
+         * @param plugin plugin id, null for all
+         */
+        void readRecords(final List<Run> selected, final String plugin, final List<Record> records)
+        throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = read(channel, HEADER_BYTES + indexBytes, dictionaryBytes);
+                String[] dictionary = new String[buffer.getInt()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = getString(buffer);
+                }
+                int pluginIndex = plugin == null ? NULL_INDEX : Arrays.asList(dictionary).indexOf(plugin);
+                long rowsAt = (long) HEADER_BYTES + indexBytes + dictionaryBytes;
+                for (Run run : selected) {
+                    ByteBuffer rows = read(channel, rowsAt + (long) run.firstRow * ROW_BYTES,
+                                           run.rowCount * ROW_BYTES);
+                    for (int i = 0; i < run.rowCount; i++) {
+                        int id = rows.getInt();
+                        int version = rows.getInt();
+                        int envelopeVersion = rows.getInt();
+                        int drift = rows.getInt();
+                        int missing = rows.getInt();
+                        boolean inEnvelope = rows.get() != 0;
+                        if (plugin == null || id == pluginIndex) {
+                            records.add(new Record(run.controller, run.timestamp, run.product, run.release,
+                                                   dictionary[id], lookup(dictionary, version), inEnvelope,
+                                                   lookup(dictionary, envelopeVersion), lookup(dictionary, drift),
+                                                   lookup(dictionary, missing)));
+                        }
+                    }
+                }
+            } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Corrupted history segment: " + file, e);
+            }
+        }
+
+        static byte[] encode(final List<Run> runs, final List<List<Record>> rows)
+        throws IOException {
+            StringDictionary dictionary = new StringDictionary();
+            TreeSet<String> plugins = new TreeSet<>();
+            ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+            DataOutputStream rowOut = new DataOutputStream(rowBytes);
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(indexBytes);
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            int rowCount = 0;
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = runs.get(i);
+                List<Record> records = rows.get(i);
+                minTime = Math.min(minTime, run.timestamp);
+                maxTime = Math.max(maxTime, run.timestamp);
+                putString(indexOut, run.controller);
+                indexOut.writeLong(run.timestamp);
+                putString(indexOut, run.product);
+                putString(indexOut, run.release);
+                indexOut.writeInt(rowCount);
+                indexOut.writeInt(records.size());
+                for (Record record : records) {
+                    plugins.add(record.id);
+                    rowOut.writeInt(dictionary.intern(record.id));
+                    rowOut.writeInt(intern(dictionary, record.version));
+                    rowOut.writeInt(intern(dictionary, record.envelopeVersion));
+                    rowOut.writeInt(intern(dictionary, record.drift));
+                    rowOut.writeInt(intern(dictionary, record.missingDependencies));
+                    rowOut.writeByte(record.inEnvelope ? 1 : 0);
+                }
+                rowCount += records.size();
+            }
+            indexOut.writeInt(plugins.size());
+            for (String plugin : plugins) {
+                putString(indexOut, plugin);
+            }
+            ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+            DataOutputStream dictionaryOut = new DataOutputStream(dictionaryBytes);
+            dictionaryOut.writeInt(dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++) {
+                putString(dictionaryOut, dictionary.get(i));
+            }
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(content);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            out.writeInt(runs.size());
+            out.writeInt(rowCount);
+            out.writeInt(indexBytes.size());
+            out.writeInt(dictionaryBytes.size());
+            indexBytes.writeTo(out);
+            dictionaryBytes.writeTo(out);
+            rowBytes.writeTo(out);
+            out.flush();
+            return content.toByteArray();
+        }
+
+        private static int intern(final StringDictionary dictionary, final String value) {
+            return value == null ? NULL_INDEX : dictionary.intern(value);
+        }
+
+        private static String lookup(final String[] dictionary, final int index) {
+            return index == NULL_INDEX ? null : dictionary[index];
+        }
+
+        private static ByteBuffer read(final FileChannel channel, final long position, final int size)
+        throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Truncated history segment");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private static void putString(final DataOutputStream out, final String value)
+        throws IOException {
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String getString(final ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes, UTF8);
+        }
+    }
+
+    /**
+     * Run of a segment: the rows of a controller analyzed at a given time.
+     */
+    private static final class Run {
+        private final String controller;
+        private final long timestamp;
+        private final String product;
+        private final String release;
+        private final int firstRow;
+        private final int rowCount;
+
+        Run(String controller, long timestamp, String product, String release, int firstRow, int rowCount) {
+            this.controller = controller;
+            this.timestamp = timestamp;
+            this.product = product;
+            this.release = release;
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+        }
+    }
+
+    /**
+     * Analyzed plugin of a run.
+     */
+    public static final class Record {
+        private final String controller;
+        private final long timestamp;
+        private final String product;
+        private final String release;
+        private final String id;
+        private final String version;
+        private final boolean inEnvelope;
+        private final String envelopeVersion;
+        private final String drift;
+        private final String missingDependencies;
+
+        Record(String controller, long timestamp, String product, String release, String id, String version,
+               boolean inEnvelope, String envelopeVersion, String drift, String missingDependencies) {
+            this.controller = controller;
+            this.timestamp = timestamp;
+            this.product = product;
+            this.release = release;
+            this.id = id;
+            this.version = version;
+            this.inEnvelope = inEnvelope;
+            this.envelopeVersion = envelopeVersion;
+            this.drift = drift;
+            this.missingDependencies = missingDependencies;
+        }
+
+        public String getController() {
+            return controller;
+        }
+
+        /**
+         * @return run time, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getProduct() {
+            return product;
+        }
+
+        public String getRelease() {
+            return release;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the installed version, null in a timeline record of a removed plugin
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        public boolean isInEnvelope() {
+            return inEnvelope;
+        }
+
+        public String getEnvelopeVersion() {
+            return envelopeVersion;
+        }
+
+        /**
+         * @return the drift kind, null when the plugin is not in the envelope
+         */
+        public String getDrift() {
+            return drift;
+        }
+
+        public String getMissingDependencies() {
+            return missingDependencies;
+        }
+
+        boolean sameStatus(final Record other) {
+            return Objects.equals(version, other.version) && inEnvelope == other.inEnvelope
+                   && Objects.equals(envelopeVersion, other.envelopeVersion) && Objects.equals(drift, other.drift);
+        }
+
+        /**
+         * @return the record values, in {@link #HEADER} order
+         */
+        public List<String> toList() {
+            return Arrays.asList(controller,
+                                 Instant.ofEpochMilli(timestamp).toString(),
+                                 product,
+                                 release,
+                                 id,
+                                 version == null ? "" : version,
+                                 inEnvelope ? "YES" : "NO",
+                                 envelopeVersion == null ? "" : envelopeVersion,
+                                 drift == null ? "" : drift,
+                                 missingDependencies == null ? "" : missingDependencies);
+        }
+
+        @Override
+        public String toString() {
+            return toList().toString();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * <p>Writes a report as newline-delimited JSON, one object per analyzed plugin, for streaming consumers.</p>
+ *
+ * Each object holds the report columns under camel case keys: {@code envelope} is a boolean, the dependency counts
+ * are numbers, {@code distance} is the array of the major, minor and patch distances and
+ * {@code missingDependencies} is an array of ids. The envelope columns of a plugin outside of the envelope are
+ * null. A report file is committed as a {@link CsvReportSink} one is.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class JsonLinesReportSink implements ReportSink {
+    private static final char LINE_SEPARATOR = '\n';
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+    private final ReportFile reportFile;
+
+    /**
+     * Report file sink, gzip compressed if asked to.
+     */
+    public JsonLinesReportSink(final File targetFile, final boolean gzip)
+    throws IOException {
+        this.reportFile = new ReportFile(targetFile);
+        this.writer = new BufferedWriter(new OutputStreamWriter(reportFile.open(gzip), Charset.forName("UTF-8")),
+                                         ReportFile.BUFFER_SIZE);
+    }
+
+    /**
+     * Stream sink. The writer is closed with the sink.
+     */
+    public JsonLinesReportSink(final Writer writer) {
+        this.writer = writer;
+        this.reportFile = null;
+    }
+
+    @Override
+    public void write(final ReportRow row)
+    throws IOException {
+        boolean inEnvelope = row.isInEnvelope();
+        writer.write("{\"id\":");
+        writeString(row.getId());
+        writer.write(",\"name\":");
+        writeString(inEnvelope ? row.getName() : null);
+        writer.write(",\"version\":");
+        writeString(row.getVersion());
+        writer.write(",\"envelope\":");
+        writer.write(inEnvelope ? "true" : "false");
+        writer.write(",\"envelopeVersion\":");
+        writeString(inEnvelope ? row.getEnvelopeVersion() : null);
+        writer.write(",\"type\":");
+        writeString(inEnvelope ? row.getType() : null);
+        writer.write(",\"scope\":");
+        writeString(inEnvelope ? row.getScope() : null);
+        writer.write(",\"drift\":");
+        writeString(inEnvelope ? row.getDriftKind() : null);
+        writer.write(",\"distance\":");
+        VersionDrift drift = row.getDrift();
+        if (drift == null) {
+            writer.write("null");
+        } else {
+            writer.write('[');
+            writer.write(Integer.toString(drift.getMajor()));
+            writer.write(',');
+            writer.write(Integer.toString(drift.getMinor()));
+            writer.write(',');
+            writer.write(Integer.toString(drift.getPatch()));
+            writer.write(']');
+        }
+        writer.write(",\"dependencies\":");
+        writer.write(Integer.toString(row.getDependencies()));
+        writer.write(",\"nonEnvelopeDependencies\":");
+        writer.write(Integer.toString(row.getNonEnvelopeDependencies()));
+        writer.write(",\"missingDependencies\":[");
+        String missing = row.getMissingDependencies();
+        if (missing != null && !missing.isEmpty()) {
+            int start = 0;
+            while (start <= missing.length()) {
+                int end = missing.indexOf(' ', start);
+                if (end < 0) {
+                    end = missing.length();
+                }
+                if (start > 0) {
+                    writer.write(',');
+                }
+                writeString(missing.substring(start, end));
+                start = end + 1;
+            }
+        }
+        writer.write("]}");
+        writer.write(LINE_SEPARATOR);
+    }
+
+    private void writeString(final String value)
+    throws IOException {
+        if (value == null) {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    writer.write('\\');
+                    writer.write(c);
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write("\\u00");
+                        writer.write(HEX[c >> 4]);
+                        writer.write(HEX[c & 0xF]);
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    @Override
+    public void commit()
+    throws IOException {
+        writer.flush();
+        if (reportFile != null) {
+            writer.close();
+            reportFile.commit();
+        }
+    }
+
+    @Override
+    public void close()
+    throws IOException {
+        try {
+            writer.close();
+        } finally {
+            if (reportFile != null) {
+                reportFile.discard();
+            }
+        }
+    }
+}
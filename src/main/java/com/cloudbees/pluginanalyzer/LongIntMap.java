@@ -0,0 +1,107 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.util.Arrays;
+
+/**
+ * <p>Open addressing map of non-negative long keys to int counters.</p>
+ *
+ * Keys and values are held in two primitive arrays probed linearly, without any object per entry. Not
+ * thread-safe: each worker fills its own map, then maps are merged with {@link #addAll(LongIntMap)}.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class LongIntMap {
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Visits the entries of a map.
+     */
+    public interface Visitor {
+        void visit(long key, int value);
+    }
+
+    public LongIntMap() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @param key non-negative key
+     * @param delta value to add, the value of a new key starting at 0
+     */
+    public void add(final long key, final int delta) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        int slot = slot(keys, key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+            values[slot] = delta;
+            if (size * 4 > keys.length * 3) {
+                grow();
+            }
+        } else {
+            values[slot] += delta;
+        }
+    }
+
+    /**
+     * @return the value of the key, 0 if absent
+     */
+    public int get(final long key) {
+        int slot = slot(keys, key);
+        return keys[slot] == EMPTY ? 0 : values[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds all the values of another map to this one.
+     */
+    public void addAll(final LongIntMap other) {
+        other.forEach(this::add);
+    }
+
+    public void forEach(final Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int slot(final long[] keys, final long key) {
+        int mask = keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -7,30 +7,34 @@ import com.cloudbees.jenkins.plugins.updates.envelope.Validation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.stream.Stream;
 
 /**
  * <p>PluginAnalyzer class.</p>
  *
+ * An analyzer is immutable and can be shared by threads. Reports go to its output directory and downloaded
+ * envelopes to its cache directory, both configurable; concurrent loads of the same envelope are merged into one
+ * and processes sharing a cache directory take turns through {@link CacheLock}.
+ *
  * @author Mikael Gaunin
  * @since 0.1.0
  */
@@ -44,37 +48,152 @@ public class PluginAnalyzer {
     private static final char URL_SEPARATOR = '/';
     private static final char FILENAME_SEPARATOR = '-';
     private static final char FILE_SEPARATOR = '.';
+    private static final String FILE_PROTOCOL = "file";
+    private static final String PINNED = "pinned";
+
+    public static final String OUTPUT_DIRECTORY_PROPERTY = "pluginanalyzer.output.dir";
+    public static final String CACHE_DIRECTORY_PROPERTY = "pluginanalyzer.cache.dir";
+    public static final String REPORT_BASE_NAME = "Analyzed-Plugins";
+    public static final String CSV_FILE_NAME = REPORT_BASE_NAME + ".csv";
+    public static final String ENVELOPE_FILTER_PROPERTY = "pluginanalyzer.envelope.filter";
 
-    protected static final File TARGET_FILE = new File(System.getProperty("user.dir")
-                                                                + System.getProperty("file.separator")
-                                                                + "target");
-    protected static final String CSV_FILE_NAME = TARGET_FILE.getAbsolutePath()
-                                                + System.getProperty("file.separator")
-                                                + "Analyzed-Plugins.csv";
+    private static final SingleFlight<String, Map<String, EnvelopePlugin>> ENVELOPE_LOADS = new SingleFlight<>();
 
-    private String pluginListFilePath;
-    private EnvelopeProduct product;
-    private String productRelease;
+    private final String pluginListFilePath;
+    private final EnvelopeProduct product;
+    private final String productRelease;
+    private final File outputDirectory;
+    private final File cacheDirectory;
+    private final ReportFormat reportFormat;
+    private final boolean reportGzip;
+    private final boolean history;
+    private final RunMetrics metrics;
 
     public PluginAnalyzer(String pluginListFilePath, String productId, String productRelease)
     throws IOException {
-        if (pluginListFilePath == null || !new File(pluginListFilePath).exists()) {
-                throw new IOException("File not found: " + pluginListFilePath);
-        }
+        this(checkPluginList(pluginListFilePath), EnvelopeProduct.valueOf(productId.toUpperCase()), productRelease,
+             getDefaultOutputDirectory(), getDefaultCacheDirectory(), ReportFormat.getDefault(),
+             ReportFormat.isGzipDefault(), HistoryStore.isEnabled(), new RunMetrics());
+    }
+
+    /**
+     * Envelope-only analyzer, used when plugin lists are provided separately (batch mode).
+     */
+    PluginAnalyzer(String productId, String productRelease) {
+        this(null, EnvelopeProduct.valueOf(productId.toUpperCase()), productRelease, getDefaultOutputDirectory(),
+             getDefaultCacheDirectory(), ReportFormat.getDefault(), ReportFormat.isGzipDefault(),
+             HistoryStore.isEnabled(), new RunMetrics());
+    }
+
+    private PluginAnalyzer(String pluginListFilePath, EnvelopeProduct product, String productRelease,
+                           File outputDirectory, File cacheDirectory, ReportFormat reportFormat, boolean reportGzip,
+                           boolean history, RunMetrics metrics) {
         this.pluginListFilePath = pluginListFilePath;
-        this.product = EnvelopeProduct.valueOf(productId.toUpperCase());
+        this.product = product;
         this.productRelease = productRelease;
-        if (!TARGET_FILE.exists() && !TARGET_FILE.mkdir()) {
-            LOGGER.warn("Something went wrong with directory creation: {}", TARGET_FILE.getAbsolutePath());
+        this.outputDirectory = outputDirectory;
+        this.cacheDirectory = cacheDirectory;
+        this.reportFormat = reportFormat;
+        this.reportGzip = reportGzip;
+        this.history = history;
+        this.metrics = metrics;
+        for (File directory : Arrays.asList(outputDirectory, cacheDirectory)) {
+            if (!directory.exists() && !directory.mkdirs()) {
+                LOGGER.warn("Something went wrong with directory creation: {}", directory.getAbsolutePath());
+            }
         }
     }
 
+    private static String checkPluginList(String pluginListFilePath)
+    throws IOException {
+        if (pluginListFilePath == null || !new File(pluginListFilePath).exists()) {
+                throw new IOException("File not found: " + pluginListFilePath);
+        }
+        return pluginListFilePath;
+    }
+
+    /**
+     * @return the {@value #OUTPUT_DIRECTORY_PROPERTY} system property, {@code target} in the working directory by
+     * default
+     */
+    public static File getDefaultOutputDirectory() {
+        String directory = System.getProperty(OUTPUT_DIRECTORY_PROPERTY);
+        return directory != null ? new File(directory) : new File(System.getProperty("user.dir"), "target");
+    }
+
+    /**
+     * @return the {@value #CACHE_DIRECTORY_PROPERTY} system property, the default output directory by default
+     */
+    public static File getDefaultCacheDirectory() {
+        String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        return directory != null ? new File(directory) : getDefaultOutputDirectory();
+    }
+
+    /**
+     * @param outputDirectory directory of the reports
+     * @return a copy of this analyzer writing its reports into the given directory
+     */
+    public PluginAnalyzer withOutputDirectory(File outputDirectory) {
+        return new PluginAnalyzer(pluginListFilePath, product, productRelease, outputDirectory, cacheDirectory,
+                                  reportFormat, reportGzip, history, new RunMetrics());
+    }
+
+    /**
+     * @param cacheDirectory directory of the downloaded envelopes, which may be shared with other processes
+     * @return a copy of this analyzer caching its envelopes into the given directory
+     */
+    public PluginAnalyzer withCacheDirectory(File cacheDirectory) {
+        return new PluginAnalyzer(pluginListFilePath, product, productRelease, outputDirectory, cacheDirectory,
+                                  reportFormat, reportGzip, history, new RunMetrics());
+    }
+
+    /**
+     * @param reportFormat format of the analyzed plugin reports
+     * @param reportGzip true to compress them
+     * @return a copy of this analyzer writing its reports in the given format
+     */
+    public PluginAnalyzer withReportFormat(ReportFormat reportFormat, boolean reportGzip) {
+        return new PluginAnalyzer(pluginListFilePath, product, productRelease, outputDirectory, cacheDirectory,
+                                  reportFormat, reportGzip, history, new RunMetrics());
+    }
+
+    /**
+     * @param history true to append the analyzed plugins of every run to the {@link HistoryStore}
+     * @return a copy of this analyzer recording its runs, or not, into its history directory
+     */
+    public PluginAnalyzer withHistory(boolean history) {
+        return new PluginAnalyzer(pluginListFilePath, product, productRelease, outputDirectory, cacheDirectory,
+                                  reportFormat, reportGzip, history, new RunMetrics());
+    }
+
     private String getPluginListFilePath() {
         return pluginListFilePath;
     }
 
     public static void main(String[] args) {
-        if (args.length == 5) {
+        if (args.length > 0 && FleetAnalyzer.COMMAND.equals(args[0])) {
+            FleetAnalyzer.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && EnvelopeCache.COMMAND.equals(args[0])) {
+            EnvelopeCache.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && AnalysisServer.COMMAND.equals(args[0])) {
+            AnalysisServer.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && ReleaseComparator.COMMAND.equals(args[0])) {
+            ReleaseComparator.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && ReleaseIndex.COMMAND.equals(args[0])) {
+            ReleaseIndex.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && EnvelopeMirror.COMMAND.equals(args[0])) {
+            EnvelopeMirror.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && PluginListWatcher.COMMAND.equals(args[0])) {
+            PluginListWatcher.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && UpgradePlanner.COMMAND.equals(args[0])) {
+            UpgradePlanner.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && HistoryStore.COMMAND.equals(args[0])) {
+            HistoryStore.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && FleetDump.COMMAND.equals(args[0])) {
+            FleetDump.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 0 && EnvelopeConsistencyChecker.COMMAND.equals(args[0])) {
+            EnvelopeConsistencyChecker.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length == 5) {
             try {
                 LOGGER.info("Processing...");
                 LOGGER.info("NB: password with specific characters must be written between ''");
@@ -85,12 +204,92 @@ public class PluginAnalyzer {
                 System.exit(1);
             }
         } else {
-            LOGGER.error("Argument must be: pluginListFilePath productId productRelease userName password");
+            LOGGER.error("Argument must be: pluginListFileOrBundle productId productRelease userName password");
+            LOGGER.error("               or: {} {}", FleetAnalyzer.COMMAND, FleetAnalyzer.USAGE);
+            LOGGER.error("               or: {} {}", EnvelopeCache.COMMAND, EnvelopeCache.USAGE);
+            LOGGER.error("               or: {} {}", AnalysisServer.COMMAND, AnalysisServer.USAGE);
+            LOGGER.error("               or: {} {}", ReleaseComparator.COMMAND, ReleaseComparator.USAGE);
+            LOGGER.error("               or: {} {}", ReleaseIndex.COMMAND, ReleaseIndex.USAGE);
+            LOGGER.error("               or: {} {}", EnvelopeMirror.COMMAND, EnvelopeMirror.USAGE);
+            LOGGER.error("               or: {} {}", PluginListWatcher.COMMAND, PluginListWatcher.USAGE);
+            LOGGER.error("               or: {} {}", UpgradePlanner.COMMAND, UpgradePlanner.USAGE);
+            LOGGER.error("               or: {} {}", HistoryStore.COMMAND, HistoryStore.USAGE);
+            LOGGER.error("               or: {} {}", FleetDump.COMMAND, FleetDump.USAGE);
+            LOGGER.error("               or: {} {}", EnvelopeConsistencyChecker.COMMAND,
+                         EnvelopeConsistencyChecker.USAGE);
             System.exit(1);
         }
     }
 
+    public String getProductRelease() {
+        return productRelease;
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * @return the {@link HistoryStore} directory, in the output directory
+     */
+    public File getHistoryDirectory() {
+        return new File(outputDirectory, HistoryStore.DIRECTORY_NAME);
+    }
+
+    /**
+     * @return the product id, as given on the command line
+     */
+    public String getProductId() {
+        return product.name().toLowerCase();
+    }
+
+    /**
+     * @return the CSV report of {@link #proceedPluginsAnalysis(String, String)}
+     */
+    public File getCsvFile() {
+        return new File(outputDirectory, CSV_FILE_NAME);
+    }
+
+    public ReportFormat getReportFormat() {
+        return reportFormat;
+    }
+
+    public boolean isReportGzip() {
+        return reportGzip;
+    }
+
+    public boolean isHistoryEnabled() {
+        return history;
+    }
+
+    /**
+     * @return the report of {@link #proceedPluginsAnalysis(String, String)}, in the report format of this analyzer
+     */
+    public File getReportFile() {
+        return new File(outputDirectory, reportFormat.getFileName(REPORT_BASE_NAME, reportGzip));
+    }
+
+    /**
+     * @return timings and counters of the runs of this analyzer
+     */
+    public RunMetrics getMetrics() {
+        return metrics;
+    }
+
     public String getEnvelopeFileName() {
+        return getEnvelopeFileName(product, productRelease);
+    }
+
+    /**
+     * @param product product
+     * @param productRelease product release
+     * @return the envelope file name of the product release
+     */
+    static String getEnvelopeFileName(final EnvelopeProduct product, final String productRelease) {
         StringBuilder fileName = new StringBuilder((product.getArtifactId()));
         fileName.append(FILENAME_SEPARATOR);
         fileName.append(productRelease);
@@ -116,15 +315,38 @@ public class PluginAnalyzer {
 
     public URL getEnvelopeUrlFromRepo(final String repo_url)
         throws MalformedURLException {
+        return getEnvelopeUrl(repo_url, product, productRelease);
+    }
+
+    /**
+     * @param repo_url repository URL
+     * @param product product
+     * @param productRelease product release
+     * @return the envelope URL of the product release in the repository
+     * @throws MalformedURLException
+     */
+    static URL getEnvelopeUrl(final String repo_url, final EnvelopeProduct product, final String productRelease)
+        throws MalformedURLException {
+        StringBuilder url = new StringBuilder(getArtifactUrl(repo_url, product));
+        url.append(productRelease);
+        url.append(URL_SEPARATOR);
+        url.append(getEnvelopeFileName(product, productRelease));
+        return new URL(url.toString());
+    }
+
+    /**
+     *
+     * @param repo_url repository URL
+     * @param product product
+     * @return the product artifact URL, ending with a separator
+     */
+    static String getArtifactUrl(final String repo_url, final EnvelopeProduct product) {
         StringBuilder url = new StringBuilder(repo_url);
         url.append(product.getGroupId().replace('.', URL_SEPARATOR));
         url.append(URL_SEPARATOR);
         url.append(product.getArtifactId());
         url.append(URL_SEPARATOR);
-        url.append(productRelease);
-        url.append(URL_SEPARATOR);
-        url.append(getEnvelopeFileName());
-        return new URL(url.toString());
+        return url.toString();
     }
 
     /**
@@ -133,9 +355,77 @@ public class PluginAnalyzer {
      */
     private void proceedPluginsAnalysis(final String userName, final String password)
     throws Exception {
-        List<List> lines = this.analyzePlugins( this.getFilePlugins(),
-                                                this.getEnvelopePlugins(userName, password));
-        this.generateCsvFile(lines);
+        proceedPluginsAnalysis(REPO_URL, false, userName, password);
+    }
+
+    /**
+     * Analyzes the plugin list against the envelope of the given repository, a release selector being resolved first
+     * so that the report and the history name the actual release.
+     *
+     * @throws Exception
+     */
+    void proceedPluginsAnalysis(final String repo_url, final boolean isFileProtocol, final String userName,
+                                final String password)
+    throws Exception {
+        if (ReleaseResolver.isSelector(productRelease)) {
+            resolveRelease(repo_url, userName, password)
+                .proceedPluginsAnalysis(repo_url, isFileProtocol, userName, password);
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        String controller;
+        Map<String, String> plugins;
+        try (RunMetrics.Timer timer = metrics.time("getFilePlugins")) {
+            Path pluginListFile = Paths.get(getPluginListFilePath());
+            if (SupportBundle.isBundle(pluginListFile)) {
+                SupportBundle bundle = SupportBundle.read(pluginListFile);
+                LOGGER.info("Support bundle of controller {}", bundle.getController());
+                controller = bundle.getController();
+                plugins = bundle.getPlugins();
+            } else {
+                controller = FleetAnalyzer.getControllerName(pluginListFile);
+                plugins = getFilePlugins(pluginListFile);
+            }
+        }
+        metrics.count(RunMetrics.PLUGINS, plugins.size());
+        metrics.count(RunMetrics.PLUGIN_LIST_BYTES_READ, new File(getPluginListFilePath()).length());
+        Map<String, EnvelopePlugin> envelopePlugins;
+        try (RunMetrics.Timer timer = metrics.time("getEnvelopePlugins")) {
+            // a single plugin list only needs its own plugins out of the envelope
+            envelopePlugins = Boolean.getBoolean(ENVELOPE_FILTER_PROPERTY)
+                              ? this.getEnvelopePlugins(repo_url, isFileProtocol, userName, password, plugins.keySet())
+                              : this.getEnvelopePlugins(repo_url, isFileProtocol, userName, password);
+        }
+        metrics.count(RunMetrics.ENVELOPE_PLUGINS, envelopePlugins.size());
+        DependencyGraph graph;
+        try (RunMetrics.Timer timer = metrics.time("dependencyGraph")) {
+            graph = DependencyGraph.of(envelopePlugins);
+        }
+        File reportFile = getReportFile();
+        HistoryStore.Appender appender = history ? new HistoryStore(getHistoryDirectory()).newAppender() : null;
+        // rows are analyzed while being written: one stage for both
+        try (RunMetrics.Timer timer = metrics.time("writeReport");
+             final ReportSink sink = reportFormat.open(reportFile, reportGzip);
+             final ReportSink historySink = appender == null ? null
+                                                             : appender.newRun(controller, start, getProductId(),
+                                                                               productRelease)) {
+            analyzePlugins(plugins, envelopePlugins, graph, historySink == null ? sink : row -> {
+                sink.write(row);
+                historySink.write(row);
+            });
+            sink.commit();
+            if (historySink != null) {
+                historySink.commit();
+            }
+        }
+        metrics.count(RunMetrics.ROWS, plugins.size());
+        metrics.count(RunMetrics.REPORT_BYTES_WRITTEN, reportFile.length());
+        if (appender != null) {
+            try (RunMetrics.Timer timer = metrics.time("appendHistory")) {
+                appender.commit();
+            }
+        }
+        metrics.export(outputDirectory, REPORT_BASE_NAME);
     }
 
     /**
@@ -145,26 +435,65 @@ public class PluginAnalyzer {
      */
     protected Map<String, String> getFilePlugins()
     throws IOException {
-        HashMap<String, String> pluginsMap = new HashMap<>();
+        return getFilePlugins(Paths.get(getPluginListFilePath()));
+    }
+
+    /**
+     *
+     * @param pluginListFile plugin list with one id:version:pinned entry per line, or support bundle holding it
+     * @return Map<String, String>: Plugins
+     * @throws IOException
+     */
+    protected static Map<String, String> getFilePlugins(final Path pluginListFile)
+    throws IOException {
+        if (SupportBundle.isBundle(pluginListFile)) {
+            return SupportBundle.read(pluginListFile).getPlugins();
+        }
         Stream<String> pluginsStream = null;
         try {
-            pluginsStream = Files.lines(Paths.get(getPluginListFilePath()));
-            pluginsStream.forEach(plugin -> {   StringTokenizer st = new StringTokenizer(plugin, ":");
-                                                pluginsMap.put(st.nextToken(), st.nextToken());});
+            pluginsStream = Files.lines(pluginListFile);
+            return getPlugins(pluginsStream);
         } finally {
             if (pluginsStream != null) {
                 pluginsStream.close();
             }
         }
+    }
+
+    /**
+     *
+     * @param pluginsStream id:version:pinned entries
+     * @return Map<String, String>: Plugins
+     */
+    protected static Map<String, String> getPlugins(final Stream<String> pluginsStream) {
+        HashMap<String, String> pluginsMap = new HashMap<>();
+        pluginsStream.forEach(plugin -> {   StringTokenizer st = new StringTokenizer(plugin, ":");
+                                            pluginsMap.put(st.nextToken(), st.nextToken());});
         return pluginsMap;
     }
 
+    /**
+     *
+     * @param pluginsStream id:version:pinned entries
+     * @return Set<String>: Ids of the pinned plugins
+     */
+    protected static Set<String> getPinnedPlugins(final Stream<String> pluginsStream) {
+        Set<String> pinned = new HashSet<>();
+        pluginsStream.forEach(plugin -> {
+            String[] fields = plugin.split(":");
+            if (fields.length > 2 && PINNED.equals(fields[2].trim())) {
+                pinned.add(fields[0]);
+            }
+        });
+        return pinned;
+    }
+
     /**
      *
      * @return Map<String, EnvelopePlugin>: Envelope plugins
      * @throws Exception
      */
-    private Map<String, EnvelopePlugin> getEnvelopePlugins(final String userName, final String password)
+    Map<String, EnvelopePlugin> getEnvelopePlugins(final String userName, final String password)
         throws Exception {
         return getEnvelopePlugins(REPO_URL, false, userName, password);
     }
@@ -174,41 +503,94 @@ public class PluginAnalyzer {
         return getEnvelopePlugins(repo_url, true, null, null);
     }
 
-    private Map<String, EnvelopePlugin> getEnvelopePlugins(final String repo_url, final boolean isFileProtocol,
+    Map<String, EnvelopePlugin> getEnvelopePlugins(final String repo_url, final boolean isFileProtocol,
                                                            final String userName, final String password)
         throws Exception {
-        URL url = getEnvelopeUrlFromRepo(repo_url);
-        InputStream inputStream;
+        if (ReleaseResolver.isSelector(productRelease)) {
+            return resolveRelease(repo_url, userName, password)
+                .getEnvelopePlugins(repo_url, isFileProtocol, userName, password);
+        }
+        final URL url = getEnvelopeUrlFromRepo(repo_url);
+        final File envelopeFile = new File(cacheDirectory, getEnvelopeFileName());
+        // concurrent loads of the same envelope into the same cache share one download and one parse
+        String key = url + " " + envelopeFile.getCanonicalPath() + " " + userName;
+        return ENVELOPE_LOADS.execute(key, () -> loadEnvelopePlugins(url, envelopeFile, isFileProtocol, userName,
+                                                                      password));
+    }
+
+    /**
+     * Streams the envelope, only materializing the given plugins and their required dependencies. The result is
+     * neither shared with concurrent loads nor kept in the parsed envelope cache, which both hold whole envelopes.
+     *
+     * @param repo_url repository URL
+     * @param isFileProtocol true for a local repository
+     * @param userName repository user name
+     * @param password repository password
+     * @param ids ids of the plugins to analyze
+     * @return the envelope plugins among the ids, and their required dependencies
+     * @throws Exception
+     */
+    Map<String, EnvelopePlugin> getEnvelopePlugins(final String repo_url, final boolean isFileProtocol,
+                                                   final String userName, final String password,
+                                                   final Collection<String> ids)
+        throws Exception {
+        if (ReleaseResolver.isSelector(productRelease)) {
+            return resolveRelease(repo_url, userName, password)
+                .getEnvelopePlugins(repo_url, isFileProtocol, userName, password, ids);
+        }
+        final URL url = getEnvelopeUrlFromRepo(repo_url);
         if (isFileProtocol) {
-            inputStream = url.openStream();
-        } else {
-            final String envelopeFileName = getEnvelopeFileName();
-            final File envelopeFile = new File(TARGET_FILE, envelopeFileName);
-            List<String> commandLine = new ArrayList<>();
-            commandLine.add("wget");
-            commandLine.add("--user");
-            commandLine.add(userName);
-            commandLine.add("--password");
-            commandLine.add(password);
-            commandLine.add("-O");
-            commandLine.add(envelopeFile.getAbsolutePath());
-            commandLine.add("-S");
-            commandLine.add(url.toString());
-            if (!envelopeFile.exists()) {
-                Process p = Runtime.getRuntime().exec(commandLine.toArray(new String[0]));
-                p.waitFor();
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getErrorStream(),
-                                                                Charset.forName("UTF-8")))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        LOGGER.error(line);
-                    }
-                }
+            return FILE_PROTOCOL.equals(url.getProtocol()) ? EnvelopeReader.read(new File(url.getPath()), ids)
+                                                           : EnvelopeReader.read(url::openStream, ids);
+        }
+        // read from its local copy, which a second pass may need
+        return EnvelopeReader.read(new EnvelopeFetcher(userName, password)
+                                       .fetchFile(url, new File(cacheDirectory, getEnvelopeFileName())), ids);
+    }
+
+    /**
+     * @return a copy of this analyzer for the release its release selector resolves to, or this analyzer when its
+     * release is not a selector
+     */
+    PluginAnalyzer resolveRelease(final String repo_url, final String userName, final String password)
+        throws Exception {
+        if (!ReleaseResolver.isSelector(productRelease)) {
+            return this;
+        }
+        String release = new ReleaseResolver(new File(cacheDirectory, ReleaseResolver.DIRECTORY_NAME),
+                                             ReleaseResolver.getConfiguredTtl(),
+                                             new EnvelopeFetcher(userName, password))
+            .resolve(repo_url, product, productRelease);
+        return new PluginAnalyzer(pluginListFilePath, product, release, outputDirectory, cacheDirectory, reportFormat,
+                                  reportGzip, history, metrics);
+    }
+
+    private Map<String, EnvelopePlugin> loadEnvelopePlugins(final URL url, final File envelopeFile,
+                                                            final boolean isFileProtocol, final String userName,
+                                                            final String password)
+        throws Exception {
+        EnvelopeCache cache = new EnvelopeCache(new File(cacheDirectory, EnvelopeCache.DIRECTORY_NAME),
+                                                EnvelopeCache.DEFAULT_MAX_BYTES).withMetrics(metrics);
+        EnvelopeFetcher.BodyParser<Map<String, EnvelopePlugin>> parser = cache.parser(product, productRelease,
+                                                                                      PluginAnalyzer::parseEnvelope);
+        if (isFileProtocol) {
+            if (FILE_PROTOCOL.equals(url.getProtocol())) {
+                return parser.parseCached(new File(url.getPath()));
+            }
+            try (InputStream inputStream = url.openStream()) {
+                return parser.parse(inputStream);
             }
-            inputStream = new FileInputStream(envelopeFile);
         }
+        return new EnvelopeFetcher(userName, password).fetch(url, envelopeFile, parser);
+    }
+
+    /**
+     *
+     * @param inputStream envelope JSON content
+     * @return Map<String, EnvelopePlugin>: Envelope plugins
+     */
+    static Map<String, EnvelopePlugin> parseEnvelope(final InputStream inputStream) {
         Validation<ParsedEnvelope> validation = ParsedEnvelope.loader().fromJSON(inputStream);
-        inputStream.close();
         return validation.get().getEnvelope().getPlugins();
     }
 
@@ -216,39 +598,78 @@ public class PluginAnalyzer {
      *
      * @param plugins
      * @param envelopePlugins
-     * @throws Exception
+     * @return the report lines, header first
      */
     protected List<List> analyzePlugins(Map<String, String> plugins, Map<String, EnvelopePlugin> envelopePlugins) {
-        List<List> lines = new ArrayList<>();
-        lines.add(Arrays.asList("Id",
-                                "Name",
-                                "Version",
-                                "Envelope",
-                                "Version",
-                                "Type",
-                                "Scope"));
+        DependencyGraph graph = DependencyGraph.of(envelopePlugins);
+        BitSet installed = graph.toNodes(plugins.keySet());
+        List<List> lines = new ArrayList<>(plugins.size() + 1);
+        lines.add(ReportRow.HEADER);
         for (Map.Entry<String, String> plugin : plugins.entrySet()) {
-            if (envelopePlugins.get(plugin.getKey()) == null) {
-                lines.add(Arrays.asList(plugin.getKey(),
-                                        "",
-                                        plugin.getValue(),
-                                        "NO",
-                                        "",
-                                        "",
-                                        ""));
-            } else {
-                lines.add(Arrays.asList(plugin.getKey(),
-                                        envelopePlugins.get(plugin.getKey()).getName(),
-                                        plugin.getValue(),
-                                        "YES",
-                                        envelopePlugins.get(plugin.getKey()).getVersionNumber().toString(),
-                                        envelopePlugins.get(plugin.getKey()).getTier().toString(),
-                                        envelopePlugins.get(plugin.getKey()).getScope().toString()));
-            }
+            lines.add(analyzePlugin(plugin.getKey(), plugin.getValue(), envelopePlugins, graph, installed).toList());
         }
         return lines;
     }
 
+    /**
+     * Streams the analyzed plugins to a sink, without holding the report in memory.
+     *
+     * @param plugins
+     * @param envelopePlugins
+     * @param sink
+     * @throws IOException
+     */
+    protected void analyzePlugins(Map<String, String> plugins, Map<String, EnvelopePlugin> envelopePlugins,
+                                  ReportSink sink)
+    throws IOException {
+        analyzePlugins(plugins, envelopePlugins, DependencyGraph.of(envelopePlugins), sink);
+    }
+
+    /**
+     * Streams the analyzed plugins to a sink, reusing the dependency graph of the envelope.
+     *
+     * @param plugins
+     * @param envelopePlugins
+     * @param graph dependency graph of the envelope plugins
+     * @param sink
+     * @throws IOException
+     */
+    protected static void analyzePlugins(Map<String, String> plugins, Map<String, EnvelopePlugin> envelopePlugins,
+                                         DependencyGraph graph, ReportSink sink)
+    throws IOException {
+        BitSet installed = graph.toNodes(plugins.keySet());
+        for (Map.Entry<String, String> plugin : plugins.entrySet()) {
+            sink.write(analyzePlugin(plugin.getKey(), plugin.getValue(), envelopePlugins, graph, installed));
+        }
+    }
+
+    /**
+     *
+     * @param id plugin id
+     * @param version installed version
+     * @param envelopePlugins
+     * @return the analyzed plugin
+     */
+    static ReportRow analyzePlugin(String id, String version, Map<String, EnvelopePlugin> envelopePlugins) {
+        return new ReportRow(id, version, envelopePlugins.get(id));
+    }
+
+    /**
+     *
+     * @param id plugin id
+     * @param version installed version
+     * @param envelopePlugins
+     * @param graph dependency graph of the envelope plugins
+     * @param installed installed plugin nodes
+     * @return the analyzed plugin, with its dependencies
+     */
+    static ReportRow analyzePlugin(String id, String version, Map<String, EnvelopePlugin> envelopePlugins,
+                                   DependencyGraph graph, BitSet installed) {
+        int node = graph.getNode(id);
+        return new ReportRow(id, version, envelopePlugins.get(id), graph.getClosureSize(node),
+                             graph.getNonEnvelopeDependencies(node), graph.getMissingDependencies(node, installed));
+    }
+
     /**
      *
      * @param lines
@@ -256,22 +677,54 @@ public class PluginAnalyzer {
      */
     protected void generateCsvFile(List<List> lines)
     throws IOException {
-        StringBuilder content = new StringBuilder();
-        for (List line : lines) {
-            content.append(String.join(",", line));
-            content.append("\n");
-        }
-        File csvFile = new File(CSV_FILE_NAME);
-        if (csvFile.exists()) {
-            Files.delete(csvFile.toPath());
-        }
-        if (csvFile.createNewFile()) {
-            try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(CSV_FILE_NAME),
-                                                                    Charset.forName("UTF-8"))) {
-                writer.write(content.toString());
+        generateCsvFile(lines, getCsvFile());
+    }
+
+    /**
+     *
+     * @param lines
+     * @param csvFile
+     * @throws IOException
+     */
+    protected void generateCsvFile(List<List> lines, File csvFile)
+    throws IOException {
+        try (CsvReportSink sink = new CsvReportSink(csvFile, false)) {
+            for (List line : lines) {
+                sink.writeLine(line);
             }
-        } else {
-            throw new IOException(String.format("Cannot create the target file: %s", CSV_FILE_NAME));
+            sink.commit();
+        }
+    }
+
+    /**
+     * Analyzes the plugins straight into a CSV report file.
+     *
+     * @param plugins
+     * @param envelopePlugins
+     * @param csvFile
+     * @throws IOException
+     */
+    protected void generateCsvFile(Map<String, String> plugins, Map<String, EnvelopePlugin> envelopePlugins,
+                                   File csvFile)
+    throws IOException {
+        generateCsvFile(plugins, envelopePlugins, DependencyGraph.of(envelopePlugins), csvFile);
+    }
+
+    /**
+     * Analyzes the plugins straight into a CSV report file, reusing the dependency graph of the envelope.
+     *
+     * @param plugins
+     * @param envelopePlugins
+     * @param graph dependency graph of the envelope plugins
+     * @param csvFile
+     * @throws IOException
+     */
+    protected void generateCsvFile(Map<String, String> plugins, Map<String, EnvelopePlugin> envelopePlugins,
+                                   DependencyGraph graph, File csvFile)
+    throws IOException {
+        try (CsvReportSink sink = new CsvReportSink(csvFile)) {
+            analyzePlugins(plugins, envelopePlugins, graph, sink);
+            sink.commit();
         }
     }
 }
@@ -0,0 +1,27 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.IOException;
+
+/**
+ * <p>Plugin list of one controller of a fleet, as analyzed by {@link FleetAnalyzer}.</p>
+ *
+ * Plugin list files and support bundles are only read by the worker analyzing them, while the controllers of a
+ * {@link FleetDump} were already parsed with the rest of the dump.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public interface PluginList {
+
+    /**
+     * @return the controller name when known before reading the list, null otherwise
+     */
+    String getName();
+
+    /**
+     * @param metrics run metrics, counting the bytes read
+     * @return the controller and its plugins
+     * @throws IOException when the plugin list cannot be read
+     */
+    FleetDump.Controller read(RunMetrics metrics) throws IOException;
+}
@@ -0,0 +1,419 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Watches a directory of plugin lists and reports how their analyzed plugins change.</p>
+ *
+ * The last plugins and analyzed rows of every plugin list are kept in memory. When lists change, only their added
+ * plugins, the plugins whose version changed and the plugins whose required dependencies were installed or removed
+ * are analyzed again, and the differences are reported as {@link Diff}s instead of a new report. File system events
+ * are debounced: a batch is processed once no event came for the debounce delay, or at the latest after
+ * {@value #MAX_DELAY_FACTOR} times that delay, so that a burst of writes is processed once.
+ *
+ * A list which cannot be read, for instance while it is being written, keeps its previous state until its next
+ * change.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class PluginListWatcher implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginListWatcher.class);
+
+    public static final String COMMAND = "watch";
+    public static final String USAGE = "pluginListDirectory productId productRelease userName password "
+                                       + "[debounceMillis]";
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+    public static final List<String> DIFF_HEADER = Collections.unmodifiableList(Arrays.asList(
+        "Change", "Controller", "Id", "Old version", "New version", "Old drift", "New drift",
+        "Missing dependencies"));
+
+    private static final int MAX_DELAY_FACTOR = 10;
+
+    private final PluginAnalyzer analyzer;
+    private final Path directory;
+    private final Map<String, EnvelopePlugin> envelopePlugins;
+    private final DependencyGraph graph;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Map<Path, Snapshot> snapshots = new HashMap<>();
+
+    /**
+     * Receives the differences of each processed batch of changes.
+     */
+    public interface DiffListener {
+        void onDiffs(List<Diff> diffs) throws IOException;
+    }
+
+    public PluginListWatcher(final PluginAnalyzer analyzer, final Path directory,
+                             final Map<String, EnvelopePlugin> envelopePlugins, final long debounceMillis)
+    throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        this.analyzer = analyzer;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.envelopePlugins = Collections.unmodifiableMap(envelopePlugins);
+        this.graph = DependencyGraph.of(this.envelopePlugins);
+        this.debounceMillis = debounceMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // registered before the first scan, so that no change is missed in between
+        register(this.directory);
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 5 || args.length == 6) {
+            try {
+                long debounceMillis = args.length == 6 ? Long.parseLong(args[5]) : DEFAULT_DEBOUNCE_MILLIS;
+                PluginAnalyzer analyzer = new PluginAnalyzer(args[1], args[2])
+                    .resolveRelease(PluginAnalyzer.REPO_URL, args[3], args[4]);
+                Map<String, EnvelopePlugin> envelopePlugins = analyzer.getEnvelopePlugins(args[3], args[4]);
+                try (PluginListWatcher watcher = new PluginListWatcher(analyzer, Paths.get(args[0]), envelopePlugins,
+                                                                       debounceMillis);
+                     CsvReportSink sink = new CsvReportSink(new OutputStreamWriter(System.out,
+                                                                                   Charset.forName("UTF-8")),
+                                                            false)) {
+                    LOGGER.info("Watching {} plugin lists...", watcher.scan());
+                    sink.writeLine(DIFF_HEADER);
+                    sink.commit();
+                    watcher.watch(diffs -> {
+                        for (Diff diff : diffs) {
+                            sink.writeLine(diff.toList());
+                        }
+                        sink.commit();
+                    });
+                }
+            } catch (Exception e) {
+                LOGGER.error("Process failed!", e);
+                System.exit(1);
+            }
+        } else {
+            LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Analyzes every plugin list of the directory, as the state the next changes are compared to.
+     *
+     * @return number of plugin lists
+     * @throws IOException
+     */
+    public int scan()
+    throws IOException {
+        refresh(FleetAnalyzer.listPluginFiles(directory));
+        return snapshots.size();
+    }
+
+    /**
+     * Processes the changes of the directory until the watcher is closed or the thread interrupted.
+     *
+     * @param listener receives the differences of each batch of changes
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void watch(final DiffListener listener)
+    throws IOException, InterruptedException {
+        try {
+            while (true) {
+                Set<Path> changed = new TreeSet<>();
+                boolean overflow = collect(watchService.take(), changed);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis * MAX_DELAY_FACTOR);
+                WatchKey key;
+                while (System.nanoTime() < deadline
+                       && (key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, changed);
+                }
+                if (overflow) {
+                    // lost events: every list is compared again
+                    changed.addAll(FleetAnalyzer.listPluginFiles(directory));
+                    changed.addAll(snapshots.keySet());
+                }
+                List<Diff> diffs;
+                try (RunMetrics.Timer timer = analyzer.getMetrics().time("watchBatch")) {
+                    diffs = refresh(changed);
+                }
+                LOGGER.debug("{} changed plugin lists: {} differences", changed.size(), diffs.size());
+                if (!diffs.isEmpty()) {
+                    listener.onDiffs(diffs);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            LOGGER.debug("Watcher closed");
+        }
+    }
+
+    @Override
+    public void close()
+    throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * @return the analyzed rows of a plugin list, by plugin id, null if the list is not known
+     */
+    Map<String, ReportRow> getRows(final Path pluginFile) {
+        Snapshot snapshot = snapshots.get(pluginFile.toAbsolutePath().normalize());
+        return snapshot == null ? null : Collections.unmodifiableMap(snapshot.rows);
+    }
+
+    /**
+     * Compares plugin lists with their last state.
+     *
+     * @param pluginFiles changed, created or deleted plugin lists
+     * @return the differences, by plugin list then plugin id
+     */
+    List<Diff> refresh(final Collection<Path> pluginFiles) {
+        List<Diff> diffs = new ArrayList<>();
+        for (Path pluginFile : new TreeSet<>(pluginFiles)) {
+            diffs.addAll(update(pluginFile.toAbsolutePath().normalize()));
+        }
+        return diffs;
+    }
+
+    private List<Diff> update(final Path pluginFile) {
+        Snapshot previous = snapshots.get(pluginFile);
+        Snapshot next;
+        if (Files.isRegularFile(pluginFile)) {
+            try {
+                next = read(pluginFile);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Skipping {} until its next change: {}", pluginFile, e.toString());
+                return Collections.emptyList();
+            }
+        } else if (previous != null) {
+            next = new Snapshot(previous.controller, Collections.emptyMap(), new BitSet());
+        } else {
+            return Collections.emptyList();
+        }
+        if (previous == null) {
+            previous = new Snapshot(next.controller, Collections.emptyMap(), new BitSet());
+        }
+
+        // installing or removing a plugin changes the missing dependencies of the plugins requiring it
+        BitSet changedNodes = (BitSet) next.installed.clone();
+        changedNodes.xor(previous.installed);
+        List<Diff> diffs = new ArrayList<>();
+        int analyzed = 0;
+        for (Map.Entry<String, String> plugin : next.plugins.entrySet()) {
+            String id = plugin.getKey();
+            ReportRow before = previous.rows.get(id);
+            ReportRow after;
+            if (before == null) {
+                after = analyze(id, plugin.getValue(), next.installed);
+                diffs.add(new Diff(Diff.Kind.ADDED, next.controller, null, after));
+            } else if (!plugin.getValue().equals(before.getVersion())) {
+                after = analyze(id, plugin.getValue(), next.installed);
+                diffs.add(new Diff(Diff.Kind.VERSION_CHANGED, next.controller, before, after));
+            } else if (graph.getClosure(graph.getNode(id)).intersects(changedNodes)) {
+                after = analyze(id, plugin.getValue(), next.installed);
+                if (!after.toList().equals(before.toList())) {
+                    diffs.add(new Diff(Diff.Kind.ENVELOPE_STATUS_CHANGED, next.controller, before, after));
+                }
+            } else {
+                next.rows.put(id, before);
+                continue;
+            }
+            analyzed++;
+            next.rows.put(id, after);
+        }
+        for (ReportRow before : previous.rows.values()) {
+            if (!next.plugins.containsKey(before.getId())) {
+                diffs.add(new Diff(Diff.Kind.REMOVED, previous.controller, before, null));
+            }
+        }
+        analyzer.getMetrics().count(RunMetrics.ROWS, analyzed);
+        if (next.plugins.isEmpty() && !Files.exists(pluginFile)) {
+            snapshots.remove(pluginFile);
+        } else {
+            snapshots.put(pluginFile, next);
+        }
+        diffs.sort(Comparator.comparing(Diff::getId));
+        return diffs;
+    }
+
+    private Snapshot read(final Path pluginFile)
+    throws IOException {
+        String controller;
+        Map<String, String> plugins;
+        if (SupportBundle.isBundle(pluginFile)) {
+            SupportBundle bundle = SupportBundle.read(pluginFile);
+            controller = bundle.getController();
+            plugins = bundle.getPlugins();
+        } else {
+            controller = FleetAnalyzer.getControllerName(pluginFile);
+            plugins = PluginAnalyzer.getFilePlugins(pluginFile);
+        }
+        analyzer.getMetrics().count(RunMetrics.PLUGINS, plugins.size());
+        return new Snapshot(controller, new TreeMap<>(plugins), graph.toNodes(plugins.keySet()));
+    }
+
+    private ReportRow analyze(final String id, final String version, final BitSet installed) {
+        return PluginAnalyzer.analyzePlugin(id, version, envelopePlugins, graph, installed);
+    }
+
+    /**
+     * Adds the plugin lists touched by the events of a key.
+     *
+     * @return true if events were lost
+     */
+    private boolean collect(final WatchKey key, final Set<Path> changed)
+    throws IOException {
+        boolean overflow = false;
+        Path watched = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || watched == null) {
+                overflow = true;
+                continue;
+            }
+            Path path = watched.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path);
+                changed.addAll(FleetAnalyzer.listPluginFiles(path));
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && !FleetAnalyzer.isPluginList(path)) {
+                // a deleted directory takes its plugin lists along
+                for (Path pluginFile : snapshots.keySet()) {
+                    if (pluginFile.startsWith(path)) {
+                        changed.add(pluginFile);
+                    }
+                }
+            } else if (FleetAnalyzer.isPluginList(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void register(final Path root)
+    throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+                watchedDirectories.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                                     StandardWatchEventKinds.ENTRY_MODIFY,
+                                                     StandardWatchEventKinds.ENTRY_DELETE),
+                                       path);
+            }
+        }
+    }
+
+    /**
+     * Last known state of a plugin list.
+     */
+    private static final class Snapshot {
+        private final String controller;
+        private final Map<String, String> plugins;
+        private final BitSet installed;
+        private final Map<String, ReportRow> rows = new HashMap<>();
+
+        Snapshot(String controller, Map<String, String> plugins, BitSet installed) {
+            this.controller = controller;
+            this.plugins = plugins;
+            this.installed = installed;
+        }
+    }
+
+    /**
+     * Change of an analyzed plugin of a plugin list.
+     */
+    public static final class Diff {
+        /**
+         * Kind of change: a plugin installed, uninstalled or updated, or a plugin whose analysis changed although
+         * its version did not, when some of its required dependencies were installed or removed.
+         */
+        public enum Kind {
+            ADDED, REMOVED, VERSION_CHANGED, ENVELOPE_STATUS_CHANGED
+        }
+
+        private final Kind kind;
+        private final String controller;
+        private final ReportRow before;
+        private final ReportRow after;
+
+        Diff(Kind kind, String controller, ReportRow before, ReportRow after) {
+            this.kind = kind;
+            this.controller = controller;
+            this.before = before;
+            this.after = after;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getController() {
+            return controller;
+        }
+
+        public String getId() {
+            return after != null ? after.getId() : before.getId();
+        }
+
+        /**
+         * @return the previous analysis, null for an added plugin
+         */
+        public ReportRow getBefore() {
+            return before;
+        }
+
+        /**
+         * @return the new analysis, null for a removed plugin
+         */
+        public ReportRow getAfter() {
+            return after;
+        }
+
+        /**
+         * @return the diff values, in {@link #DIFF_HEADER} order
+         */
+        public List<String> toList() {
+            return Arrays.asList(kind.toString(),
+                                 controller,
+                                 getId(),
+                                 before == null ? "" : before.getVersion(),
+                                 after == null ? "" : after.getVersion(),
+                                 before == null ? "" : before.getDriftKind(),
+                                 after == null ? "" : after.getDriftKind(),
+                                 after == null ? "" : after.getMissingDependencies());
+        }
+
+        @Override
+        public String toString() {
+            return toList().toString();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Compares one plugin list against several releases of a product.</p>
+ *
+ * All the envelopes are fetched and parsed concurrently, so the whole load takes about as long as the slowest
+ * one. The report has one line per plugin and, for each release, its envelope membership, version, tier and
+ * scope.
+ *
+ * Each release can also be a {@code from..to} range, with optional bounds, a {@code prefix*} or {@code latest},
+ * selected among the releases listed by the repository metadata, as for {@link EnvelopeMirror}.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class ReleaseComparator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReleaseComparator.class);
+
+    public static final String COMMAND = "compare";
+    public static final String USAGE = "pluginListFilePath productId releases[,releases...] userName password";
+    public static final int MAX_THREADS = 16;
+
+    private static final String RELEASE_SEPARATOR = ",";
+    private static final String CSV_FILE_NAME = "Compared-Plugins.csv";
+
+    private final EnvelopeProduct product;
+    private final List<String> productReleases;
+    private final EnvelopeRegistry.Loader loader;
+
+    public ReleaseComparator(final String productId, final List<String> productReleases,
+                             final EnvelopeRegistry.Loader loader) {
+        if (productReleases.isEmpty()) {
+            throw new IllegalArgumentException("At least one product release is expected");
+        }
+        this.product = EnvelopeProduct.valueOf(productId.toUpperCase());
+        this.productReleases = new ArrayList<>(productReleases);
+        this.loader = loader;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 5) {
+            try {
+                LOGGER.info("Processing...");
+                final String userName = args[3];
+                final String password = args[4];
+                ReleaseResolver resolver = new ReleaseResolver(
+                    new File(PluginAnalyzer.getDefaultCacheDirectory(), ReleaseResolver.DIRECTORY_NAME),
+                    ReleaseResolver.getConfiguredTtl(), new EnvelopeFetcher(userName, password));
+                ReleaseComparator comparator = new ReleaseComparator(
+                    args[1], resolveReleases(args[1], args[2], resolver, PluginAnalyzer.REPO_URL),
+                    (product, productRelease) -> new PluginAnalyzer(product.name(), productRelease)
+                        .getEnvelopePlugins(userName, password));
+                comparator.compare(PluginAnalyzer.getFilePlugins(Paths.get(args[0])), comparator.loadEnvelopes(),
+                                   new File(PluginAnalyzer.getDefaultOutputDirectory(), CSV_FILE_NAME));
+                LOGGER.info("That's it!");
+            } catch (Exception e) {
+                LOGGER.error("Process failed!", e);
+                System.exit(1);
+            }
+        } else {
+            LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param releases comma separated product releases
+     * @return product releases
+     */
+    public static List<String> parseReleases(final String releases) {
+        List<String> parsed = new ArrayList<>();
+        for (String release : releases.split(RELEASE_SEPARATOR)) {
+            if (!release.trim().isEmpty()) {
+                parsed.add(release.trim());
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Selects the product releases, only listing the releases of the product when a selection is not an exact
+     * release.
+     *
+     * @param productId product id
+     * @param releases comma separated releases, {@code from..to} ranges, {@code prefix*} or {@code latest}
+     * @param resolver resolver listing the releases of the product
+     * @param repoUrl repository URL
+     * @return the selected product releases, in selection order and without duplicates
+     * @throws Exception when a selection matches no release or the releases cannot be listed
+     */
+    public static List<String> resolveReleases(final String productId, final String releases,
+                                               final ReleaseResolver resolver, final String repoUrl)
+    throws Exception {
+        EnvelopeProduct product = EnvelopeProduct.valueOf(productId.toUpperCase());
+        List<String> available = null;
+        Set<String> resolved = new LinkedHashSet<>();
+        for (String release : parseReleases(releases)) {
+            EnvelopeMirror.Selection selection = EnvelopeMirror.Selection.of(product, release);
+            if (selection.isExact()) {
+                resolved.add(release);
+                continue;
+            }
+            if (available == null) {
+                available = resolver.getReleases(repoUrl, product);
+            }
+            List<String> selected = selection.select(available);
+            if (selected.isEmpty()) {
+                throw new IOException(String.format("No %s release matches %s among %s", product, release,
+                                                    available));
+            }
+            resolved.addAll(selected);
+        }
+        return new ArrayList<>(resolved);
+    }
+
+    /**
+     * Loads the envelopes of all the releases concurrently.
+     *
+     * @return envelope plugins by product release, in release order
+     * @throws Exception the first load failure
+     */
+    public Map<String, Map<String, EnvelopePlugin>> loadEnvelopes()
+    throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(productReleases.size(), MAX_THREADS));
+        try {
+            List<Future<Map<String, EnvelopePlugin>>> futures = new ArrayList<>(productReleases.size());
+            for (final String productRelease : productReleases) {
+                futures.add(executor.submit(() -> loader.load(product, productRelease)));
+            }
+            Map<String, Map<String, EnvelopePlugin>> envelopes = new LinkedHashMap<>();
+            for (int i = 0; i < productReleases.size(); i++) {
+                try {
+                    envelopes.put(productReleases.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            return envelopes;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the wide report, one line per plugin sorted by id.
+     *
+     * @param plugins installed plugins
+     * @param envelopes envelope plugins by product release
+     * @param csvFile report file
+     * @throws IOException
+     */
+    public void compare(final Map<String, String> plugins, final Map<String, Map<String, EnvelopePlugin>> envelopes,
+                        final File csvFile)
+    throws IOException {
+        List<String> header = new ArrayList<>(Arrays.asList("Id", "Version"));
+        for (String productRelease : envelopes.keySet()) {
+            header.add(productRelease + " Envelope");
+            header.add(productRelease + " Version");
+            header.add(productRelease + " Type");
+            header.add(productRelease + " Scope");
+        }
+        try (CsvReportSink sink = new CsvReportSink(csvFile, false)) {
+            sink.writeLine(header);
+            List<String> line = new ArrayList<>(header.size());
+            for (Map.Entry<String, String> plugin : new TreeMap<>(plugins).entrySet()) {
+                line.clear();
+                line.add(plugin.getKey());
+                line.add(plugin.getValue());
+                for (Map<String, EnvelopePlugin> envelopePlugins : envelopes.values()) {
+                    ReportRow row = PluginAnalyzer.analyzePlugin(plugin.getKey(), plugin.getValue(),
+                                                                 envelopePlugins);
+                    line.add(row.getEnvelope());
+                    line.add(row.getEnvelopeVersion());
+                    line.add(row.getType());
+                    line.add(row.getScope());
+                }
+                sink.writeLine(line);
+            }
+            sink.commit();
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import hudson.util.VersionNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Memory-mapped index of the envelope history of a product.</p>
+ *
+ * For each plugin, the index holds a timeline of the releases in which its envelope version, tier or scope
+ * changed, or in which it entered or left the envelope. Releases are numbered in version order; along with its
+ * version, each timeline entry keeps the highest version shipped so far, which never decreases, so that the first
+ * release shipping a version or a newer one is found by binary search. Plugins are sorted by id and strings are
+ * dictionary encoded, so a query reads a logarithmic number of entries of the mapped file and parses nothing
+ * else.
+ *
+ * Updating the index only loads the envelopes of the releases it does not hold yet, then rewrites the file.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class ReleaseIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReleaseIndex.class);
+
+    public static final String COMMAND = "index";
+    public static final String USAGE = "update productId userName password [repositoryUrl] "
+                                        + "| first productId pluginId [minimumVersion] | show productId pluginId";
+    public static final String DIRECTORY_NAME = "release-index";
+    public static final int MAX_THREADS = 8;
+
+    private static final String EXTENSION = ".idx";
+    private static final int MAGIC = 0x50415249;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 7 * Integer.BYTES;
+    private static final int PLUGIN_BYTES = 3 * Integer.BYTES;
+    private static final int ENTRY_BYTES = 5 * Integer.BYTES;
+    private static final int NULL_INDEX = -1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int releaseCount;
+    private final int pluginCount;
+    private final int offsetsAt;
+    private final int releasesAt;
+    private final int pluginsAt;
+    private final int entriesAt;
+    private final int poolAt;
+
+    private ReleaseIndex(final ByteBuffer buffer)
+    throws IOException {
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unknown release index format");
+        }
+        int stringCount = buffer.getInt(8);
+        this.releaseCount = buffer.getInt(12);
+        this.pluginCount = buffer.getInt(16);
+        int entryCount = buffer.getInt(20);
+        int poolSize = buffer.getInt(24);
+        this.buffer = buffer;
+        this.offsetsAt = HEADER_BYTES;
+        this.releasesAt = offsetsAt + (stringCount + 1) * Integer.BYTES;
+        this.pluginsAt = releasesAt + releaseCount * Integer.BYTES;
+        this.entriesAt = pluginsAt + pluginCount * PLUGIN_BYTES;
+        this.poolAt = entriesAt + entryCount * ENTRY_BYTES;
+        if (buffer.limit() != poolAt + poolSize) {
+            throw new IOException("Truncated release index");
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            if ((args.length == 4 || args.length == 5) && "update".equals(args[0])) {
+                final EnvelopeProduct product = EnvelopeProduct.valueOf(args[1].toUpperCase());
+                final String userName = args[2];
+                final String password = args[3];
+                final String repositoryUrl = args.length == 5 ? args[4] : PluginAnalyzer.REPO_URL;
+                File cacheDirectory = PluginAnalyzer.getDefaultCacheDirectory();
+                List<String> releases = new ReleaseResolver(new File(cacheDirectory, ReleaseResolver.DIRECTORY_NAME),
+                                                            ReleaseResolver.getConfiguredTtl(),
+                                                            new EnvelopeFetcher(userName, password))
+                    .getReleases(repositoryUrl, product);
+                ReleaseIndex index = update(getIndexFile(product), product, releases,
+                    (indexedProduct, release) -> new PluginAnalyzer(indexedProduct.name(), release)
+                        .getEnvelopePlugins(repositoryUrl, repositoryUrl.startsWith("file:"), userName, password));
+                LOGGER.info("{} releases indexed", index.getReleases().size());
+            } else if ((args.length == 3 || args.length == 4) && "first".equals(args[0])) {
+                ReleaseIndex index = open(getIndexFile(EnvelopeProduct.valueOf(args[1].toUpperCase())));
+                String release = args.length == 4 ? index.getFirstRelease(args[2], args[3])
+                                                  : index.getFirstRelease(args[2]);
+                LOGGER.info("{}", release == null ? "No release matches" : release);
+            } else if (args.length == 3 && "show".equals(args[0])) {
+                ReleaseIndex index = open(getIndexFile(EnvelopeProduct.valueOf(args[1].toUpperCase())));
+                for (Entry entry : index.getTimeline(args[2])) {
+                    LOGGER.info("{}", entry);
+                }
+            } else {
+                LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Process failed!", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param product product
+     * @return the index file of the product, in the default cache directory
+     */
+    static File getIndexFile(final EnvelopeProduct product) {
+        return new File(new File(PluginAnalyzer.getDefaultCacheDirectory(), DIRECTORY_NAME),
+                        product.getArtifactId() + EXTENSION);
+    }
+
+    /**
+     * Maps an index file.
+     *
+     * @param indexFile index file
+     * @return the index
+     * @throws IOException
+     */
+    public static ReleaseIndex open(final File indexFile)
+    throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed
+            return new ReleaseIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Adds the releases missing from an index, creating it if needed. Envelopes which cannot be loaded are skipped,
+     * and tried again on the next update.
+     *
+     * @param indexFile index file
+     * @param product product
+     * @param releases all the releases of the product
+     * @param loader envelope loader
+     * @return the updated index
+     * @throws Exception
+     */
+    public static ReleaseIndex update(final File indexFile, final EnvelopeProduct product,
+                                      final List<String> releases, final EnvelopeRegistry.Loader loader)
+    throws Exception {
+        ReleaseIndex existing = indexFile.exists() ? open(indexFile) : null;
+        Map<String, Map<String, State>> history = existing == null ? new HashMap<>() : existing.expand();
+        List<String> missing = new ArrayList<>();
+        for (String release : releases) {
+            if (!history.containsKey(release) && !missing.contains(release)) {
+                missing.add(release);
+            }
+        }
+        if (missing.isEmpty() && existing != null) {
+            return existing;
+        }
+        LOGGER.info("Indexing {} new {} releases", missing.size(), product);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(missing.size(), MAX_THREADS)));
+        try {
+            List<Future<Map<String, State>>> futures = new ArrayList<>(missing.size());
+            for (final String release : missing) {
+                // only the states are kept, not the envelopes
+                futures.add(executor.submit(() -> toStates(loader.load(product, release))));
+            }
+            for (int i = 0; i < missing.size(); i++) {
+                try {
+                    history.put(missing.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    LOGGER.warn("Skipping {} {}: {}", product, missing.get(i), e.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        write(indexFile, history);
+        return open(indexFile);
+    }
+
+    private static Map<String, State> toStates(final Map<String, EnvelopePlugin> envelopePlugins) {
+        Map<String, State> states = new HashMap<>(envelopePlugins.size() * 2);
+        for (Map.Entry<String, EnvelopePlugin> plugin : envelopePlugins.entrySet()) {
+            EnvelopePlugin envelopePlugin = plugin.getValue();
+            states.put(plugin.getKey(), new State(Objects.toString(envelopePlugin.getVersionNumber(), null),
+                envelopePlugin.getTier() == null ? null : envelopePlugin.getTier().name(),
+                envelopePlugin.getScope() == null ? null : envelopePlugin.getScope().name()));
+        }
+        return states;
+    }
+
+    /**
+     * @return the plugin states of every indexed release
+     */
+    private Map<String, Map<String, State>> expand() {
+        Map<String, Map<String, State>> history = new HashMap<>();
+        List<String> releases = getReleases();
+        for (String release : releases) {
+            history.put(release, new HashMap<>());
+        }
+        for (int plugin = 0; plugin < pluginCount; plugin++) {
+            String id = string(pluginInt(plugin, 0));
+            int first = pluginInt(plugin, 1);
+            int count = pluginInt(plugin, 2);
+            for (int entry = first; entry < first + count; entry++) {
+                int end = entry + 1 < first + count ? entryInt(entry + 1, 0) : releaseCount;
+                if (entryInt(entry, 1) == NULL_INDEX) {
+                    continue;
+                }
+                State state = new State(string(entryInt(entry, 1)), string(entryInt(entry, 3)),
+                                        string(entryInt(entry, 4)));
+                for (int release = entryInt(entry, 0); release < end; release++) {
+                    history.get(releases.get(release)).put(id, state);
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Writes the index of the given history into a temporary file which then replaces the index file.
+     */
+    private static void write(final File indexFile, final Map<String, Map<String, State>> history)
+    throws IOException {
+        List<String> releases = new ArrayList<>(history.keySet());
+        releases.sort(Comparator.comparing((String release) -> new VersionNumber(release))
+                                .thenComparing(Comparator.naturalOrder()));
+        TreeSet<String> plugins = new TreeSet<>();
+        for (Map<String, State> states : history.values()) {
+            plugins.addAll(states.keySet());
+        }
+
+        StringDictionary dictionary = new StringDictionary();
+        int[] releaseIds = new int[releases.size()];
+        for (int i = 0; i < releaseIds.length; i++) {
+            releaseIds[i] = dictionary.intern(releases.get(i));
+        }
+        int[] pluginTable = new int[plugins.size() * 3];
+        List<int[]> entries = new ArrayList<>();
+        int plugin = 0;
+        for (String id : plugins) {
+            pluginTable[plugin * 3] = dictionary.intern(id);
+            pluginTable[plugin * 3 + 1] = entries.size();
+            State previous = null;
+            VersionNumber max = null;
+            String maxVersion = null;
+            for (int release = 0; release < releases.size(); release++) {
+                State state = history.get(releases.get(release)).get(id);
+                if (Objects.equals(state, previous) || previous == null && state == null) {
+                    continue;
+                }
+                if (state != null && state.version != null) {
+                    VersionNumber version = new VersionNumber(state.version);
+                    if (max == null || version.compareTo(max) > 0) {
+                        max = version;
+                        maxVersion = state.version;
+                    }
+                }
+                entries.add(new int[] {release,
+                                       state == null ? NULL_INDEX : intern(dictionary, state.version),
+                                       intern(dictionary, maxVersion),
+                                       state == null ? NULL_INDEX : intern(dictionary, state.tier),
+                                       state == null ? NULL_INDEX : intern(dictionary, state.scope)});
+                previous = state;
+            }
+            pluginTable[plugin * 3 + 2] = entries.size() - pluginTable[plugin * 3 + 1];
+            plugin++;
+        }
+
+        byte[][] strings = new byte[dictionary.size()][];
+        int poolSize = 0;
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = dictionary.get(i).getBytes(UTF8);
+            poolSize += strings[i].length;
+        }
+        ByteBuffer content = ByteBuffer.allocate(HEADER_BYTES + (strings.length + 1) * Integer.BYTES
+                                                 + releaseIds.length * Integer.BYTES
+                                                 + pluginTable.length * Integer.BYTES
+                                                 + entries.size() * ENTRY_BYTES + poolSize);
+        content.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(strings.length).putInt(releaseIds.length)
+               .putInt(plugins.size()).putInt(entries.size()).putInt(poolSize);
+        int offset = 0;
+        for (byte[] string : strings) {
+            content.putInt(offset);
+            offset += string.length;
+        }
+        content.putInt(offset);
+        for (int releaseId : releaseIds) {
+            content.putInt(releaseId);
+        }
+        for (int value : pluginTable) {
+            content.putInt(value);
+        }
+        for (int[] entry : entries) {
+            for (int value : entry) {
+                content.putInt(value);
+            }
+        }
+        for (byte[] string : strings) {
+            content.put(string);
+        }
+
+        File directory = indexFile.getAbsoluteFile().getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the index directory: " + directory);
+        }
+        Path tempFile = Files.createTempFile(directory.toPath(), indexFile.getName(), ".part");
+        Files.write(tempFile, content.array());
+        Files.move(tempFile, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int intern(final StringDictionary dictionary, final String value) {
+        return value == null ? NULL_INDEX : dictionary.intern(value);
+    }
+
+    /**
+     * @return indexed releases, in version order
+     */
+    public List<String> getReleases() {
+        List<String> releases = new ArrayList<>(releaseCount);
+        for (int i = 0; i < releaseCount; i++) {
+            releases.add(release(i));
+        }
+        return releases;
+    }
+
+    /**
+     * @param plugin plugin id
+     * @return first release whose envelope holds the plugin, or null
+     */
+    public String getFirstRelease(final String plugin) {
+        int index = findPlugin(plugin);
+        if (index < 0) {
+            return null;
+        }
+        // the first entry of a timeline is always a release holding the plugin
+        return release(entryInt(pluginInt(index, 1), 0));
+    }
+
+    /**
+     * @param plugin plugin id
+     * @param minimumVersion plugin version
+     * @return first release whose envelope holds the plugin in the given version or a newer one, or null
+     */
+    public String getFirstRelease(final String plugin, final String minimumVersion) {
+        int index = findPlugin(plugin);
+        if (index < 0) {
+            return null;
+        }
+        VersionNumber minimum = new VersionNumber(minimumVersion);
+        int low = pluginInt(index, 1);
+        int high = low + pluginInt(index, 2) - 1;
+        int found = -1;
+        // the highest version shipped so far never decreases along a timeline
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int maxVersion = entryInt(middle, 2);
+            if (maxVersion != NULL_INDEX && new VersionNumber(string(maxVersion)).compareTo(minimum) >= 0) {
+                found = middle;
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return found < 0 ? null : release(entryInt(found, 0));
+    }
+
+    /**
+     * @param plugin plugin id
+     * @param release product release
+     * @return the plugin in the envelope of the release, or null if the envelope does not hold it or the release is
+     * not indexed
+     */
+    public Entry get(final String plugin, final String release) {
+        int ordinal = findRelease(release);
+        int index = findPlugin(plugin);
+        if (ordinal < 0 || index < 0) {
+            return null;
+        }
+        int low = pluginInt(index, 1);
+        int high = low + pluginInt(index, 2) - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (entryInt(middle, 0) <= ordinal) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (found < 0 || entryInt(found, 1) == NULL_INDEX) {
+            return null;
+        }
+        return new Entry(release, string(entryInt(found, 1)), string(entryInt(found, 3)),
+                         string(entryInt(found, 4)));
+    }
+
+    /**
+     * @param plugin plugin id
+     * @return the releases in which the plugin changed, entries of releases dropping it having a null version
+     */
+    public List<Entry> getTimeline(final String plugin) {
+        List<Entry> timeline = new ArrayList<>();
+        int index = findPlugin(plugin);
+        if (index >= 0) {
+            int first = pluginInt(index, 1);
+            for (int entry = first; entry < first + pluginInt(index, 2); entry++) {
+                timeline.add(new Entry(release(entryInt(entry, 0)), string(entryInt(entry, 1)),
+                                       string(entryInt(entry, 3)), string(entryInt(entry, 4))));
+            }
+        }
+        return timeline;
+    }
+
+    private int findPlugin(final String plugin) {
+        int low = 0;
+        int high = pluginCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = string(pluginInt(middle, 0)).compareTo(plugin);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int findRelease(final String release) {
+        VersionNumber version = new VersionNumber(release);
+        int low = 0;
+        int high = releaseCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            String candidate = release(middle);
+            int comparison = new VersionNumber(candidate).compareTo(version);
+            if (comparison == 0) {
+                comparison = candidate.compareTo(release);
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private String release(final int ordinal) {
+        return string(buffer.getInt(releasesAt + ordinal * Integer.BYTES));
+    }
+
+    private int pluginInt(final int plugin, final int field) {
+        return buffer.getInt(pluginsAt + plugin * PLUGIN_BYTES + field * Integer.BYTES);
+    }
+
+    private int entryInt(final int entry, final int field) {
+        return buffer.getInt(entriesAt + entry * ENTRY_BYTES + field * Integer.BYTES);
+    }
+
+    private String string(final int index) {
+        if (index == NULL_INDEX) {
+            return null;
+        }
+        int start = buffer.getInt(offsetsAt + index * Integer.BYTES);
+        int end = buffer.getInt(offsetsAt + (index + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        // absolute reads on a view: the index is shared by threads
+        ByteBuffer view = buffer.duplicate();
+        view.position(poolAt + start);
+        view.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Envelope version, tier and scope of a plugin.
+     */
+    private static final class State {
+        private final String version;
+        private final String tier;
+        private final String scope;
+
+        State(String version, String tier, String scope) {
+            this.version = version;
+            this.tier = tier;
+            this.scope = scope;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State)) {
+                return false;
+            }
+            State other = (State) o;
+            return Objects.equals(version, other.version) && Objects.equals(tier, other.tier)
+                   && Objects.equals(scope, other.scope);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(version, tier, scope);
+        }
+    }
+
+    /**
+     * A plugin in the envelope of a release.
+     */
+    public static final class Entry {
+        private final String release;
+        private final String version;
+        private final String tier;
+        private final String scope;
+
+        Entry(String release, String version, String tier, String scope) {
+            this.release = release;
+            this.version = version;
+            this.tier = tier;
+            this.scope = scope;
+        }
+
+        public String getRelease() {
+            return release;
+        }
+
+        /**
+         * @return envelope version, null if the release dropped the plugin
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        public String getTier() {
+            return tier;
+        }
+
+        public String getScope() {
+            return scope;
+        }
+
+        @Override
+        public String toString() {
+            return version == null ? release + ": removed"
+                                   : String.format("%s: %s %s %s", release, version, tier, scope);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import hudson.util.VersionNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Resolves product release selectors against the repository {@code maven-metadata.xml}.</p>
+ *
+ * Supported selectors are {@code latest} and version prefixes such as {@code 2.107.*}; both resolve to the highest
+ * matching release as per {@link VersionNumber} ordering. Remote metadata is cached on disk and only revalidated
+ * (with a conditional request) once older than the configured time to live. The cached metadata of each repository
+ * is kept apart, its file name holding a hash of the repository URL.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class ReleaseResolver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReleaseResolver.class);
+
+    public static final String LATEST = "latest";
+    public static final String DIRECTORY_NAME = "metadata-cache";
+    public static final long DEFAULT_TTL = 60L * 60 * 1000;
+    public static final String TTL_PROPERTY = "pluginanalyzer.metadata.ttl";
+
+    private static final String PREFIX_WILDCARD = "*";
+    private static final String METADATA_FILE_NAME = "maven-metadata.xml";
+    private static final String FILE_PROTOCOL = "file";
+    private static final int REPO_HASH_LENGTH = 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File cacheDirectory;
+    private final long ttl;
+    private final EnvelopeFetcher fetcher;
+
+    public ReleaseResolver(final File cacheDirectory, final long ttl, final EnvelopeFetcher fetcher)
+    throws IOException {
+        if (!cacheDirectory.exists() && !cacheDirectory.mkdirs()) {
+            throw new IOException("Cannot create the cache directory: " + cacheDirectory.getAbsolutePath());
+        }
+        this.cacheDirectory = cacheDirectory;
+        this.ttl = ttl;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * @return the time to live set by the {@value #TTL_PROPERTY} system property, in milliseconds
+     */
+    public static long getConfiguredTtl() {
+        return Long.getLong(TTL_PROPERTY, DEFAULT_TTL);
+    }
+
+    /**
+     * @param productRelease product release or selector
+     * @return true if the product release needs to be resolved
+     */
+    public static boolean isSelector(final String productRelease) {
+        return LATEST.equals(productRelease) || productRelease.endsWith(PREFIX_WILDCARD);
+    }
+
+    /**
+     * @param repoUrl repository URL
+     * @param product product
+     * @param selector release selector, or plain release returned as is
+     * @return the highest release matching the selector
+     * @throws NoMatchingReleaseException when no release matches
+     * @throws Exception when metadata cannot be read
+     */
+    public String resolve(final String repoUrl, final EnvelopeProduct product, final String selector)
+    throws Exception {
+        if (!isSelector(selector)) {
+            return selector;
+        }
+        List<String> releases = getReleases(repoUrl, product);
+        String resolved = select(releases, selector);
+        if (resolved == null) {
+            throw new NoMatchingReleaseException(String.format("No %s release matches %s among %s", product, selector,
+                                                               releases));
+        }
+        LOGGER.info("{} {} resolved to {}", product, selector, resolved);
+        return resolved;
+    }
+
+    static String select(final List<String> releases, final String selector) {
+        String prefix = LATEST.equals(selector) ? ""
+                                                : selector.substring(0, selector.length() - PREFIX_WILDCARD.length());
+        String best = null;
+        VersionNumber bestVersion = null;
+        for (String release : releases) {
+            if (release.startsWith(prefix)) {
+                VersionNumber version = new VersionNumber(release);
+                if (bestVersion == null || version.compareTo(bestVersion) > 0) {
+                    best = release;
+                    bestVersion = version;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return all the releases listed by the product metadata
+     * @throws Exception
+     */
+    public List<String> getReleases(final String repoUrl, final EnvelopeProduct product)
+    throws Exception {
+        URL url = getMetadataUrl(repoUrl, product);
+        if (FILE_PROTOCOL.equals(url.getProtocol())) {
+            try (InputStream inputStream = url.openStream()) {
+                return parseReleases(inputStream);
+            }
+        }
+        File cacheFile = getCacheFile(repoUrl, product);
+        if (cacheFile.exists() && System.currentTimeMillis() - cacheFile.lastModified() < ttl) {
+            try (InputStream inputStream = new FileInputStream(cacheFile)) {
+                return parseReleases(inputStream);
+            }
+        }
+        List<String> releases = fetcher.fetch(url, cacheFile, ReleaseResolver::parseReleases);
+        if (!cacheFile.setLastModified(System.currentTimeMillis())) {
+            LOGGER.debug("Cannot refresh the time to live of {}", cacheFile);
+        }
+        return releases;
+    }
+
+    /**
+     * @return the cache file of the product metadata of the repository
+     * @throws IOException
+     */
+    File getCacheFile(final String repoUrl, final EnvelopeProduct product)
+    throws IOException {
+        String repoHash = EnvelopeCache.hash(new ByteArrayInputStream(repoUrl.getBytes(UTF8)));
+        return new File(cacheDirectory, product.getArtifactId() + '-' + repoHash.substring(0, REPO_HASH_LENGTH) + '-'
+                                        + METADATA_FILE_NAME);
+    }
+
+    static URL getMetadataUrl(final String repoUrl, final EnvelopeProduct product)
+    throws IOException {
+        return new URL(PluginAnalyzer.getArtifactUrl(repoUrl, product) + METADATA_FILE_NAME);
+    }
+
+    static List<String> parseReleases(final InputStream inputStream)
+    throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setExpandEntityReferences(false);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        Document document = factory.newDocumentBuilder().parse(inputStream);
+        NodeList versions = document.getElementsByTagName("version");
+        List<String> releases = new ArrayList<>(versions.getLength());
+        for (int i = 0; i < versions.getLength(); i++) {
+            String release = versions.item(i).getTextContent().trim();
+            // the top level <version> element of a metadata file is not a release of the artifact
+            if (!release.isEmpty() && "versions".equals(versions.item(i).getParentNode().getNodeName())) {
+                releases.add(release);
+            }
+        }
+        return releases;
+    }
+
+    /**
+     * Release selector matching none of the released versions.
+     */
+    public static class NoMatchingReleaseException extends IOException {
+        NoMatchingReleaseException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>Report file written to a temporary file of the same directory, renamed to its final name once complete.</p>
+ *
+ * A reader never sees a partial report and a failed run keeps the previous one.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+final class ReportFile {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String TEMP_EXTENSION = ".part";
+
+    private final File targetFile;
+    private final Path tempFile;
+    private boolean committed;
+
+    ReportFile(final File targetFile)
+    throws IOException {
+        this.targetFile = targetFile;
+        this.tempFile = Files.createTempFile(targetFile.getAbsoluteFile().getParentFile().toPath(),
+                                             targetFile.getName(), TEMP_EXTENSION);
+    }
+
+    /**
+     * @param gzip true to compress what is written
+     * @return unbuffered stream to the temporary file
+     * @throws IOException
+     */
+    OutputStream open(final boolean gzip)
+    throws IOException {
+        OutputStream out = new FileOutputStream(tempFile.toFile());
+        return gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    /**
+     * Renames the temporary file, once the stream is closed.
+     *
+     * @throws IOException
+     */
+    void commit()
+    throws IOException {
+        Files.move(tempFile, targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * Deletes the temporary file unless it was committed.
+     *
+     * @throws IOException
+     */
+    void discard()
+    throws IOException {
+        if (!committed) {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>File formats of the analyzed plugin reports.</p>
+ *
+ * The {@value #FORMAT_PROPERTY} system property picks the format of the reports, CSV by default, by name or
+ * extension, e.g. {@code jsonl} or {@code binary}; the {@value #GZIP_PROPERTY} system property compresses them.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public enum ReportFormat {
+    CSV(".csv"),
+    JSON_LINES(".jsonl"),
+    BINARY(".bin");
+
+    public static final String FORMAT_PROPERTY = "pluginanalyzer.report.format";
+    public static final String GZIP_PROPERTY = "pluginanalyzer.report.gzip";
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private final String extension;
+
+    ReportFormat(final String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return the format set by the {@value #FORMAT_PROPERTY} system property, CSV by default
+     */
+    public static ReportFormat getDefault() {
+        String value = System.getProperty(FORMAT_PROPERTY);
+        return value == null ? CSV : of(value);
+    }
+
+    /**
+     * @return true if the {@value #GZIP_PROPERTY} system property is set to true, false by default
+     */
+    public static boolean isGzipDefault() {
+        return Boolean.getBoolean(GZIP_PROPERTY);
+    }
+
+    /**
+     * @param value format name or extension, case insensitive
+     * @return the format
+     */
+    public static ReportFormat of(final String value) {
+        for (ReportFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value) || format.extension.substring(1).equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown report format: " + value);
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param baseName file name without extension
+     * @param gzip true for a compressed report
+     * @return the report file name
+     */
+    public String getFileName(final String baseName, final boolean gzip) {
+        return baseName + extension + (gzip ? GZIP_EXTENSION : "");
+    }
+
+    /**
+     * @param reportFile report file, replaced once the sink is committed
+     * @param gzip true to compress the report
+     * @return a sink writing the report in this format, starting with the header for CSV
+     * @throws IOException
+     */
+    public ReportSink open(final File reportFile, final boolean gzip)
+    throws IOException {
+        switch (this) {
+            case JSON_LINES:
+                return new JsonLinesReportSink(reportFile, gzip);
+            case BINARY:
+                return new BinaryReportSink(reportFile, gzip);
+            default:
+                return new CsvReportSink(reportFile, true, gzip);
+        }
+    }
+}
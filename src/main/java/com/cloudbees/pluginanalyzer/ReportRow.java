@@ -0,0 +1,155 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>One analyzed plugin of a report.</p>
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class ReportRow {
+    public static final List<String> HEADER = Collections.unmodifiableList(Arrays.asList("Id",
+                                                                                         "Name",
+                                                                                         "Version",
+                                                                                         "Envelope",
+                                                                                         "Version",
+                                                                                         "Type",
+                                                                                         "Scope",
+                                                                                         "Drift",
+                                                                                         "Distance",
+                                                                                         "Dependencies",
+                                                                                         "Non-envelope dependencies",
+                                                                                         "Missing dependencies"));
+    private static final String YES = "YES";
+    private static final String NO = "NO";
+    private static final String EMPTY = "";
+
+    private final String id;
+    private final String version;
+    private final EnvelopePlugin envelopePlugin;
+    private final int dependencies;
+    private final int nonEnvelopeDependencies;
+    private final String missingDependencies;
+    private final VersionDrift drift;
+
+    /**
+     * @param id plugin id
+     * @param version installed version
+     * @param envelopePlugin the envelope plugin with the same id, null when the plugin is not in the envelope
+     */
+    public ReportRow(final String id, final String version, final EnvelopePlugin envelopePlugin) {
+        this(id, version, envelopePlugin, 0, 0, EMPTY);
+    }
+
+    /**
+     * @param id plugin id
+     * @param version installed version
+     * @param envelopePlugin the envelope plugin with the same id, null when the plugin is not in the envelope
+     * @param dependencies number of transitive required dependencies
+     * @param nonEnvelopeDependencies number of transitive required dependencies outside of the envelope
+     * @param missingDependencies transitive required dependencies which are not installed, space separated
+     */
+    public ReportRow(final String id, final String version, final EnvelopePlugin envelopePlugin,
+                     final int dependencies, final int nonEnvelopeDependencies, final String missingDependencies) {
+        this.id = id;
+        this.version = version;
+        this.envelopePlugin = envelopePlugin;
+        this.dependencies = dependencies;
+        this.nonEnvelopeDependencies = nonEnvelopeDependencies;
+        this.missingDependencies = missingDependencies;
+        this.drift = envelopePlugin == null ? null
+                                            : VersionDrift.of(VersionInterner.DEFAULT.intern(version),
+                                                              envelopePlugin.getVersionNumber());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return envelopePlugin == null ? EMPTY : envelopePlugin.getName();
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean isInEnvelope() {
+        return envelopePlugin != null;
+    }
+
+    public String getEnvelope() {
+        return envelopePlugin == null ? NO : YES;
+    }
+
+    public String getEnvelopeVersion() {
+        return envelopePlugin == null ? EMPTY : envelopePlugin.getVersionNumber().toString();
+    }
+
+    public String getType() {
+        return envelopePlugin == null ? EMPTY : envelopePlugin.getTier().toString();
+    }
+
+    public String getScope() {
+        return envelopePlugin == null ? EMPTY : envelopePlugin.getScope().toString();
+    }
+
+    /**
+     * @return drift from the envelope version, null when the plugin is not in the envelope
+     */
+    public VersionDrift getDrift() {
+        return drift;
+    }
+
+    public String getDriftKind() {
+        return drift == null ? EMPTY : drift.getKind().toString();
+    }
+
+    public String getDistance() {
+        return drift == null ? EMPTY : drift.getDistance();
+    }
+
+    public int getDependencies() {
+        return dependencies;
+    }
+
+    public int getNonEnvelopeDependencies() {
+        return nonEnvelopeDependencies;
+    }
+
+    public String getMissingDependencies() {
+        return missingDependencies;
+    }
+
+    public EnvelopePlugin getEnvelopePlugin() {
+        return envelopePlugin;
+    }
+
+    /**
+     * @return the row values, in {@link #HEADER} order
+     */
+    public List<String> toList() {
+        return Arrays.asList(getId(),
+                             getName(),
+                             getVersion(),
+                             getEnvelope(),
+                             getEnvelopeVersion(),
+                             getType(),
+                             getScope(),
+                             getDriftKind(),
+                             getDistance(),
+                             Integer.toString(getDependencies()),
+                             Integer.toString(getNonEnvelopeDependencies()),
+                             getMissingDependencies());
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+}
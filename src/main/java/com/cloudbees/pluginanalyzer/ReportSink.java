@@ -0,0 +1,28 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * <p>Receives analyzed plugins as they are produced.</p>
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public interface ReportSink extends Closeable {
+
+    void write(ReportRow row) throws IOException;
+
+    /**
+     * Called once every row was written.
+     */
+    default void commit() throws IOException {
+    }
+
+    /**
+     * Releases the sink resources; rows written to a sink closed without {@link #commit()} may be discarded.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,70 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p>Merges concurrent calls for the same key into one.</p>
+ *
+ * The first caller of a key runs the call; callers arriving while it runs wait for it and get the same result or
+ * failure. Nothing is kept once the call completed, so the next caller runs it again: caching is left to the
+ * callee.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param key call key
+     * @param call the call, only run when no call of the same key is running
+     * @return the result of the running call, or of this one
+     * @throws Exception failure of the call
+     */
+    public V execute(final K key, final Callable<V> call)
+    throws Exception {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = calls.putIfAbsent(key, future);
+        if (running != null) {
+            return join(running);
+        }
+        try {
+            V result = call.call();
+            future.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * @return number of running calls
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    private static <V> V join(final CompletableFuture<V> future)
+    throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
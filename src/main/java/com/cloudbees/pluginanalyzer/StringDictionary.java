@@ -0,0 +1,72 @@
+package com.cloudbees.pluginanalyzer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Thread-safe dictionary encoding of strings into dense int ids.</p>
+ *
+ * Ids are given in insertion order, starting at 0, and never change, so that counters indexed by id can be kept
+ * in primitive arrays and merged element by element. Looking up a known string does not lock.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class StringDictionary {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param value string to encode
+     * @return its id, the next free one when the string is new
+     */
+    public int intern(final String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            String[] current = values;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = value;
+            values = current;
+            // published last: readers holding the id see the value
+            ids.put(value, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @param value string
+     * @return its id, or -1 if it was never interned
+     */
+    public int getId(final String value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id string id
+     * @return the string
+     */
+    public String get(final int id) {
+        return values[id];
+    }
+
+    /**
+     * @return number of strings, which is also the next id
+     */
+    public int size() {
+        return ids.size();
+    }
+}
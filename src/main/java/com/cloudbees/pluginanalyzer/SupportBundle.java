@@ -0,0 +1,159 @@
+package com.cloudbees.pluginanalyzer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * <p>Plugin list and controller identity of a Jenkins support bundle.</p>
+ *
+ * The archive is read as a stream, entry after entry, and stops as soon as both the plugin list
+ * ({@code plugins/active.txt}) and the controller description ({@code about.md}) were read: nothing is extracted
+ * to disk. Entries may be nested under a top level directory. The controller is identified by the instance id
+ * of {@code about.md}, or by the bundle file name when the bundle has none.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class SupportBundle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SupportBundle.class);
+
+    public static final String EXTENSION = ".zip";
+
+    private static final String PLUGIN_LIST_ENTRY = "plugins/active.txt";
+    private static final String ABOUT_ENTRY = "about.md";
+    private static final Pattern INSTANCE_ID = Pattern.compile("^\\s*\\*\\s*Instance ID:\\s*`?([^`\\s]+)`?\\s*$");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String controller;
+    private final Map<String, String> plugins;
+    private final Set<String> pinned;
+
+    private SupportBundle(final String controller, final Map<String, String> plugins, final Set<String> pinned) {
+        this.controller = controller;
+        this.plugins = plugins;
+        this.pinned = pinned;
+    }
+
+    /**
+     * @param path file
+     * @return true if the file is a support bundle archive
+     */
+    public static boolean isBundle(final Path path) {
+        return path.getFileName() != null && path.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    /**
+     * @param bundle support bundle archive
+     * @return the bundle plugin list and controller
+     * @throws IOException when the archive cannot be read or holds no plugin list
+     */
+    public static SupportBundle read(final Path bundle)
+    throws IOException {
+        String fileName = bundle.getFileName().toString();
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(bundle))) {
+            return read(inputStream, fileName.substring(0, fileName.length() - EXTENSION.length()), bundle);
+        }
+    }
+
+    /**
+     * @param inputStream support bundle archive content, left open
+     * @param defaultController controller name used when the bundle does not hold an instance id
+     * @param source bundle description for error messages
+     * @return the bundle plugin list and controller
+     * @throws IOException when the archive cannot be read or holds no plugin list
+     */
+    static SupportBundle read(final InputStream inputStream, final String defaultController, final Object source)
+    throws IOException {
+        ZipInputStream zip = new ZipInputStream(inputStream, UTF8);
+        Map<String, String> plugins = null;
+        Set<String> pinned = null;
+        String instanceId = null;
+        boolean aboutRead = false;
+        ZipEntry entry;
+        while ((plugins == null || !aboutRead) && (entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (plugins == null && isEntry(entry, PLUGIN_LIST_ENTRY)) {
+                List<String> lines = newReader(zip).lines().filter(line -> !line.trim().isEmpty())
+                                                   .collect(Collectors.toList());
+                plugins = PluginAnalyzer.getPlugins(lines.stream());
+                pinned = PluginAnalyzer.getPinnedPlugins(lines.stream());
+            } else if (!aboutRead && isEntry(entry, ABOUT_ENTRY)) {
+                instanceId = readInstanceId(newReader(zip));
+                aboutRead = true;
+            }
+        }
+        if (plugins == null) {
+            throw new IOException("No " + PLUGIN_LIST_ENTRY + " in the support bundle " + source);
+        }
+        if (instanceId == null) {
+            LOGGER.debug("No instance id in the support bundle {}, using {}", source, defaultController);
+        }
+        return new SupportBundle(instanceId != null ? instanceId : defaultController, plugins, pinned);
+    }
+
+    /**
+     * Reads the current entry. The reader is not closed once done, that would close the archive.
+     */
+    private static BufferedReader newReader(final ZipInputStream zip) {
+        return new BufferedReader(new InputStreamReader(zip, UTF8));
+    }
+
+    private static boolean isEntry(final ZipEntry entry, final String name) {
+        String entryName = entry.getName();
+        return entryName.equals(name)
+               || entryName.endsWith(name) && entryName.charAt(entryName.length() - name.length() - 1) == '/'
+                  && entryName.indexOf('/') == entryName.length() - name.length() - 1;
+    }
+
+    private static String readInstanceId(final BufferedReader reader)
+    throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher matcher = INSTANCE_ID.matcher(line);
+            if (matcher.matches()) {
+                return matcher.group(1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return controller instance id, or the bundle name when it has none
+     */
+    public String getController() {
+        return controller;
+    }
+
+    /**
+     * @return installed plugin versions, by plugin id
+     */
+    public Map<String, String> getPlugins() {
+        return plugins;
+    }
+
+    /**
+     * @return ids of the pinned plugins
+     */
+    public Set<String> getPinned() {
+        return pinned;
+    }
+}
@@ -0,0 +1,342 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import hudson.util.VersionNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Plans the plugin upgrades bringing controllers into line with an envelope.</p>
+ *
+ * The plan of a controller upgrades its envelope plugins older than the envelope to the envelope version, then
+ * installs or upgrades whatever the required dependencies of its envelope plugins, direct or not, ask for: envelope
+ * plugins go to their envelope version, other plugins to the lowest version satisfying every constraint. Plugins
+ * already satisfying their constraints are left alone, and plugins ahead of the envelope are assumed to keep the
+ * requirements of the envelope version. Steps are ordered dependencies first.
+ *
+ * The requirements of a plugin, that is the highest version every plugin of its closure asks for, only depend on
+ * the envelope: they are computed once per plugin and shared by all the controllers, so that planning a fleet costs
+ * about one closure per distinct plugin plus a merge per controller.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public class UpgradePlanner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpgradePlanner.class);
+
+    public static final String COMMAND = "plan";
+    public static final String USAGE = "pluginListDirectoryOrManifest productId productRelease userName password";
+    public static final List<String> HEADER = Collections.unmodifiableList(Arrays.asList(
+        "Controller", "Step", "Id", "Action", "Installed version", "Target version", "Required by"));
+
+    private static final String REPORT_NAME = "Upgrade-Plan.csv";
+
+    private final Map<String, EnvelopePlugin> envelopePlugins;
+    private final DependencyGraph graph;
+    private final ConcurrentMap<String, Requirements> requirements = new ConcurrentHashMap<>();
+
+    public UpgradePlanner(final Map<String, EnvelopePlugin> envelopePlugins) {
+        this(envelopePlugins, DependencyGraph.of(envelopePlugins));
+    }
+
+    public UpgradePlanner(final Map<String, EnvelopePlugin> envelopePlugins, final DependencyGraph graph) {
+        this.envelopePlugins = envelopePlugins;
+        this.graph = graph;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 5) {
+            try {
+                PluginAnalyzer analyzer = new PluginAnalyzer(args[1], args[2]);
+                UpgradePlanner planner = new UpgradePlanner(analyzer.getEnvelopePlugins(args[3], args[4]));
+                File reportFile = new File(analyzer.getOutputDirectory(), REPORT_NAME);
+                int plans = 0;
+                int steps = 0;
+                try (CsvReportSink sink = new CsvReportSink(reportFile, false)) {
+                    sink.writeLine(HEADER);
+                    for (Path pluginFile : FleetAnalyzer.listPluginFiles(Paths.get(args[0]))) {
+                        Plan plan;
+                        try {
+                            plan = planner.plan(pluginFile);
+                        } catch (IOException | RuntimeException e) {
+                            LOGGER.error("Planning failed for {}", pluginFile, e);
+                            continue;
+                        }
+                        for (List<String> line : plan.toLines()) {
+                            sink.writeLine(line);
+                        }
+                        plans++;
+                        steps += plan.getSteps().size();
+                    }
+                    sink.commit();
+                }
+                LOGGER.info("{} controllers planned, {} steps, {} plugin closures computed: {}", plans, steps,
+                            planner.getComputedClosures(), reportFile);
+            } catch (Exception e) {
+                LOGGER.error("Process failed!", e);
+                System.exit(1);
+            }
+        } else {
+            LOGGER.error("Argument must be: {} {}", COMMAND, USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param pluginFile plugin list or support bundle
+     * @return the upgrade plan of its controller
+     * @throws IOException
+     */
+    public Plan plan(final Path pluginFile)
+    throws IOException {
+        if (SupportBundle.isBundle(pluginFile)) {
+            SupportBundle bundle = SupportBundle.read(pluginFile);
+            return plan(bundle.getController(), bundle.getPlugins());
+        }
+        return plan(FleetAnalyzer.getControllerName(pluginFile), PluginAnalyzer.getFilePlugins(pluginFile));
+    }
+
+    /**
+     * @param controller controller name
+     * @param plugins installed plugin ids and versions
+     * @return the upgrade plan of the controller
+     */
+    public Plan plan(final String controller, final Map<String, String> plugins) {
+        Map<String, VersionNumber> installed = new HashMap<>(plugins.size() * 2);
+        for (Map.Entry<String, String> plugin : plugins.entrySet()) {
+            installed.put(plugin.getKey(), VersionInterner.DEFAULT.intern(plugin.getValue()));
+        }
+
+        // highest version asked for by the closures of the installed envelope plugins
+        Map<String, VersionNumber> required = new HashMap<>();
+        Map<String, String> requiredBy = new HashMap<>();
+        for (String id : new TreeMap<>(plugins).keySet()) {
+            if (!envelopePlugins.containsKey(id)) {
+                continue;
+            }
+            Requirements closure = getRequirements(id);
+            for (int i = 0; i < closure.ids.length; i++) {
+                VersionNumber current = required.get(closure.ids[i]);
+                if (current == null || current.isOlderThan(closure.versions[i])) {
+                    required.put(closure.ids[i], closure.versions[i]);
+                    requiredBy.put(closure.ids[i], id);
+                }
+            }
+        }
+
+        List<Step> steps = new ArrayList<>();
+        for (Map.Entry<String, VersionNumber> plugin : installed.entrySet()) {
+            String id = plugin.getKey();
+            VersionNumber requiredVersion = required.get(id);
+            VersionNumber target = getTarget(id, requiredVersion);
+            if (target != null && plugin.getValue().isOlderThan(target)) {
+                // an upgrade only bringing the plugin to its envelope version is not required by anything
+                boolean constrained = requiredVersion != null && plugin.getValue().isOlderThan(requiredVersion);
+                steps.add(new Step(id, Action.UPGRADE, plugins.get(id), target,
+                                   constrained ? requiredBy.get(id) : null, graph.getClosureSize(graph.getNode(id))));
+            }
+        }
+        for (Map.Entry<String, VersionNumber> requirement : required.entrySet()) {
+            String id = requirement.getKey();
+            if (!installed.containsKey(id)) {
+                steps.add(new Step(id, Action.INSTALL, null, getTarget(id, requirement.getValue()), requiredBy.get(id),
+                                   graph.getClosureSize(graph.getNode(id))));
+            }
+        }
+        // a dependency has a smaller closure than its dependents, except within a dependency cycle
+        steps.sort(Comparator.comparingInt((Step step) -> step.rank).thenComparing(Step::getId));
+        return new Plan(controller, steps);
+    }
+
+    /**
+     * @param id plugin id
+     * @param required highest version asked for by the dependents of the plugin, or null
+     * @return the version to upgrade or install the plugin to, null if there is no constraint on it
+     */
+    private VersionNumber getTarget(final String id, final VersionNumber required) {
+        EnvelopePlugin envelopePlugin = envelopePlugins.get(id);
+        VersionNumber target = envelopePlugin == null ? null : envelopePlugin.getVersionNumber();
+        if (target == null || (required != null && target.isOlderThan(required))) {
+            return required;
+        }
+        return target;
+    }
+
+    /**
+     * @param id envelope plugin id
+     * @return the transitive required dependencies of the plugin, with the highest version asked for each
+     */
+    Requirements getRequirements(final String id) {
+        Requirements closure = requirements.get(id);
+        if (closure == null) {
+            closure = requirements.computeIfAbsent(id, this::computeRequirements);
+        }
+        return closure;
+    }
+
+    private Requirements computeRequirements(final String id) {
+        int node = graph.getNode(id);
+        BitSet members = (BitSet) graph.getClosure(node).clone();
+        members.set(node);
+        Map<String, VersionNumber> versions = new TreeMap<>();
+        for (int member = members.nextSetBit(0); member >= 0; member = members.nextSetBit(member + 1)) {
+            EnvelopePlugin plugin = envelopePlugins.get(graph.getId(member));
+            if (plugin == null || plugin.getDependencies() == null) {
+                continue;
+            }
+            for (Map.Entry<String, VersionNumber> dependency : plugin.getDependencies().entrySet()) {
+                VersionNumber current = versions.get(dependency.getKey());
+                if (dependency.getValue() != null && (current == null || current.isOlderThan(dependency.getValue()))) {
+                    versions.put(dependency.getKey(), dependency.getValue());
+                }
+            }
+        }
+        return new Requirements(versions.keySet().toArray(new String[0]),
+                                versions.values().toArray(new VersionNumber[0]));
+    }
+
+    /**
+     * @return number of plugin closures computed so far, at most one per envelope plugin
+     */
+    public int getComputedClosures() {
+        return requirements.size();
+    }
+
+    /**
+     * Transitive requirements of a plugin, as parallel arrays.
+     */
+    static final class Requirements {
+        private final String[] ids;
+        private final VersionNumber[] versions;
+
+        Requirements(String[] ids, VersionNumber[] versions) {
+            this.ids = ids;
+            this.versions = versions;
+        }
+
+        int size() {
+            return ids.length;
+        }
+    }
+
+    public enum Action {
+        INSTALL, UPGRADE
+    }
+
+    /**
+     * Installation or upgrade of a plugin.
+     */
+    public static final class Step {
+        private final String id;
+        private final Action action;
+        private final String installedVersion;
+        private final VersionNumber targetVersion;
+        private final String requiredBy;
+        private final int rank;
+
+        Step(String id, Action action, String installedVersion, VersionNumber targetVersion, String requiredBy,
+             int rank) {
+            this.id = id;
+            this.action = action;
+            this.installedVersion = installedVersion;
+            this.targetVersion = targetVersion;
+            this.requiredBy = requiredBy;
+            this.rank = rank;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * @return the installed version, null for an installation
+         */
+        public String getInstalledVersion() {
+            return installedVersion;
+        }
+
+        public VersionNumber getTargetVersion() {
+            return targetVersion;
+        }
+
+        /**
+         * @return the installed plugin whose closure asks for the highest version of this one, null if none does
+         */
+        public String getRequiredBy() {
+            return requiredBy;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + id + " " + (installedVersion == null ? "" : installedVersion + " -> ")
+                   + targetVersion;
+        }
+    }
+
+    /**
+     * Ordered upgrade steps of a controller.
+     */
+    public static final class Plan {
+        private final String controller;
+        private final List<Step> steps;
+
+        Plan(String controller, List<Step> steps) {
+            this.controller = controller;
+            this.steps = Collections.unmodifiableList(steps);
+        }
+
+        public String getController() {
+            return controller;
+        }
+
+        /**
+         * @return the steps, dependencies first
+         */
+        public List<Step> getSteps() {
+            return steps;
+        }
+
+        /**
+         * @return one line per step, in {@link #HEADER} order
+         */
+        public List<List<String>> toLines() {
+            List<List<String>> lines = new ArrayList<>(steps.size());
+            for (int i = 0; i < steps.size(); i++) {
+                Step step = steps.get(i);
+                lines.add(Arrays.asList(controller,
+                                        Integer.toString(i + 1),
+                                        step.id,
+                                        step.action.toString(),
+                                        step.installedVersion == null ? "" : step.installedVersion,
+                                        step.targetVersion.toString(),
+                                        step.requiredBy == null ? "" : step.requiredBy));
+            }
+            return lines;
+        }
+
+        @Override
+        public String toString() {
+            return controller + " " + steps;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.cloudbees.pluginanalyzer;
+
+import hudson.util.VersionNumber;
+
+/**
+ * <p>Drift of an installed plugin version from its envelope version.</p>
+ *
+ * The drift kind comes from {@link VersionNumber} ordering. The distance is the absolute difference of the major,
+ * minor and patch components, so {@code 1.4} against {@code 1.8} is {@code OLDER} by {@code 0.4.0}.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class VersionDrift {
+    private static final int COMPONENTS = 3;
+
+    /**
+     * Installed version compared to the envelope version.
+     */
+    public enum Kind {
+        OLDER,
+        EXACT,
+        AHEAD
+    }
+
+    private final Kind kind;
+    private final int major;
+    private final int minor;
+    private final int patch;
+
+    private VersionDrift(final Kind kind, final int major, final int minor, final int patch) {
+        this.kind = kind;
+        this.major = major;
+        this.minor = minor;
+        this.patch = patch;
+    }
+
+    /**
+     * @param installed installed version
+     * @param envelope envelope version
+     * @return drift of the installed version
+     */
+    public static VersionDrift of(final VersionNumber installed, final VersionNumber envelope) {
+        int comparison = installed.compareTo(envelope);
+        Kind kind = comparison < 0 ? Kind.OLDER : comparison > 0 ? Kind.AHEAD : Kind.EXACT;
+        int[] installedComponents = components(installed.toString());
+        int[] envelopeComponents = components(envelope.toString());
+        return new VersionDrift(kind,
+                                Math.abs(envelopeComponents[0] - installedComponents[0]),
+                                Math.abs(envelopeComponents[1] - installedComponents[1]),
+                                Math.abs(envelopeComponents[2] - installedComponents[2]));
+    }
+
+    /**
+     * @return the leading numeric components of a version, 0 when missing: {@code 4.5.3-2.0} gives 4, 5 and 3
+     */
+    static int[] components(final String version) {
+        int[] components = new int[COMPONENTS];
+        int component = 0;
+        int value = 0;
+        boolean digits = false;
+        for (int i = 0; i < version.length() && component < COMPONENTS; i++) {
+            char c = version.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // timestamp-like components saturate instead of overflowing
+                value = value < Integer.MAX_VALUE / 10 ? value * 10 + (c - '0') : Integer.MAX_VALUE;
+                digits = true;
+            } else if (c == '.' && digits) {
+                components[component++] = value;
+                value = 0;
+                digits = false;
+            } else {
+                break;
+            }
+        }
+        if (digits && component < COMPONENTS) {
+            components[component] = value;
+        }
+        return components;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getMajor() {
+        return major;
+    }
+
+    public int getMinor() {
+        return minor;
+    }
+
+    public int getPatch() {
+        return patch;
+    }
+
+    /**
+     * @return major, minor and patch distance
+     */
+    public String getDistance() {
+        return major + "." + minor + "." + patch;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + getDistance();
+    }
+}
@@ -0,0 +1,50 @@
+package com.cloudbees.pluginanalyzer;
+
+import hudson.util.VersionNumber;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Bounded cache of parsed {@link VersionNumber} instances.</p>
+ *
+ * Across a fleet the same version strings come up again and again: each one is parsed once and then shared.
+ * Lookups are lock free; once the cache is full, unknown versions are parsed without being cached.
+ *
+ * @author Mikael Gaunin
+ * @since 0.1.0
+ */
+public final class VersionInterner {
+    public static final int DEFAULT_MAX_ENTRIES = 16384;
+    public static final VersionInterner DEFAULT = new VersionInterner(DEFAULT_MAX_ENTRIES);
+
+    private final int maxEntries;
+    private final ConcurrentMap<String, VersionNumber> versions = new ConcurrentHashMap<>();
+
+    public VersionInterner(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param version version string
+     * @return the parsed version, shared with the previous callers when cached
+     */
+    public VersionNumber intern(final String version) {
+        VersionNumber versionNumber = versions.get(version);
+        if (versionNumber != null) {
+            return versionNumber;
+        }
+        versionNumber = new VersionNumber(version);
+        if (versions.size() < maxEntries) {
+            VersionNumber previous = versions.putIfAbsent(version, versionNumber);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        return versionNumber;
+    }
+
+    public int size() {
+        return versions.size();
+    }
+}
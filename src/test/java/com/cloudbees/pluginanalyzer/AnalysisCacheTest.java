@@ -0,0 +1,189 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AnalysisCacheTest {
+
+    private File directory;
+    private Map<String, EnvelopePlugin> envelopePlugins;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        directory = folder.newFolder("analysis-cache");
+        envelopePlugins = new HashMap<>();
+        envelopePlugins.put("ant", TestPlugins.ant("1.8"));
+    }
+
+    @Test
+    public void testKeysIgnoreOrder() {
+        String envelopeHash = AnalysisCache.hash(envelopePlugins);
+        Map<String, String> plugins = new LinkedHashMap<>();
+        plugins.put("ant", "1.4");
+        plugins.put("git", "3.0");
+        Map<String, String> reversed = new LinkedHashMap<>();
+        reversed.put("git", "3.0");
+        reversed.put("ant", "1.4");
+        assertEquals(AnalysisCache.key(plugins, envelopeHash), AnalysisCache.key(reversed, envelopeHash));
+
+        reversed.put("ant", "1.5");
+        assertFalse(AnalysisCache.key(plugins, envelopeHash).equals(AnalysisCache.key(reversed, envelopeHash)));
+        Map<String, EnvelopePlugin> otherEnvelope = new HashMap<>();
+        otherEnvelope.put("ant", TestPlugins.ant("1.9"));
+        assertFalse(AnalysisCache.key(plugins, envelopeHash)
+                                 .equals(AnalysisCache.key(plugins, AnalysisCache.hash(otherEnvelope))));
+    }
+
+    @Test
+    public void testIdenticalListsAreAnalyzedOnce() throws Exception {
+        final AnalysisCache cache = new AnalysisCache(directory, AnalysisCache.DEFAULT_MAX_MEMORY_ENTRIES);
+        final String key = AnalysisCache.key(plugins("ant", "1.4"), AnalysisCache.hash(envelopePlugins));
+        final AtomicInteger analyses = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<ReportRow>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.getRows(key, envelopePlugins, () -> {
+                    analyses.incrementAndGet();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return rows("1.4");
+                })));
+            }
+            release.countDown();
+            for (Future<List<ReportRow>> result : results) {
+                List<ReportRow> rows = result.get(10, TimeUnit.SECONDS);
+                assertEquals("1.4", rows.get(0).getVersion());
+                assertSame(envelopePlugins.get("ant"), rows.get(0).getEnvelopePlugin());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, analyses.get());
+        assertEquals(8, cache.getLookups());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.875, cache.getDedupRatio(), 0.0001);
+    }
+
+    @Test
+    public void testRowsAreReusedFromDisk() throws Exception {
+        RunMetrics metrics = new RunMetrics();
+        String key = AnalysisCache.key(plugins("ant", "1.4"), AnalysisCache.hash(envelopePlugins));
+        new AnalysisCache(directory, 16).withMetrics(metrics).getRows(key, envelopePlugins, () -> rows("1.4"));
+
+        AnalysisCache cache = new AnalysisCache(directory, 16).withMetrics(metrics);
+        List<ReportRow> rows = cache.getRows(key, envelopePlugins, () -> {
+            fail("The rows should be read from disk");
+            return null;
+        });
+        assertEquals(Arrays.asList("ant", "Ant Plugin", "1.4", "YES", "1.8", "VERIFIED", "FAT", "OLDER", "0.4.0",
+                                   "2", "1", "git"),
+                     rows.get(0).toList());
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(1, metrics.getCounter(RunMetrics.ANALYSIS_CACHE_HITS));
+        assertEquals(1, metrics.getCounter(RunMetrics.ANALYSIS_CACHE_MISSES));
+    }
+
+    @Test
+    public void testCorruptedEntryIsAnalyzedAgain() throws Exception {
+        String key = AnalysisCache.key(plugins("ant", "1.4"), AnalysisCache.hash(envelopePlugins));
+        new AnalysisCache(directory, 16).getRows(key, envelopePlugins, () -> rows("1.4"));
+        File entry = new File(directory, key + ".bin");
+        byte[] content = Files.readAllBytes(entry.toPath());
+        content[content.length - 1] ^= 1;
+        Files.write(entry.toPath(), content);
+
+        AnalysisCache cache = new AnalysisCache(directory, 16);
+        assertEquals("1.5", cache.getRows(key, envelopePlugins, () -> rows("1.5")).get(0).getVersion());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testFailedAnalysisIsNotCached() throws Exception {
+        AnalysisCache cache = new AnalysisCache(directory, 16);
+        String key = AnalysisCache.key(plugins("ant", "1.4"), AnalysisCache.hash(envelopePlugins));
+        try {
+            cache.getRows(key, envelopePlugins, () -> {
+                throw new IOException("boom");
+            });
+            fail("The analysis failure should be thrown");
+        } catch (IOException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals("1.4", cache.getRows(key, envelopePlugins, () -> rows("1.4")).get(0).getVersion());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testDiskEntriesAreBounded() throws Exception {
+        String envelopeHash = AnalysisCache.hash(envelopePlugins);
+        long entrySize = AnalysisCache.encode(Arrays.asList(new AnalysisCache.Row("ant", "1.0", 2, 1, "git"))).length;
+        AnalysisCache cache = new AnalysisCache(directory, 16, entrySize * 4);
+        String last = null;
+        for (int i = 0; i < 20; i++) {
+            final String version = "1." + (i % 10);
+            last = AnalysisCache.key(plugins("ant", version + i), envelopeHash);
+            cache.getRows(last, envelopePlugins, () -> rows(version));
+        }
+        File[] entries = directory.listFiles();
+        long total = 0;
+        for (File entry : entries) {
+            total += entry.length();
+        }
+        assertTrue(total + " bytes", total <= entrySize * 4);
+        assertTrue(new File(directory, last + ".bin").exists());
+    }
+
+    @Test
+    public void testFailedWriteStillReturnsRows() throws Exception {
+        AnalysisCache cache = new AnalysisCache(directory, 16);
+        // entries can no longer be written
+        assertTrue(directory.delete());
+        assertTrue(directory.createNewFile());
+        String key = AnalysisCache.key(plugins("ant", "1.4"), AnalysisCache.hash(envelopePlugins));
+        assertEquals("1.4", cache.getRows(key, envelopePlugins, () -> rows("1.4")).get(0).getVersion());
+        assertEquals(1, cache.getMisses());
+    }
+
+    private List<ReportRow> rows(String version) {
+        return Arrays.asList(new ReportRow("ant", version, envelopePlugins.get("ant"), 2, 1, "git"));
+    }
+
+    private static Map<String, String> plugins(String id, String version) {
+        Map<String, String> plugins = new HashMap<>();
+        plugins.put(id, version);
+        return plugins;
+    }
+}
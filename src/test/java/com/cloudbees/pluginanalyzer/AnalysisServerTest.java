@@ -0,0 +1,155 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisServerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String PLUGIN_LIST = "ant:1.4:not-pinned\nactive-directory:2.4:not-pinned\n";
+
+    private AnalysisServer server;
+    private EnvelopeRegistry registry;
+    private final List<String> loadedReleases = new CopyOnWriteArrayList<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        final Map<String, EnvelopePlugin> envelopePlugins = new HashMap<>();
+        envelopePlugins.put("ant", TestPlugins.ant("1.8"));
+        registry = new EnvelopeRegistry((product, productRelease) -> {
+            loadedReleases.add(productRelease);
+            return envelopePlugins;
+        }, EnvelopeRegistry.DEFAULT_MAX_ENTRIES, EnvelopeRegistry.DEFAULT_MAX_BYTES);
+        File repository = folder.newFolder("repository");
+        File metadata = new File(repository, "com/cloudbees/jenkins/main/jenkins-enterprise-war/maven-metadata.xml");
+        assertTrue(metadata.getParentFile().mkdirs());
+        Files.write(metadata.toPath(), ("<metadata><versioning><versions>"
+                                        + "<version>2.107.2.1</version><version>2.107.3.4</version>"
+                                        + "<version>2.89.4.2</version>"
+                                        + "</versions></versioning></metadata>").getBytes(UTF8));
+        ReleaseResolver releaseResolver = new ReleaseResolver(folder.newFolder("metadata"), ReleaseResolver.DEFAULT_TTL,
+                                                              new EnvelopeFetcher(null, null));
+        server = new AnalysisServer(new InetSocketAddress("127.0.0.1", 0), registry, releaseResolver,
+                                    repository.toURI().toString(), 2);
+        server.start();
+    }
+
+    @After
+    public void shutdown() {
+        server.stop();
+    }
+
+    private HttpURLConnection request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path)
+            .openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(UTF8));
+            }
+        }
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        InputStream inputStream = connection.getResponseCode() < 400 ? connection.getInputStream()
+                                                                     : connection.getErrorStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            content.write(buffer, 0, n);
+        }
+        inputStream.close();
+        return new String(content.toByteArray(), UTF8);
+    }
+
+    @Test
+    public void testAnalyzeCsv() throws IOException {
+        HttpURLConnection connection = request("POST", "/analyze?product=cje&release=2.107.3.4", PLUGIN_LIST);
+        assertEquals(200, connection.getResponseCode());
+        String content = read(connection);
+        assertTrue(content.startsWith("Id,Name,Version,Envelope,Version,Type,Scope,Drift,Distance,"
+                                               + "Dependencies,Non-envelope dependencies,Missing dependencies\n"));
+        assertTrue(content.contains("ant,Ant Plugin,1.4,YES,1.8,VERIFIED,FAT,OLDER,0.4.0,0,0,\n"));
+        assertTrue(content.contains("active-directory,,2.4,NO,,,,,,0,0,\n"));
+    }
+
+    @Test
+    public void testAnalyzeJson() throws IOException {
+        HttpURLConnection connection = request("POST", "/analyze?product=cje&release=2.107.3.4&format=json",
+                                               PLUGIN_LIST);
+        assertEquals(200, connection.getResponseCode());
+        String content = read(connection);
+        assertTrue(content.contains("\"id\":\"ant\""));
+        assertTrue(content.contains("\"envelope\":\"YES\""));
+        assertTrue(content.contains("\"envelopeVersion\":\"1.8\""));
+    }
+
+    @Test
+    public void testBadRequests() throws IOException {
+        assertEquals(400, request("POST", "/analyze?release=2.107.3.4", PLUGIN_LIST).getResponseCode());
+        assertEquals(400, request("POST", "/analyze?product=foo&release=1", PLUGIN_LIST).getResponseCode());
+        assertEquals(400, request("POST", "/analyze?product=cje&release=1", "ant\n").getResponseCode());
+        assertEquals(405, request("GET", "/analyze?product=cje&release=1", null).getResponseCode());
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            read(request("POST", "/analyze?product=cje&release=2.107.3.4", PLUGIN_LIST));
+        }
+        String metrics = read(request("GET", "/metrics", null));
+        assertTrue(metrics.contains("plugin_analyzer_request_latency_seconds{quantile=\"0.99\"}"));
+        assertTrue(metrics.contains("plugin_analyzer_request_latency_seconds_count 3\n"));
+        assertTrue(metrics.contains("plugin_analyzer_envelope_cache_hits_total 2\n"));
+        assertTrue(metrics.contains("plugin_analyzer_envelope_cache_misses_total 1\n"));
+    }
+
+    @Test
+    public void testSelectorsAreResolvedBeforeTheRegistry() throws IOException {
+        for (String release : new String[] {"latest", "2.107.*", "2.107.3.4"}) {
+            assertEquals(200, request("POST", "/analyze?product=cje&release=" + release, PLUGIN_LIST)
+                .getResponseCode());
+        }
+        assertEquals(Arrays.asList("2.107.3.4"), loadedReleases);
+        assertEquals(1, registry.getSize());
+    }
+
+    @Test
+    public void testUnmatchedSelectors() throws IOException {
+        HttpURLConnection connection = request("POST", "/analyze?product=cje&release=2.200.*", PLUGIN_LIST);
+        assertEquals(404, connection.getResponseCode());
+        assertTrue(read(connection).contains("No CJE release matches 2.200.*"));
+        // the repository has no metadata for the product
+        assertEquals(502, request("POST", "/analyze?product=cjoc&release=latest", PLUGIN_LIST).getResponseCode());
+        assertTrue(loadedReleases.isEmpty());
+    }
+}
@@ -0,0 +1,96 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import hudson.util.VersionNumber;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DependencyGraphTest {
+
+    private Map<String, EnvelopePlugin> envelopePlugins;
+    private DependencyGraph graph;
+
+    /**
+     * @return a plugin in version 1.0, requiring its dependencies in version 1.0
+     */
+    private static EnvelopePlugin plugin(String id, String... dependencies) {
+        Map<String, VersionNumber> required = new HashMap<>();
+        for (String dependency : dependencies) {
+            required.put(dependency, new VersionNumber("1.0"));
+        }
+        return TestPlugins.plugin(id, "1.0", required);
+    }
+
+    @Before
+    public void initialization() {
+        envelopePlugins = new HashMap<>();
+        envelopePlugins.put("workflow-aggregator", plugin("workflow-aggregator", "workflow-job", "workflow-cps"));
+        envelopePlugins.put("workflow-job", plugin("workflow-job", "workflow-api"));
+        envelopePlugins.put("workflow-cps", plugin("workflow-cps", "workflow-api", "custom-library"));
+        envelopePlugins.put("workflow-api", plugin("workflow-api", "structs"));
+        envelopePlugins.put("structs", plugin("structs"));
+        // dependency cycle
+        envelopePlugins.put("cycle-a", plugin("cycle-a", "cycle-b"));
+        envelopePlugins.put("cycle-b", plugin("cycle-b", "cycle-a", "structs"));
+        graph = DependencyGraph.of(envelopePlugins);
+    }
+
+    @Test
+    public void testTransitiveClosure() {
+        int node = graph.getNode("workflow-aggregator");
+        assertEquals(5, graph.getClosureSize(node));
+        assertEquals(1, graph.getNonEnvelopeDependencies(node));
+        assertEquals(0, graph.getClosureSize(graph.getNode("structs")));
+        assertEquals(8, graph.size());
+        assertTrue(graph.isInEnvelope(node));
+        assertFalse(graph.isInEnvelope(graph.getNode("custom-library")));
+    }
+
+    @Test
+    public void testCycles() {
+        assertEquals(2, graph.getClosureSize(graph.getNode("cycle-a")));
+        assertEquals(2, graph.getClosureSize(graph.getNode("cycle-b")));
+        assertFalse(graph.getClosure(graph.getNode("cycle-a")).get(graph.getNode("cycle-a")));
+    }
+
+    @Test
+    public void testMissingDependencies() {
+        BitSet installed = graph.toNodes(Arrays.asList("workflow-aggregator", "workflow-job", "structs",
+                                                       "not-in-envelope"));
+        assertEquals(3, installed.cardinality());
+        String missing = graph.getMissingDependencies(graph.getNode("workflow-aggregator"), installed);
+        assertEquals(3, missing.split(" ").length);
+        assertTrue(missing.contains("workflow-cps"));
+        assertTrue(missing.contains("workflow-api"));
+        assertTrue(missing.contains("custom-library"));
+        assertEquals("", graph.getMissingDependencies(graph.getNode("structs"), installed));
+    }
+
+    @Test
+    public void testUnknownPlugin() {
+        int node = graph.getNode("not-in-envelope");
+        assertEquals(DependencyGraph.UNKNOWN, node);
+        assertEquals(0, graph.getClosureSize(node));
+        assertEquals("", graph.getMissingDependencies(node, new BitSet()));
+    }
+
+    @Test
+    public void testReportRow() {
+        Map<String, String> plugins = new HashMap<>();
+        plugins.put("workflow-job", "2.0");
+        BitSet installed = graph.toNodes(plugins.keySet());
+        ReportRow row = PluginAnalyzer.analyzePlugin("workflow-job", "2.0", envelopePlugins, graph, installed);
+        assertEquals(2, row.getDependencies());
+        assertEquals(0, row.getNonEnvelopeDependencies());
+        assertEquals(ReportRow.HEADER.size(), row.toList().size());
+    }
+}
@@ -0,0 +1,183 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import com.google.common.collect.ImmutableSortedMap;
+import hudson.util.VersionNumber;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EnvelopeCacheTest {
+
+    private File cacheDirectory;
+    private Map<String, EnvelopePlugin> envelopePlugins;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        cacheDirectory = folder.newFolder("cache");
+        envelopePlugins = new HashMap<>();
+        HashMap<String, VersionNumber> dependencies = new HashMap<>();
+        dependencies.put("structs", new VersionNumber("1.6"));
+        envelopePlugins.put("ant", TestPlugins.plugin("ant", "Ant Plugin", "1.8", PluginTier.VERIFIED, Scope.FAT,
+                                                      dependencies));
+        envelopePlugins.put("structs", TestPlugins.plugin("structs", "Structs Plugin", "1.14", PluginTier.VERIFIED,
+                                                          Scope.BOOTSTRAP, new HashMap<>()));
+    }
+
+    @Test
+    public void testEncodeDecode() throws IOException {
+        assertEquals(ImmutableSortedMap.copyOf(envelopePlugins).toString(),
+                     ImmutableSortedMap.copyOf(EnvelopeCache.decode(EnvelopeCache.encode(envelopePlugins)))
+                                       .toString());
+    }
+
+    @Test
+    public void testLoadParsesOnlyOnce() throws Exception {
+        File envelopeFile = folder.newFile("envelope.json");
+        Files.write(envelopeFile.toPath(), "{}".getBytes(Charset.forName("UTF-8")));
+        RunMetrics metrics = new RunMetrics();
+        EnvelopeCache cache = new EnvelopeCache(cacheDirectory, EnvelopeCache.DEFAULT_MAX_BYTES).withMetrics(metrics);
+        AtomicInteger parses = new AtomicInteger();
+        EnvelopeFetcher.BodyParser<Map<String, EnvelopePlugin>> parser = inputStream -> {
+            parses.incrementAndGet();
+            return envelopePlugins;
+        };
+        cache.load(EnvelopeProduct.CJE, "2.107.3.4", envelopeFile, parser);
+        Map<String, EnvelopePlugin> cached = cache.load(EnvelopeProduct.CJE, "2.107.3.4", envelopeFile, parser);
+        assertEquals(1, parses.get());
+        assertEquals(1, metrics.getCounter(RunMetrics.ENVELOPE_CACHE_HITS));
+        assertEquals(1, metrics.getCounter(RunMetrics.ENVELOPE_CACHE_MISSES));
+        assertEquals(4, metrics.getCounter(RunMetrics.ENVELOPE_BYTES_READ));
+        assertEquals(ImmutableSortedMap.copyOf(envelopePlugins).toString(),
+                     ImmutableSortedMap.copyOf(cached).toString());
+
+        // new content, new entry
+        Files.write(envelopeFile.toPath(), "{ }".getBytes(Charset.forName("UTF-8")));
+        cache.load(EnvelopeProduct.CJE, "2.107.3.4", envelopeFile, parser);
+        assertEquals(2, parses.get());
+        assertEquals(2, cache.list().size());
+    }
+
+    @Test
+    public void testStreamedContentIsCachedUnderItsHash() throws Exception {
+        EnvelopeCache cache = new EnvelopeCache(cacheDirectory, EnvelopeCache.DEFAULT_MAX_BYTES);
+        byte[] content = "{\"plugins\": {}}".getBytes(Charset.forName("UTF-8"));
+        cache.parse(EnvelopeProduct.CJE, "2.107.3.4", new ByteArrayInputStream(content),
+                    inputStream -> envelopePlugins);
+        String hash = EnvelopeCache.hash(new ByteArrayInputStream(content));
+        assertEquals(2, cache.get(EnvelopeProduct.CJE, "2.107.3.4", hash).size());
+    }
+
+    @Test
+    public void testCorruptedEntryIsDropped() throws IOException {
+        EnvelopeCache cache = new EnvelopeCache(cacheDirectory, EnvelopeCache.DEFAULT_MAX_BYTES);
+        cache.put(EnvelopeProduct.CJE, "2.107.3.4", "abc", envelopePlugins);
+        File entry = cache.list().get(0).getFile();
+        try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0xFF);
+        }
+        assertNull(cache.get(EnvelopeProduct.CJE, "2.107.3.4", "abc"));
+        assertEquals(0, cache.list().size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        long entrySize = EnvelopeCache.encode(envelopePlugins).length;
+        EnvelopeCache cache = new EnvelopeCache(cacheDirectory, entrySize * 2);
+        cache.put(EnvelopeProduct.CJE, "1", "a", envelopePlugins);
+        cache.put(EnvelopeProduct.CJE, "2", "b", envelopePlugins);
+        backdate(cache, 2_000);
+        // touching the first entry makes the second one the least recently used
+        cache.get(EnvelopeProduct.CJE, "1", "a");
+        cache.put(EnvelopeProduct.CJE, "3", "c", envelopePlugins);
+        assertEquals(2, cache.list().size());
+        assertNull(cache.get(EnvelopeProduct.CJE, "2", "b"));
+        assertEquals(2, cache.get(EnvelopeProduct.CJE, "1", "a").size());
+    }
+
+    @Test
+    public void testPurge() throws IOException {
+        EnvelopeCache cache = new EnvelopeCache(cacheDirectory, EnvelopeCache.DEFAULT_MAX_BYTES);
+        cache.put(EnvelopeProduct.CJE, "1", "a", envelopePlugins);
+        cache.put(EnvelopeProduct.CJE, "2", "b", envelopePlugins);
+        cache.put(EnvelopeProduct.CJOC, "1", "c", envelopePlugins);
+        assertEquals(1, cache.purge("cje", "2"));
+        assertEquals(1, cache.purge("cje", null));
+        assertEquals(1, cache.purge(null, null));
+        assertEquals(0, cache.list().size());
+    }
+
+    @Test
+    public void testStaleTempFilesAreDeleted() throws IOException {
+        EnvelopeCache cache = new EnvelopeCache(cacheDirectory, EnvelopeCache.DEFAULT_MAX_BYTES);
+        File interrupted = new File(cacheDirectory, "jenkins-enterprise-war_1_a.bin123.part");
+        assertTrue(interrupted.createNewFile());
+        cache.put(EnvelopeProduct.CJE, "1", "a", envelopePlugins);
+        assertFalse(interrupted.exists());
+
+        assertTrue(interrupted.createNewFile());
+        assertEquals(0, cache.purge("cjoc", null));
+        assertFalse(interrupted.exists());
+        assertEquals(1, cache.list().size());
+    }
+
+    @Test
+    public void testInstancesSharingADirectoryTakeTurns() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> put;
+            try (CacheLock lock = CacheLock.lock(new File(cacheDirectory, EnvelopeCache.LOCK_NAME))) {
+                // another instance of the same directory, as each analysis creates its own
+                put = executor.submit(() -> {
+                    new EnvelopeCache(cacheDirectory, EnvelopeCache.DEFAULT_MAX_BYTES)
+                        .put(EnvelopeProduct.CJE, "1", "a", envelopePlugins);
+                    return null;
+                });
+                Thread.sleep(200);
+                assertFalse(put.isDone());
+                assertEquals(0, cacheDirectory.listFiles((dir, name) -> name.endsWith(".part")).length);
+            }
+            put.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, new EnvelopeCache(cacheDirectory, EnvelopeCache.DEFAULT_MAX_BYTES).list().size());
+    }
+
+    private static void backdate(EnvelopeCache cache, long millis) {
+        List<EnvelopeCache.Entry> entries = cache.list();
+        for (EnvelopeCache.Entry entry : entries) {
+            assertEquals(true, entry.getFile().setLastModified(entry.getLastUsed() - millis));
+        }
+    }
+}
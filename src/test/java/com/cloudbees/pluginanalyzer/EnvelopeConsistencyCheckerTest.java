@@ -0,0 +1,122 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.cloudbees.pluginanalyzer.TestPlugins.plugin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EnvelopeConsistencyCheckerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConsistentEnvelopes() throws Exception {
+        Map<String, EnvelopePlugin> envelope = envelope(plugin("structs", "1.10", PluginTier.VERIFIED, Scope.FAT),
+                                                        plugin("ant", "1.8", PluginTier.VERIFIED, Scope.FAT,
+                                                               "structs", "1.10"));
+        EnvelopeConsistencyChecker checker = new EnvelopeConsistencyChecker(
+            Arrays.asList(EnvelopeProduct.values()), "2.107.3.4", "2.107.2.1", (product, release) -> envelope);
+        assertTrue(checker.check().isEmpty());
+        assertEquals(2, checker.getPluginIds());
+    }
+
+    @Test
+    public void testIssues() throws Exception {
+        final Map<String, Map<String, EnvelopePlugin>> envelopes = new HashMap<>();
+        envelopes.put("CJE 2.107.3.4", envelope(
+            plugin("structs", "1.10", PluginTier.VERIFIED, Scope.FAT),
+            plugin("ant", "1.8", PluginTier.VERIFIED, Scope.FAT, "structs", "1.14"),
+            plugin("git", "3.0", PluginTier.COMPATIBLE, Scope.FAT, "scm-api", "2.0")));
+        envelopes.put("CJOC 2.107.3.4", envelope(
+            plugin("structs", "1.10", PluginTier.VERIFIED, Scope.BOOTSTRAP),
+            plugin("ant", "1.9", PluginTier.PROPRIETARY, Scope.FAT)));
+        envelopes.put("CJE 2.107.2.1", envelope(
+            plugin("structs", "1.10", PluginTier.VERIFIED, Scope.FAT),
+            plugin("git", "3.1", PluginTier.COMPATIBLE, Scope.FAT)));
+        envelopes.put("CJOC 2.107.2.1", envelope(
+            plugin("ant", "1.9", PluginTier.PROPRIETARY, Scope.FAT)));
+        final Set<String> loaded = ConcurrentHashMap.newKeySet();
+        EnvelopeConsistencyChecker checker = new EnvelopeConsistencyChecker(
+            Arrays.asList(EnvelopeProduct.CJE, EnvelopeProduct.CJOC), "2.107.3.4", "2.107.2.1",
+            (product, release) -> {
+                loaded.add(product + " " + release);
+                return envelopes.get(product + " " + release);
+            });
+        List<EnvelopeConsistencyChecker.Issue> issues = checker.check();
+        assertEquals(envelopes.keySet(), loaded);
+        assertEquals(6, issues.size());
+        assertEquals(Arrays.asList("VERSION_MISMATCH", "ant", "cje", "2.107.3.4", "1.8", "cjoc", "2.107.3.4", "1.9"),
+                     issues.get(0).toList());
+        assertEquals(Arrays.asList("TIER_MISMATCH", "ant", "cje", "2.107.3.4", "VERIFIED", "cjoc", "2.107.3.4",
+                                   "PROPRIETARY"),
+                     issues.get(1).toList());
+        assertEquals(Arrays.asList("SCOPE_MISMATCH", "structs", "cje", "2.107.3.4", "FAT", "cjoc", "2.107.3.4",
+                                   "BOOTSTRAP"),
+                     issues.get(2).toList());
+        assertEquals(Arrays.asList("DEPENDENCY_OUTSIDE_ENVELOPE", "git", "cje", "2.107.3.4", "scm-api:2.0", "", "",
+                                   ""),
+                     issues.get(3).toList());
+        assertEquals(Arrays.asList("UNSATISFIED_DEPENDENCY", "ant", "cje", "2.107.3.4", "structs:1.14", "cje",
+                                   "2.107.3.4", "1.10"),
+                     issues.get(4).toList());
+        assertEquals(Arrays.asList("VERSION_REGRESSION", "git", "cje", "2.107.3.4", "3.0", "cje", "2.107.2.1", "3.1"),
+                     issues.get(5).toList());
+        // plugins and dependencies share one dictionary over all the envelopes
+        assertEquals(4, checker.getPluginIds());
+    }
+
+    @Test
+    public void testWithoutPreviousRelease() throws Exception {
+        final Map<String, EnvelopePlugin> current = envelope(plugin("git", "3.0", PluginTier.VERIFIED, Scope.FAT));
+        EnvelopeConsistencyChecker checker = new EnvelopeConsistencyChecker(
+            Collections.singletonList(EnvelopeProduct.CJE), "2.107.3.4", null, (product, release) -> {
+                assertEquals("2.107.3.4", release);
+                return current;
+            });
+        assertTrue(checker.check().isEmpty());
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        EnvelopeConsistencyChecker checker = new EnvelopeConsistencyChecker(
+            Collections.singletonList(EnvelopeProduct.CJE), "2.107.3.4", null,
+            (product, release) -> envelope(plugin("git", "3.0", PluginTier.VERIFIED, Scope.FAT, "scm-api", "2.0")));
+        File reportFile = new File(folder.getRoot(), "Envelope-Consistency.csv");
+        EnvelopeConsistencyChecker.writeReport(checker.check(), reportFile);
+        assertEquals(Arrays.asList("Issue,Id,Product,Release,Value,Compared product,Compared release,Compared value",
+                                   "DEPENDENCY_OUTSIDE_ENVELOPE,git,cje,2.107.3.4,scm-api:2.0,,,"),
+                     read(reportFile));
+    }
+
+    private static List<String> read(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+    }
+
+    private static Map<String, EnvelopePlugin> envelope(EnvelopePlugin... plugins) {
+        Map<String, EnvelopePlugin> envelope = new HashMap<>();
+        for (EnvelopePlugin plugin : plugins) {
+            envelope.put(plugin.getArtifactId(), plugin);
+        }
+        return envelope;
+    }
+}
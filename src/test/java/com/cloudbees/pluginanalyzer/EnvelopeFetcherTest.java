@@ -0,0 +1,179 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link EnvelopeFetcher} against an embedded HTTP server standing in for Nexus.
+ */
+public class EnvelopeFetcherTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String ENVELOPE = "{\"plugins\": {}}";
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+    private URL url;
+    private File cacheFile;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> conditionalHeaders = Collections.synchronizedList(new ArrayList<>());
+    private volatile int failuresBeforeSuccess;
+    private volatile long delayMillis;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        cacheFile = new File(folder.getRoot(), "envelope.json");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/envelope.json", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/envelope.json");
+    }
+
+    @After
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int request = requests.incrementAndGet();
+        try {
+            if (delayMillis > 0 && request == 1) {
+                Thread.sleep(delayMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (request <= failuresBeforeSuccess) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        conditionalHeaders.add(String.valueOf(ifNoneMatch));
+        if (ETAG.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = ENVELOPE.getBytes(UTF8);
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            content.write(buffer, 0, n);
+        }
+        return new String(content.toByteArray(), UTF8);
+    }
+
+    @Test
+    public void testFetchStoresBodyAndRevalidates() throws Exception {
+        EnvelopeFetcher fetcher = new EnvelopeFetcher("user", "password").withBackoff(10);
+        assertEquals(ENVELOPE, fetcher.fetch(url, cacheFile, EnvelopeFetcherTest::read));
+        assertEquals(ENVELOPE, new String(Files.readAllBytes(cacheFile.toPath()), UTF8));
+
+        // second fetch is conditional and answered by a 304 served from the cache file
+        assertEquals(ENVELOPE, fetcher.fetch(url, cacheFile, EnvelopeFetcherTest::read));
+        assertEquals(2, requests.get());
+        assertEquals("null", conditionalHeaders.get(0));
+        assertEquals(ETAG, conditionalHeaders.get(1));
+    }
+
+    @Test
+    public void testFetchFile() throws Exception {
+        EnvelopeFetcher fetcher = new EnvelopeFetcher(null, null);
+        assertEquals(cacheFile, fetcher.fetchFile(url, cacheFile));
+        assertEquals(ENVELOPE, new String(Files.readAllBytes(cacheFile.toPath()), UTF8));
+        // not modified
+        assertEquals(cacheFile, fetcher.fetchFile(url, cacheFile));
+        assertEquals(ENVELOPE, new String(Files.readAllBytes(cacheFile.toPath()), UTF8));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testPartialParseStillCachesFullBody() throws Exception {
+        EnvelopeFetcher fetcher = new EnvelopeFetcher(null, null);
+        assertEquals(Integer.valueOf('{'), fetcher.fetch(url, cacheFile, InputStream::read));
+        assertEquals(ENVELOPE, new String(Files.readAllBytes(cacheFile.toPath()), UTF8));
+    }
+
+    @Test
+    public void testServerErrorsAreRetried() throws Exception {
+        failuresBeforeSuccess = 2;
+        EnvelopeFetcher fetcher = new EnvelopeFetcher(null, null).withBackoff(10).withMaxAttempts(3);
+        assertEquals(ENVELOPE, fetcher.fetch(url, cacheFile, EnvelopeFetcherTest::read));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testSlowResponseTimesOutAndIsRetried() throws Exception {
+        delayMillis = 2_000;
+        EnvelopeFetcher fetcher = new EnvelopeFetcher(null, null).withReadTimeout(200)
+                                                                .withBackoff(10)
+                                                                .withMaxAttempts(2);
+        assertEquals(ENVELOPE, fetcher.fetch(url, cacheFile, EnvelopeFetcherTest::read));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testFailedParseKeepsNoTruncatedFile() throws Exception {
+        EnvelopeFetcher fetcher = new EnvelopeFetcher(null, null).withMaxAttempts(1);
+        try {
+            fetcher.fetch(url, cacheFile, inputStream -> {
+                throw new IllegalStateException("broken envelope");
+            });
+            fail("parser failure expected");
+        } catch (IllegalStateException e) {
+            assertEquals("broken envelope", e.getMessage());
+        }
+        assertFalse(cacheFile.exists());
+        assertFalse(new File(cacheFile.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() throws Exception {
+        EnvelopeFetcher fetcher = new EnvelopeFetcher(null, null).withBackoff(10);
+        try {
+            fetcher.fetch(new URL(url, "/missing.json"), cacheFile, EnvelopeFetcherTest::read);
+            fail("404 expected");
+        } catch (EnvelopeFetcher.HttpStatusException e) {
+            assertEquals(404, e.getStatus());
+        }
+        assertEquals(0, requests.get());
+    }
+}
@@ -0,0 +1,260 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link EnvelopeMirror} against an embedded HTTP server standing in for the repository.
+ */
+public class EnvelopeMirrorTest {
+
+    private static final String ENVELOPE_FIXTURE = "/jenkins-enterprise-war-2.107.3.4-envelope.json";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // 2.60.1 is listed by the metadata but has no envelope
+    private static final List<String> RELEASES = Arrays.asList("2.60.1", "2.107.1", "2.107.3.4", "2.121.1",
+                                                               "2.138.1");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String repositoryUrl;
+    private File remoteDirectory;
+    private File targetDirectory;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile int truncateNextEnvelope;
+
+    @Before
+    public void initialization() throws Exception {
+        remoteDirectory = folder.newFolder("remote");
+        targetDirectory = new File(folder.getRoot(), "mirror");
+        File artifactDirectory = artifactDirectory(remoteDirectory);
+        assertTrue(artifactDirectory.mkdirs());
+        StringBuilder metadata = new StringBuilder("<metadata><versioning><versions>");
+        for (String release : RELEASES) {
+            metadata.append("<version>").append(release).append("</version>");
+            if (!"2.60.1".equals(release)) {
+                // distinct contents, still valid envelopes
+                publish(release, envelope(release));
+            }
+        }
+        metadata.append("</versions></versioning></metadata>");
+        Files.write(new File(artifactDirectory, "maven-metadata.xml").toPath(), metadata.toString().getBytes(UTF8));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        repositoryUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    /**
+     * Serves the files of the remote directory, honouring range requests.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String path = exchange.getRequestURI().getPath();
+        requests.add(range == null ? path : path + " " + range);
+        File file = new File(remoteDirectory, path);
+        if (!file.isFile()) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = Files.readAllBytes(file.toPath());
+        int offset = range == null ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+        if (offset >= body.length) {
+            exchange.sendResponseHeaders(416, -1);
+            exchange.close();
+            return;
+        }
+        if (offset > 0) {
+            exchange.getResponseHeaders().add("Content-Range",
+                                              "bytes " + offset + "-" + (body.length - 1) + "/" + body.length);
+        }
+        exchange.sendResponseHeaders(offset > 0 ? 206 : 200, body.length - offset);
+        int length = body.length - offset;
+        if (path.endsWith(".json") && truncateNextEnvelope > 0) {
+            // the connection is cut after a few bytes
+            length = truncateNextEnvelope;
+            truncateNextEnvelope = 0;
+        }
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body, offset, length);
+        } catch (IOException e) {
+            // expected when cutting the connection
+        }
+    }
+
+    private static File artifactDirectory(File root) {
+        return new File(root, "com/cloudbees/jenkins/main/jenkins-enterprise-war");
+    }
+
+    private static File envelopeFile(File root, String release) {
+        return new File(new File(artifactDirectory(root), release),
+                        "jenkins-enterprise-war-" + release + "-envelope.json");
+    }
+
+    private static byte[] envelope(String release) throws IOException {
+        byte[] fixture;
+        try (InputStream inputStream = EnvelopeMirrorTest.class.getResourceAsStream(ENVELOPE_FIXTURE)) {
+            fixture = new byte[0];
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                fixture = Arrays.copyOf(fixture, fixture.length + read);
+                System.arraycopy(buffer, 0, fixture, fixture.length - read, read);
+            }
+        }
+        byte[] padding = new byte[RELEASES.indexOf(release) + 1];
+        Arrays.fill(padding, (byte) '\n');
+        byte[] content = Arrays.copyOf(fixture, fixture.length + padding.length);
+        System.arraycopy(padding, 0, content, fixture.length, padding.length);
+        return content;
+    }
+
+    private void publish(String release, byte[] content) throws Exception {
+        File file = envelopeFile(remoteDirectory, release);
+        assertTrue(file.getParentFile().mkdirs() || file.getParentFile().isDirectory());
+        Files.write(file.toPath(), content);
+        Files.write(new File(file.getPath() + ".sha1").toPath(),
+                    (EnvelopeMirror.sha1(file) + "  " + file.getName()).getBytes(UTF8));
+    }
+
+    private EnvelopeMirror mirror() throws IOException {
+        // a short read timeout for the connections cut by the server
+        EnvelopeFetcher fetcher = new EnvelopeFetcher(null, null).withBackoff(1).withReadTimeout(1000);
+        return new EnvelopeMirror(targetDirectory, repositoryUrl, fetcher, new File(folder.getRoot(), "cache"), 3);
+    }
+
+    private long envelopeDownloads() {
+        return requests.stream().filter(request -> request.contains(".json") && !request.contains(".json.sha1"))
+                       .count();
+    }
+
+    @Test
+    public void testMirrorThenResync() throws Exception {
+        EnvelopeMirror.Summary summary = mirror().mirror(EnvelopeMirror.Selection.parseAll("cje:..2.121.1"));
+        assertEquals(3, summary.getCount(EnvelopeMirror.Outcome.DOWNLOADED));
+        assertEquals(1, summary.getCount(EnvelopeMirror.Outcome.MISSING));
+        assertEquals(0, summary.getCount(EnvelopeMirror.Outcome.FAILED));
+        for (String release : Arrays.asList("2.107.1", "2.107.3.4", "2.121.1")) {
+            assertArrayEquals(envelope(release), Files.readAllBytes(envelopeFile(targetDirectory, release).toPath()));
+            assertFalse(new File(envelopeFile(targetDirectory, release).getPath() + ".part").exists());
+        }
+        assertFalse(envelopeFile(targetDirectory, "2.138.1").exists());
+        assertEquals(3, envelopeDownloads());
+
+        // a re-sync only fetches checksums
+        summary = mirror().mirror(EnvelopeMirror.Selection.parseAll("cje:..2.121.1"));
+        assertEquals(3, summary.getCount(EnvelopeMirror.Outcome.UNCHANGED));
+        assertEquals(3, envelopeDownloads());
+
+        // a republished envelope is downloaded again
+        publish("2.107.1", envelope("2.138.1"));
+        summary = mirror().mirror(EnvelopeMirror.Selection.parseAll("cje:2.107.*"));
+        assertEquals(EnvelopeMirror.Outcome.DOWNLOADED, summary.getOutcomes().get("CJE 2.107.1"));
+        assertEquals(EnvelopeMirror.Outcome.UNCHANGED, summary.getOutcomes().get("CJE 2.107.3.4"));
+        assertArrayEquals(envelope("2.138.1"), Files.readAllBytes(envelopeFile(targetDirectory, "2.107.1").toPath()));
+    }
+
+    @Test
+    public void testMirrorIsUsableOffline() throws Exception {
+        mirror().mirror(EnvelopeMirror.Selection.parseAll("cje:2.107.*"));
+        String mirrorUrl = targetDirectory.toURI().toString();
+        File cacheDirectory = folder.newFolder("offline-cache");
+        assertEquals(Arrays.asList("2.107.1", "2.107.3.4"),
+                     new ReleaseResolver(cacheDirectory, 0, new EnvelopeFetcher(null, null))
+                         .getReleases(mirrorUrl, EnvelopeProduct.CJE));
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "latest").withOutputDirectory(folder.newFolder("output"))
+                                                                     .withCacheDirectory(cacheDirectory);
+        assertFalse(analyzer.getEnvelopePlugins(mirrorUrl).isEmpty());
+    }
+
+    @Test
+    public void testInterruptedDownloadIsResumed() throws Exception {
+        truncateNextEnvelope = 1000;
+        EnvelopeMirror.Summary summary = mirror().mirror(EnvelopeMirror.Selection.parseAll("cje:2.121.1"));
+        assertEquals(1, summary.getCount(EnvelopeMirror.Outcome.DOWNLOADED));
+        assertTrue(requests.contains("/com/cloudbees/jenkins/main/jenkins-enterprise-war/2.121.1/"
+                                     + "jenkins-enterprise-war-2.121.1-envelope.json bytes=1000-"));
+        assertArrayEquals(envelope("2.121.1"), Files.readAllBytes(envelopeFile(targetDirectory, "2.121.1").toPath()));
+    }
+
+    @Test
+    public void testPartialFileOfPreviousRunIsResumed() throws Exception {
+        File partFile = new File(envelopeFile(targetDirectory, "2.121.1").getPath() + ".part");
+        assertTrue(partFile.getParentFile().mkdirs());
+        Files.write(partFile.toPath(), Arrays.copyOf(envelope("2.121.1"), 500));
+        EnvelopeMirror.Summary summary = mirror().mirror(EnvelopeMirror.Selection.parseAll("cje:2.121.1"));
+        assertEquals(1, summary.getCount(EnvelopeMirror.Outcome.RESUMED));
+        assertEquals(1, envelopeDownloads());
+        assertArrayEquals(envelope("2.121.1"), Files.readAllBytes(envelopeFile(targetDirectory, "2.121.1").toPath()));
+    }
+
+    @Test
+    public void testStalePartialFileIsDownloadedAgain() throws Exception {
+        File partFile = new File(envelopeFile(targetDirectory, "2.121.1").getPath() + ".part");
+        assertTrue(partFile.getParentFile().mkdirs());
+        Files.write(partFile.toPath(), "not an envelope".getBytes(UTF8));
+        EnvelopeMirror.Summary summary = mirror().mirror(EnvelopeMirror.Selection.parseAll("cje:2.121.1"));
+        assertEquals(1, summary.getCount(EnvelopeMirror.Outcome.DOWNLOADED));
+        assertEquals(2, envelopeDownloads());
+        assertArrayEquals(envelope("2.121.1"), Files.readAllBytes(envelopeFile(targetDirectory, "2.121.1").toPath()));
+    }
+
+    @Test
+    public void testChecksumMismatchFails() throws Exception {
+        File remoteEnvelope = envelopeFile(remoteDirectory, "2.121.1");
+        Files.write(new File(remoteEnvelope.getPath() + ".sha1").toPath(), EnvelopeMirror.sha1(
+            envelopeFile(remoteDirectory, "2.107.1")).getBytes(UTF8));
+        EnvelopeMirror.Summary summary = mirror().mirror(EnvelopeMirror.Selection.parseAll("cje:2.121.1,cje:2.107.1"));
+        assertEquals(EnvelopeMirror.Outcome.FAILED, summary.getOutcomes().get("CJE 2.121.1"));
+        assertEquals(EnvelopeMirror.Outcome.DOWNLOADED, summary.getOutcomes().get("CJE 2.107.1"));
+        assertFalse(envelopeFile(targetDirectory, "2.121.1").exists());
+        assertFalse(new File(envelopeFile(targetDirectory, "2.121.1").getPath() + ".part").exists());
+    }
+
+    @Test
+    public void testSelection() throws Exception {
+        assertEquals(RELEASES, EnvelopeMirror.Selection.parse("cje").select(RELEASES));
+        assertEquals(Collections.singletonList("2.138.1"),
+                     EnvelopeMirror.Selection.parse("cje:latest").select(RELEASES));
+        assertEquals(Arrays.asList("2.107.1", "2.107.3.4"),
+                     EnvelopeMirror.Selection.parse("cje:2.107.*").select(RELEASES));
+        assertEquals(Arrays.asList("2.107.3.4", "2.121.1", "2.138.1"),
+                     EnvelopeMirror.Selection.parse("cje:2.107.2..").select(RELEASES));
+        assertEquals(Collections.singletonList("2.121.1"),
+                     EnvelopeMirror.Selection.parse("CJE:2.121.1").select(RELEASES));
+        assertEquals(2, EnvelopeMirror.Selection.parseAll("cje:latest, cjoc:2.121.*,").size());
+    }
+}
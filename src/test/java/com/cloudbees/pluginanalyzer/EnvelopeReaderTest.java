@@ -0,0 +1,138 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EnvelopeReaderTest {
+
+    private static final String ENVELOPE_FIXTURE = "/jenkins-enterprise-war-2.107.3.4-envelope.json";
+    // c comes before b, which requires it, and b after a, which requires it
+    private static final String ENVELOPE = "{\"product\": \"cje\", \"sizes\": [1, -2.5e3, true, null, {\"x\": []}],\n"
+                                           + " \"plugins\": {\n"
+                                           + "  \"c\": {\"name\": \"C \\\"quoted\\\" \\u00e9\","
+                                           + " \"version\": \"3.0\"},\n"
+                                           + "  \"a\": {\"name\": \"A\", \"version\": \"1.0\", \"extra\": {\"k\": [1]},"
+                                           + " \"dependencies\": {\"b\": \"2.0\", \"outside\": \"1.0\"}},\n"
+                                           + "  \"d\": {\"name\": \"D\", \"version\": \"4.0\","
+                                           + " \"dependencies\": null, \"scope\": \"fat\", \"tier\": \"compatible\"},\n"
+                                           + "  \"b\": {\"name\": \"B\\/b\", \"version\": \"2.0\","
+                                           + " \"dependencies\": {\"c\": \"3.0\"}, \"sha1\": null},\n"
+                                           + " },\n"
+                                           + " \"blacklist\": [\"z\"]\n"
+                                           + "}\n";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static Map<String, EnvelopePlugin> read(String envelope, String... ids) throws IOException {
+        final byte[] content = envelope.getBytes(UTF8);
+        return EnvelopeReader.read(() -> new ByteArrayInputStream(content), Arrays.asList(ids));
+    }
+
+    private static Map<String, EnvelopePlugin> parse(String envelope) {
+        return PluginAnalyzer.parseEnvelope(new ByteArrayInputStream(envelope.getBytes(UTF8)));
+    }
+
+    @Test
+    public void testMatchesLoaderOnFixture() throws Exception {
+        Map<String, EnvelopePlugin> expected;
+        try (InputStream inputStream = getClass().getResourceAsStream(ENVELOPE_FIXTURE)) {
+            expected = PluginAnalyzer.parseEnvelope(inputStream);
+        }
+        Map<String, EnvelopePlugin> actual = EnvelopeReader.read(() -> getClass().getResourceAsStream(ENVELOPE_FIXTURE),
+                                                                 expected.keySet());
+        assertEquals(ImmutableSortedMap.copyOf(expected).toString(), ImmutableSortedMap.copyOf(actual).toString());
+
+        actual = EnvelopeReader.read(() -> getClass().getResourceAsStream(ENVELOPE_FIXTURE),
+                                     Collections.singleton("ant"));
+        assertEquals(new HashSet<>(Arrays.asList("ant", "structs")), actual.keySet());
+        assertEquals(expected.get("structs").toString(), actual.get("structs").toString());
+    }
+
+    @Test
+    public void testRequiredDependenciesAreMaterialized() throws Exception {
+        Map<String, EnvelopePlugin> expected = parse(ENVELOPE);
+        Map<String, EnvelopePlugin> actual = read(ENVELOPE, "a", "unknown");
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), actual.keySet());
+        for (String id : actual.keySet()) {
+            assertEquals(expected.get(id).toString(), actual.get(id).toString());
+        }
+        assertEquals("C \"quoted\" \u00e9", actual.get("c").getName());
+        assertEquals("B/b", actual.get("b").getName());
+
+        assertEquals(expected.get("d").toString(), read(ENVELOPE, "d").get("d").toString());
+        assertTrue(read(ENVELOPE).isEmpty());
+    }
+
+    @Test
+    public void testOnlyRequiredDependenciesAreReadAgain() throws Exception {
+        final byte[] content = ENVELOPE.getBytes(UTF8);
+        final AtomicInteger passes = new AtomicInteger();
+        EnvelopeReader.Source source = () -> {
+            passes.incrementAndGet();
+            return new ByteArrayInputStream(content);
+        };
+        // b and c are only known to be required once a was read
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")),
+                     EnvelopeReader.read(source, Collections.singleton("a")).keySet());
+        assertEquals(2, passes.get());
+        // the closure of b and c is already read
+        passes.set(0);
+        assertEquals(new HashSet<>(Arrays.asList("b", "c")),
+                     EnvelopeReader.read(source, Arrays.asList("b", "c")).keySet());
+        assertEquals(1, passes.get());
+    }
+
+    @Test
+    public void testStringsAcrossReadBuffers() throws Exception {
+        char[] padding = new char[20000];
+        Arrays.fill(padding, 'x');
+        String longName = new String(padding);
+        String envelope = "{\"skipped\": \"" + longName + "\", \"plugins\": {"
+                          + "\"b\": {\"name\": \"" + longName + "\", \"version\": \"2.0\"},"
+                          + "\"a\": {\"name\": \"" + longName + "\\u00e9\", \"version\": \"1.0\"}}}";
+        Map<String, EnvelopePlugin> plugins = read(envelope, "a", "b");
+        assertEquals(longName + "\u00e9", plugins.get("a").getName());
+        assertEquals(longName, plugins.get("b").getName());
+        assertEquals("2.0", plugins.get("b").getVersionNumber().toString());
+    }
+
+    @Test
+    public void testDependencyGraphIsUnchanged() throws Exception {
+        DependencyGraph expected = DependencyGraph.of(parse(ENVELOPE));
+        DependencyGraph actual = DependencyGraph.of(read(ENVELOPE, "a"));
+        int expectedNode = expected.getNode("a");
+        int actualNode = actual.getNode("a");
+        assertEquals(expected.getClosureSize(expectedNode), actual.getClosureSize(actualNode));
+        assertEquals(expected.getNonEnvelopeDependencies(expectedNode),
+                     actual.getNonEnvelopeDependencies(actualNode));
+    }
+
+    @Test
+    public void testMalformedEnvelopes() {
+        for (String envelope : Arrays.asList("", "[]", "{\"plugins\": {\"a\": {\"name\": \"A\"}",
+                                             "{\"plugins\": {\"a\": {\"name\": \"A\" \"version\": \"1\"}}}",
+                                             "{\"plugins\": {}} {}", "{\"product\": tru}",
+                                             "{\"plugins\": {\"a\": {\"name\": \"\\x\"}}}")) {
+            try {
+                read(envelope, "a");
+                fail("Malformed envelope accepted: " + envelope);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("of the envelope"));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class EnvelopeRegistryTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Map<String, EnvelopePlugin> load(EnvelopeProduct product, String productRelease) {
+        loads.incrementAndGet();
+        Map<String, EnvelopePlugin> plugins = new HashMap<>();
+        plugins.put("ant", TestPlugins.ant(productRelease));
+        return plugins;
+    }
+
+    @Test
+    public void testConcurrentFirstRequestsShareOneLoad() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final EnvelopeRegistry registry = new EnvelopeRegistry((product, productRelease) -> {
+            release.await();
+            return load(product, productRelease);
+        }, EnvelopeRegistry.DEFAULT_MAX_ENTRIES, EnvelopeRegistry.DEFAULT_MAX_BYTES);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Map<String, EnvelopePlugin>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> registry.get(EnvelopeProduct.CJE, "2.107.3.4")));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            Map<String, EnvelopePlugin> first = futures.get(0).get();
+            for (Future<Map<String, EnvelopePlugin>> future : futures) {
+                assertSame(first, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, registry.getMisses());
+        assertEquals(7, registry.getHits());
+    }
+
+    @Test
+    public void testEvictionByEntryCount() throws Exception {
+        EnvelopeRegistry registry = new EnvelopeRegistry(this::load, 2, EnvelopeRegistry.DEFAULT_MAX_BYTES);
+        registry.get(EnvelopeProduct.CJE, "1");
+        registry.get(EnvelopeProduct.CJE, "2");
+        registry.get(EnvelopeProduct.CJE, "1");
+        registry.get(EnvelopeProduct.CJE, "3");
+        assertEquals(2, registry.getSize());
+        // "2" was the least recently used one
+        registry.get(EnvelopeProduct.CJE, "1");
+        assertEquals(3, loads.get());
+        registry.get(EnvelopeProduct.CJE, "2");
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testEvictionByWeight() throws Exception {
+        long weight = EnvelopeRegistry.estimateWeight(load(EnvelopeProduct.CJE, "1"));
+        loads.set(0);
+        EnvelopeRegistry registry = new EnvelopeRegistry(this::load, 10, weight);
+        registry.get(EnvelopeProduct.CJE, "1");
+        registry.get(EnvelopeProduct.CJOC, "1");
+        assertEquals(1, registry.getSize());
+        assertEquals(weight, registry.getWeight());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        EnvelopeRegistry registry = new EnvelopeRegistry((product, productRelease) -> {
+            if (loads.getAndIncrement() == 0) {
+                throw new IllegalStateException("unreachable repository");
+            }
+            return load(product, productRelease);
+        }, EnvelopeRegistry.DEFAULT_MAX_ENTRIES, EnvelopeRegistry.DEFAULT_MAX_BYTES);
+        try {
+            registry.get(EnvelopeProduct.CJE, "1");
+            fail("load failure expected");
+        } catch (IllegalStateException e) {
+            assertEquals("unreachable repository", e.getMessage());
+        }
+        assertEquals(1, registry.get(EnvelopeProduct.CJE, "1").size());
+        assertEquals(1, registry.getSize());
+    }
+}
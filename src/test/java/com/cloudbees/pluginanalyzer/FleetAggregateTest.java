@@ -0,0 +1,73 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class FleetAggregateTest {
+
+    private static final EnvelopePlugin ANT = TestPlugins.ant("1.8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMergedPartialsMatchOneAggregate() throws Exception {
+        StringDictionary plugins = new StringDictionary();
+        StringDictionary versions = new StringDictionary();
+        FleetAggregate whole = new FleetAggregate(plugins, versions);
+        FleetAggregate left = new FleetAggregate(plugins, versions);
+        FleetAggregate right = new FleetAggregate(plugins, versions);
+        for (int controller = 0; controller < 100; controller++) {
+            // 1.4 on a half of the controllers, 1.8 on the other half
+            ReportRow ant = new ReportRow("ant", controller % 2 == 0 ? "1.4" : "1.8", ANT);
+            // a private plugin per controller, to grow the counter arrays
+            ReportRow custom = new ReportRow("custom-" + controller, "1.0", null);
+            for (FleetAggregate aggregate : Arrays.asList(whole, controller < 30 ? left : right)) {
+                aggregate.add(ant);
+                aggregate.add(custom);
+            }
+        }
+        left.addFailure();
+        FleetAggregate merged = left.merge(right);
+
+        assertEquals(100, merged.getControllers("ant"));
+        assertEquals(0, merged.getOutsideEnvelope("ant"));
+        assertEquals(50, merged.getLaggingControllers("ant"));
+        assertEquals(1, merged.getControllers("custom-99"));
+        assertEquals(1, merged.getOutsideEnvelope("custom-99"));
+        assertEquals(0, merged.getControllers("unknown"));
+        assertEquals(1, merged.getFailures());
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        expected.put("1.4", 50);
+        expected.put("1.8", 50);
+        assertEquals(expected, merged.getVersions("ant"));
+        assertEquals(whole.getPlugins(), merged.getPlugins());
+        assertEquals(101, merged.getPlugins().size());
+        assertEquals("[ant=50]", merged.getLaggingPlugins(10).toString());
+
+        File report = folder.newFile("Fleet-Plugins.csv");
+        merged.writeReport(report);
+        String content = new String(Files.readAllBytes(report.toPath()), Charset.forName("UTF-8"));
+        assertEquals("Id,Controllers,Outside envelope,Lagging controllers,Pinned lagging controllers,Versions\n"
+                     + "ant,100,0,50,0,1.4=50 1.8=50\n"
+                     + "custom-0,1,1,0,0,1.0=1\n",
+                     content.substring(0, content.indexOf("custom-1,")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeNeedsSharedDictionaries() {
+        new FleetAggregate(new StringDictionary(), new StringDictionary())
+            .merge(new FleetAggregate(new StringDictionary(), new StringDictionary()));
+    }
+}
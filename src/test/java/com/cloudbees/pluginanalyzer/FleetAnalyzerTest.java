@@ -0,0 +1,212 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FleetAnalyzerTest {
+
+    private static final String HEADER = "Id,Name,Version,Envelope,Version,Type,Scope,Drift,Distance,"
+                                         + "Dependencies,Non-envelope dependencies,Missing dependencies\n";
+
+    private File lists;
+    private File output;
+    private Map<String, EnvelopePlugin> envelopePlugins;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        lists = folder.newFolder("lists");
+        output = folder.newFolder("output");
+        writeList(new File(lists, "controller-a/active.txt"), "ant:1.4:not-pinned\n");
+        writeList(new File(lists, "controller-b/active.txt"), "active-directory:2.4:not-pinned\n");
+        writeList(new File(lists, "controller-c.txt"), "ant:1.8:pinned\nactive-directory:2.4:not-pinned\n");
+
+        envelopePlugins = new HashMap<>();
+        envelopePlugins.put("ant", TestPlugins.ant("1.8"));
+    }
+
+    @Test
+    public void testListPluginFilesFromDirectory() throws IOException {
+        List<Path> files = FleetAnalyzer.listPluginFiles(lists.toPath());
+        assertEquals(3, files.size());
+        assertEquals("controller-a", FleetAnalyzer.getControllerName(files.get(0)));
+        assertEquals("controller-c", FleetAnalyzer.getControllerName(files.get(2)));
+    }
+
+    @Test
+    public void testListPluginFilesFromManifest() throws IOException {
+        File manifest = new File(lists, "manifest");
+        writeList(manifest, "# fleet\ncontroller-b/active.txt\n\ncontroller-c.txt\n");
+        assertEquals(Arrays.asList(lists.toPath().resolve("controller-b/active.txt"),
+                                   lists.toPath().resolve("controller-c.txt")),
+                     FleetAnalyzer.listPluginFiles(manifest.toPath()));
+    }
+
+    @Test
+    public void testAnalyzeFleet() throws Exception {
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(new PluginAnalyzer("cje", "2.107.3.4"), output, 2);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(FleetAnalyzer.listPluginFiles(lists.toPath()),
+                                                              envelopePlugins);
+        assertEquals(3, summary.getLists());
+        assertEquals(0, summary.getFailures());
+        assertEquals(HEADER
+                     + "ant,Ant Plugin,1.4,YES,1.8,VERIFIED,FAT,OLDER,0.4.0,0,0,\n",
+                     read(new File(output, "controller-a-Analyzed-Plugins.csv")));
+        assertEquals(HEADER
+                     + "active-directory,,2.4,NO,,,,,,0,0,\n",
+                     read(new File(output, "controller-b-Analyzed-Plugins.csv")));
+        assertTrue(new File(output, "controller-c-Analyzed-Plugins.csv").exists());
+    }
+
+    @Test
+    public void testAnalyzeSupportBundles() throws Exception {
+        File bundles = folder.newFolder("bundles");
+        for (int i = 0; i < 8; i++) {
+            SupportBundleTest.writeBundle(new File(bundles, "support-" + i + ".zip"), "support/",
+                                          "ant:1." + i + ":not-pinned\n",
+                                          String.format(SupportBundleTest.ABOUT, "instance-" + i));
+        }
+        SupportBundleTest.writeBundle(new File(bundles, "anonymous.zip"), "", "ant:1.8:not-pinned\n", null);
+        List<Path> files = FleetAnalyzer.listPluginFiles(bundles.toPath());
+        assertEquals(9, files.size());
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(new PluginAnalyzer("cje", "2.107.3.4"), output, 4);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(files, envelopePlugins);
+        assertEquals(0, summary.getFailures());
+        assertEquals(8, summary.getLaggingControllers("ant"));
+        assertEquals(HEADER
+                     + "ant,Ant Plugin,1.3,YES,1.8,VERIFIED,FAT,OLDER,0.5.0,0,0,\n",
+                     read(new File(output, "instance-3-Analyzed-Plugins.csv")));
+        assertTrue(new File(output, "anonymous-Analyzed-Plugins.csv").exists());
+    }
+
+    @Test
+    public void testCollidingControllerNames() throws Exception {
+        writeList(new File(lists, "site-a/controller-x/active.txt"), "ant:1.4:not-pinned\n");
+        writeList(new File(lists, "site-b/controller-x/active.txt"), "ant:1.8:not-pinned\n");
+        List<Path> files = FleetAnalyzer.listPluginFiles(lists.toPath());
+        Map<Path, String> names = FleetAnalyzer.getControllerNames(files);
+        assertEquals("site-a/controller-x", names.get(lists.toPath().resolve("site-a/controller-x/active.txt")));
+        assertEquals("site-b/controller-x", names.get(lists.toPath().resolve("site-b/controller-x/active.txt")));
+        assertEquals("controller-a", names.get(lists.toPath().resolve("controller-a/active.txt")));
+
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(new PluginAnalyzer("cje", "2.107.3.4"), output, 2);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(files, envelopePlugins);
+        assertEquals(0, summary.getFailures());
+        assertEquals(HEADER
+                     + "ant,Ant Plugin,1.4,YES,1.8,VERIFIED,FAT,OLDER,0.4.0,0,0,\n",
+                     read(new File(output, "site-a_controller-x-Analyzed-Plugins.csv")));
+        assertEquals(HEADER
+                     + "ant,Ant Plugin,1.8,YES,1.8,VERIFIED,FAT,EXACT,0.0.0,0,0,\n",
+                     read(new File(output, "site-b_controller-x-Analyzed-Plugins.csv")));
+        assertFalse(new File(output, "controller-x-Analyzed-Plugins.csv").exists());
+    }
+
+    @Test
+    public void testBundlesOfTheSameControllerAreNotBothReported() throws Exception {
+        File bundles = folder.newFolder("bundles");
+        for (int i = 0; i < 2; i++) {
+            SupportBundleTest.writeBundle(new File(bundles, "support-" + i + ".zip"), "support/",
+                                          "ant:1." + i + ":not-pinned\n",
+                                          String.format(SupportBundleTest.ABOUT, "instance"));
+        }
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(new PluginAnalyzer("cje", "2.107.3.4"), output, 2);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(FleetAnalyzer.listPluginFiles(bundles.toPath()),
+                                                              envelopePlugins);
+        assertEquals(1, summary.getFailures());
+        assertTrue(new File(output, "instance-Analyzed-Plugins.csv").exists());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "2.107.3.4");
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(analyzer, output, 2);
+        fleetAnalyzer.analyze(FleetAnalyzer.listPluginFiles(lists.toPath()), envelopePlugins);
+        assertEquals(3, analyzer.getMetrics().getStage("writeReport").getCount());
+        assertEquals(4, analyzer.getMetrics().getCounter(RunMetrics.ROWS));
+        fleetAnalyzer.exportMetrics();
+        assertTrue(new File(output, "Fleet-metrics.json").exists());
+        assertTrue(new File(output, "Fleet-metrics.prom").exists());
+    }
+
+    @Test
+    public void testLaggingPlugins() throws Exception {
+        writeList(new File(lists, "controller-d.txt"), "ant:1.2:pinned\n");
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(new PluginAnalyzer("cje", "2.107.3.4"), output, 2);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(FleetAnalyzer.listPluginFiles(lists.toPath()),
+                                                              envelopePlugins);
+        // controller-c runs the envelope version
+        assertEquals(2, summary.getLaggingControllers("ant"));
+        assertEquals(1, summary.getPinnedLaggingControllers("ant"));
+        assertEquals(0, summary.getLaggingControllers("active-directory"));
+        assertEquals(1, summary.getLaggingPlugins(10).size());
+        assertEquals("Id,Lagging controllers,Pinned lagging controllers\nant,2,1\n",
+                     read(fleetAnalyzer.writeLaggingReport(summary)));
+        assertEquals("Id,Controllers,Outside envelope,Lagging controllers,Pinned lagging controllers,Versions\n"
+                     + "active-directory,2,2,0,0,2.4=2\n"
+                     + "ant,3,0,2,1,1.2=1 1.4=1 1.8=1\n",
+                     read(fleetAnalyzer.writeAggregateReport(summary)));
+    }
+
+    @Test
+    public void testIdenticalListsAreAnalyzedOnce() throws Exception {
+        writeList(new File(lists, "controller-d.txt"), "active-directory:2.4:not-pinned\nant:1.8:pinned\n");
+        writeList(new File(lists, "controller-e/active.txt"), "ant:1.4:pinned\n");
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "2.107.3.4").withCacheDirectory(folder.newFolder("cache"));
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(analyzer, output, 2);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(FleetAnalyzer.listPluginFiles(lists.toPath()),
+                                                              envelopePlugins);
+        assertEquals(5, summary.getLists());
+        assertEquals(3, summary.getAnalyzedLists());
+        assertEquals(0.4, summary.getDedupRatio(), 0.0001);
+        assertEquals(3, analyzer.getMetrics().getStage("analyzePlugins").getCount());
+        assertEquals(read(new File(output, "controller-c-Analyzed-Plugins.csv")),
+                     read(new File(output, "controller-d-Analyzed-Plugins.csv")));
+        assertEquals(4, summary.getAggregate().getControllers("ant"));
+
+        // a later run reuses the rows written on disk
+        summary = new FleetAnalyzer(analyzer, output, 2).analyze(FleetAnalyzer.listPluginFiles(lists.toPath()),
+                                                                 envelopePlugins);
+        assertEquals(0, summary.getAnalyzedLists());
+        assertEquals(1.0, summary.getDedupRatio(), 0.0001);
+    }
+
+    @Test
+    public void testFailingListDoesNotStopTheRun() throws Exception {
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(new PluginAnalyzer("cje", "2.107.3.4"), output, 2);
+        List<Path> files = FleetAnalyzer.listPluginFiles(lists.toPath());
+        files.add(lists.toPath().resolve("missing.txt"));
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(files, envelopePlugins);
+        assertEquals(4, summary.getLists());
+        assertEquals(1, summary.getFailures());
+    }
+
+    private static void writeList(File file, String content) throws IOException {
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Cannot create " + file.getParentFile());
+        }
+        Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+}
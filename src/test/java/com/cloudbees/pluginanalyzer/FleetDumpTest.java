@@ -0,0 +1,177 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FleetDumpTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParse() throws Exception {
+        Path dump = write("controller-a:ant:1.4:not-pinned\n"
+                          + "controller-b:git:3.0:pinned\r\n"
+                          + "\n"
+                          + "controller-a:git:3.1:pinned\n"
+                          + "controller-a:ant:1.5:not-pinned");
+        FleetDump fleet = FleetDump.parse(dump, 2);
+        assertEquals(Arrays.asList("controller-a", "controller-b"),
+                     Arrays.asList(fleet.getControllers().keySet().toArray()));
+        FleetDump.Controller controller = fleet.getControllers().get("controller-a");
+        Map<String, String> expected = new HashMap<>();
+        expected.put("ant", "1.5");
+        expected.put("git", "3.1");
+        assertEquals(expected, controller.getPlugins());
+        assertEquals(Collections.singleton("git"), controller.getPinned());
+        assertTrue(fleet.getControllers().get("controller-b").isPinned("git"));
+        assertEquals(4, fleet.getLines());
+        assertEquals(0, fleet.getMalformedLines());
+        assertEquals(Files.size(dump), fleet.getBytes());
+    }
+
+    @Test
+    public void testMalformedLinesAreCountedAndSkipped() throws Exception {
+        Path dump = write("controller-a:ant:1.4:not-pinned\n"
+                          + "controller-a:ant:1.4\n"
+                          + "controller-a::1.4:pinned\n"
+                          + "\n"
+                          + "controller-a:git:3.0:maybe\n"
+                          + "controller-a:git:3.0:pinned:extra\n"
+                          + "controller-b:git:3.0:pinned\n");
+        FleetDump fleet = FleetDump.parse(dump, 1);
+        assertEquals(6, fleet.getLines());
+        assertEquals(4, fleet.getMalformedLines());
+        assertEquals(Arrays.asList("line 2: controller-a:ant:1.4", "line 3: controller-a::1.4:pinned",
+                                   "line 5: controller-a:git:3.0:maybe", "line 6: controller-a:git:3.0:pinned:extra"),
+                     fleet.getMalformedSamples());
+        assertEquals(Collections.singletonMap("ant", "1.4"),
+                     fleet.getControllers().get("controller-a").getPlugins());
+        assertEquals(2, fleet.getControllers().size());
+    }
+
+    @Test
+    public void testChunksSplitOnLineBoundaries() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("controller-").append(i % 7).append(":plugin-").append(i % 13).append(':')
+                   .append(i).append(i % 3 == 0 ? ":pinned\n" : ":not-pinned\n");
+            if (i == 250) {
+                content.append("garbage\n");
+            }
+        }
+        Path dump = write(content.toString());
+        FleetDump whole = FleetDump.parse(dump, 1);
+        // chunks shorter than a line still end on a line boundary
+        for (int chunkBytes : new int[] {1, 37, 1000}) {
+            FleetDump chunked = FleetDump.parse(dump, 4, chunkBytes);
+            assertEquals(501, chunked.getLines());
+            assertEquals(1, chunked.getMalformedLines());
+            assertEquals(Collections.singletonList("line 252: garbage"), chunked.getMalformedSamples());
+            assertEquals(whole.getControllers().keySet(), chunked.getControllers().keySet());
+            for (FleetDump.Controller controller : whole.getControllers().values()) {
+                FleetDump.Controller other = chunked.getControllers().get(controller.getName());
+                assertEquals(controller.getPlugins(), other.getPlugins());
+                assertEquals(controller.getPinned(), other.getPinned());
+            }
+        }
+    }
+
+    @Test
+    public void testByteInterner() {
+        FleetDump.ByteInterner interner = new FleetDump.ByteInterner();
+        ByteBuffer buffer = ByteBuffer.wrap("ant:ant:git".getBytes(Charset.forName("UTF-8")));
+        String ant = interner.get(buffer, 0, 3);
+        assertEquals("ant", ant);
+        assertSame(ant, interner.get(buffer, 4, 7));
+        assertEquals("git", interner.get(buffer, 8, 11));
+        for (int i = 0; i < 5000; i++) {
+            interner.get(ByteBuffer.wrap(Integer.toString(i).getBytes(Charset.forName("UTF-8"))), 0,
+                         Integer.toString(i).length());
+        }
+        assertEquals(5002, interner.size());
+        assertSame(ant, interner.get(buffer, 0, 3));
+        assertFalse(ant.equals(interner.get(buffer, 0, 2)));
+    }
+
+    @Test
+    public void testFleetAnalysisOfADump() throws Exception {
+        Path dump = write("controller-a:ant:1.4:not-pinned\ncontroller-b:ant:1.8:pinned\nbroken\n");
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "2.107.3.4")
+            .withOutputDirectory(folder.newFolder("output"))
+            .withCacheDirectory(folder.newFolder("cache"));
+        EnvelopePlugin ant = TestPlugins.ant("1.8");
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(analyzer, new File(analyzer.getOutputDirectory(), "fleet"), 2);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(FleetDump.parse(dump, 2),
+                                                              Collections.singletonMap("ant", ant));
+        assertEquals(2, summary.getLists());
+        assertEquals(0, summary.getFailures());
+        assertTrue(fleetAnalyzer.getReportFile("controller-a").exists());
+        assertEquals(Files.size(dump), analyzer.getMetrics().getCounter(RunMetrics.PLUGIN_LIST_BYTES_READ));
+    }
+
+    @Test
+    public void testControllersSharingAReportFileAreSkipped() throws Exception {
+        Path dump = write("site/controller:ant:1.4:not-pinned\nsite_controller:ant:1.8:pinned\n"
+                          + "other:ant:1.8:pinned\n");
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "2.107.3.4")
+            .withOutputDirectory(folder.newFolder("output"))
+            .withCacheDirectory(folder.newFolder("cache"));
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(analyzer, new File(analyzer.getOutputDirectory(), "fleet"), 2);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(FleetDump.parse(dump, 1), Collections.singletonMap(
+            "ant", TestPlugins.ant("1.0")));
+        // neither controller overwrites the report of the other, the rest of the fleet is analyzed
+        assertEquals(3, summary.getLists());
+        assertEquals(2, summary.getFailures());
+        assertFalse(fleetAnalyzer.getReportFile("site_controller").exists());
+        assertTrue(fleetAnalyzer.getReportFile("other").exists());
+    }
+
+    @Test
+    public void testPinnedLaggingPluginsOfADump() throws Exception {
+        Path dump = write("controller-a:ant:0.8:pinned\ncontroller-b:ant:0.9:not-pinned\n"
+                          + "controller-c:ant:1.0:pinned\ncontroller-d:ant:0.7:pinned\n");
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "2.107.3.4")
+            .withOutputDirectory(folder.newFolder("output"))
+            .withCacheDirectory(folder.newFolder("cache"));
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(analyzer, new File(analyzer.getOutputDirectory(), "fleet"), 2);
+        FleetAnalyzer.Summary summary = fleetAnalyzer.analyze(FleetDump.parse(dump, 2), Collections.singletonMap(
+            "ant", TestPlugins.ant("1.0")));
+        // controller-c pinned the envelope version, which does not lag
+        assertEquals(3, summary.getLaggingControllers("ant"));
+        assertEquals(2, summary.getPinnedLaggingControllers("ant"));
+        assertEquals("Id,Lagging controllers,Pinned lagging controllers\nant,3,2\n",
+                     read(fleetAnalyzer.writeLaggingReport(summary)));
+        assertEquals("Id,Controllers,Outside envelope,Lagging controllers,Pinned lagging controllers,Versions\n"
+                     + "ant,4,0,3,2,0.7=1 0.8=1 0.9=1 1.0=1\n",
+                     read(fleetAnalyzer.writeAggregateReport(summary)));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+
+    private Path write(String content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+        return file.toPath();
+    }
+}
@@ -0,0 +1,158 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class HistoryStoreTest {
+
+    private HistoryStore store;
+    private EnvelopePlugin ant;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        store = new HistoryStore(folder.newFolder("history"));
+        ant = TestPlugins.ant("1.8");
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        HistoryStore.Appender appender = store.newAppender();
+        appender.add("controller-a", 1000, "cje", "2.107.3.4", Arrays.asList(
+            new ReportRow("ant", "1.4", ant, 0, 0, ""), new ReportRow("git", "3.0", null, 0, 0, "")));
+        appender.add("controller-b", 1000, "cje", "2.107.3.4", Arrays.asList(
+            new ReportRow("ant", "1.8", ant, 0, 0, "")));
+        appender.commit();
+        append("controller-a", 2000, new ReportRow("ant", "1.8", ant, 2, 1, "structs"));
+        assertEquals(2, store.getSegments().size());
+
+        List<HistoryStore.Record> records = store.query("controller-a", "ant", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertEquals(Arrays.asList("controller-a", "1970-01-01T00:00:01Z", "cje", "2.107.3.4", "ant", "1.4", "YES",
+                                   "1.8", "OLDER", ""),
+                     records.get(0).toList());
+        assertEquals(Arrays.asList("controller-a", "1970-01-01T00:00:02Z", "cje", "2.107.3.4", "ant", "1.8", "YES",
+                                   "1.8", "EXACT", "structs"),
+                     records.get(1).toList());
+        assertEquals(2, store.getRowSectionsRead());
+
+        assertEquals(Arrays.asList("controller-a", "1970-01-01T00:00:01Z", "cje", "2.107.3.4", "git", "3.0", "NO",
+                                   "", "", ""),
+                     store.query(null, "git", Long.MIN_VALUE, Long.MAX_VALUE).get(0).toList());
+        assertEquals(3, store.query(null, null, 0, 1000).size());
+    }
+
+    @Test
+    public void testQueriesOnlyReadTheSegmentsTheyNeed() throws Exception {
+        for (int i = 1; i <= 4; i++) {
+            append("controller-a", i * 1000, new ReportRow(i == 4 ? "git" : "ant", "1." + i, null, 0, 0, ""));
+        }
+        assertEquals(2, store.query(null, null, 2500, Long.MAX_VALUE).size());
+        assertEquals(2, store.getRowSectionsRead());
+        assertEquals(1, store.query("controller-a", "git", Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(3, store.getRowSectionsRead());
+        assertEquals(0, store.query("controller-b", null, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(3, store.getRowSectionsRead());
+    }
+
+    @Test
+    public void testTimeline() throws Exception {
+        append("controller-a", 1000, new ReportRow("ant", "1.4", ant, 0, 0, ""));
+        append("controller-a", 2000, new ReportRow("ant", "1.4", ant, 0, 0, ""));
+        append("controller-b", 2500, new ReportRow("ant", "1.2", ant, 0, 0, ""));
+        // the plugin left the envelope
+        append("controller-a", 3000, new ReportRow("ant", "1.4", null, 0, 0, ""));
+        append("controller-a", 4000, new ReportRow("git", "3.0", null, 0, 0, ""));
+        append("controller-a", 5000, new ReportRow("git", "3.0", null, 0, 0, ""));
+        append("controller-a", 6000, new ReportRow("ant", "1.8", ant, 0, 0, ""));
+
+        List<HistoryStore.Record> timeline = store.getTimeline("controller-a", "ant");
+        List<Long> timestamps = new ArrayList<>();
+        for (HistoryStore.Record record : timeline) {
+            timestamps.add(record.getTimestamp());
+        }
+        assertEquals(Arrays.asList(1000L, 3000L, 4000L, 6000L), timestamps);
+        assertEquals("NO", timeline.get(1).toList().get(6));
+        assertNull(timeline.get(2).getVersion());
+        assertEquals("EXACT", timeline.get(3).getDrift());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            append("controller-" + (i % 2), i * 1000, new ReportRow("ant", "1." + i, ant, 0, 0, ""));
+        }
+        List<HistoryStore.Record> before = store.query(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(3, store.compact(3));
+        assertEquals(2, store.getSegments().size());
+        List<HistoryStore.Record> after = store.query(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(5, after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(before.get(i).toList(), after.get(i).toList());
+        }
+        assertEquals(0, store.compact(3));
+    }
+
+    @Test
+    public void testFleetRunIsOneSegment() throws Exception {
+        File lists = folder.newFolder("lists");
+        for (String controller : Arrays.asList("controller-a", "controller-b")) {
+            Files.write(new File(lists, controller + ".txt").toPath(),
+                        "ant:1.4:not-pinned\n".getBytes(Charset.forName("UTF-8")));
+        }
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "2.107.3.4")
+            .withOutputDirectory(folder.newFolder("output"))
+            .withCacheDirectory(folder.newFolder("cache"))
+            .withHistory(true);
+        Map<String, EnvelopePlugin> envelopePlugins = Collections.singletonMap("ant", ant);
+        new FleetAnalyzer(analyzer, new File(analyzer.getOutputDirectory(), "fleet"), 2)
+            .analyze(FleetAnalyzer.listPluginFiles(lists.toPath()), envelopePlugins);
+
+        HistoryStore history = new HistoryStore(analyzer.getHistoryDirectory());
+        assertEquals(1, history.getSegments().size());
+        List<HistoryStore.Record> records = history.query(null, "ant", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertEquals("cje", records.get(0).getProduct());
+        assertEquals("OLDER", records.get(1).getDrift());
+    }
+
+    private void append(String controller, long timestamp, ReportRow row) throws IOException {
+        HistoryStore.Appender appender = store.newAppender();
+        appender.add(controller, timestamp, "cje", "2.107.3.4", Collections.singletonList(row));
+        appender.commit();
+    }
+
+    @Test
+    public void testHistoryIsOptIn() throws Exception {
+        File lists = folder.newFolder("lists");
+        Files.write(new File(lists, "controller-a.txt").toPath(),
+                    "ant:1.4:not-pinned\n".getBytes(Charset.forName("UTF-8")));
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "2.107.3.4")
+            .withOutputDirectory(folder.newFolder("output"))
+            .withCacheDirectory(folder.newFolder("cache"));
+        assertFalse(analyzer.isHistoryEnabled());
+        new FleetAnalyzer(analyzer, new File(analyzer.getOutputDirectory(), "fleet"), 1)
+            .analyze(FleetAnalyzer.listPluginFiles(lists.toPath()), Collections.singletonMap("ant", ant));
+
+        assertFalse(analyzer.getHistoryDirectory().exists());
+    }
+}
@@ -0,0 +1,46 @@
+package com.cloudbees.pluginanalyzer;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class LongIntMapTest {
+
+    @Test
+    public void testAddAndGrow() {
+        LongIntMap map = new LongIntMap();
+        for (int i = 0; i < 10_000; i++) {
+            map.add(((long) (i % 100) << 32) | i, 1);
+            map.add(((long) (i % 100) << 32) | i, 2);
+        }
+        assertEquals(10_000, map.size());
+        assertEquals(3, map.get((42L << 32) | 142));
+        assertEquals(0, map.get((43L << 32) | 142));
+    }
+
+    @Test
+    public void testAddAll() {
+        LongIntMap left = new LongIntMap();
+        LongIntMap right = new LongIntMap();
+        left.add(1, 1);
+        left.add(2, 2);
+        right.add(2, 3);
+        right.add(Long.MAX_VALUE, 4);
+        left.addAll(right);
+        final Map<Long, Integer> entries = new HashMap<>();
+        left.forEach(entries::put);
+        Map<Long, Integer> expected = new HashMap<>();
+        expected.put(1L, 1);
+        expected.put(2L, 5);
+        expected.put(Long.MAX_VALUE, 4);
+        assertEquals(expected, entries);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeKey() {
+        new LongIntMap().add(-1, 1);
+    }
+}
@@ -0,0 +1,187 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs hundreds of analyses at once, sharing one cache directory and one output directory, against an embedded
+ * HTTP server standing in for Nexus.
+ */
+public class PluginAnalyzerConcurrencyTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String ENVELOPE_FIXTURE = "/jenkins-enterprise-war-2.107.3.4-envelope.json";
+    private static final String PLUGIN_LIST_FIXTURE = "/active.txt";
+    private static final String ETAG = "\"v1\"";
+    private static final int ANALYSES = 300;
+    private static final int THREADS = 32;
+
+    private HttpServer server;
+    private String repoUrl;
+    private byte[] envelope;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        try (InputStream fixture = getClass().getResourceAsStream(ENVELOPE_FIXTURE)) {
+            envelope = readAll(fixture);
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        repoUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        downloads.incrementAndGet();
+        try {
+            // keep the download running while the other analyses start
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.sendResponseHeaders(200, envelope.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(envelope);
+        }
+    }
+
+    @Test
+    public void testConcurrentAnalyses() throws Exception {
+        final File pluginList = folder.newFile("active.txt");
+        try (InputStream fixture = getClass().getResourceAsStream(PLUGIN_LIST_FIXTURE)) {
+            Files.write(pluginList.toPath(), readAll(fixture));
+        }
+        final File cacheDirectory = folder.newFolder("cache");
+        final File sharedDirectory = folder.newFolder("shared");
+        final Map<String, String> plugins = PluginAnalyzer.getFilePlugins(pluginList.toPath());
+
+        File referenceFile = folder.newFile("Reference.csv");
+        PluginAnalyzer reference = new PluginAnalyzer("cje", "2.107.3.4").withOutputDirectory(folder.newFolder());
+        reference.generateCsvFile(plugins, PluginAnalyzer.parseEnvelope(new ByteArrayInputStream(envelope)),
+                                  referenceFile);
+        final String expected = new String(Files.readAllBytes(referenceFile.toPath()), UTF8);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<File>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < ANALYSES; i++) {
+                final File outputDirectory = new File(folder.getRoot(), "output-" + i);
+                results.add(executor.submit(() -> {
+                    PluginAnalyzer analyzer = new PluginAnalyzer(pluginList.getAbsolutePath(), "cje", "2.107.3.4")
+                        .withOutputDirectory(outputDirectory)
+                        .withCacheDirectory(cacheDirectory);
+                    Map<String, EnvelopePlugin> envelopePlugins = analyzer.getEnvelopePlugins(repoUrl, false, null,
+                                                                                              null);
+                    analyzer.generateCsvFile(analyzer.getFilePlugins(), envelopePlugins, analyzer.getCsvFile());
+                    // every analysis also replaces the same shared report
+                    analyzer.withOutputDirectory(sharedDirectory)
+                            .generateCsvFile(plugins, envelopePlugins, new File(sharedDirectory,
+                                                                                PluginAnalyzer.CSV_FILE_NAME));
+                    return analyzer.getCsvFile();
+                }));
+            }
+            for (Future<File> result : results) {
+                File csvFile = result.get(60, TimeUnit.SECONDS);
+                assertEquals(expected, new String(Files.readAllBytes(csvFile.toPath()), UTF8));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(expected, new String(Files.readAllBytes(new File(sharedDirectory, PluginAnalyzer.CSV_FILE_NAME)
+                                                                 .toPath()), UTF8));
+        // merged in-process, then served from the local copy
+        assertEquals(1, downloads.get());
+        File envelopeFile = new File(cacheDirectory, "jenkins-enterprise-war-2.107.3.4-envelope.json");
+        assertEquals(envelope.length, envelopeFile.length());
+        for (File directory : new File[] {cacheDirectory, sharedDirectory,
+                                          new File(cacheDirectory, EnvelopeCache.DIRECTORY_NAME)}) {
+            assertEquals(0, directory.listFiles((dir, name) -> name.endsWith(".part")).length);
+        }
+        assertEquals(1, new File(cacheDirectory, EnvelopeCache.DIRECTORY_NAME)
+            .listFiles((dir, name) -> name.endsWith(".bin")).length);
+        assertTrue(requests.get() <= ANALYSES);
+    }
+
+    @Test
+    public void testCacheLockIsExclusive() throws Exception {
+        final File file = folder.newFile("envelope.json");
+        final int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < ANALYSES; i++) {
+                results.add(executor.submit(() -> {
+                    try (CacheLock lock = CacheLock.lock(file);
+                         CacheLock reentered = CacheLock.lock(file)) {
+                        int value = counter[0];
+                        Thread.yield();
+                        counter[0] = value + 1;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(ANALYSES, counter[0]);
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
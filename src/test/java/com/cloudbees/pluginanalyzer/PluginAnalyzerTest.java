@@ -15,7 +15,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -51,7 +50,9 @@ public class PluginAnalyzerTest {
             if (!envelopeFile.createNewFile()) {
                 throw new IOException("a file with the name '" + envelopeFile + "' already exists in the test folder");
             }
-            pluginAnalyzer = new PluginAnalyzer(pluginsFile.getAbsolutePath(), "cje", "2.107.3.4");
+            pluginAnalyzer = new PluginAnalyzer(pluginsFile.getAbsolutePath(), "cje", "2.107.3.4")
+                .withOutputDirectory(folder.newFolder("target"))
+                .withCacheDirectory(folder.newFolder("cache"));
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -114,6 +115,48 @@ public class PluginAnalyzerTest {
         }
     }
 
+    @Test
+    public void testStreamingEnvelopeReader() {
+        try {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(envelopeFile.getAbsolutePath()));
+            writer.write(envelopeContent);
+            writer.close();
+            String path = "file:" + repo.getAbsolutePath() + "/";
+            assertEquals(ImmutableSortedMap.copyOf(envelopePlugins).toString(),
+                         ImmutableSortedMap.copyOf(pluginAnalyzer.getEnvelopePlugins(path, true, null, null,
+                                                                                    envelopePlugins.keySet()))
+                             .toString());
+            // structs is not in the plugin list, but required by ant
+            Map<String, EnvelopePlugin> filtered = pluginAnalyzer.getEnvelopePlugins(path, true, null, null,
+                                                                                     filePlugins.keySet());
+            assertEquals(Arrays.asList("ant", "async-http-client", "structs"),
+                         new ArrayList<>(ImmutableSortedMap.copyOf(filtered).keySet()));
+            assertEquals(lines.toString(), pluginAnalyzer.analyzePlugins(filePlugins, filtered).toString());
+        } catch (Exception e) {
+            e.printStackTrace();
+            assertTrue("testStreamingEnvelopeReader", false);
+        }
+    }
+
+    @Test
+    public void testHistoryRecordsTheResolvedRelease() throws Exception {
+        Files.write(pluginsFile.toPath(), fileContent.getBytes("UTF-8"));
+        Files.write(envelopeFile.toPath(), envelopeContent.getBytes("UTF-8"));
+        Files.write(new File(repo, "com/cloudbees/jenkins/main/jenkins-enterprise-war/maven-metadata.xml").toPath(),
+                    ("<metadata><versioning><versions><version>2.89.4.2</version><version>2.107.3.4</version>"
+                     + "</versions></versioning></metadata>").getBytes("UTF-8"));
+        PluginAnalyzer latest = new PluginAnalyzer(pluginsFile.getAbsolutePath(), "cje", "latest")
+            .withOutputDirectory(pluginAnalyzer.getOutputDirectory())
+            .withCacheDirectory(pluginAnalyzer.getCacheDirectory())
+            .withHistory(true);
+        latest.proceedPluginsAnalysis("file:" + repo.getAbsolutePath() + "/", true, null, null);
+
+        List<HistoryStore.Record> records = new HistoryStore(latest.getHistoryDirectory())
+            .query(null, "ant", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(1, records.size());
+        assertEquals("2.107.3.4", records.get(0).getRelease());
+    }
+
     @Test
     public void testGetPluginsInformation() {
         assertEquals(lines.toString(),
@@ -124,8 +167,8 @@ public class PluginAnalyzerTest {
     public void testCsvFileCreation() {
         try {
             pluginAnalyzer.generateCsvFile(lines);
-            String content = new String(Files.readAllBytes(Paths.get(PluginAnalyzer.TARGET_FILE.getAbsolutePath(),
-                                                                "Analyzed-Plugins.csv")));
+            assertEquals(new File(folder.getRoot(), "target/Analyzed-Plugins.csv"), pluginAnalyzer.getCsvFile());
+            String content = new String(Files.readAllBytes(pluginAnalyzer.getCsvFile().toPath()));
             assertEquals(csvFileContent, content);
         } catch (IOException e) {
             e.printStackTrace();
@@ -133,6 +176,45 @@ public class PluginAnalyzerTest {
         }
     }
 
+    @Test
+    public void testStreamingCsvFileCreation() {
+        try {
+            File csvFile = folder.newFile("Streamed-Plugins.csv");
+            pluginAnalyzer.generateCsvFile(filePlugins, envelopePlugins, csvFile);
+            String content = new String(Files.readAllBytes(csvFile.toPath()), "UTF-8");
+            assertEquals(csvFileContent, content);
+            assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.endsWith(".part")).length);
+        } catch (IOException e) {
+            e.printStackTrace();
+            assertTrue("testStreamingCsvFileCreation", false);
+        }
+    }
+
+    @Test
+    public void testCsvEscaping() {
+        try {
+            envelopePlugins.put("active-directory", new EnvelopePlugin("active-directory",
+                                                                       "Active Directory, \"LDAP\" Plugin",
+                                                                       "org.jenkins-ci.plugins",
+                                                                       "active-directory",
+                                                                        new VersionNumber("2.4"),
+                                                                        new HashMap<>(),
+                                                                        new HashMap<>(),
+                                                                        new HashMap<>(),
+                                                                        Scope.FAT,
+                                                                       "9N0OyOFpNhMv1kD8vuSNH1S0QHo=",
+                                                                        PluginTier.VERIFIED));
+            File csvFile = folder.newFile("Escaped-Plugins.csv");
+            pluginAnalyzer.generateCsvFile(filePlugins, envelopePlugins, csvFile);
+            String content = new String(Files.readAllBytes(csvFile.toPath()), "UTF-8");
+            assertTrue(content.contains("active-directory,\"Active Directory, \"\"LDAP\"\" Plugin\",2.4,YES,2.4,"
+                                        + "VERIFIED,FAT,EXACT,0.0.0,0,0,\n"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            assertTrue("testCsvEscaping", false);
+        }
+    }
+
     // Keep it like this to debug accessing to remote repository
     // @Test
     public void testMain() {
@@ -223,20 +305,35 @@ public class PluginAnalyzerTest {
                                 "Envelope",
                                 "Version",
                                 "Type",
-                                "Scope"));
+                                "Scope",
+                                "Drift",
+                                "Distance",
+                                "Dependencies",
+                                "Non-envelope dependencies",
+                                "Missing dependencies"));
         lines.add(Arrays.asList("async-http-client",
                                 "Async Http Client",
                                 "1.7.24.1",
                                 "YES",
                                 "1.7.24.1",
                                 PluginTier.VERIFIED.toString(),
-                                Scope.BOOTSTRAP.toString()));
+                                Scope.BOOTSTRAP.toString(),
+                                "EXACT",
+                                "0.0.0",
+                                "0",
+                                "0",
+                                ""));
         lines.add(Arrays.asList("apache-httpcomponents-client-4-api",
                                 "",
                                 "4.5.3-2.0",
                                 "NO",
                                 "",
                                 "",
+                                "",
+                                "",
+                                "",
+                                "0",
+                                "0",
                                 ""));
         lines.add(Arrays.asList("ant",
                                 "Ant Plugin",
@@ -244,13 +341,23 @@ public class PluginAnalyzerTest {
                                 "YES",
                                 "1.8",
                                 PluginTier.VERIFIED.toString(),
-                                Scope.FAT.toString()));
+                                Scope.FAT.toString(),
+                                "OLDER",
+                                "0.4.0",
+                                "1",
+                                "0",
+                                "structs"));
         lines.add(Arrays.asList("active-directory",
                                 "",
                                 "2.4",
                                 "NO",
                                 "",
                                 "",
+                                "",
+                                "",
+                                "",
+                                "0",
+                                "0",
                                 ""));
     }
 
@@ -338,9 +445,10 @@ public class PluginAnalyzerTest {
         "    \"signature\": \"pC8rsmrjgvS4HcyfVa/6Luv9omnnO9fWJvyh35sWDfIFhFmevZn6fG3da9EYRjuUF6ZXD5et690Zta++jZXk1yMD2M1tS2zMv//sW/+MVrE5hqkwlbUS3nm0FYBkQHksG7Z0kV+ESmfgtpDnU9eCbjeiR4ilwxXSWoWxC7H+HSKqra8rnJH7clBWBmKNyicDa3/gvbtcAj4WHm2sQfc4ANEpfgtmVihxe9DDZaFb4TYQYRp69ABx7I41ZCMby994gunO4rpt8yzGqRqBiVdxYjtmnxJyO3HnXCL3u/0mVUKtsO3Xeqtew979Lq6o+JGXhfx93nhEgFZ9tSxZ+2DBdA==\"\n" +
         "  }\n" +
         "}";
-    final private String csvFileContent =   "Id,Name,Version,Envelope,Version,Type,Scope\n" +
-                                            "async-http-client,Async Http Client,1.7.24.1,YES,1.7.24.1,VERIFIED,BOOTSTRAP\n" +
-                                            "apache-httpcomponents-client-4-api,,4.5.3-2.0,NO,,,\n" +
-                                            "ant,Ant Plugin,1.4,YES,1.8,VERIFIED,FAT\n" +
-                                            "active-directory,,2.4,NO,,,\n";
+    final private String csvFileContent =   "Id,Name,Version,Envelope,Version,Type,Scope,Drift,Distance,Dependencies," +
+                                            "Non-envelope dependencies,Missing dependencies\n" +
+                                            "async-http-client,Async Http Client,1.7.24.1,YES,1.7.24.1,VERIFIED,BOOTSTRAP,EXACT,0.0.0,0,0,\n" +
+                                            "apache-httpcomponents-client-4-api,,4.5.3-2.0,NO,,,,,,0,0,\n" +
+                                            "ant,Ant Plugin,1.4,YES,1.8,VERIFIED,FAT,OLDER,0.4.0,1,0,structs\n" +
+                                            "active-directory,,2.4,NO,,,,,,0,0,\n";
 }
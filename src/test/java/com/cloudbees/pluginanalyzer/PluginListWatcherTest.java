@@ -0,0 +1,154 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import hudson.util.VersionNumber;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PluginListWatcherTest {
+
+    private File lists;
+    private PluginAnalyzer analyzer;
+    private Map<String, EnvelopePlugin> envelopePlugins;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        lists = folder.newFolder("lists");
+        analyzer = new PluginAnalyzer("cje", "2.107.3.4");
+        envelopePlugins = new HashMap<>();
+        Map<String, VersionNumber> dependencies = new HashMap<>();
+        dependencies.put("structs", new VersionNumber("1.10"));
+        envelopePlugins.put("ant", TestPlugins.plugin("ant", "1.8", dependencies));
+        envelopePlugins.put("structs", TestPlugins.plugin("structs", "1.10", new HashMap<>()));
+    }
+
+    @Test
+    public void testOnlyChangedPluginsAreAnalyzed() throws Exception {
+        writeList(new File(lists, "controller-a/active.txt"), "ant:1.4:not-pinned\ngit:3.0:not-pinned\n");
+        writeList(new File(lists, "controller-b.txt"), "ant:1.8:not-pinned\n");
+        try (PluginListWatcher watcher = new PluginListWatcher(analyzer, lists.toPath(), envelopePlugins, 10)) {
+            assertEquals(2, watcher.scan());
+            assertEquals(3, analyzer.getMetrics().getCounter(RunMetrics.ROWS));
+            assertEquals("structs", watcher.getRows(new File(lists, "controller-a/active.txt").toPath())
+                                           .get("ant").getMissingDependencies());
+
+            writeList(new File(lists, "controller-a/active.txt"),
+                      "ant:1.4:not-pinned\ngit:3.1:not-pinned\nstructs:1.9:not-pinned\n");
+            List<PluginListWatcher.Diff> diffs = watcher.refresh(Collections.singletonList(
+                new File(lists, "controller-a/active.txt").toPath()));
+            assertEquals(3, diffs.size());
+            assertEquals(Arrays.asList("ENVELOPE_STATUS_CHANGED", "controller-a", "ant", "1.4", "1.4", "OLDER",
+                                       "OLDER", ""),
+                         diffs.get(0).toList());
+            assertEquals(Arrays.asList("VERSION_CHANGED", "controller-a", "git", "3.0", "3.1", "", "", ""),
+                         diffs.get(1).toList());
+            assertEquals(Arrays.asList("ADDED", "controller-a", "structs", "", "1.9", "", "OLDER", ""),
+                         diffs.get(2).toList());
+            // the untouched list and the unchanged plugins were not analyzed again
+            assertEquals(6, analyzer.getMetrics().getCounter(RunMetrics.ROWS));
+
+            writeList(new File(lists, "controller-b.txt"), "ant:1.8:not-pinned\n");
+            assertTrue(watcher.refresh(Collections.singletonList(new File(lists, "controller-b.txt").toPath()))
+                              .isEmpty());
+            assertEquals(6, analyzer.getMetrics().getCounter(RunMetrics.ROWS));
+        }
+    }
+
+    @Test
+    public void testDeletedList() throws Exception {
+        writeList(new File(lists, "controller-b.txt"), "ant:1.8:not-pinned\nstructs:1.10:pinned\n");
+        try (PluginListWatcher watcher = new PluginListWatcher(analyzer, lists.toPath(), envelopePlugins, 10)) {
+            watcher.scan();
+            Files.delete(new File(lists, "controller-b.txt").toPath());
+            List<PluginListWatcher.Diff> diffs = watcher.refresh(Collections.singletonList(
+                new File(lists, "controller-b.txt").toPath()));
+            assertEquals(2, diffs.size());
+            assertEquals(PluginListWatcher.Diff.Kind.REMOVED, diffs.get(0).getKind());
+            assertEquals("ant", diffs.get(0).getId());
+            assertNull(diffs.get(0).getAfter());
+            assertNull(watcher.getRows(new File(lists, "controller-b.txt").toPath()));
+        }
+    }
+
+    @Test
+    public void testUnreadableListKeepsItsState() throws Exception {
+        writeList(new File(lists, "controller-b.txt"), "ant:1.8:not-pinned\n");
+        try (PluginListWatcher watcher = new PluginListWatcher(analyzer, lists.toPath(), envelopePlugins, 10)) {
+            watcher.scan();
+            // partially written line
+            writeList(new File(lists, "controller-b.txt"), "ant:1.8:not-pinned\nstructs");
+            assertTrue(watcher.refresh(Collections.singletonList(new File(lists, "controller-b.txt").toPath()))
+                              .isEmpty());
+            assertEquals(1, watcher.getRows(new File(lists, "controller-b.txt").toPath()).size());
+        }
+    }
+
+    @Test
+    public void testWatchBatchesBursts() throws Exception {
+        writeList(new File(lists, "controller-b.txt"), "ant:1.4:not-pinned\n");
+        final BlockingQueue<List<PluginListWatcher.Diff>> batches = new LinkedBlockingQueue<>();
+        final PluginListWatcher watcher = new PluginListWatcher(analyzer, lists.toPath(), envelopePlugins, 200);
+        watcher.scan();
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.watch(batches::add);
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        try {
+            for (int i = 5; i <= 8; i++) {
+                writeList(new File(lists, "controller-b.txt"), "ant:1." + i + ":not-pinned\n");
+            }
+            writeList(new File(lists, "controller-c/active.txt"), "structs:1.10:not-pinned\n");
+            List<PluginListWatcher.Diff> diffs = batches.poll(30, TimeUnit.SECONDS);
+            assertNotNull(diffs);
+            if (diffs.size() < 2) {
+                // the new list may come with the next batch
+                List<PluginListWatcher.Diff> next = batches.poll(30, TimeUnit.SECONDS);
+                assertNotNull(next);
+                diffs.addAll(next);
+            }
+            assertEquals(2, diffs.size());
+            assertEquals(Arrays.asList("VERSION_CHANGED", "controller-b", "ant", "1.4", "1.8", "OLDER", "EXACT",
+                                       "structs"),
+                         diffs.get(0).toList());
+            assertEquals(Arrays.asList("ADDED", "controller-c", "structs", "", "1.10", "", "EXACT", ""),
+                         diffs.get(1).toList());
+        } finally {
+            watcher.close();
+            thread.join(10000);
+        }
+    }
+
+    private static void writeList(File file, String content) throws IOException {
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Cannot create " + file.getParentFile());
+        }
+        Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+    }
+}
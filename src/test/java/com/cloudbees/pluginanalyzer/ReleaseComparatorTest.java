@@ -0,0 +1,133 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReleaseComparatorTest {
+
+    private static final String ENVELOPE_FIXTURE = "/jenkins-enterprise-war-2.107.3.4-envelope.json";
+    private static final long LOAD_MILLIS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, EnvelopePlugin> envelope(String antVersion) {
+        Map<String, EnvelopePlugin> plugins = new HashMap<>();
+        plugins.put("ant", TestPlugins.ant(antVersion));
+        return plugins;
+    }
+
+    @Test
+    public void testParseReleases() {
+        assertEquals(Arrays.asList("2.107.3.4", "2.121.3.1"),
+                     ReleaseComparator.parseReleases("2.107.3.4, 2.121.3.1,"));
+    }
+
+    @Test
+    public void testEnvelopesAreLoadedConcurrently() throws Exception {
+        List<String> releases = Arrays.asList("1.0", "1.1", "1.2", "1.3");
+        ReleaseComparator comparator = new ReleaseComparator("cje", releases, (product, productRelease) -> {
+            Thread.sleep(LOAD_MILLIS);
+            return envelope(productRelease);
+        });
+        long start = System.nanoTime();
+        Map<String, Map<String, EnvelopePlugin>> envelopes = comparator.loadEnvelopes();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+        assertEquals(releases, Arrays.asList(envelopes.keySet().toArray(new String[0])));
+        assertTrue("loads took " + elapsedMillis + " ms", elapsedMillis < LOAD_MILLIS * 2);
+    }
+
+    @Test
+    public void testWideReport() throws Exception {
+        Map<String, Map<String, EnvelopePlugin>> envelopes = new LinkedHashMap<>();
+        envelopes.put("1.0", new HashMap<>());
+        envelopes.put("1.1", envelope("1.8"));
+        Map<String, String> plugins = new HashMap<>();
+        plugins.put("ant", "1.4");
+        plugins.put("active-directory", "2.4");
+        File csvFile = new File(folder.getRoot(), "Compared-Plugins.csv");
+        new ReleaseComparator("cje", Arrays.asList("1.0", "1.1"), null).compare(plugins, envelopes, csvFile);
+        assertEquals("Id,Version,1.0 Envelope,1.0 Version,1.0 Type,1.0 Scope,"
+                     + "1.1 Envelope,1.1 Version,1.1 Type,1.1 Scope\n"
+                     + "active-directory,2.4,NO,,,,NO,,,\n"
+                     + "ant,1.4,NO,,,,YES,1.8,VERIFIED,FAT\n",
+                     new String(Files.readAllBytes(csvFile.toPath()), Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testFileRepository() throws Exception {
+        File repo = folder.newFolder(".m2");
+        for (String release : Arrays.asList("2.107.3.4", "2.107.3.5")) {
+            File releaseFolder = new File(repo, "com/cloudbees/jenkins/main/jenkins-enterprise-war/" + release);
+            assertTrue(releaseFolder.mkdirs());
+            try (InputStream fixture = getClass().getResourceAsStream(ENVELOPE_FIXTURE)) {
+                Files.copy(fixture, new File(releaseFolder, "jenkins-enterprise-war-" + release + "-envelope.json")
+                    .toPath());
+            }
+        }
+        final String repoUrl = "file:" + repo.getAbsolutePath() + "/";
+        ReleaseComparator comparator = new ReleaseComparator(
+            "cje", Arrays.asList("2.107.3.4", "2.107.3.5"),
+            (product, productRelease) -> new PluginAnalyzer(product.name(), productRelease)
+                .getEnvelopePlugins(repoUrl));
+        Map<String, Map<String, EnvelopePlugin>> envelopes = comparator.loadEnvelopes();
+        assertEquals(2, envelopes.size());
+        assertEquals(4, envelopes.get("2.107.3.5").size());
+        assertEquals("1.8", envelopes.get("2.107.3.4").get("ant").getVersionNumber().toString());
+    }
+
+    @Test
+    public void testResolveReleasesFromFileRepository() throws Exception {
+        File repo = folder.newFolder(".m2");
+        File artifactFolder = new File(repo, "com/cloudbees/jenkins/main/jenkins-enterprise-war");
+        assertTrue(artifactFolder.mkdirs());
+        StringBuilder metadata = new StringBuilder("<metadata><versioning><versions>");
+        for (String release : Arrays.asList("2.60.1", "2.107.1", "2.107.3.4", "2.121.1", "2.138.1")) {
+            metadata.append("<version>").append(release).append("</version>");
+        }
+        metadata.append("</versions></versioning></metadata>");
+        Files.write(new File(artifactFolder, "maven-metadata.xml").toPath(),
+                    metadata.toString().getBytes(Charset.forName("UTF-8")));
+        String repoUrl = "file:" + repo.getAbsolutePath() + "/";
+        ReleaseResolver resolver = new ReleaseResolver(folder.newFolder("cache"), ReleaseResolver.DEFAULT_TTL,
+                                                       new EnvelopeFetcher(null, null));
+        assertEquals(Arrays.asList("2.107.1", "2.107.3.4", "2.121.1", "2.138.1"),
+                     ReleaseComparator.resolveReleases("cje", "2.107.*, 2.107.3.4..2.121.1, latest", resolver,
+                                                       repoUrl));
+        assertEquals(Arrays.asList("2.60.1", "2.107.1", "2.99"),
+                     ReleaseComparator.resolveReleases("cje", "..2.107.1,2.99", resolver, repoUrl));
+        try {
+            ReleaseComparator.resolveReleases("cje", "2.150.*", resolver, repoUrl);
+            fail("2.150.* matches no release");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("2.150.*"));
+        }
+    }
+
+    @Test
+    public void testExactReleasesAreNotResolved() throws Exception {
+        // the repository does not exist, so it must not be read
+        String repoUrl = "file:" + new File(folder.getRoot(), "missing").getAbsolutePath() + "/";
+        ReleaseResolver resolver = new ReleaseResolver(folder.newFolder("cache"), ReleaseResolver.DEFAULT_TTL,
+                                                       new EnvelopeFetcher(null, null));
+        assertEquals(Arrays.asList("2.107.3.4", "2.121.3.1"),
+                     ReleaseComparator.resolveReleases("cje", "2.107.3.4,2.121.3.1,2.107.3.4", resolver, repoUrl));
+    }
+}
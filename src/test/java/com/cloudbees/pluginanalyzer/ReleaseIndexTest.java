@@ -0,0 +1,130 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import hudson.util.VersionNumber;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReleaseIndexTest {
+
+    // ant versions by release, "-" when the release does not ship it; 1.10 comes after a downgrade
+    private static final List<String> RELEASES = Arrays.asList("2.60.1", "2.60.2", "2.73.1", "2.73.2", "2.107.1",
+                                                               "2.107.3", "2.121.1");
+    private static final List<String> ANT = Arrays.asList("-", "1.4", "1.8", "1.6", "1.6", "-", "1.10");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, EnvelopePlugin> envelope(String release) {
+        Map<String, EnvelopePlugin> plugins = new HashMap<>();
+        plugins.put("active-directory", TestPlugins.plugin("active-directory", "2.4",
+            new VersionNumber(release).compareTo(new VersionNumber("2.73.1")) < 0 ? PluginTier.COMPATIBLE
+                                                                                : PluginTier.VERIFIED,
+            Scope.FAT));
+        String ant = ANT.get(RELEASES.indexOf(release));
+        if (!"-".equals(ant)) {
+            plugins.put("ant", TestPlugins.plugin("ant", ant, PluginTier.VERIFIED, Scope.FAT));
+        }
+        return plugins;
+    }
+
+    private ReleaseIndex update(File indexFile, List<String> releases, AtomicInteger loads) throws Exception {
+        return ReleaseIndex.update(indexFile, EnvelopeProduct.CJE, releases, (product, release) -> {
+            loads.incrementAndGet();
+            return envelope(release);
+        });
+    }
+
+    @Test
+    public void testFirstRelease() throws Exception {
+        ReleaseIndex index = update(new File(folder.getRoot(), "cje.idx"), RELEASES, new AtomicInteger());
+        assertEquals("2.60.1", index.getFirstRelease("active-directory"));
+        assertEquals("2.60.2", index.getFirstRelease("ant"));
+        assertEquals("2.60.2", index.getFirstRelease("ant", "1.2"));
+        assertEquals("2.73.1", index.getFirstRelease("ant", "1.5"));
+        assertEquals("2.73.1", index.getFirstRelease("ant", "1.8"));
+        assertEquals("2.121.1", index.getFirstRelease("ant", "1.9"));
+        assertNull(index.getFirstRelease("ant", "2.0"));
+        assertNull(index.getFirstRelease("git"));
+        assertNull(index.getFirstRelease("git", "1.0"));
+    }
+
+    @Test
+    public void testPluginAtRelease() throws Exception {
+        ReleaseIndex index = update(new File(folder.getRoot(), "cje.idx"), RELEASES, new AtomicInteger());
+        assertEquals(RELEASES, index.getReleases());
+        for (int i = 0; i < RELEASES.size(); i++) {
+            ReleaseIndex.Entry entry = index.get("ant", RELEASES.get(i));
+            assertEquals(ANT.get(i), entry == null ? "-" : entry.getVersion());
+        }
+        assertEquals("COMPATIBLE", index.get("active-directory", "2.60.2").getTier());
+        assertEquals("VERIFIED", index.get("active-directory", "2.73.1").getTier());
+        assertEquals("FAT", index.get("active-directory", "2.73.1").getScope());
+        assertNull(index.get("ant", "2.138.1"));
+    }
+
+    @Test
+    public void testTimelineOnlyHoldsChanges() throws Exception {
+        ReleaseIndex index = update(new File(folder.getRoot(), "cje.idx"), RELEASES, new AtomicInteger());
+        List<String> timeline = new ArrayList<>();
+        for (ReleaseIndex.Entry entry : index.getTimeline("ant")) {
+            timeline.add(entry.getRelease() + "=" + entry.getVersion());
+        }
+        assertEquals(Arrays.asList("2.60.2=1.4", "2.73.1=1.8", "2.73.2=1.6", "2.107.3=null", "2.121.1=1.10"),
+                     timeline);
+        assertEquals(2, index.getTimeline("active-directory").size());
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        File indexFile = new File(folder.getRoot(), "cje.idx");
+        AtomicInteger loads = new AtomicInteger();
+        // releases come in any order and are indexed in version order
+        update(indexFile, Arrays.asList("2.73.2", "2.60.1", "2.107.1", "2.60.2"), loads);
+        assertEquals(4, loads.get());
+
+        ReleaseIndex index = update(indexFile, RELEASES, loads);
+        assertEquals(7, loads.get());
+        assertEquals(RELEASES, index.getReleases());
+        assertEquals("2.73.1", index.getFirstRelease("ant", "1.8"));
+        assertEquals("1.6", index.get("ant", "2.107.1").getVersion());
+
+        index = update(indexFile, RELEASES, loads);
+        assertEquals(7, loads.get());
+        assertEquals(RELEASES, ReleaseIndex.open(indexFile).getReleases());
+        assertEquals("2.121.1", index.getFirstRelease("ant", "1.9"));
+    }
+
+    @Test
+    public void testFailedLoadsAreRetried() throws Exception {
+        File indexFile = new File(folder.getRoot(), "cje.idx");
+        ReleaseIndex index = ReleaseIndex.update(indexFile, EnvelopeProduct.CJE, RELEASES, (product, release) -> {
+            if ("2.73.1".equals(release)) {
+                throw new IllegalStateException("No envelope");
+            }
+            return envelope(release);
+        });
+        assertEquals(RELEASES.size() - 1, index.getReleases().size());
+        assertEquals("2.121.1", index.getFirstRelease("ant", "1.8"));
+
+        AtomicInteger loads = new AtomicInteger();
+        index = update(indexFile, RELEASES, loads);
+        assertEquals(1, loads.get());
+        assertEquals("2.73.1", index.getFirstRelease("ant", "1.8"));
+    }
+}
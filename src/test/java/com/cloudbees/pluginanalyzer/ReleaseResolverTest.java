@@ -0,0 +1,155 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopeProduct;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReleaseResolverTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String METADATA_PATH = "/com/cloudbees/jenkins/main/jenkins-enterprise-war/"
+                                                + "maven-metadata.xml";
+    private static final String METADATA = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<metadata>\n"
+        + "  <groupId>com.cloudbees.jenkins.main</groupId>\n"
+        + "  <artifactId>jenkins-enterprise-war</artifactId>\n"
+        + "  <version>2.107.3.4</version>\n"
+        + "  <versioning>\n"
+        + "    <latest>2.107.3.4</latest>\n"
+        + "    <release>2.107.3.4</release>\n"
+        + "    <versions>\n"
+        + "      <version>2.89.4.2</version>\n"
+        + "      <version>2.107.1.2</version>\n"
+        + "      <version>2.107.10.1</version>\n"
+        + "      <version>2.107.3.4</version>\n"
+        + "      <version>2.121.1.2</version>\n"
+        + "    </versions>\n"
+        + "  </versioning>\n"
+        + "</metadata>\n";
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(METADATA_PATH, exchange -> {
+            requests.incrementAndGet();
+            byte[] body = METADATA.getBytes(UTF8);
+            exchange.getResponseHeaders().add("ETag", "\"m1\"");
+            if ("\"m1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        // another repository, holding a later release
+        server.createContext("/mirror" + METADATA_PATH, exchange -> {
+            byte[] body = METADATA.replace("</versions>", "<version>2.138.1.1</version></versions>").getBytes(UTF8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    private String getServerUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @Test
+    public void testSelectors() {
+        assertTrue(ReleaseResolver.isSelector("latest"));
+        assertTrue(ReleaseResolver.isSelector("2.107.*"));
+        assertFalse(ReleaseResolver.isSelector("2.107.3.4"));
+    }
+
+    @Test
+    public void testParseAndSelect() throws Exception {
+        List<String> releases = ReleaseResolver.parseReleases(
+            new ByteArrayInputStream(METADATA.getBytes(UTF8)));
+        assertEquals(Arrays.asList("2.89.4.2", "2.107.1.2", "2.107.10.1", "2.107.3.4", "2.121.1.2"), releases);
+        assertEquals("2.121.1.2", ReleaseResolver.select(releases, "latest"));
+        assertEquals("2.107.10.1", ReleaseResolver.select(releases, "2.107.*"));
+        assertEquals("2.107.3.4", ReleaseResolver.select(releases, "2.107.3.*"));
+        assertNull(ReleaseResolver.select(releases, "2.138.*"));
+    }
+
+    @Test
+    public void testResolveFromFileRepository() throws Exception {
+        File repo = folder.newFolder(".m2");
+        File artifactFolder = new File(repo, "com/cloudbees/jenkins/main/jenkins-enterprise-war");
+        assertTrue(artifactFolder.mkdirs());
+        Files.write(new File(artifactFolder, "maven-metadata.xml").toPath(), METADATA.getBytes(UTF8));
+        ReleaseResolver resolver = new ReleaseResolver(folder.newFolder("cache"), ReleaseResolver.DEFAULT_TTL,
+                                                       new EnvelopeFetcher(null, null));
+        assertEquals("2.121.1.2", resolver.resolve("file:" + repo.getAbsolutePath() + "/", EnvelopeProduct.CJE,
+                                                   "latest"));
+        assertEquals("2.107.3.4", resolver.resolve("file:" + repo.getAbsolutePath() + "/", EnvelopeProduct.CJE,
+                                                   "2.107.3.4"));
+    }
+
+    @Test
+    public void testMetadataIsCachedForTheTimeToLive() throws Exception {
+        ReleaseResolver resolver = new ReleaseResolver(folder.newFolder("cache"), ReleaseResolver.DEFAULT_TTL,
+                                                       new EnvelopeFetcher(null, null));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("2.107.10.1", resolver.resolve(getServerUrl(), EnvelopeProduct.CJE, "2.107.*"));
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testMetadataIsCachedPerRepository() throws Exception {
+        ReleaseResolver resolver = new ReleaseResolver(folder.newFolder("cache"), ReleaseResolver.DEFAULT_TTL,
+                                                       new EnvelopeFetcher(null, null));
+        assertEquals("2.121.1.2", resolver.resolve(getServerUrl(), EnvelopeProduct.CJE, "latest"));
+        assertEquals("2.138.1.1", resolver.resolve(getServerUrl() + "mirror/", EnvelopeProduct.CJE, "latest"));
+        assertFalse(resolver.getCacheFile(getServerUrl(), EnvelopeProduct.CJE)
+                            .equals(resolver.getCacheFile(getServerUrl() + "mirror/", EnvelopeProduct.CJE)));
+        assertTrue(resolver.getCacheFile(getServerUrl() + "mirror/", EnvelopeProduct.CJE).exists());
+    }
+
+    @Test
+    public void testExpiredMetadataIsRevalidated() throws Exception {
+        ReleaseResolver resolver = new ReleaseResolver(folder.newFolder("cache"), 0,
+                                                       new EnvelopeFetcher(null, null));
+        assertEquals("2.121.1.2", resolver.resolve(getServerUrl(), EnvelopeProduct.CJE, "latest"));
+        // answered by a 304, served from the cached metadata
+        assertEquals("2.121.1.2", resolver.resolve(getServerUrl(), EnvelopeProduct.CJE, "latest"));
+        assertEquals(2, requests.get());
+    }
+}
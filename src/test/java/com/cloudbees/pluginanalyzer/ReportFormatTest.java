@@ -0,0 +1,202 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReportFormatTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private List<ReportRow> rows;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialization() {
+        EnvelopePlugin ant = TestPlugins.plugin("ant", "Ant \"Plugin\"", "1.8", PluginTier.VERIFIED, Scope.FAT,
+                                                new HashMap<>());
+        rows = Arrays.asList(new ReportRow("ant", "1.4", ant, 3, 1, "structs script-security"),
+                             new ReportRow("git", "3.0", null, 0, 0, ""),
+                             new ReportRow("ant", "1.8", ant, 3, 0, "structs"));
+    }
+
+    @Test
+    public void testFormatNames() {
+        assertEquals(ReportFormat.JSON_LINES, ReportFormat.of("jsonl"));
+        assertEquals(ReportFormat.BINARY, ReportFormat.of("Binary"));
+        assertEquals(ReportFormat.CSV, ReportFormat.getDefault());
+        assertEquals("Analyzed-Plugins.bin.gz", ReportFormat.BINARY.getFileName("Analyzed-Plugins", true));
+        try {
+            ReportFormat.of("xml");
+            fail("xml is not a report format");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("xml"));
+        }
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        StringWriter writer = new StringWriter();
+        try (JsonLinesReportSink sink = new JsonLinesReportSink(writer)) {
+            for (ReportRow row : rows.subList(0, 2)) {
+                sink.write(row);
+            }
+            sink.commit();
+        }
+        assertEquals("{\"id\":\"ant\",\"name\":\"Ant \\\"Plugin\\\"\",\"version\":\"1.4\",\"envelope\":true,"
+                     + "\"envelopeVersion\":\"1.8\",\"type\":\"" + PluginTier.VERIFIED + "\",\"scope\":\""
+                     + Scope.FAT + "\",\"drift\":\"OLDER\",\"distance\":[0,4,0],"
+                     + "\"dependencies\":3,\"nonEnvelopeDependencies\":1,"
+                     + "\"missingDependencies\":[\"structs\",\"script-security\"]}\n"
+                     + "{\"id\":\"git\",\"name\":null,\"version\":\"3.0\",\"envelope\":false,"
+                     + "\"envelopeVersion\":null,\"type\":null,\"scope\":null,\"drift\":null,\"distance\":null,"
+                     + "\"dependencies\":0,\"nonEnvelopeDependencies\":0,\"missingDependencies\":[]}\n",
+                     writer.toString());
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        for (boolean gzip : new boolean[] {false, true}) {
+            File reportFile = new File(folder.getRoot(), ReportFormat.BINARY.getFileName("report", gzip));
+            write(ReportFormat.BINARY, reportFile, gzip);
+            List<List<String>> read = new ArrayList<>();
+            try (BinaryReportReader reader = BinaryReportReader.open(reportFile)) {
+                for (List<String> row = reader.read(); row != null; row = reader.read()) {
+                    read.add(row);
+                }
+                assertNull(reader.read());
+                assertEquals(3, reader.getRows());
+            }
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(rows.get(i).toList(), read.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanCsv() throws Exception {
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        StringWriter csv = new StringWriter();
+        try (BinaryReportSink binarySink = new BinaryReportSink(binary);
+             CsvReportSink csvSink = new CsvReportSink(csv, false)) {
+            for (int i = 0; i < 100; i++) {
+                for (ReportRow row : rows) {
+                    binarySink.write(row);
+                    csvSink.write(row);
+                }
+            }
+            binarySink.commit();
+            csvSink.commit();
+        }
+        assertTrue(binary.size() * 4 < csv.toString().getBytes(UTF8).length);
+    }
+
+    @Test
+    public void testTruncatedBinaryReportFails() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BinaryReportSink sink = new BinaryReportSink(out)) {
+            sink.write(rows.get(0));
+            sink.write(rows.get(1));
+            sink.commit();
+        }
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 2);
+        try (BinaryReportReader reader = new BinaryReportReader(new ByteArrayInputStream(truncated))) {
+            assertEquals(rows.get(0).toList(), reader.read());
+            reader.read();
+            reader.read();
+            fail("the truncated report was read");
+        } catch (EOFException e) {
+            assertTrue(e.getMessage().contains("Truncated"));
+        }
+        try {
+            new BinaryReportReader(new ByteArrayInputStream("Id,Name\n".getBytes(UTF8))).close();
+            fail("a CSV report was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Not a binary report"));
+        }
+    }
+
+    @Test
+    public void testGzipCsvMatchesPlainCsv() throws Exception {
+        File plain = new File(folder.getRoot(), "report.csv");
+        File compressed = new File(folder.getRoot(), "report.csv.gz");
+        write(ReportFormat.CSV, plain, false);
+        write(ReportFormat.CSV, compressed, true);
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(new FileInputStream(compressed)), UTF8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        }
+        assertEquals(Files.readAllLines(plain.toPath(), UTF8), lines);
+        assertEquals(Collections.singletonList(plain.getName()), listParts(plain.getName()));
+    }
+
+    @Test
+    public void testFleetReportsInTheConfiguredFormat() throws Exception {
+        File lists = folder.newFolder("lists");
+        Files.write(new File(lists, "controller-a.txt").toPath(), "ant:1.4:not-pinned\n".getBytes(UTF8));
+        PluginAnalyzer analyzer = new PluginAnalyzer("cje", "2.107.3.4")
+            .withOutputDirectory(folder.newFolder("output"))
+            .withCacheDirectory(folder.newFolder("cache"))
+            .withReportFormat(ReportFormat.JSON_LINES, true);
+        FleetAnalyzer fleetAnalyzer = new FleetAnalyzer(analyzer, new File(analyzer.getOutputDirectory(), "fleet"), 1);
+        fleetAnalyzer.analyze(FleetAnalyzer.listPluginFiles(lists.toPath()),
+                              Collections.singletonMap("ant", rows.get(0).getEnvelopePlugin()));
+        File reportFile = fleetAnalyzer.getReportFile("controller-a");
+        assertEquals("controller-a-Analyzed-Plugins.jsonl.gz", reportFile.getName());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(new FileInputStream(reportFile)), UTF8))) {
+            assertTrue(reader.readLine().startsWith("{\"id\":\"ant\""));
+            assertNull(reader.readLine());
+        }
+    }
+
+    private void write(ReportFormat format, File reportFile, boolean gzip) throws IOException {
+        try (ReportSink sink = format.open(reportFile, gzip)) {
+            for (ReportRow row : rows) {
+                sink.write(row);
+            }
+            sink.commit();
+        }
+    }
+
+    private List<String> listParts(String prefix) {
+        List<String> names = new ArrayList<>();
+        for (String name : folder.getRoot().list()) {
+            if (name.startsWith(prefix) && !name.endsWith(".gz")) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,58 @@
+package com.cloudbees.pluginanalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RunMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStagesAndCounters() throws InterruptedException {
+        RunMetrics metrics = new RunMetrics();
+        for (int i = 0; i < 2; i++) {
+            try (RunMetrics.Timer timer = metrics.time("getFilePlugins")) {
+                Thread.sleep(5);
+            }
+        }
+        metrics.count(RunMetrics.PLUGINS, 227);
+        metrics.count(RunMetrics.PLUGINS, 3);
+        assertEquals(2, metrics.getStage("getFilePlugins").getCount());
+        assertTrue(metrics.getStage("getFilePlugins").getWallNanos() >= 10_000_000L);
+        assertNull(metrics.getStage("writeReport"));
+        assertEquals(230, metrics.getCounter(RunMetrics.PLUGINS));
+        assertEquals(0, metrics.getCounter(RunMetrics.ROWS));
+    }
+
+    @Test
+    public void testExportNextToTheReport() throws Exception {
+        RunMetrics metrics = new RunMetrics();
+        try (RunMetrics.Timer timer = metrics.time("writeReport")) {
+            metrics.count(RunMetrics.ROWS, 4);
+        }
+        metrics.export(new File(folder.getRoot(), "Analyzed-Plugins.csv"));
+        String json = read(new File(folder.getRoot(), "Analyzed-Plugins-metrics.json"));
+        assertTrue(json.contains("\"writeReport\""));
+        assertTrue(json.contains("\"rows\":4"));
+        assertTrue(json.contains("\"heapPeakBytes\""));
+        String prometheus = read(new File(folder.getRoot(), "Analyzed-Plugins-metrics.prom"));
+        assertTrue(prometheus.contains("plugin_analyzer_stage_wall_seconds{stage=\"writeReport\"} "));
+        assertTrue(prometheus.contains("plugin_analyzer_stage_cpu_seconds{stage=\"writeReport\"} "));
+        assertTrue(prometheus.contains("# TYPE plugin_analyzer_rows_total counter\nplugin_analyzer_rows_total 4\n"));
+        assertTrue(prometheus.contains("plugin_analyzer_heap_peak_bytes "));
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.cloudbees.pluginanalyzer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsAreMerged() throws Exception {
+        final SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("key", () -> {
+                    calls.incrementAndGet();
+                    release.await(10, TimeUnit.SECONDS);
+                    return new Object();
+                })));
+            }
+            while (singleFlight.size() == 0) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(100);
+            release.countDown();
+            Object first = results.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<Object> result : results) {
+                assertSame(first, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void testFailureIsNotKept() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        try {
+            singleFlight.execute("key", () -> {
+                throw new IOException("unreachable");
+            });
+            fail("The failure should be rethrown");
+        } catch (IOException e) {
+            assertEquals("unreachable", e.getMessage());
+        }
+        assertEquals("loaded", singleFlight.execute("key", () -> "loaded"));
+        assertEquals(0, singleFlight.size());
+    }
+}
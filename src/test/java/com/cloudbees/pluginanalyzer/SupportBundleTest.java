@@ -0,0 +1,103 @@
+package com.cloudbees.pluginanalyzer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SupportBundleTest {
+
+    static final String ABOUT = "Jenkins\n=======\n\nVersion details\n---------------\n\n"
+                                + "  * Version: `2.107.3`\n  * Instance ID: `%s`\n  * Mode:    WAR\n";
+    private static final String PLUGIN_LIST = "ant:1.4:not-pinned\n\nactive-directory:2.4:pinned\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadNestedBundle() throws IOException {
+        File bundle = new File(folder.getRoot(), "support_2018-09-12.zip");
+        // the plugin list comes before about.md: both must be found in a single pass
+        writeBundle(bundle, "support/", PLUGIN_LIST, String.format(ABOUT, "4b8e9ffb0a5d0b6c"));
+        SupportBundle supportBundle = SupportBundle.read(bundle.toPath());
+        assertEquals("4b8e9ffb0a5d0b6c", supportBundle.getController());
+        assertEquals(expectedPlugins(), supportBundle.getPlugins());
+        assertEquals(Collections.singleton("active-directory"), supportBundle.getPinned());
+    }
+
+    @Test
+    public void testBundleWithoutInstanceId() throws IOException {
+        File bundle = new File(folder.getRoot(), "controller-a.zip");
+        writeBundle(bundle, "", PLUGIN_LIST, null);
+        SupportBundle supportBundle = SupportBundle.read(bundle.toPath());
+        assertEquals("controller-a", supportBundle.getController());
+        assertEquals(expectedPlugins(), PluginAnalyzer.getFilePlugins(bundle.toPath()));
+    }
+
+    @Test
+    public void testBundleWithoutPluginList() throws IOException {
+        File bundle = new File(folder.getRoot(), "empty.zip");
+        writeBundle(bundle, "", null, String.format(ABOUT, "4b8e9ffb0a5d0b6c"));
+        try {
+            SupportBundle.read(bundle.toPath());
+            fail("A bundle without plugin list should be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("plugins/active.txt"));
+        }
+    }
+
+    @Test
+    public void testOtherPluginListsAreIgnored() throws IOException {
+        File bundle = new File(folder.getRoot(), "controller-b.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(bundle))) {
+            addEntry(zip, "plugins/disabled.txt", "ant:1.2:not-pinned\n");
+            addEntry(zip, "support/nested/plugins/active.txt", "ant:1.3:not-pinned\n");
+            addEntry(zip, "plugins/active.txt", PLUGIN_LIST);
+        }
+        assertEquals(expectedPlugins(), SupportBundle.read(bundle.toPath()).getPlugins());
+    }
+
+    /**
+     * Writes a support bundle holding some padding, a plugin list and an {@code about.md}, any of them being
+     * optional.
+     */
+    static void writeBundle(File bundle, String root, String pluginList, String about) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(bundle))) {
+            zip.putNextEntry(new ZipEntry(root + "nodes/"));
+            zip.closeEntry();
+            addEntry(zip, root + "nodes.md", "Node list\n");
+            if (pluginList != null) {
+                addEntry(zip, root + "plugins/active.txt", pluginList);
+            }
+            if (about != null) {
+                addEntry(zip, root + "about.md", about);
+            }
+        }
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(Charset.forName("UTF-8")));
+        zip.closeEntry();
+    }
+
+    private static Map<String, String> expectedPlugins() {
+        Map<String, String> plugins = new HashMap<>();
+        plugins.put("ant", "1.4");
+        plugins.put("active-directory", "2.4");
+        return plugins;
+    }
+}
@@ -0,0 +1,69 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import com.cloudbees.jenkins.plugins.updates.envelope.PluginTier;
+import com.cloudbees.jenkins.plugins.updates.envelope.Scope;
+import hudson.util.VersionNumber;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Envelope plugins shared by the tests.
+ */
+final class TestPlugins {
+
+    static final String SHA1 = "xwEeOLr2K9b3Vu5TvSI1jQYpMjE=";
+
+    private TestPlugins() {
+    }
+
+    /**
+     * @return the verified Ant Plugin, in the fat scope and without dependencies
+     */
+    static EnvelopePlugin ant(String version) {
+        return plugin("ant", "Ant Plugin", version, PluginTier.VERIFIED, Scope.FAT, new HashMap<>());
+    }
+
+    /**
+     * @return a verified plugin in the fat scope, named after its id
+     */
+    static EnvelopePlugin plugin(String id, String version, Map<String, VersionNumber> dependencies) {
+        return plugin(id, id, version, PluginTier.VERIFIED, Scope.FAT, dependencies);
+    }
+
+    /**
+     * @param dependencies required dependencies, as id and version pairs
+     * @return a verified plugin in the fat scope, named after its id
+     */
+    static EnvelopePlugin plugin(String id, String version, String... dependencies) {
+        return plugin(id, version, PluginTier.VERIFIED, Scope.FAT, dependencies);
+    }
+
+    /**
+     * @param dependencies required dependencies, as id and version pairs
+     * @return a plugin named after its id
+     */
+    static EnvelopePlugin plugin(String id, String version, PluginTier tier, Scope scope, String... dependencies) {
+        Map<String, VersionNumber> required = new HashMap<>();
+        for (int i = 0; i < dependencies.length; i += 2) {
+            required.put(dependencies[i], new VersionNumber(dependencies[i + 1]));
+        }
+        return plugin(id, id, version, tier, scope, required);
+    }
+
+    static EnvelopePlugin plugin(String id, String name, String version, PluginTier tier, Scope scope,
+                                 Map<String, VersionNumber> dependencies) {
+        return new EnvelopePlugin(id,
+                                  name,
+                                  "org.jenkins-ci.plugins",
+                                  id,
+                                  new VersionNumber(version),
+                                  dependencies,
+                                  new HashMap<>(),
+                                  new HashMap<>(),
+                                  scope,
+                                  SHA1,
+                                  tier);
+    }
+}
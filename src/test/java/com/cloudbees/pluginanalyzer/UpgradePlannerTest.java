@@ -0,0 +1,80 @@
+package com.cloudbees.pluginanalyzer;
+
+import com.cloudbees.jenkins.plugins.updates.envelope.EnvelopePlugin;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.cloudbees.pluginanalyzer.TestPlugins.plugin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpgradePlannerTest {
+
+    private Map<String, EnvelopePlugin> envelopePlugins;
+
+    @Before
+    public void initialization() {
+        envelopePlugins = new HashMap<>();
+        envelopePlugins.put("pipeline", plugin("pipeline", "2.5", "workflow-api", "2.20", "scm-api", "2.2"));
+        envelopePlugins.put("workflow-api", plugin("workflow-api", "2.22", "structs", "1.10", "scm-api", "2.0"));
+        envelopePlugins.put("structs", plugin("structs", "1.14"));
+        envelopePlugins.put("scm-api", plugin("scm-api", "2.2.6"));
+        // depends on a plugin outside of the envelope
+        envelopePlugins.put("git", plugin("git", "3.9", "jsch", "0.1.54"));
+    }
+
+    @Test
+    public void testPlan() {
+        Map<String, String> plugins = new HashMap<>();
+        plugins.put("pipeline", "2.4");
+        plugins.put("workflow-api", "2.22");
+        plugins.put("scm-api", "2.1");
+        plugins.put("git", "3.9");
+        plugins.put("jsch", "0.1.50");
+        plugins.put("custom", "1.0");
+        UpgradePlanner.Plan plan = new UpgradePlanner(envelopePlugins).plan("controller-a", plugins);
+        assertEquals(Arrays.asList(
+            Arrays.asList("controller-a", "1", "jsch", "UPGRADE", "0.1.50", "0.1.54", "git"),
+            Arrays.asList("controller-a", "2", "scm-api", "UPGRADE", "2.1", "2.2.6", "pipeline"),
+            Arrays.asList("controller-a", "3", "structs", "INSTALL", "", "1.14", "pipeline"),
+            Arrays.asList("controller-a", "4", "pipeline", "UPGRADE", "2.4", "2.5", "")),
+                     plan.toLines());
+    }
+
+    @Test
+    public void testAlignedControllerHasNoStep() {
+        Map<String, String> plugins = new HashMap<>();
+        plugins.put("workflow-api", "2.23");
+        plugins.put("structs", "1.14");
+        plugins.put("scm-api", "2.2.6");
+        assertTrue(new UpgradePlanner(envelopePlugins).plan("controller-a", plugins).getSteps().isEmpty());
+    }
+
+    @Test
+    public void testClosuresAreSharedAcrossControllers() {
+        UpgradePlanner planner = new UpgradePlanner(envelopePlugins);
+        for (int i = 0; i < 100; i++) {
+            Map<String, String> plugins = new HashMap<>();
+            plugins.put("pipeline", "2." + (i % 5));
+            plugins.put(i % 2 == 0 ? "git" : "structs", "1.0");
+            planner.plan("controller-" + i, plugins);
+        }
+        assertEquals(3, planner.getComputedClosures());
+        assertEquals(3, planner.getRequirements("pipeline").size());
+    }
+
+    @Test
+    public void testDependencyCycle() {
+        envelopePlugins.put("a", plugin("a", "2.0", "b", "2.0"));
+        envelopePlugins.put("b", plugin("b", "2.0", "a", "1.5"));
+        Map<String, String> plugins = new HashMap<>();
+        plugins.put("a", "1.0");
+        UpgradePlanner.Plan plan = new UpgradePlanner(envelopePlugins).plan("controller-a", plugins);
+        assertEquals("[UPGRADE a 1.0 -> 2.0, INSTALL b 2.0]", plan.getSteps().toString());
+        assertEquals("a", plan.getSteps().get(0).getRequiredBy());
+    }
+}
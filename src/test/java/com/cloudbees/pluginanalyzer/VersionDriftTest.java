@@ -0,0 +1,44 @@
+package com.cloudbees.pluginanalyzer;
+
+import hudson.util.VersionNumber;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class VersionDriftTest {
+
+    @Test
+    public void testDrift() {
+        VersionDrift drift = VersionDrift.of(new VersionNumber("1.4"), new VersionNumber("1.8"));
+        assertEquals(VersionDrift.Kind.OLDER, drift.getKind());
+        assertEquals("0.4.0", drift.getDistance());
+        drift = VersionDrift.of(new VersionNumber("2.1.3"), new VersionNumber("1.8"));
+        assertEquals(VersionDrift.Kind.AHEAD, drift.getKind());
+        assertEquals("1.7.3", drift.getDistance());
+        drift = VersionDrift.of(new VersionNumber("1.7.24.1"), new VersionNumber("1.7.24.1"));
+        assertEquals(VersionDrift.Kind.EXACT, drift.getKind());
+        assertEquals("0.0.0", drift.getDistance());
+    }
+
+    @Test
+    public void testComponents() {
+        assertArrayEquals(new int[] {4, 5, 3}, VersionDrift.components("4.5.3-2.0"));
+        assertArrayEquals(new int[] {1, 0, 0}, VersionDrift.components("1.x"));
+        assertArrayEquals(new int[] {0, 0, 0}, VersionDrift.components("snapshot"));
+        assertArrayEquals(new int[] {Integer.MAX_VALUE, 0, 0}, VersionDrift.components("20180101123456"));
+    }
+
+    @Test
+    public void testInterner() {
+        VersionInterner interner = new VersionInterner(2);
+        VersionNumber version = interner.intern("1.4");
+        assertSame(version, interner.intern("1.4"));
+        interner.intern("1.5");
+        // full: parsed but not cached
+        assertNotSame(interner.intern("1.6"), interner.intern("1.6"));
+        assertEquals(2, interner.size());
+    }
+}